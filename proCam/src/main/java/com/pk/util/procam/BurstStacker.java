@@ -0,0 +1,360 @@
+package com.pk.util.procam;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Merges a burst of NV21 frames of the same scene into one with less noise, for low light pictures.
+ * <p>
+ * The first frame added is the reference. Each following frame is aligned to it tile by tile with a
+ * {@link FrameAligner} and added to running per-pixel sums right away, so the frame can go back to the
+ * camera and memory does not grow with the length of the burst: the reference, the sums and the
+ * counts take about 4.3 frames whatever the number of frames merged. A pixel of a frame only counts
+ * if it is within {@link #getRejectThreshold()} of the reference, so what moved between frames, or did
+ * not align, keeps the reference's value instead of leaving ghosts. Averaging n frames divides the
+ * noise by up to the square root of n. Tile rows are merged in parallel on the pool.
+ * <p>
+ * Plain Java, so merging is tested and benchmarked without a device. Not thread safe: frames are added
+ * from one thread at a time.
+ */
+public class BurstStacker {
+
+	/** The most frames merged, so the per-pixel sums fit in 16 bits. */
+	public static final int MAX_FRAMES = 255;
+
+	/** The lowest automatic reject threshold, so that clean frames are not rejected for rounding. */
+	public static final int MIN_REJECT_THRESHOLD = 6;
+
+	/** The highest automatic reject threshold, so that textured scenes still reject motion. */
+	public static final int MAX_REJECT_THRESHOLD = 64;
+
+	/** The frame width. */
+	private final int mWidth;
+
+	/** The frame height. */
+	private final int mHeight;
+
+	/** The size of an NV21 frame in bytes. */
+	private final int mFrameSize;
+
+	/** The pool, null to run on the calling thread. */
+	private final ForkJoinPool mPool;
+
+	/** The aligner. */
+	private final FrameAligner mAligner;
+
+	/** A copy of the reference frame, null until the first frame. */
+	private byte[] mReference;
+
+	/** The per-pixel sums of the samples kept. */
+	private char[] mSums;
+
+	/** The per-pixel number of samples kept, unsigned. */
+	private byte[] mCounts;
+
+	/** The displacements of the last frame aligned. */
+	private int[] mDisplacements;
+
+	/** The samples rejected per tile row for the last frame. */
+	private final long[] mRowRejected;
+
+	/** The samples rejected and compared over all frames. */
+	private long mRejected, mCompared;
+
+	/** The reject threshold, -1 to estimate it from the reference. */
+	private int mRejectThreshold = -1;
+
+	/** The number of frames merged, the reference included. */
+	private int mFrames;
+
+	/**
+	 * Instantiates a new burst stacker.
+	 *
+	 * @param width the frame width, even
+	 * @param height the frame height, even
+	 * @param pool the pool tile rows are aligned and merged on, null to run on the calling thread
+	 */
+	public BurstStacker(int width, int height, ForkJoinPool pool) {
+		if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+			throw new IllegalArgumentException("NV21 frame size " + width + "x" + height);
+		}
+		mWidth = width;
+		mHeight = height;
+		mFrameSize = width * height * 3 / 2;
+		mPool = pool;
+		mAligner = new FrameAligner(width, height, pool);
+		mRowRejected = new long[mAligner.getTilesY()];
+	}
+
+	/**
+	 * Sets how far a pixel of a frame may be from the reference to be merged. By default it is estimated
+	 * from the noise of the reference.
+	 *
+	 * @param threshold the threshold in 8 bit levels, or -1 to estimate it
+	 * @return the burst stacker
+	 */
+	public BurstStacker setRejectThreshold(int threshold) {
+		mRejectThreshold = threshold;
+		return this;
+	}
+
+	/**
+	 * Adds a frame. The first one is copied as the reference; the others are only read during the call.
+	 *
+	 * @param nv21 the frame
+	 * @return true, if merged; false once {@link #MAX_FRAMES} have been
+	 */
+	public boolean addFrame(byte[] nv21) {
+		if (nv21.length < mFrameSize) {
+			throw new IllegalArgumentException("Frame of " + nv21.length + " bytes, expected " + mFrameSize);
+		}
+		if (mFrames >= MAX_FRAMES) {
+			return false;
+		}
+		if (mReference == null) {
+			setReference(nv21);
+		} else {
+			mDisplacements = mAligner.align(nv21, mDisplacements);
+			accumulate(nv21);
+		}
+		mFrames++;
+		return true;
+	}
+
+	/**
+	 * Gets the merged frame.
+	 *
+	 * @param out the array to write it to, or null to allocate one
+	 * @return the merged NV21 frame
+	 */
+	public byte[] getResult(byte[] out) {
+		if (mReference == null) {
+			throw new IllegalStateException("No frame added");
+		}
+		if (out == null || out.length < mFrameSize) {
+			out = new byte[mFrameSize];
+		}
+		final byte[] result = out;
+		final int rows = mHeight * 3 / 2;
+		RowTask.run(mPool, rows, new RowTask.Body() {
+			@Override
+			public void run(int from, int to) {
+				for (int i = from * mWidth; i < to * mWidth; i++) {
+					int count = mCounts[i] & 0xFF;
+					result[i] = (byte) ((mSums[i] + count / 2) / count);
+				}
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Gets the number of frames merged.
+	 *
+	 * @return the frame count, the reference included
+	 */
+	public int getFrameCount() {
+		return mFrames;
+	}
+
+	/**
+	 * Gets the reject threshold in use.
+	 *
+	 * @return the threshold, -1 until the reference is known if estimated
+	 */
+	public int getRejectThreshold() {
+		return mRejectThreshold;
+	}
+
+	/**
+	 * Gets the share of the pixels of the frames after the reference that were left out for being too
+	 * far from it: high when the scene moved or frames did not align.
+	 *
+	 * @return the rejected fraction, 0 to 1
+	 */
+	public double getRejectedFraction() {
+		return mCompared > 0 ? (double) mRejected / mCompared : 0;
+	}
+
+	/**
+	 * Gets the displacements found for the last frame, see {@link FrameAligner#align(byte[], int[])}.
+	 *
+	 * @return the displacements, null before the second frame
+	 */
+	public int[] getDisplacements() {
+		return mDisplacements;
+	}
+
+	/**
+	 * Gets the aligner.
+	 *
+	 * @return the aligner
+	 */
+	public FrameAligner getAligner() {
+		return mAligner;
+	}
+
+	private void setReference(byte[] nv21) {
+		mReference = Arrays.copyOf(nv21, mFrameSize);
+		mSums = new char[mFrameSize];
+		mCounts = new byte[mFrameSize];
+		for (int i = 0; i < mFrameSize; i++) {
+			mSums[i] = (char) (mReference[i] & 0xFF);
+		}
+		Arrays.fill(mCounts, (byte) 1);
+		mAligner.setReference(mReference);
+		if (mRejectThreshold < 0) {
+			mRejectThreshold = estimateRejectThreshold(mReference, mWidth, mHeight);
+		}
+	}
+
+	/**
+	 * Adds the samples of an aligned frame that are close enough to the reference.
+	 */
+	private void accumulate(final byte[] frame) {
+		final int threshold = mRejectThreshold;
+		Arrays.fill(mRowRejected, 0);
+		RowTask.run(mPool, mAligner.getTilesY(), new RowTask.Body() {
+			@Override
+			public void run(int from, int to) {
+				for (int ty = from; ty < to; ty++) {
+					long rejected = 0;
+					for (int tx = 0; tx < mAligner.getTilesX(); tx++) {
+						rejected += accumulateTile(frame, tx, ty, threshold);
+					}
+					mRowRejected[ty] = rejected;
+				}
+			}
+		});
+		for (long rejected : mRowRejected) {
+			mRejected += rejected;
+		}
+		mCompared += mFrameSize;
+	}
+
+	private int accumulateTile(byte[] frame, int tx, int ty, int threshold) {
+		int index = (ty * mAligner.getTilesX() + tx) * 2;
+		int dx = mDisplacements[index];
+		int dy = mDisplacements[index + 1];
+		int x0 = tx * FrameAligner.TILE_SIZE, x1 = Math.min(mWidth, x0 + FrameAligner.TILE_SIZE);
+		int y0 = ty * FrameAligner.TILE_SIZE, y1 = Math.min(mHeight, y0 + FrameAligner.TILE_SIZE);
+		int rejected = 0;
+		for (int y = y0; y < y1; y++) {
+			int row = y * mWidth;
+			int frameRow = FrameAligner.clamp(y + dy, mHeight) * mWidth;
+			for (int x = x0; x < x1; x++) {
+				rejected += merge(row + x, frame[frameRow + FrameAligner.clamp(x + dx, mWidth)], threshold);
+			}
+		}
+		// The interleaved V and U at half size move by half as much.
+		int chroma = mWidth * mHeight;
+		int chromaWidth = mWidth / 2, chromaHeight = mHeight / 2;
+		int cdx = dx >> 1, cdy = dy >> 1;
+		for (int cy = y0 / 2; cy < y1 / 2; cy++) {
+			int row = chroma + cy * mWidth;
+			int frameRow = chroma + FrameAligner.clamp(cy + cdy, chromaHeight) * mWidth;
+			for (int cx = x0 / 2; cx < x1 / 2; cx++) {
+				int frameIndex = frameRow + FrameAligner.clamp(cx + cdx, chromaWidth) * 2;
+				rejected += merge(row + cx * 2, frame[frameIndex], threshold);
+				rejected += merge(row + cx * 2 + 1, frame[frameIndex + 1], threshold);
+			}
+		}
+		return rejected;
+	}
+
+	/**
+	 * Adds a sample to a pixel if close enough to the reference.
+	 *
+	 * @return 1 if rejected, 0 if merged
+	 */
+	private int merge(int i, byte sample, int threshold) {
+		int value = sample & 0xFF;
+		int d = value - (mReference[i] & 0xFF);
+		if (d > threshold || d < -threshold) {
+			return 1;
+		}
+		mSums[i] += value;
+		mCounts[i]++;
+		return 0;
+	}
+
+	/**
+	 * Estimates a reject threshold from the noise of a frame: 3 standard deviations of the difference of
+	 * two noisy samples, the deviation taken from the median difference of horizontal neighbours.
+	 *
+	 * @param nv21 the frame
+	 * @param width the width
+	 * @param height the height
+	 * @return the threshold, between {@link #MIN_REJECT_THRESHOLD} and {@link #MAX_REJECT_THRESHOLD}
+	 */
+	static int estimateRejectThreshold(byte[] nv21, int width, int height) {
+		int[] histogram = new int[256];
+		int samples = 0;
+		for (int y = 0; y < height; y += 4) {
+			int row = y * width;
+			for (int x = 0; x + 1 < width; x += 2) {
+				histogram[Math.abs((nv21[row + x] & 0xFF) - (nv21[row + x + 1] & 0xFF))]++;
+				samples++;
+			}
+		}
+		int median = 0;
+		for (int seen = 0; median < 255; median++) {
+			seen += histogram[median];
+			if (seen * 2 >= samples) {
+				break;
+			}
+		}
+		// sigma = 1.4826 * median / sqrt(2), and the difference of two samples has sqrt(2) sigma.
+		int threshold = (int) Math.round(3 * 1.4826 * median);
+		return Math.max(MIN_REJECT_THRESHOLD, Math.min(MAX_REJECT_THRESHOLD, threshold));
+	}
+
+	/**
+	 * Rotates an NV21 frame clockwise.
+	 *
+	 * @param nv21 the frame
+	 * @param width the width
+	 * @param height the height
+	 * @param degrees 0, 90, 180 or 270
+	 * @return the rotated frame, width and height swapped for 90 and 270; the frame itself for 0
+	 */
+	public static byte[] rotate(byte[] nv21, int width, int height, int degrees) {
+		degrees = ((degrees % 360) + 360) % 360;
+		if (degrees % 90 != 0) {
+			throw new IllegalArgumentException("Rotation " + degrees);
+		}
+		if (degrees == 0) {
+			return nv21;
+		}
+		byte[] out = new byte[width * height * 3 / 2];
+		boolean swap = degrees != 180;
+		int outWidth = swap ? height : width;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				out[rotatedIndex(x, y, width, height, outWidth, degrees)] = nv21[y * width + x];
+			}
+		}
+		int chroma = width * height;
+		int chromaWidth = width / 2, chromaHeight = height / 2;
+		for (int y = 0; y < chromaHeight; y++) {
+			for (int x = 0; x < chromaWidth; x++) {
+				int to = chroma + rotatedIndex(x, y, chromaWidth, chromaHeight, outWidth / 2, degrees) * 2;
+				int from = chroma + y * width + x * 2;
+				out[to] = nv21[from];
+				out[to + 1] = nv21[from + 1];
+			}
+		}
+		return out;
+	}
+
+	private static int rotatedIndex(int x, int y, int width, int height, int outWidth, int degrees) {
+		switch (degrees) {
+		case 90:
+			return x * outWidth + (height - 1 - y);
+		case 180:
+			return (height - 1 - y) * outWidth + (width - 1 - x);
+		default:
+			return (width - 1 - x) * outWidth + y;
+		}
+	}
+}
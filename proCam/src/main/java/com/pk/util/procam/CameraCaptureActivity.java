@@ -1,6 +1,7 @@
 package com.pk.util.procam;
 
 import java.io.File;
+import java.io.IOException;
 
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
@@ -10,7 +11,6 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.CountDownTimer;
 import android.os.Environment;
-import android.util.Log;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
@@ -28,7 +28,7 @@ import com.pk.util.procam.CameraHandler.VideoProperties;
 /**
  * The Class CameraCaptureActivity.
  */
-public class CameraCaptureActivity extends Activity implements CameraCallback {
+public class CameraCaptureActivity extends Activity implements VideoCaptureCallback {
 
 	private final String TAG = getClass().getSimpleName();
 
@@ -53,6 +53,7 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 	public static String CAMERA_CAPTURE_VIDEO_ACTION = "com.pk.utils.procam.CameraCaptureActivity.CAPTURE_VIDEO";
 
 	private CameraHandler mCameraHandler;
+	private VideoProperties mVideoProperties;
 	private Button mBtnCapture;
 	private Button mBtnSave;
 	private Button mBtnDiscard;
@@ -76,7 +77,15 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 		requestWindowFeature(Window.FEATURE_NO_TITLE);
 		setContentView(R.layout.camera_preview);
 
-		Log.i(TAG, "onCreate");
+		LogUtil.i(TAG, "onCreate");
+
+		if (!PerfEventLog.INSTANCE.isOpen()) {
+			try {
+				PerfEventLog.INSTANCE.open(new File(getFilesDir(), "procam_perf.log"), PerfEventLog.DEFAULT_CAPACITY);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 
 		mBtnCapture = (Button) findViewById(R.id.cp_BtnCapture);
 		mBtnSave = (Button) findViewById(R.id.cp_BtnSave);
@@ -95,7 +104,7 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 		mIsImage = i.getAction().equals(CameraCaptureActivity.CAMERA_CAPTURE_IMAGE_ACTION);
 		setTimeToRecord(i.getIntExtra(INTENT_VIDEO_TIME_TO_RECORD_IN_SECONDS, 0));
 
-		Log.i(TAG, "onCreate - mIsImage: "+mIsImage);
+		LogUtil.i(TAG, "onCreate - mIsImage: {}", mIsImage);
 		//setupCamera();
 	}
 
@@ -107,7 +116,7 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 
 		super.onStart();
 
-		Log.i(TAG, "onStart");
+		LogUtil.i(TAG, "onStart");
 	}
 
 	/* (non-Javadoc)
@@ -118,7 +127,7 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 
 		super.onResume();
 
-		Log.i(TAG, "onResume - mVideoPlaybackInProgress: "+mVideoPlaybackInProgress+" mIsSavePending: "+mIsSavePending+" mResetOnResume: "+mResetOnResume);
+		LogUtil.i(TAG, "onResume - mVideoPlaybackInProgress: {} mIsSavePending: {} mResetOnResume: {}", mVideoPlaybackInProgress, mIsSavePending, mResetOnResume);
 
 		if (mResetOnResume) {
 			resetCameraUi();
@@ -137,27 +146,19 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 	@Override
 	protected void onPause() {
 		super.onPause();
-		Log.i(TAG, "onPause - mVideoCaptureInProgress: "+mVideoCaptureInProgress+" mVideoPlaybackInProgress: "+mVideoPlaybackInProgress+" mIsSavePending: "+mIsSavePending);
+		LogUtil.i(TAG, "onPause - recording: {} mVideoPlaybackInProgress: {} mIsSavePending: {}", isVideoRecording(), mVideoPlaybackInProgress, mIsSavePending);
 
-		try {
-			if (mVideoCaptureInProgress) {
-				stopVideoRecording();
-			}
-		}  catch (Exception e) {
-			Log.e(TAG, "RuntimeException on stopping video: "+e.getMessage());
-			e.printStackTrace();
-			mResetOnResume = true;
-		} finally {
-			if (mCameraHandler != null && mCameraHandler.getCamera() != null) {
-				mCameraHandler.releaseCamera();
-				mCameraHandler = null;
-			}
+		if (isVideoRecording()) {
+			stopVideoRecording();
+		}
+		if (mCameraHandler != null && mCameraHandler.getCamera() != null) {
+			mCameraHandler.releaseCamera();
+			mCameraHandler = null;
 		}
 	}
 
 	private boolean mResetOnResume = false;
 	private void resetCameraUi() {
-		mVideoCaptureInProgress = false;
 		mTimer.cancel();
 		mTimer = null;
 		setupUi(CAMERA_PREVIEW_SCREEN);
@@ -168,14 +169,14 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 	protected void onStop() {
 		super.onStop();
 
-		Log.i(TAG, "onStop");
+		LogUtil.i(TAG, "onStop");
 	}
 
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
 
-		Log.i(TAG, "onDestroy");
+		LogUtil.i(TAG, "onDestroy");
 	}
 
 	/* (non-Javadoc)
@@ -185,13 +186,9 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 	public void onBackPressed() {
 //		super.onBackPressed();
 
-		if (mVideoCaptureInProgress) {
+		if (isVideoRecording()) {
 			if(timeElapsed > 1){
-				try {
-					stopVideoRecording();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
+				stopVideoRecording();
 			}
 		} else {
 			super.onBackPressed();
@@ -215,7 +212,7 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 				if (mIsImage) {
 					mBtnCapture.setBackgroundResource(R.drawable.lens);
 				} else {
-					if (mVideoCaptureInProgress) {
+					if (isVideoRecording()) {
 						mLlTimerLayout.setVisibility(View.VISIBLE);
 						mBtnCapture.setBackgroundResource(R.drawable.stop_icon);
 					} else {
@@ -244,7 +241,7 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 	 * Setup camera.
 	 */
 	private void setupCamera() {
-		Log.i(TAG, "setupCamera");
+		LogUtil.i(TAG, "setupCamera");
 		if (mCameraHandler == null) {
 			try {
 				mCameraHandler = new CameraHandler(this, this);
@@ -252,6 +249,9 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 				mBtnCapture.setOnClickListener(new View.OnClickListener() {
 					@Override
 					public void onClick(View v) {
+						if (mIsImage) {
+							CaptureLatencyTracker.INSTANCE.beginCapture();
+						}
 						enableDisableCaptureButton(false, false);
 						doCapture();
 					}
@@ -276,12 +276,18 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 	 * Show camera preview.
 	 */
 	private void showCameraPreview() {
-		Log.i(TAG, "showCameraPreview");
+		LogUtil.i(TAG, "showCameraPreview");
 		if (mCameraHandler != null) {
 			setupUi(CAMERA_PREVIEW_SCREEN);
-			mCameraHandler.showCameraPreview(mFlCameraPreview);
 			mCameraHandler.setImageStoragePath(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES).getAbsolutePath());
 			mCameraHandler.setVideoStoragePath(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES).getAbsolutePath());
+			if (!mIsImage) {
+				// Prepare the recorder while the preview runs, so that recording starts right at the tap.
+				mVideoProperties = createVideoProperties();
+				mCameraHandler.setVideoProperties(mVideoProperties);
+				mCameraHandler.setVideoPrewarmEnabled(true);
+			}
+			mCameraHandler.showCameraPreview(mFlCameraPreview);
 		}
 	}
 
@@ -293,14 +299,10 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 			if (mIsImage) {
 				mCameraHandler.takePicture();
 			} else {
-				Log.i(TAG, "doCapture - mVideoCaptureInProgress: "+mVideoCaptureInProgress);
-				if (mVideoCaptureInProgress) {
+				LogUtil.i(TAG, "doCapture - state: {}", mCameraHandler.getState());
+				if (isVideoRecording()) {
 					if (timeElapsed > 1) {
-					      try {
-							stopVideoRecording();
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
+						stopVideoRecording();
 					} else {
 					      enableDisableCaptureButton(true, true);
 					}
@@ -315,18 +317,24 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 	 * Capture video.
 	 */
 	private void captureVideo() {
+		if (mVideoProperties == null) {
+			mVideoProperties = createVideoProperties();
+		}
+		mCameraHandler.setVideoProperties(mVideoProperties);
+		mCameraHandler.startVideoRecording();
+		mVideoProperties = null;
+	}
+
+	private VideoProperties createVideoProperties() {
 		// Video width: 640, Video Height: 480, Maximum duration for video recording: 90 seconds
-		VideoProperties properties = mCameraHandler.new VideoProperties()
+		return mCameraHandler.new VideoProperties()
 				.setFrameRate(30).setWidth(640).setHeight(480).setMaxDurationMs(90*1000).setMaxFileSizeBytes(200 * 1024 * 1024);
-		mCameraHandler.setVideoProperties(properties);
-		mCameraHandler.startVideoRecording();
 	}
 
 	/**
 	 * Stop video recording.
-	 * @throws Exception
 	 */
-	private void stopVideoRecording() throws Exception {
+	private void stopVideoRecording() {
 		mCameraHandler.stopVideoRecording();
 	}
 
@@ -335,17 +343,22 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 		mBtnDiscard.setEnabled(enable);
 	}
 
-	/** The m video capture in progress. */
-	private boolean mVideoCaptureInProgress = false;
+	/**
+	 * Checks whether a video is being recorded, from the state of the camera.
+	 *
+	 * @return true, if recording
+	 */
+	private boolean isVideoRecording() {
+		return mCameraHandler != null && mCameraHandler.getState() == CameraSession.State.RECORDING;
+	}
 
 	/* (non-Javadoc)
 	 * @see com.alldata.carcue.camera.CameraCallback#onVideoCaptureStarted()
 	 */
 	@Override
 	public void onVideoCaptureStarted() {
-		Log.i(TAG, "onVideoCaptureStarted");
+		LogUtil.i(TAG, "onVideoCaptureStarted");
 		enableDisableCaptureButton(true, true);
-		mVideoCaptureInProgress = true;
 		setupUi(CAMERA_PREVIEW_SCREEN);
 		startTimer();
 		getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -356,13 +369,14 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 	 */
 	@Override
 	public void onImageCaptured(final String fullFilePath) {
-		Log.i(TAG, "onImageCaptured - fullFilePath: "+fullFilePath);
+		LogUtil.i(TAG, "onImageCaptured - fullFilePath: {}", fullFilePath);
 
 		setupUi(IMAGE_CONFIRMATION_SCREEN);
 
 		Bitmap bitmap = ImageUtil.INSTANCE.getRotatedBitmap(fullFilePath);
 		mIvPreview.setImageBitmap(bitmap);
 		ImageUtil.INSTANCE.saveBitmapToNewFile(bitmap, fullFilePath);
+		CaptureLatencyTracker.INSTANCE.mark(CaptureStage.EXIF_PATCHED);
 
 		mIsSavePending = true;
 		enableDisableAfterEffectsButtons(true);
@@ -395,14 +409,29 @@ public class CameraCaptureActivity extends Activity implements CameraCallback {
 		});
 	}
 
+	/* (non-Javadoc)
+	 * @see com.pk.util.procam.VideoCaptureCallback#onVideoCaptureFailed(java.lang.Exception)
+	 */
+	@Override
+	public void onVideoCaptureFailed(Exception cause) {
+		LogUtil.w(TAG, "onVideoCaptureFailed - {}", cause.getMessage());
+		if (mTimer != null) {
+			// Stopped with nothing recorded, e.g. on pause: start over when back.
+			mResetOnResume = true;
+		}
+		enableDisableCaptureButton(true, false);
+		if (cause instanceof InsufficientStorageException) {
+			Toast.makeText(this, "Not enough storage to record video", Toast.LENGTH_SHORT).show();
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see com.alldata.carcue.camera.CameraCallback#onVideoCaptured(java.lang.String)
 	 */
 	@Override
 	public void onVideoCaptured(final String fullFilePath) {
-		Log.i(TAG, "onVideoCaptured - fullFilePath: "+fullFilePath);
+		LogUtil.i(TAG, "onVideoCaptured - fullFilePath: {}", fullFilePath);
 		enableDisableCaptureButton(true, false);
-		mVideoCaptureInProgress = false;
 
 		setupUi(VIDEO_CONFIRMATION_SCREEN);
 
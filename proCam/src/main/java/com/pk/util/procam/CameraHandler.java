@@ -1,671 +1,3058 @@
-/*
- * Copyright (c) 2013 ALLDATA, LLC. All rights reserved.
- * Created on : 02 August 2013
- * FileName: CameraHandler.java 
- */
-package com.pk.util.procam;
-
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-
-import android.app.Activity;
-import android.content.Context;
-import android.content.pm.PackageManager;
-import android.hardware.Camera;
-import android.hardware.Camera.CameraInfo;
-import android.hardware.Camera.Parameters;
-import android.media.MediaRecorder;
-import android.os.Build;
-import android.os.Environment;
-import android.util.Log;
-import android.view.Surface;
-import android.view.SurfaceHolder;
-import android.view.SurfaceView;
-import android.view.ViewGroup;
-
-
-/**
- * Handles all camera operations.
- * Requires CAMERA permission for Image and Video capture.
- * Requires RECORD_AUDIO permission for Video Capture
- */
-public class CameraHandler {
-
-	private final String TAG = getClass().getSimpleName();
-	
-	/** The m context. */
-	private Context mContext;
-	
-	/** The m camera. */
-	private Camera mCamera;
-	
-	/** The m media recorder. */
-	private MediaRecorder mMediaRecorder = null;
-	
-	/** The m video properties. */
-	private VideoProperties mVideoProperties = null;
-	
-	/** The m camera preview. */
-	private ViewGroup mCameraPreview;
-	
-	/** The m camera surface. */
-	private CameraSurface mCameraSurface;
-	
-	/** The m callback. */
-	private CameraCallback mCallback;
-	
-	/** The m image storage path. */
-	private String mImageStoragePath;
-	
-	/** The m video storage path. */
-	private String mVideoStoragePath;
-	
-	/** The m camera id. */
-	private int mCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;		// Default - Back facing camera since most devices have it.
-	
-	private String BUILD_MANUFACTURER = Build.MANUFACTURER;
-	private String BUILD_MODEL = Build.MODEL;
-
-	/**
-	 * Instantiates a new camera handler.
-	 *
-	 * @param context the context
-	 * @param callback the callback
-	 * @throws ClassNotFoundException the class not found exception
-	 */
-	public CameraHandler (Context context, CameraCallback callback) throws ClassNotFoundException {
-		mContext = context;
-		if (!deviceHasCamera()) {
-			throw new ClassNotFoundException("Camera unavailable in device");
-		}
-		
-		openCamera();
-		mCallback = callback;
-		Log.i(TAG, "Constructor - manufacturer: "+BUILD_MANUFACTURER+" modeL: "+BUILD_MODEL);
-	}
-	
-	/**
-	 * Open camera.
-	 *
-	 * @throws ClassNotFoundException the class not found exception
-	 */
-	private void openCamera() throws ClassNotFoundException {
-		try {
-			Log.i(TAG, "openCamera - cameraID: "+mCameraId);
-			mCamera = Camera.open(mCameraId);
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new ClassNotFoundException("Unable to instantiate Camera");
-		}
-	}
-	
-	/**
-	 * Device has camera.
-	 *
-	 * @return true, if successful
-	 */
-	public boolean deviceHasCamera() {
-		return mContext.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA);
-	}
-	
-	/**
-	 * Gets the camera.
-	 *
-	 * @return the camera
-	 */
-	public Camera getCamera() {
-		return mCamera;
-	}
-	
-	/**
-	 * Switch camera.
-	 */
-	public void switchCamera() {
-		if (mCameraId == Camera.CameraInfo.CAMERA_FACING_BACK) {
-			mCameraId = Camera.CameraInfo.CAMERA_FACING_FRONT;
-		} else {
-			mCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;
-		}
-		
-		mCamera.release();
-		
-		try {
-			openCamera();
-			showCameraPreview(mCameraPreview);
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		}
-	}
-	
-	/**
-	 * Show camera preview.
-	 *
-	 * @param cameraPreviewLayout the camera preview layout
-	 */
-	public void showCameraPreview(ViewGroup cameraPreviewLayout) {
-		Log.i("CameraHandler", "showCameraPreview");
-		if (mCameraSurface == null) {
-			mCameraPreview = cameraPreviewLayout;
-			mCameraSurface = new CameraSurface(mContext);
-			mCameraPreview.removeAllViews();
-			mCameraPreview.addView(mCameraSurface);
-		}
-		mCamera.setDisplayOrientation(getCameraDisplayOrientation());
-		try {
-			mCamera.setPreviewDisplay(mCameraSurface.getSurfaceHolder());
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		mCamera.startPreview();
-		if (mMediaRecorder != null) {
-			try {
-				mVideoProperties = null;
-				mMediaRecorder.release();
-				mMediaRecorder = null;
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-	}
-	
-	/**
-	 * Release camera.
-	 */
-	public void releaseCamera() {
-		if (mCamera != null) {
-			try {
-				stopPreview();
-				mCamera.release();
-				mCamera = null;
-				mCameraPreview.removeAllViews();
-				mCameraSurface = null;
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-	}
-	
-	/**
-	 * Stop preview.
-	 */
-	public void stopPreview() {
-		if (mCamera != null) {
-			try {
-				mCamera.stopPreview();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-	}
-	
-	/**
-	 * Checks if is front facing camera.
-	 *
-	 * @return true, if is front facing camera
-	 */
-	public boolean isFrontFacingCamera() {
-		return mCameraId == CameraInfo.CAMERA_FACING_FRONT;
-	}
-	
-	/**
-	 * Take picture.
-	 */
-	public void takePicture() {
-		if (mCamera != null) {
-			mCamera.setParameters(getParams());
-			mCamera.takePicture(null, null, new Camera.PictureCallback() {
-				@Override
-				public void onPictureTaken(byte[] data, Camera camera) {
-					// Camera preview is stopped. Re-enable if needed by calling
-//					showCameraPreview(mCameraPreview);
-
-					String path = saveImageToFilesystem(data);
-					if (mCallback != null) {
-						mCallback.onImageCaptured(path);
-					}
-				}
-			});
-		}
-	}
-	
-	/**
-	 * Sets the video properties.
-	 *
-	 * @param properties the new video properties
-	 */
-	public void setVideoProperties(VideoProperties properties) {
-		mVideoProperties = properties;
-	}
-	
-	/**
-	 * Start video recording.
-	 */
-	public void startVideoRecording() {
-		if (mCamera == null) {
-			return;
-		}
-		
-		mCamera.unlock();
-		prepareMediaRecorder();
-	}
-	
-	/**
-	 * Prepare media recorder.
-	 */
-	private void prepareMediaRecorder() {
-		if (mMediaRecorder == null) {
-			mMediaRecorder = new MediaRecorder();
-			if (mVideoProperties == null) {
-				mVideoProperties = new VideoProperties();
-			}
-			mVideoProperties.setPropertiesToMediaRecorder(mMediaRecorder);
-		}
-		try {
-			mMediaRecorder.setPreviewDisplay(mCameraSurface.getSurfaceHolder().getSurface());
-			mMediaRecorder.prepare();
-			mMediaRecorder.start();
-			mMediaRecorder.setOnInfoListener(infoListener);
-			if (mCallback != null) {
-				mCallback.onVideoCaptureStarted();
-			}
-		} catch (IllegalStateException e) {
-			e.printStackTrace();
-			mMediaRecorder.release();
-		} catch (IOException e) {
-			e.printStackTrace();
-			mMediaRecorder.release();
-		}
-	}
-	
-	/**
-	 * Stop video recording.
-	 * @throws Exception 
-	 */
-	public void stopVideoRecording() throws Exception {
-		try {
-			if (mMediaRecorder != null) {
-				mMediaRecorder.stop();
-				mMediaRecorder.release();
-				mMediaRecorder = null;
-				if (mCamera != null) {
-					mCamera.lock();
-				}
-				if (mCallback != null) {
-					mCallback.onVideoCaptured(mVideoProperties.getPath());
-				}
-				mVideoProperties = null;
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
-			if (e instanceof RuntimeException) throw e;
-		}
-	}
-	
-	/**
-	 * Gets the camera display orientation.
-	 *
-	 * @return the camera display orientation
-	 */
-	public int getCameraDisplayOrientation() {
-	     android.hardware.Camera.CameraInfo info = new android.hardware.Camera.CameraInfo();
-	     android.hardware.Camera.getCameraInfo(mCameraId, info);
-	     int rotation = ((Activity) mContext).getWindowManager().getDefaultDisplay().getRotation();
-	     int degrees = 0;
-	     switch (rotation) {
-	         case Surface.ROTATION_0: degrees = 0; break;
-	         case Surface.ROTATION_90: degrees = 90; break;
-	         case Surface.ROTATION_180: degrees = 180; break;
-	         case Surface.ROTATION_270: degrees = 270; break;
-	     }
-
-	     int result;
-	     if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-	         result = (info.orientation + degrees) % 360;
-	         result = (360 - result) % 360;  // compensate the mirror
-	     } else {  // back-facing
-	         result = (info.orientation - degrees + 360) % 360;
-	     }
-	     Log.i(TAG, "getCameraDisplayOrientation - rotation: "+result);
-	     return result;
-	 }
-	
-	/**
-	 * Allows the app to save the captured images and videos to a location
-	 * of their choice in the SD card.
-	 *
-	 * @param path - relative path under SD card where the media content is stored
-	 */
-	public void setImageStoragePath(String path) {
-		mImageStoragePath = Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + path;
-	}
-
-	/**
-	 * Sets the video storage path.
-	 *
-	 * @param path the new video storage path
-	 */
-	public void setVideoStoragePath(String path) {
-		mVideoStoragePath = Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + path;
-	}
-	
-	/**
-	 * Save image to filesystem.
-	 *
-	 * @param data the data
-	 * @return the string
-	 */
-	public String saveImageToFilesystem(byte[] data) {
-		File picture = getMediaFile(true);		// Get image file container.
-		if (picture == null) {
-			return null;
-		}
-		try {
-			FileOutputStream stream = new FileOutputStream(picture);
-			stream.write(data);
-			stream.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-			return null;
-		}
-		
-		return picture.getAbsolutePath();
-	}
-	
-	/**
-	 * Gets the media file.
-	 *
-	 * @param isImage the is image
-	 * @return the media file
-	 */
-	private File getMediaFile(boolean isImage) {
-		File mediaDir = null;
-		Log.i(TAG, "getMediaFile - mMediaStorageDir: "+mImageStoragePath);
-		
-		if (isImage) {
-			if (mImageStoragePath != null && mImageStoragePath.length() > 0) {
-				mediaDir = new File(mImageStoragePath);
-			} else {
-				mImageStoragePath = new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date());
-				mediaDir = new File(Environment.getExternalStorageDirectory(), mImageStoragePath);
-				mImageStoragePath = mediaDir.getAbsolutePath();
-			}
-		} else {
-			if (mVideoStoragePath != null && mVideoStoragePath.length() > 0) {
-				mediaDir = new File(mVideoStoragePath);
-			} else {
-				mVideoStoragePath = new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date());
-				mediaDir = new File(Environment.getExternalStorageDirectory(), mVideoStoragePath);
-				mVideoStoragePath = mediaDir.getAbsolutePath();
-			}
-		}
-
-		if (!mediaDir.exists()) {
-			if (!mediaDir.mkdirs()) {
-				Log.i(TAG, "getMediaFile - returning NULL");
-				return null;
-			}
-		}
-		
-		String filename = "";
-		String timestamp = new SimpleDateFormat("yyyyMMdd_hhmmss", Locale.US).format(new Date());
-		File mediaFile;
-		if (isImage) {
-			filename = "PIC_";
-			mediaFile = new File(mediaDir.getPath() + File.separator+ filename + timestamp + ".jpg");
-		} else {
-			filename = "VID_";
-			mediaFile = new File(mediaDir.getPath() + File.separator+ filename + timestamp + ".mp4");
-		}
-		
-		return mediaFile;
-	}
-	
-	/** The info listener. */
-	private MediaRecorder.OnInfoListener infoListener = new MediaRecorder.OnInfoListener() {
-		@Override
-		public void onInfo(MediaRecorder mr, int what, int extra) {
-			if (what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED || what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED) {
-				try {
-					stopVideoRecording();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			}
-		}
-	};
-	
-	/**
-	 * The Class CameraSurface.
-	 */
-	class CameraSurface extends SurfaceView implements SurfaceHolder.Callback {
-
-		/** The m surface holder. */
-		private SurfaceHolder mSurfaceHolder;
-		
-		/**
-		 * Instantiates a new camera surface.
-		 *
-		 * @param context the context
-		 */
-		public CameraSurface(Context context) {
-			super(context);
-			
-			mSurfaceHolder = getHolder();
-			mSurfaceHolder.addCallback(this);
-			mSurfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
-		}
-
-		/* (non-Javadoc)
-		 * @see android.view.SurfaceHolder.Callback#surfaceCreated(android.view.SurfaceHolder)
-		 */
-		@Override
-		public void surfaceCreated(SurfaceHolder holder) {
-			try {
-				mCamera.setPreviewDisplay(mSurfaceHolder);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		
-		/* (non-Javadoc)
-		 * @see android.view.SurfaceHolder.Callback#surfaceChanged(android.view.SurfaceHolder, int, int, int)
-		 */
-		@Override
-		public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-			if (mSurfaceHolder.getSurface() == null) {
-				return;
-			}
-			
-			stopPreview();
-			
-			try {
-				mCamera.setParameters(getParams());
-				showCameraPreview(mCameraPreview);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-
-		/* (non-Javadoc)
-		 * @see android.view.SurfaceHolder.Callback#surfaceDestroyed(android.view.SurfaceHolder)
-		 */
-		@Override
-		public void surfaceDestroyed(SurfaceHolder holder) {
-			releaseCamera();
-		}
-		
-		/**
-		 * Gets the surface holder.
-		 *
-		 * @return the surface holder
-		 */
-		public SurfaceHolder getSurfaceHolder() {
-			return mSurfaceHolder;
-		}
-	}
-	
-	private Parameters getParams() {
-		Parameters params = mCamera.getParameters();
-		params.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
-		params.setFlashMode(Camera.Parameters.FLASH_MODE_AUTO);
-		params.setJpegQuality(100);
-		if (!BUILD_MODEL.equalsIgnoreCase("HTC One X")) {
-			params.setRotation(getCameraDisplayOrientation());
-		}
-		params.set("cam_mode", 1);
-		return params;
-	}
-
-	/**
-	 * The Class VideoProperties.
-	 */
-	public class VideoProperties {
-		
-		/** The default video width. */
-		private final int DEFAULT_VIDEO_WIDTH = 640;
-		
-		/** The default video height. */
-		private final int DEFAULT_VIDEO_HEIGHT = 480;
-		
-		/** The default video framerate. */
-		private final int DEFAULT_VIDEO_FRAMERATE = 24;
-		
-		/** The default negative int. */
-		private final int DEFAULT_NEGATIVE_INT = -1;
-		
-		/** The path. */
-		private String path;
-		
-		/** The frame rate. */
-		private int frameRate;
-		
-		/** The width. */
-		private int width;
-		
-		/** The height. */
-		private int height;
-		
-		/** The max duration ms. */
-		private int maxDurationMs;
-		
-		/** The max file size bytes. */
-		private long maxFileSizeBytes;
-		
-		/**
-		 * Sets the path.
-		 *
-		 * @param path the path
-		 * @return the video properties
-		 */
-		public VideoProperties setPath(String path) {
-			this.path = path;
-			return this;
-		}
-		
-		/**
-		 * Sets the frame rate.
-		 *
-		 * @param frameRate the frame rate
-		 * @return the video properties
-		 */
-		public VideoProperties setFrameRate(int frameRate) {
-			this.frameRate = frameRate;
-			return this;
-		}
-		
-		/**
-		 * Sets the width.
-		 *
-		 * @param width the width
-		 * @return the video properties
-		 */
-		public VideoProperties setWidth(int width) {
-			this.width = width;
-			return this;
-		}
-		
-		/**
-		 * Sets the height.
-		 *
-		 * @param height the height
-		 * @return the video properties
-		 */
-		public VideoProperties setHeight(int height) {
-			this.height = height;
-			return this;
-		}
-		
-		/**
-		 * Sets the max duration ms.
-		 *
-		 * @param maxDurationMs the max duration ms
-		 * @return the video properties
-		 */
-		public VideoProperties setMaxDurationMs(int maxDurationMs) {
-			this.maxDurationMs = maxDurationMs;
-			return this;
-		}
-		
-		/**
-		 * Sets the max file size bytes.
-		 *
-		 * @param maxFileSizeBytes the max file size bytes
-		 * @return the video properties
-		 */
-		public VideoProperties setMaxFileSizeBytes(long maxFileSizeBytes) {
-			this.maxFileSizeBytes = maxFileSizeBytes;
-			return this;
-		}
-		
-		/**
-		 * Gets the path.
-		 *
-		 * @return the path
-		 */
-		public String getPath() {
-			return path;
-		}
-		
-		/**
-		 * Sets the properties to media recorder.
-		 *
-		 * @param mediaRecorder the new properties to media recorder
-		 */
-		protected void setPropertiesToMediaRecorder(MediaRecorder mediaRecorder) {
-			// Populate the assumed/defaulted values.
-			mediaRecorder.setCamera(mCamera);
-			mediaRecorder.setVideoSource(MediaRecorder.VideoSource.DEFAULT);
-			mediaRecorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
-			mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-			mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.DEFAULT);
-			mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.DEFAULT);
-			
-//			mediaRecorder.setProfile(CamcorderProfile.get(CamcorderProfile.QUALITY_HIGH));
-			
-			// Now is the turn for user opted settings
-			if (path != null && path.length() > 0) {
-				mediaRecorder.setOutputFile(path);
-			} else {
-				path = getMediaFile(false).getAbsolutePath();
-				mediaRecorder.setOutputFile(path);
-			}
-			
-			if (!BUILD_MODEL.equalsIgnoreCase("HTC One X")) {
-				mediaRecorder.setOrientationHint(getCameraDisplayOrientation());
-				mediaRecorder.setVideoFrameRate(frameRate > 0 ? frameRate : DEFAULT_VIDEO_FRAMERATE);
-				mediaRecorder.setVideoEncodingBitRate(7 * 1024 * 1024);
-				mediaRecorder.setVideoSize(width > 0 ? width : DEFAULT_VIDEO_WIDTH, height > 0 ? height : DEFAULT_VIDEO_HEIGHT);
-			}
-			
-			// Max duration for video recording. Negative or zero indicates no limit.
-			mediaRecorder.setMaxDuration(maxDurationMs > 0 ? maxDurationMs : DEFAULT_NEGATIVE_INT);
-			// Max file size of the video recorded. Negative or zero indicates no limit.
-			mediaRecorder.setMaxFileSize(maxFileSizeBytes > 0 ? maxFileSizeBytes : DEFAULT_NEGATIVE_INT);	// negative or zero indicates no limit.
-		}
-	}
-	
-}
+/*
+ * Copyright (c) 2013 ALLDATA, LLC. All rights reserved.
+ * Created on : 02 August 2013
+ * FileName: CameraHandler.java 
+ */
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.hardware.Camera.CameraInfo;
+import android.hardware.Camera.Parameters;
+import android.media.CamcorderProfile;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.ViewGroup;
+
+
+/**
+ * Handles all camera operations.
+ * Requires CAMERA permission for Image and Video capture.
+ * Requires RECORD_AUDIO permission for Video Capture
+ * <p>
+ * The camera is used on the main thread, where its callbacks arrive. {@link #takePicture()},
+ * {@link #takeStackedPicture(int, int)}, {@link #switchCamera()}, {@link #stopPreview()},
+ * {@link #releaseCamera()}, {@link #focusAt(float, float, int, int)}, {@link #clearFocus()},
+ * {@link #takePictureToMemory(InMemoryCaptureCallback)}, the video, pre-event and interval capture
+ * methods may be called from any thread; they are queued to the main thread, see {@link CameraSession}.
+ * Everything else is called on the main thread and runs right away. Operations the current
+ * {@link #getState() state} does not allow, e.g. a picture while a video is recorded, are ignored.
+ */
+public class CameraHandler {
+
+	private final String TAG = getClass().getSimpleName();
+	
+	/** The m context. */
+	private Context mContext;
+	
+	/** The m camera. */
+	private Camera mCamera;
+	
+	/** The m media recorder. */
+	private MediaRecorder mMediaRecorder = null;
+	
+	/** The recorder configured ahead of time for the next segment of a segmented recording. */
+	private MediaRecorder mNextMediaRecorder = null;
+	
+	/** The reservation mNextMediaRecorder writes to, open until the recorder is prepared. */
+	private VideoStorageReservation mNextReservation = null;
+	
+	/** The path handed to MediaRecorder#setNextOutputFile, waiting for the recorder to switch to it. */
+	private String mPendingSegmentPath = null;
+	
+	/** The m video properties. */
+	private VideoProperties mVideoProperties = null;
+	
+	/** The recorder prepared in the background, waiting for {@link #startVideoRecording()}. */
+	private MediaRecorder mPrewarmedRecorder = null;
+	
+	/** The background prepare() of mPrewarmedRecorder. */
+	private Future<Void> mPrewarmTask = null;
+	
+	/** The executor running the prewarm prepare(). */
+	private ExecutorService mPrewarmExecutor = null;
+	
+	/** The m thread recorded videos are encrypted on, started with the first one. */
+	private ExecutorService mVideoEncryptionExecutor = null;
+	
+	/** Whether a recorder is prepared as soon as the preview runs. */
+	private boolean mVideoPrewarmEnabled = false;
+	
+	/** The System#nanoTime() the current recording started at. */
+	private long mRecordingStartTime = 0;
+	
+	/** The time from the last record request to the recorder running, in microseconds. */
+	private long mLastVideoStartLatencyUs = -1;
+	
+	/** The m pre event recorder. */
+	private PreEventRecorder mPreEventRecorder = null;
+	
+	/** The m camera preview. */
+	private ViewGroup mCameraPreview;
+	
+	/** The m camera surface. */
+	private CameraSurface mCameraSurface;
+	
+	/** The m offscreen preview target in headless mode, null otherwise. */
+	private SurfaceTexture mPreviewTexture;
+	
+	/** The m device rotation in degrees given by the app, or -1 to read it from the activity. */
+	private volatile int mDeviceRotation = -1;
+	
+	/** The m callback. */
+	private CameraCallback mCallback;
+	
+	/** The m image storage path. */
+	private String mImageStoragePath;
+	
+	/** The m video storage path. */
+	private String mVideoStoragePath;
+	
+	/** The m camera id. */
+	private int mCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;		// Default - Back facing camera since most devices have it.
+	
+	/** The time the preview is restarted ahead of an interval shot when it is suspended between shots. */
+	private static final long PREVIEW_WARMUP_MS = 1500;
+	
+	/** The main thread handler. */
+	private Handler mHandler = new Handler(Looper.getMainLooper());
+	
+	/** The focus controller, follows the camera across switches. */
+	private final FocusController mFocusController = new FocusController(mHandler, Clock.ELAPSED_REALTIME);
+	
+	/** The state of the camera, and the queue operations from other threads wait in. */
+	private final CameraSession mSession = new CameraSession(new CameraSession.CameraThread() {
+		@Override
+		public boolean isCurrentThread() {
+			return Looper.myLooper() == mHandler.getLooper();
+		}
+		
+		@Override
+		public void post(Runnable task) {
+			mHandler.post(task);
+		}
+	});
+	
+	/** Whether tapping the preview focuses there. */
+	private boolean mTapToFocus = true;
+	
+	/** The m interval scheduler. */
+	private IntervalCaptureScheduler mIntervalScheduler;
+	
+	/** The m interval callback. */
+	private IntervalCaptureCallback mIntervalCallback;
+	
+	/** The m interval save queue. */
+	private CaptureSaveQueue mIntervalSaveQueue;
+	
+	/** The m stacked picture being taken, null when none. */
+	private StackedCapture mStackedCapture;
+	
+	/** The m file writer used for captured images. */
+	private volatile DurableFileWriter mFileWriter = new DurableFileWriter(DurabilityPolicy.PER_FILE);
+	
+	/** The m cipher pictures and videos are encrypted with, null to save them plain. */
+	private volatile MediaCipher mMediaCipher;
+	
+	/** The m pool pictures taken to memory are delivered in. */
+	private volatile CaptureBufferPool mCaptureBufferPool = new CaptureBufferPool(CaptureBufferPool.DEFAULT_MAX_BUFFERS);
+	
+	/** The m max number of pictures committed together, 1 to save each picture on its own. */
+	private int mGroupCommitBatchSize = 1;
+	
+	/** The m time a picture may wait for others to share its commit, in milliseconds. */
+	private long mGroupCommitLatencyMs = 0;
+	
+	/** The m namer for image files, created for the current image storage path. */
+	private volatile MediaFileNamer mImageNamer;
+	
+	/** The m namer for video files, created for the current video storage path. */
+	private volatile MediaFileNamer mVideoNamer;
+	
+	/** The m catalog every capture is recorded in, may be null. */
+	private volatile CaptureCatalog mCaptureCatalog;
+	
+	/** The m queue post-processing jobs are added to after each capture, may be null. */
+	private volatile ProcessingJobQueue mPostProcessingQueue;
+	
+	/** The m job types added for each capture. */
+	private volatile String[] mPostProcessingTypes = new String[0];
+	
+	/** The m picture size and rotation last set on the camera, recorded with each picture. */
+	private volatile int mPictureWidth = CaptureRecord.UNKNOWN, mPictureHeight = CaptureRecord.UNKNOWN,
+			mPictureRotation = CaptureRecord.UNKNOWN;
+	
+	/** The m save queue for pictures taken with {@link #takePicture()} while group commit is on. */
+	private CaptureSaveQueue mCaptureSaveQueue;
+	
+	/** The m size of the preview surface, 0 until it has been laid out. */
+	private int mSurfaceWidth, mSurfaceHeight;
+	
+	/** The m most pixels a picture may have, 0 for no limit. */
+	private long mMaxPicturePixels;
+	
+	/** The m aspect ratio pictures and the preview aim at, 0 to derive it. */
+	private double mTargetAspectRatio;
+	
+	/** The m output spec, null for the defaults. */
+	private OutputSpec mOutputSpec;
+	
+	/** The m sizes chosen for the current camera and settings, null until needed. */
+	private SizeSelector.Selection mSizeSelection;
+	
+	/** Whether the preview is stopped between interval shots. */
+	private boolean mSuspendPreviewBetweenShots;
+	
+	/** Whether interval sessions lock auto-exposure and auto white balance. */
+	private boolean mLockExposureInSessions, mLockWhiteBalanceInSessions;
+	
+	/** The m locks held for the running session, see {@link #getSessionLocks()}. */
+	private int mSessionLocks;
+	
+	/** Whether the preview runs during the interval session; each shot stops it. */
+	private boolean mIntervalPreviewRunning;
+	
+	/** Whether an interval shot has been taken and its picture callback is still pending. */
+	private boolean mIntervalShotInFlight;
+	
+	/** Whether the interval session has to finish once the picture in flight arrives. */
+	private boolean mIntervalStopRequested;
+	
+	/** API level of Android O, which added MediaRecorder#setNextOutputFile. */
+	private static final int API_LEVEL_O = 26;
+	
+	/** MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING, added in API level 26. */
+	private static final int MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING = 802;
+	
+	/** MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED, added in API level 26. */
+	private static final int MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED = 803;
+	
+	/** Session lock flag: auto-exposure is locked. */
+	public static final int LOCK_AUTO_EXPOSURE = 1;
+	
+	/** Session lock flag: auto white balance is locked. */
+	public static final int LOCK_AUTO_WHITE_BALANCE = 2;
+	
+	/** The width and height of a tapped focus area in driver units, a tenth of the frame each way. */
+	private static final int FOCUS_AREA_SIZE = 200;
+	
+	/** The GL texture name of the headless preview texture, which is never attached to a context. */
+	private static final int HEADLESS_TEXTURE_NAME = 10;
+	
+	/** MediaRecorder#setNextOutputFile(File), looked up once. Null when unavailable. */
+	private static Method sSetNextOutputFile;
+	
+	/** Whether sSetNextOutputFile has been looked up. */
+	private static boolean sSetNextOutputFileResolved;
+	
+	/** The storage directories whose stale temp files were deleted, in this process. */
+	private static final Set<String> sCleanedDirectories = new HashSet<String>();
+	
+	private String BUILD_MANUFACTURER = Build.MANUFACTURER;
+	private String BUILD_MODEL = Build.MODEL;
+
+	/**
+	 * Instantiates a new camera handler.
+	 *
+	 * @param context the context
+	 * @param callback the callback
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	public CameraHandler (Context context, CameraCallback callback) throws ClassNotFoundException {
+		mContext = context;
+		if (!deviceHasCamera()) {
+			throw new ClassNotFoundException("Camera unavailable in device");
+		}
+		
+		openCamera();
+		mCallback = callback;
+		LogUtil.i(TAG, "Constructor - manufacturer: {} modeL: {}", BUILD_MANUFACTURER, BUILD_MODEL);
+	}
+	
+	/**
+	 * Open camera.
+	 *
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	private void openCamera() throws ClassNotFoundException {
+		mSession.moveTo(CameraSession.State.OPENING);
+		try {
+			LogUtil.i(TAG, "openCamera - cameraID: {}", mCameraId);
+			long start = System.nanoTime();
+			mCamera = Camera.open(mCameraId);
+			mSizeSelection = null;
+			mFocusController.setCamera(mCamera);
+			PerfEventLog.INSTANCE.record(PerfEvent.CAMERA_OPEN, (System.nanoTime() - start) / 1000, mCameraId);
+			mSession.moveTo(CameraSession.State.OPENED);
+		} catch (Exception e) {
+			e.printStackTrace();
+			PerfEventLog.INSTANCE.recordError(PerfEvent.CAMERA_OPEN);
+			mSession.moveTo(CameraSession.State.CLOSED);
+			throw new ClassNotFoundException("Unable to instantiate Camera");
+		}
+	}
+	
+	/**
+	 * Gets the state of the camera. Callable from any thread.
+	 *
+	 * @return the state
+	 */
+	public CameraSession.State getState() {
+		return mSession.getState();
+	}
+	
+	/**
+	 * Device has camera.
+	 *
+	 * @return true, if successful
+	 */
+	public boolean deviceHasCamera() {
+		return mContext.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA);
+	}
+	
+	/**
+	 * Gets the camera.
+	 *
+	 * @return the camera
+	 */
+	public Camera getCamera() {
+		return mCamera;
+	}
+	
+	/**
+	 * Switch camera. Ignored while a picture or a video is being taken.
+	 */
+	public void switchCamera() {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doSwitchCamera();
+			}
+		});
+	}
+	
+	private void doSwitchCamera() {
+		if (mCamera == null || !mSession.isIn(CameraSession.State.OPENED, CameraSession.State.PREVIEWING)) {
+			LogUtil.w(TAG, "switchCamera - ignored in state {}", mSession.getState());
+			return;
+		}
+		cancelVideoPrewarm();
+		if (mCameraId == Camera.CameraInfo.CAMERA_FACING_BACK) {
+			mCameraId = Camera.CameraInfo.CAMERA_FACING_FRONT;
+		} else {
+			mCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;
+		}
+		
+		mCamera.release();
+		// The new camera meters on its own.
+		mSessionLocks = 0;
+		
+		try {
+			openCamera();
+			if (mPreviewTexture != null) {
+				startHeadlessPreview();
+			} else {
+				// The surface stays the same, so no surfaceChanged sets the preview size of the new camera.
+				mCamera.setParameters(getParams(true));
+				showCameraPreview(mCameraPreview);
+			}
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Show camera preview.
+	 *
+	 * @param cameraPreviewLayout the camera preview layout
+	 */
+	public void showCameraPreview(ViewGroup cameraPreviewLayout) {
+		LogUtil.i("CameraHandler", "showCameraPreview");
+		cancelVideoPrewarm();
+		if (mCameraSurface == null) {
+			mCameraPreview = cameraPreviewLayout;
+			mCameraSurface = new CameraSurface(mContext);
+			mCameraPreview.removeAllViews();
+			mCameraPreview.addView(mCameraSurface);
+		}
+		mCamera.setDisplayOrientation(getCameraDisplayOrientation());
+		try {
+			mCamera.setPreviewDisplay(mCameraSurface.getSurfaceHolder());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		long previewStart = System.nanoTime();
+		mCamera.startPreview();
+		PerfEventLog.INSTANCE.record(PerfEvent.PREVIEW_START, (System.nanoTime() - previewStart) / 1000, 0);
+		mSession.moveTo(CameraSession.State.PREVIEWING);
+		mFocusController.onPreviewStarted();
+		releaseNextMediaRecorder();
+		if (mMediaRecorder != null) {
+			try {
+				mVideoProperties = null;
+				mMediaRecorder.release();
+				mMediaRecorder = null;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		if (mVideoPrewarmEnabled) {
+			prewarmVideoRecording();
+		}
+	}
+	
+	/**
+	 * Starts the preview without a view: frames go to an offscreen {@link SurfaceTexture}, so pictures
+	 * and videos can be taken from a Service or a worker thread without inflating and laying out a
+	 * preview. Nothing is shown. As there is no activity to read the display rotation from, set it
+	 * with {@link #setDeviceRotation(int)} (defaults to 0, natural orientation). Needs API level 11.
+	 *
+	 * @throws IOException if the camera cannot use the offscreen target
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	public void startHeadlessPreview() throws IOException {
+		LogUtil.i(TAG, "startHeadlessPreview");
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+			throw new IOException("Headless capture needs API level 11");
+		}
+		cancelVideoPrewarm();
+		if (mPreviewTexture == null) {
+			// The texture is never attached to a GL context; the camera only needs somewhere to send frames.
+			mPreviewTexture = new SurfaceTexture(HEADLESS_TEXTURE_NAME);
+		}
+		mCamera.stopPreview();
+		mCamera.setPreviewTexture(mPreviewTexture);
+		mCamera.setParameters(getParams(true));
+		long previewStart = System.nanoTime();
+		mCamera.startPreview();
+		PerfEventLog.INSTANCE.record(PerfEvent.PREVIEW_START, (System.nanoTime() - previewStart) / 1000, 0);
+		mSession.moveTo(CameraSession.State.PREVIEWING);
+		mFocusController.onPreviewStarted();
+		if (mVideoPrewarmEnabled) {
+			prewarmVideoRecording();
+		}
+	}
+	
+	/**
+	 * Checks whether the preview runs headless, see {@link #startHeadlessPreview()}.
+	 *
+	 * @return true, if headless
+	 */
+	public boolean isHeadless() {
+		return mPreviewTexture != null;
+	}
+	
+	/**
+	 * Sets the rotation of the device from its natural orientation, used for the orientation of
+	 * pictures and videos instead of asking the activity. Needed when the handler was not created
+	 * with an activity, e.g. in headless mode.
+	 *
+	 * @param degrees 0, 90, 180 or 270; or -1 to read the display rotation from the activity
+	 */
+	public void setDeviceRotation(int degrees) {
+		if (degrees != -1 && (degrees < 0 || degrees >= 360 || degrees % 90 != 0)) {
+			throw new IllegalArgumentException("degrees: " + degrees);
+		}
+		mDeviceRotation = degrees;
+	}
+	
+	/**
+	 * Release camera.
+	 */
+	public void releaseCamera() {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doReleaseCamera();
+			}
+		});
+	}
+	
+	private void doReleaseCamera() {
+		// The picture in flight, if any, will never arrive once the camera is released.
+		mIntervalShotInFlight = false;
+		doStopIntervalCapture();
+		cancelStackedPicture();
+		doStopPreEventRecording();
+		cancelVideoPrewarm();
+		if (mCaptureSaveQueue != null) {
+			// Pictures already queued are still saved and reported.
+			mCaptureSaveQueue.shutdown(null);
+			mCaptureSaveQueue = null;
+		}
+		if (mPrewarmExecutor != null) {
+			mPrewarmExecutor.shutdown();
+			mPrewarmExecutor = null;
+		}
+		if (mVideoEncryptionExecutor != null) {
+			// Videos already recorded are still encrypted and reported.
+			mVideoEncryptionExecutor.shutdown();
+			mVideoEncryptionExecutor = null;
+		}
+		if (mCamera != null) {
+			mSession.moveTo(CameraSession.State.RELEASING);
+			try {
+				doStopPreview();
+				mFocusController.setCamera(null);
+				mCamera.release();
+				mCamera = null;
+				PerfEventLog.INSTANCE.record(PerfEvent.CAMERA_RELEASE);
+				if (mCameraPreview != null) {
+					mCameraPreview.removeAllViews();
+				}
+				mCameraSurface = null;
+				releasePreviewTexture();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			mSession.moveTo(CameraSession.State.CLOSED);
+		}
+	}
+	
+	/**
+	 * Stop preview.
+	 */
+	public void stopPreview() {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doStopPreview();
+			}
+		});
+	}
+	
+	private void doStopPreview() {
+		if (mCamera != null) {
+			try {
+				mCamera.stopPreview();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			if (mSession.isIn(CameraSession.State.PREVIEWING)) {
+				mSession.moveTo(CameraSession.State.OPENED);
+			}
+		}
+	}
+	
+	/**
+	 * Checks if is front facing camera.
+	 *
+	 * @return true, if is front facing camera
+	 */
+	public boolean isFrontFacingCamera() {
+		return mCameraId == CameraInfo.CAMERA_FACING_FRONT;
+	}
+	
+	/**
+	 * Take picture. It is taken as soon as the camera is focused, see {@link FocusController}.
+	 * Ignored unless the preview is running and the camera is free, e.g. on a second tap while
+	 * the first picture is still being taken.
+	 */
+	public void takePicture() {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doTakePicture();
+			}
+		});
+	}
+	
+	private void doTakePicture() {
+		if (mCamera != null) {
+			if (!mSession.isIn(CameraSession.State.PREVIEWING)) {
+				LogUtil.w(TAG, "takePicture - ignored in state {}", mSession.getState());
+				return;
+			}
+			cancelVideoPrewarm();
+			final CaptureLatencyTracker tracker = CaptureLatencyTracker.INSTANCE;
+			final long captureId = tracker.currentOrBeginCapture();
+			try {
+				mCamera.setParameters(getParams());
+			} catch (RuntimeException e) {
+				LogUtil.e(TAG, "takePicture - failed", e);
+				PerfEventLog.INSTANCE.recordError(PerfEvent.CAPTURE);
+				return;
+			}
+			mSession.moveTo(CameraSession.State.CAPTURING);
+			tracker.mark(captureId, CaptureStage.PARAMETERS_SET);
+			mFocusController.focusThen(new Runnable() {
+				@Override
+				public void run() {
+					tracker.mark(captureId, CaptureStage.FOCUSED);
+					try {
+						takeFocusedPicture(tracker, captureId);
+					} catch (RuntimeException e) {
+						LogUtil.e(TAG, "takePicture - failed", e);
+						PerfEventLog.INSTANCE.recordError(PerfEvent.CAPTURE);
+						mFocusController.onCaptureFinished();
+						mSession.moveTo(CameraSession.State.PREVIEWING);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Takes the picture once focused, and saves and reports it.
+	 *
+	 * @param tracker the latency tracker
+	 * @param captureId the capture id
+	 */
+	private void takeFocusedPicture(final CaptureLatencyTracker tracker, final long captureId) {
+		mCamera.takePicture(new Camera.ShutterCallback() {
+			@Override
+			public void onShutter() {
+				tracker.mark(captureId, CaptureStage.SHUTTER);
+			}
+		}, null, new Camera.PictureCallback() {
+			@Override
+			public void onPictureTaken(byte[] data, Camera camera) {
+				tracker.mark(captureId, CaptureStage.JPEG_CALLBACK);
+				mFocusController.onCaptureFinished();
+				restartPreviewAfterPicture();
+				PerfEventLog.INSTANCE.record(PerfEvent.CAPTURE, data.length, captureId);
+
+				if (mGroupCommitBatchSize > 1) {
+					getCaptureSaveQueue().enqueue(data, new CaptureSaveQueue.SaveCallback() {
+						@Override
+						public void onSaved(final String fullFilePath) {
+							tracker.mark(captureId, CaptureStage.FILE_WRITTEN);
+							mHandler.post(new Runnable() {
+								@Override
+								public void run() {
+									if (mCallback != null) {
+										mCallback.onImageCaptured(fullFilePath);
+									}
+									tracker.mark(captureId, CaptureStage.CALLBACK_DELIVERED);
+								}
+							});
+						}
+					});
+					return;
+				}
+		
+				String path = saveImageToFilesystem(data);
+				tracker.mark(captureId, CaptureStage.FILE_WRITTEN);
+				if (mCallback != null) {
+					mCallback.onImageCaptured(path);
+				}
+				tracker.mark(captureId, CaptureStage.CALLBACK_DELIVERED);
+			}
+		});
+	}
+	
+	/**
+	 * Takes a picture in low light by merging a burst of preview frames, see {@link StackedCapture}.
+	 * The camera is focused first, and exposure and white balance are locked for the burst so the
+	 * frames match. The picture is the size of the preview, saved and reported like one from
+	 * {@link #takePicture()}. Below API level {@link StackedCapture#MIN_API_LEVEL} a normal picture is
+	 * taken instead. Ignored unless the preview is running and the camera is free.
+	 *
+	 * @param frameCount the number of frames merged, e.g. {@link StackedCapture#DEFAULT_FRAME_COUNT}
+	 * @param maxFramesInMemory the most preview frames held at once, e.g. {@link StackedCapture#DEFAULT_MAX_FRAMES_IN_MEMORY}
+	 */
+	public void takeStackedPicture(final int frameCount, final int maxFramesInMemory) {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (StackedCapture.isSupported()) {
+					doTakeStackedPicture(frameCount, maxFramesInMemory);
+				} else {
+					doTakePicture();
+				}
+			}
+		});
+	}
+	
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private void doTakeStackedPicture(int frameCount, int maxFramesInMemory) {
+		if (mCamera == null) {
+			return;
+		}
+		if (!mSession.isIn(CameraSession.State.PREVIEWING) || mPreEventRecorder != null) {
+			LogUtil.w(TAG, "takeStackedPicture - ignored in state {}", mSession.getState());
+			return;
+		}
+		mSession.moveTo(CameraSession.State.CAPTURING);
+		cancelVideoPrewarm();
+		final long start = System.nanoTime();
+		Parameters params = getParams();
+		mSessionLocks = setSessionLocks(params, true, true);
+		mCamera.setParameters(params);
+		OutputSpec spec = mOutputSpec;
+		final StackedCapture capture = new StackedCapture(mCamera, mHandler)
+				.setFrameCount(frameCount)
+				.setMaxFramesInMemory(maxFramesInMemory)
+				.setRotation(mPictureRotation >= 0 ? mPictureRotation : 0)
+				.setJpegQuality(spec != null ? spec.getJpegQuality() : OutputSpec.DEFAULT_JPEG_QUALITY);
+		mStackedCapture = capture;
+		mFocusController.focusThen(new Runnable() {
+			@Override
+			public void run() {
+				if (mStackedCapture != capture) {
+					return;
+				}
+				boolean started = capture.start(new StackedCapture.Callback() {
+					@Override
+					public void onStacked(byte[] jpeg, int frames) {
+						finishStackedPicture();
+						PerfEventLog.INSTANCE.record(PerfEvent.STACK, (System.nanoTime() - start) / 1000, frames);
+						String path = saveImageToFilesystem(jpeg);
+						if (mCallback != null) {
+							mCallback.onImageCaptured(path);
+						}
+					}
+					
+					@Override
+					public void onStackFailed() {
+						finishStackedPicture();
+						PerfEventLog.INSTANCE.recordError(PerfEvent.STACK);
+					}
+				});
+				if (!started) {
+					finishStackedPicture();
+					PerfEventLog.INSTANCE.recordError(PerfEvent.STACK);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Ends the stacked picture: the camera meters again and is free.
+	 */
+	private void finishStackedPicture() {
+		mStackedCapture = null;
+		mFocusController.onCaptureFinished();
+		releaseSessionLocks();
+		mSession.moveTo(CameraSession.State.PREVIEWING);
+	}
+	
+	/**
+	 * Cancels the stacked picture being taken, if any.
+	 */
+	private void cancelStackedPicture() {
+		if (mStackedCapture != null) {
+			mStackedCapture.cancel();
+			finishStackedPicture();
+		}
+	}
+	
+	/**
+	 * Takes a picture and delivers the JPEG in memory instead of saving it, for flows that only
+	 * process the picture and send it on. The app decides whether to keep it, see
+	 * {@link #saveCaptureBuffer(CaptureBuffer)}, and must release the buffer.
+	 * <p>
+	 * Nothing is taken when every buffer of the {@link #getCaptureBufferPool() pool} is still out, or
+	 * unless the preview is running and the camera is free. May be called from any thread; a picture
+	 * queued behind other operations is only turned down, its buffer back in the pool, when its turn comes.
+	 *
+	 * @param callback the callback
+	 * @return true, if a picture is being taken or queued
+	 */
+	public boolean takePictureToMemory(final InMemoryCaptureCallback callback) {
+		if (mCamera == null || !mSession.isIn(CameraSession.State.PREVIEWING)) {
+			return false;
+		}
+		// Take the buffer now so a picture is never taken without somewhere to put it.
+		final CaptureBuffer buffer = mCaptureBufferPool.acquire();
+		if (buffer == null) {
+			return false;
+		}
+		final boolean[] taking = new boolean[1];
+		boolean ran = mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				taking[0] = doTakePictureToMemory(buffer, callback);
+				if (!taking[0]) {
+					buffer.release();
+				}
+			}
+		});
+		return !ran || taking[0];
+	}
+	
+	private boolean doTakePictureToMemory(final CaptureBuffer buffer, final InMemoryCaptureCallback callback) {
+		if (mCamera == null || !mSession.isIn(CameraSession.State.PREVIEWING)) {
+			return false;
+		}
+		cancelVideoPrewarm();
+		final CaptureLatencyTracker tracker = CaptureLatencyTracker.INSTANCE;
+		final long captureId = tracker.currentOrBeginCapture();
+		try {
+			mCamera.setParameters(getParams());
+		} catch (RuntimeException e) {
+			LogUtil.e(TAG, "takePictureToMemory - failed", e);
+			return false;
+		}
+		mSession.moveTo(CameraSession.State.CAPTURING);
+		tracker.mark(captureId, CaptureStage.PARAMETERS_SET);
+		mFocusController.focusThen(new Runnable() {
+			@Override
+			public void run() {
+				tracker.mark(captureId, CaptureStage.FOCUSED);
+				try {
+					mCamera.takePicture(new Camera.ShutterCallback() {
+						@Override
+						public void onShutter() {
+							tracker.mark(captureId, CaptureStage.SHUTTER);
+						}
+					}, null, new Camera.PictureCallback() {
+						@Override
+						public void onPictureTaken(byte[] data, Camera camera) {
+							tracker.mark(captureId, CaptureStage.JPEG_CALLBACK);
+							mFocusController.onCaptureFinished();
+							restartPreviewAfterPicture();
+							PerfEventLog.INSTANCE.record(PerfEvent.CAPTURE, data.length, captureId);
+							buffer.set(data, 0, data.length);
+							callback.onJpegCaptured(buffer);
+							tracker.mark(captureId, CaptureStage.CALLBACK_DELIVERED);
+						}
+					});
+				} catch (RuntimeException e) {
+					LogUtil.e(TAG, "takePictureToMemory - failed", e);
+					buffer.release();
+					mFocusController.onCaptureFinished();
+					mSession.moveTo(CameraSession.State.PREVIEWING);
+				}
+			}
+		});
+		return true;
+	}
+	
+	/**
+	 * Restarts the preview, stopped by the camera once a picture is taken, so the camera is free for
+	 * the next one. Left in {@link CameraSession.State#OPENED} if the preview does not start.
+	 */
+	private void restartPreviewAfterPicture() {
+		try {
+			mCamera.startPreview();
+		} catch (RuntimeException e) {
+			LogUtil.e(TAG, "restartPreviewAfterPicture - failed", e);
+			mSession.moveTo(CameraSession.State.OPENED);
+			return;
+		}
+		mSession.moveTo(CameraSession.State.PREVIEWING);
+		mFocusController.onPreviewStarted();
+	}
+	
+	/**
+	 * Sets the pool pictures taken to memory are delivered in. Defaults to a pool of
+	 * {@link CaptureBufferPool#DEFAULT_MAX_BUFFERS} buffers.
+	 *
+	 * @param pool the pool
+	 */
+	public void setCaptureBufferPool(CaptureBufferPool pool) {
+		mCaptureBufferPool = pool;
+	}
+	
+	/**
+	 * Gets the pool pictures taken to memory are delivered in, e.g. to check it for leaks.
+	 *
+	 * @return the pool
+	 */
+	public CaptureBufferPool getCaptureBufferPool() {
+		return mCaptureBufferPool;
+	}
+	
+	/**
+	 * Starts taking pictures on a schedule. Shot n is taken at start + n * intervalMs
+	 * regardless of how long the previous shots took. Images are saved on a background
+	 * thread in batches and reported to the given callback instead of {@link CameraCallback}.
+	 *
+	 * @param intervalMs the interval between two shots, in milliseconds
+	 * @param shotCount the number of shots to take, zero or negative for no limit
+	 * @param suspendPreview whether to stop the preview between shots to save power
+	 * @param callback the callback
+	 */
+	public void startIntervalCapture(final long intervalMs, final int shotCount, final boolean suspendPreview, final IntervalCaptureCallback callback) {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doStartIntervalCapture(intervalMs, shotCount, suspendPreview, callback);
+			}
+		});
+	}
+	
+	private void doStartIntervalCapture(long intervalMs, int shotCount, boolean suspendPreview, IntervalCaptureCallback callback) {
+		if (mCamera == null) {
+			return;
+		}
+		doStopIntervalCapture();
+		if (!mSession.isIn(CameraSession.State.PREVIEWING)) {
+			LogUtil.w(TAG, "startIntervalCapture - ignored in state {}", mSession.getState());
+			return;
+		}
+		mSession.moveTo(CameraSession.State.CAPTURING);
+		mIntervalPreviewRunning = true;
+		cancelVideoPrewarm();
+		
+		LogUtil.i(TAG, "startIntervalCapture - intervalMs: {} shotCount: {} suspendPreview: {}", intervalMs, shotCount, suspendPreview);
+		mIntervalCallback = callback;
+		mSuspendPreviewBetweenShots = suspendPreview;
+		mIntervalSaveQueue = createSaveQueue(Math.max(mGroupCommitBatchSize, CaptureSaveQueue.DEFAULT_MAX_BATCH_SIZE));
+		// On the clock the shots are posted with, so a delay is never computed on one clock and waited on another.
+		mIntervalScheduler = new IntervalCaptureScheduler(Clock.UPTIME, intervalMs, shotCount);
+		
+		// Parameters do not change between shots, so they are only set once per session.
+		Parameters params = getParams();
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			// Locked at what the running preview has metered, held until the session ends.
+			mSessionLocks = setSessionLocks(params, mLockExposureInSessions, mLockWhiteBalanceInSessions);
+		}
+		mCamera.setParameters(params);
+		mIntervalScheduler.start();
+		mHandler.post(mIntervalShotRunnable);
+	}
+	
+	/**
+	 * Sets whether interval sessions lock auto-exposure and auto white balance, so every
+	 * shot of a set comes out the same and the camera does not meter again after each one.
+	 * The values metered when the session starts are kept, and the locks are released when
+	 * it ends. Best left off for long time-lapses, where the light changes. Cameras without
+	 * the locks, and devices below API level 14, ignore them.
+	 *
+	 * @param autoExposure whether to lock auto-exposure
+	 * @param autoWhiteBalance whether to lock auto white balance
+	 */
+	public void setSessionLocks(boolean autoExposure, boolean autoWhiteBalance) {
+		mLockExposureInSessions = autoExposure;
+		mLockWhiteBalanceInSessions = autoWhiteBalance;
+	}
+	
+	/**
+	 * Gets the locks held for the running interval session.
+	 *
+	 * @return {@link #LOCK_AUTO_EXPOSURE} and {@link #LOCK_AUTO_WHITE_BALANCE} or'ed, 0 for none
+	 */
+	public int getSessionLocks() {
+		return mSessionLocks;
+	}
+	
+	/**
+	 * Sets or clears the auto-exposure and auto white balance locks the camera supports.
+	 *
+	 * @param params the parameters
+	 * @param autoExposure whether to lock auto-exposure
+	 * @param autoWhiteBalance whether to lock auto white balance
+	 * @return the locks set
+	 */
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	private static int setSessionLocks(Parameters params, boolean autoExposure, boolean autoWhiteBalance) {
+		int locks = 0;
+		if (params.isAutoExposureLockSupported()) {
+			params.setAutoExposureLock(autoExposure);
+			locks |= autoExposure ? LOCK_AUTO_EXPOSURE : 0;
+		}
+		if (params.isAutoWhiteBalanceLockSupported()) {
+			params.setAutoWhiteBalanceLock(autoWhiteBalance);
+			locks |= autoWhiteBalance ? LOCK_AUTO_WHITE_BALANCE : 0;
+		}
+		return locks;
+	}
+	
+	/**
+	 * Releases the locks held for the interval session, so the camera meters again.
+	 */
+	private void releaseSessionLocks() {
+		if (mSessionLocks == 0) {
+			return;
+		}
+		mSessionLocks = 0;
+		if (mCamera == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			return;
+		}
+		try {
+			Parameters params = mCamera.getParameters();
+			setSessionLocks(params, false, false);
+			mCamera.setParameters(params);
+		} catch (RuntimeException e) {
+			LogUtil.w(TAG, "releaseSessionLocks - failed", e);
+		}
+	}
+	
+	/**
+	 * Gets the save queue for single pictures, creating it if needed.
+	 *
+	 * @return the capture save queue
+	 */
+	private CaptureSaveQueue getCaptureSaveQueue() {
+		if (mCaptureSaveQueue == null) {
+			mCaptureSaveQueue = createSaveQueue(mGroupCommitBatchSize);
+		}
+		return mCaptureSaveQueue;
+	}
+	
+	/**
+	 * Creates a save queue that writes each batch of pictures back to back and makes them
+	 * durable with one commit, so a burst pays for one sync cycle instead of one per picture.
+	 * Pictures are acknowledged once their batch is committed.
+	 *
+	 * @param maxBatchSize the max batch size
+	 * @return the capture save queue
+	 */
+	private CaptureSaveQueue createSaveQueue(int maxBatchSize) {
+		final DurableFileWriter writer = new DurableFileWriter(DurabilityPolicy.BATCHED).setCipher(mMediaCipher);
+		// The pictures written since the last commit, only used on the queue's worker.
+		final Map<String, CaptureRecord> written = new HashMap<String, CaptureRecord>();
+		return new CaptureSaveQueue(new CaptureSaveQueue.Writer() {
+			@Override
+			public String write(byte[] data) {
+				CaptureRecord record = writeImage(data, data.length, writer);
+				if (record == null) {
+					return null;
+				}
+				written.put(record.path, record);
+				return record.path;
+			}
+		}, new CaptureSaveQueue.Committer() {
+			@Override
+			public Collection<String> commit() {
+				List<File> files = writer.commit();
+				List<String> paths = new ArrayList<String>(files.size());
+				for (File file : files) {
+					String path = file.getAbsolutePath();
+					onImageSaved(written.get(path));
+					paths.add(path);
+				}
+				written.clear();
+				return paths;
+			}
+		}, maxBatchSize, mGroupCommitLatencyMs);
+	}
+	
+	/**
+	 * Stops the running interval capture session, if any. Pictures already taken
+	 * are still saved and reported.
+	 */
+	public void stopIntervalCapture() {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doStopIntervalCapture();
+			}
+		});
+	}
+	
+	private void doStopIntervalCapture() {
+		mHandler.removeCallbacks(mIntervalShotRunnable);
+		mHandler.removeCallbacks(mResumePreviewRunnable);
+		if (mIntervalScheduler != null) {
+			if (mIntervalShotInFlight) {
+				mIntervalStopRequested = true;
+			} else {
+				finishIntervalCapture();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the timing statistics of the running interval capture session.
+	 * The statistics of a finished session are passed to
+	 * {@link IntervalCaptureCallback#onIntervalCaptureFinished(IntervalCaptureScheduler.Stats)}.
+	 *
+	 * @return the stats, or null if no session is running
+	 */
+	public IntervalCaptureScheduler.Stats getIntervalCaptureStats() {
+		return mIntervalScheduler != null ? mIntervalScheduler.getStats() : null;
+	}
+	
+	/** Takes the next interval shot. */
+	private Runnable mIntervalShotRunnable = new Runnable() {
+		@Override
+		public void run() {
+			takeIntervalShot();
+		}
+	};
+	
+	/** Restarts the preview ahead of the next interval shot. */
+	private Runnable mResumePreviewRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (mCamera != null) {
+				mCamera.startPreview();
+				mIntervalPreviewRunning = true;
+				mFocusController.onPreviewStarted();
+			}
+		}
+	};
+	
+	/**
+	 * Take interval shot.
+	 */
+	private void takeIntervalShot() {
+		if (mCamera == null || mIntervalScheduler == null) {
+			return;
+		}
+		final IntervalCaptureScheduler scheduler = mIntervalScheduler;
+		final CaptureSaveQueue saveQueue = mIntervalSaveQueue;
+		final IntervalCaptureCallback callback = mIntervalCallback;
+		final int shot = scheduler.onShotStarted();
+		// Reported in elapsed realtime, like every other capture time.
+		final long actualTime = SystemClock.elapsedRealtime();
+		final long scheduledTime = actualTime - (scheduler.getLastShotTime() - scheduler.getScheduledTime(shot));
+		
+		mIntervalShotInFlight = true;
+		mIntervalPreviewRunning = false;
+		try {
+			takeIntervalPicture(scheduler, saveQueue, callback, shot, scheduledTime, actualTime);
+		} catch (RuntimeException e) {
+			// The camera is unlikely to take the next one either.
+			LogUtil.e(TAG, "takeIntervalShot - failed", e);
+			PerfEventLog.INSTANCE.recordError(PerfEvent.CAPTURE);
+			mIntervalShotInFlight = false;
+			mIntervalPreviewRunning = true;
+			if (callback != null) {
+				callback.onIntervalImageCaptured(shot, null, scheduledTime, actualTime);
+			}
+			finishIntervalCapture();
+		}
+	}
+	
+	private void takeIntervalPicture(final IntervalCaptureScheduler scheduler, final CaptureSaveQueue saveQueue,
+			final IntervalCaptureCallback callback, final int shot, final long scheduledTime, final long actualTime) {
+		mCamera.takePicture(null, null, new Camera.PictureCallback() {
+			@Override
+			public void onPictureTaken(byte[] data, Camera camera) {
+				mIntervalShotInFlight = false;
+				PerfEventLog.INSTANCE.record(PerfEvent.CAPTURE, data.length, shot);
+				long frameMs = scheduler.onShotFinished();
+				PerfEventLog.INSTANCE.record(PerfEvent.SESSION_FRAME, frameMs * 1000, mSessionLocks);
+				saveQueue.enqueue(data, new CaptureSaveQueue.SaveCallback() {
+					@Override
+					public void onSaved(final String fullFilePath) {
+						mHandler.post(new Runnable() {
+							@Override
+							public void run() {
+								if (callback != null) {
+									callback.onIntervalImageCaptured(shot, fullFilePath, scheduledTime, actualTime);
+								}
+							}
+						});
+					}
+				});
+				
+				if (scheduler != mIntervalScheduler) {
+					return;
+				}
+				if (mIntervalStopRequested) {
+					finishIntervalCapture();
+				} else {
+					scheduleNextIntervalShot();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Schedule next interval shot. The preview is stopped once a picture has been
+	 * taken, so it is either restarted right away or just before the next shot.
+	 */
+	private void scheduleNextIntervalShot() {
+		if (mIntervalScheduler.isFinished()) {
+			finishIntervalCapture();
+			return;
+		}
+		
+		long shotTime = mIntervalScheduler.getNextShotTime();
+		if (mSuspendPreviewBetweenShots && mIntervalScheduler.getDelayToPreviewResume(PREVIEW_WARMUP_MS) > 0) {
+			mHandler.postAtTime(mResumePreviewRunnable, shotTime - PREVIEW_WARMUP_MS);
+		} else {
+			mCamera.startPreview();
+			mIntervalPreviewRunning = true;
+			mFocusController.onPreviewStarted();
+		}
+		mHandler.postAtTime(mIntervalShotRunnable, shotTime);
+	}
+	
+	/**
+	 * Finish interval capture. The finished callback is delivered after the
+	 * last pending image of the session has been saved.
+	 */
+	private void finishIntervalCapture() {
+		final IntervalCaptureScheduler.Stats stats = mIntervalScheduler.getStats();
+		final IntervalCaptureCallback callback = mIntervalCallback;
+		LogUtil.i(TAG, "finishIntervalCapture - stats: {}", stats);
+		
+		mIntervalSaveQueue.shutdown(new CaptureSaveQueue.SaveCallback() {
+			@Override
+			public void onSaved(String fullFilePath) {
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (callback != null) {
+							callback.onIntervalCaptureFinished(stats);
+						}
+					}
+				});
+			}
+		});
+		mIntervalScheduler = null;
+		mIntervalSaveQueue = null;
+		mIntervalCallback = null;
+		mIntervalShotInFlight = false;
+		mIntervalStopRequested = false;
+		releaseSessionLocks();
+		mSession.moveTo(mIntervalPreviewRunning ? CameraSession.State.PREVIEWING : CameraSession.State.OPENED);
+	}
+	
+	/**
+	 * Starts keeping the last seconds of video in memory, so that a clip including
+	 * the moments before an event can be saved with {@link #triggerPreEventClip(int, PreEventRecorder.Callback)}.
+	 * Requires API level 18 and a running preview. Only one of pre-event recording and
+	 * {@link #startVideoRecording()} can run at a time. May be called from any thread.
+	 *
+	 * @param preEventDurationMs how much video before the trigger to keep
+	 * @param byteBudget the max number of bytes of encoded video kept in memory
+	 * @return true, if started, or queued behind other operations
+	 */
+	public boolean startPreEventRecording(final int preEventDurationMs, final int byteBudget) {
+		final boolean[] started = new boolean[1];
+		boolean ran = mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				started[0] = doStartPreEventRecording(preEventDurationMs, byteBudget);
+			}
+		});
+		return !ran || started[0];
+	}
+	
+	private boolean doStartPreEventRecording(int preEventDurationMs, int byteBudget) {
+		if (mCamera == null || mMediaRecorder != null || !PreEventRecorder.isSupported()) {
+			return false;
+		}
+		if (!mSession.isIn(CameraSession.State.PREVIEWING)) {
+			LogUtil.w(TAG, "startPreEventRecording - ignored in state {}", mSession.getState());
+			return false;
+		}
+		doStopPreEventRecording();
+		cancelVideoPrewarm();
+		
+		PreEventRecorder recorder = new PreEventRecorder(mCamera)
+				.setPreEventDurationMs(preEventDurationMs)
+				.setByteBudget(byteBudget)
+				.setOrientationHint(getCameraDisplayOrientation());
+		try {
+			recorder.start();
+		} catch (Exception e) {
+			e.printStackTrace();
+			recorder.stop();
+			return false;
+		}
+		mPreEventRecorder = recorder;
+		return true;
+	}
+	
+	/**
+	 * Saves the buffered video and the video of the next postEventMs to a new file
+	 * in the video storage path. May be called from any thread.
+	 *
+	 * @param postEventMs how long to keep recording after the trigger
+	 * @param callback the callback
+	 * @return true, if the clip was started, or queued behind other operations
+	 */
+	public boolean triggerPreEventClip(final int postEventMs, final PreEventRecorder.Callback callback) {
+		final boolean[] started = new boolean[1];
+		boolean ran = mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				started[0] = doTriggerPreEventClip(postEventMs, callback);
+			}
+		});
+		return !ran || started[0];
+	}
+	
+	private boolean doTriggerPreEventClip(int postEventMs, PreEventRecorder.Callback callback) {
+		if (mPreEventRecorder == null) {
+			return false;
+		}
+		File clip = getMediaFile(false);
+		if (clip == null) {
+			return false;
+		}
+		return mPreEventRecorder.trigger(clip.getAbsolutePath(), postEventMs, callback);
+	}
+	
+	/**
+	 * Stops pre-event recording. A clip being written is finished with the video recorded so far.
+	 */
+	public void stopPreEventRecording() {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doStopPreEventRecording();
+			}
+		});
+	}
+	
+	private void doStopPreEventRecording() {
+		if (mPreEventRecorder != null) {
+			mPreEventRecorder.stop();
+			mPreEventRecorder = null;
+		}
+	}
+	
+	/**
+	 * Sets the video properties.
+	 *
+	 * @param properties the new video properties
+	 */
+	public void setVideoProperties(VideoProperties properties) {
+		if (properties != mVideoProperties) {
+			cancelVideoPrewarm();
+			// The preview size suits the video from the next time the preview starts.
+			mSizeSelection = null;
+		}
+		mVideoProperties = properties;
+	}
+	
+	/**
+	 * Sets the catalog every picture and video written from now on is recorded in. Captures the
+	 * {@link MemoryUtil#getStorageBudgetManager() storage budget} evicts are removed from it.
+	 * The catalog is not closed by the handler.
+	 *
+	 * @param catalog the catalog, null to stop recording
+	 */
+	public void setCaptureCatalog(CaptureCatalog catalog) {
+		mCaptureCatalog = catalog;
+		MemoryUtil.getStorageBudgetManager().setEvictionListener(catalog);
+	}
+	
+	/**
+	 * Sets the queue jobs of the given types are added to for every picture and video
+	 * written from now on. The queue must be started and is not shut down by the handler.
+	 *
+	 * @param queue the queue, null to stop adding jobs
+	 * @param jobTypes the job types, e.g. {@link ThumbnailJobHandler#TYPE}
+	 */
+	public void setPostProcessing(ProcessingJobQueue queue, String... jobTypes) {
+		mPostProcessingTypes = jobTypes.clone();
+		mPostProcessingQueue = queue;
+	}
+	
+	/**
+	 * Sets how hard saving a picture works to get it onto storage before reporting it as
+	 * saved. Defaults to {@link DurabilityPolicy#PER_FILE}.
+	 *
+	 * @param policy the durability policy
+	 */
+	public void setDurabilityPolicy(DurabilityPolicy policy) {
+		mFileWriter = new DurableFileWriter(policy).setCipher(mMediaCipher);
+	}
+	
+	/**
+	 * Sets the cipher pictures and videos are encrypted with, see {@link MediaCipher}. Pictures are
+	 * encrypted as they are written, and {@link ImageUtil} is given the same cipher so it can decode them.
+	 * Videos are written by MediaRecorder, which seeks back into its output, so each finished video or
+	 * segment is encrypted on a background thread and replaced in one rename, and only reported once
+	 * encrypted; read them with {@link MediaCipher#open(File)}. Call before capturing; a running group
+	 * commit, interval session or recording keeps its setting.
+	 *
+	 * @param cipher the cipher, null to save pictures and videos plain
+	 */
+	public void setEncryption(MediaCipher cipher) {
+		mMediaCipher = cipher;
+		mFileWriter.setCipher(cipher);
+		ImageUtil.INSTANCE.setMediaCipher(cipher);
+	}
+	
+	/**
+	 * Saves pictures taken in quick succession together: up to maxBatchSize pictures are
+	 * written back to back on a background thread, synced with a single commit and only
+	 * then reported to {@link CameraCallback#onImageCaptured(String)}. Interval capture
+	 * sessions use the same settings. Pass a batch size of 1 to save each picture on its own
+	 * with the {@link #setDurabilityPolicy(DurabilityPolicy) durability policy}, which is the default.
+	 *
+	 * @param maxBatchSize the max number of pictures committed together
+	 * @param maxLatencyMs how long a picture may wait for more pictures to share its commit
+	 */
+	public void setGroupCommit(int maxBatchSize, long maxLatencyMs) {
+		if (mCaptureSaveQueue != null) {
+			mCaptureSaveQueue.shutdown(null);
+			mCaptureSaveQueue = null;
+		}
+		mGroupCommitBatchSize = Math.max(1, maxBatchSize);
+		mGroupCommitLatencyMs = Math.max(0, maxLatencyMs);
+	}
+	
+	/**
+	 * Enables preparing the media recorder in the background as soon as the preview
+	 * runs, so that {@link #startVideoRecording()} only has to start it. Set the video
+	 * properties before showing the preview. While a recorder is prepared the camera is
+	 * unlocked; taking a picture, focusing on a point or changing camera settings discards it
+	 * first. Space for the recording is only reserved once it is started.
+	 *
+	 * @param enabled whether to prewarm the recorder
+	 */
+	public void setVideoPrewarmEnabled(boolean enabled) {
+		mVideoPrewarmEnabled = enabled;
+		if (!enabled) {
+			cancelVideoPrewarm();
+		}
+	}
+	
+	/**
+	 * Prepares the media recorder in the background. Does nothing until the preview surface exists.
+	 */
+	private void prewarmVideoRecording() {
+		if (mCamera == null || (mCameraSurface == null && mPreviewTexture == null) || mMediaRecorder != null
+				|| mPrewarmedRecorder != null || mPreEventRecorder != null || mIntervalScheduler != null) {
+			return;
+		}
+		Surface surface = getRecorderPreviewSurface();
+		if (mPreviewTexture == null && (surface == null || !surface.isValid())) {
+			return;
+		}
+		if (mVideoProperties == null) {
+			mVideoProperties = new VideoProperties();
+		}
+		
+		// The camera only reports its video sizes while locked.
+		mVideoProperties.resolveVideoSize();
+		final MediaRecorder recorder = new MediaRecorder();
+		mCamera.unlock();
+		try {
+			// The recording's space is only reserved once it is started, the preview may never record.
+			mVideoProperties.setPropertiesToPrewarmedRecorder(recorder);
+			if (surface != null) {
+				recorder.setPreviewDisplay(surface);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			recorder.release();
+			mVideoProperties.discardOutput();
+			mCamera.lock();
+			return;
+		}
+		
+		if (mPrewarmExecutor == null) {
+			mPrewarmExecutor = Executors.newSingleThreadExecutor();
+		}
+		mPrewarmedRecorder = recorder;
+		mPrewarmTask = mPrewarmExecutor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				recorder.prepare();
+				return null;
+			}
+		});
+		LogUtil.i(TAG, "prewarmVideoRecording - path: {}", mVideoProperties.getPath());
+	}
+	
+	/**
+	 * Prepares the recorder again after the camera was needed, if prewarming is on and the camera is free.
+	 */
+	private void resumeVideoPrewarm() {
+		if (mVideoPrewarmEnabled && mSession.isIn(CameraSession.State.PREVIEWING)) {
+			prewarmVideoRecording();
+		}
+	}
+	
+	/**
+	 * Waits for the prewarmed recorder to be prepared.
+	 *
+	 * @return true, if the recorder was prepared successfully
+	 */
+	private boolean awaitVideoPrewarm() {
+		try {
+			mPrewarmTask.get();
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Releases the prewarmed recorder, if any, deletes the file it created and locks the camera again.
+	 */
+	private void cancelVideoPrewarm() {
+		if (mPrewarmedRecorder == null) {
+			return;
+		}
+		// The recorder cannot be released while prepare() runs.
+		awaitVideoPrewarm();
+		mPrewarmedRecorder.release();
+		mPrewarmedRecorder = null;
+		mPrewarmTask = null;
+		if (mVideoProperties != null) {
+			mVideoProperties.discardOutput();
+		}
+		if (mCamera != null) {
+			mCamera.lock();
+		}
+		LogUtil.i(TAG, "cancelVideoPrewarm");
+	}
+	
+	/**
+	 * Start video recording. Space for the whole recording, from the bit rate and the max
+	 * duration or file size of the {@link VideoProperties}, is reserved before it starts.
+	 * A recording that cannot start, e.g. with an {@link InsufficientStorageException}, is
+	 * reported to {@link VideoCaptureCallback#onVideoCaptureFailed(Exception)} if the
+	 * callback implements it. May be called from any thread.
+	 */
+	public void startVideoRecording() {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doStartVideoRecording();
+			}
+		});
+	}
+	
+	private void doStartVideoRecording() {
+		if (mCamera == null || mPreEventRecorder != null) {
+			return;
+		}
+		if (!mSession.isIn(CameraSession.State.PREVIEWING)) {
+			LogUtil.w(TAG, "startVideoRecording - ignored in state {}", mSession.getState());
+			return;
+		}
+		long requestTime = System.nanoTime();
+		
+		if (mPrewarmedRecorder != null && awaitVideoPrewarm()) {
+			mMediaRecorder = mPrewarmedRecorder;
+			mPrewarmedRecorder = null;
+			mPrewarmTask = null;
+			try {
+				mVideoProperties.reserveOutput();
+				startMediaRecorder(requestTime);
+			} catch (IllegalStateException e) {
+				releaseFailedMediaRecorder(e);
+			} catch (IOException e) {
+				releaseFailedMediaRecorder(e);
+			}
+			return;
+		}
+		
+		cancelVideoPrewarm();
+		if (mVideoProperties == null) {
+			mVideoProperties = new VideoProperties();
+		}
+		// The camera only reports its video sizes while locked.
+		mVideoProperties.resolveVideoSize();
+		mCamera.unlock();
+		prepareMediaRecorder(requestTime);
+	}
+	
+	/**
+	 * Gets the time the last recording took to start, from the
+	 * {@link #startVideoRecording()} call to MediaRecorder#start() returning.
+	 * All start latencies are also kept in {@link CaptureLatencyTracker#getVideoStartHistogram()}.
+	 *
+	 * @return the latency in milliseconds, or -1 if nothing was recorded yet
+	 */
+	public long getLastVideoStartLatencyMs() {
+		return mLastVideoStartLatencyUs >= 0 ? mLastVideoStartLatencyUs / 1000 : -1;
+	}
+	
+	/**
+	 * Prepare media recorder.
+	 *
+	 * @param requestTime the System#nanoTime() recording was requested at
+	 */
+	private void prepareMediaRecorder(long requestTime) {
+		VideoStorageReservation reservation = null;
+		try {
+			if (mMediaRecorder == null) {
+				mMediaRecorder = new MediaRecorder();
+				if (mVideoProperties == null) {
+					mVideoProperties = new VideoProperties();
+				}
+				reservation = mVideoProperties.setPropertiesToMediaRecorder(mMediaRecorder);
+			}
+			Surface surface = getRecorderPreviewSurface();
+			if (surface != null) {
+				mMediaRecorder.setPreviewDisplay(surface);
+			}
+			mMediaRecorder.prepare();
+			// The recorder holds the file from here on.
+			closeReservation(reservation);
+			reservation = null;
+			startMediaRecorder(requestTime);
+		} catch (IllegalStateException e) {
+			closeReservation(reservation);
+			reservation = null;
+			releaseFailedMediaRecorder(e);
+		} catch (IOException e) {
+			closeReservation(reservation);
+			reservation = null;
+			releaseFailedMediaRecorder(e);
+		} finally {
+			closeReservation(reservation);
+		}
+	}
+	
+	/**
+	 * Closes a reservation, if any.
+	 *
+	 * @param reservation the reservation, may be null
+	 */
+	private static void closeReservation(VideoStorageReservation reservation) {
+		if (reservation != null) {
+			reservation.close();
+		}
+	}
+	
+	/**
+	 * Starts the prepared media recorder.
+	 *
+	 * @param requestTime the System#nanoTime() recording was requested at
+	 */
+	private void startMediaRecorder(long requestTime) {
+		mMediaRecorder.start();
+		mRecordingStartTime = System.nanoTime();
+		mLastVideoStartLatencyUs = (mRecordingStartTime - requestTime) / 1000;
+		CaptureLatencyTracker.INSTANCE.recordVideoStart(mLastVideoStartLatencyUs);
+		PerfEventLog.INSTANCE.record(PerfEvent.RECORD_START, mLastVideoStartLatencyUs, 0);
+		LogUtil.i(TAG, "startMediaRecorder - latencyUs: {}", mLastVideoStartLatencyUs);
+		
+		mSession.moveTo(CameraSession.State.RECORDING);
+		mMediaRecorder.setOnInfoListener(infoListener);
+		if (mVideoProperties.isSegmented() && !usesNextOutputFile()) {
+			mNextMediaRecorder = createNextSegmentRecorder();
+		}
+		if (mCallback != null) {
+			mCallback.onVideoCaptureStarted();
+		}
+	}
+	
+	/**
+	 * Releases a media recorder which failed to prepare or start, locks the camera again, deletes
+	 * the file created for the recording and reports the failure.
+	 *
+	 * @param cause the cause
+	 */
+	private void releaseFailedMediaRecorder(Exception cause) {
+		LogUtil.w(TAG, "startVideoRecording - failed", cause);
+		PerfEventLog.INSTANCE.recordError(PerfEvent.RECORD_START);
+		mMediaRecorder.release();
+		mMediaRecorder = null;
+		if (mCamera != null) {
+			mCamera.lock();
+		}
+		if (mVideoProperties != null) {
+			mVideoProperties.discardOutput();
+		}
+		if (mCallback instanceof VideoCaptureCallback) {
+			((VideoCaptureCallback) mCallback).onVideoCaptureFailed(cause);
+		}
+	}
+	
+	/**
+	 * Releases the media recorder once stopped, locks the camera again and frees it for the preview.
+	 */
+	private void releaseStoppedMediaRecorder() {
+		mMediaRecorder.release();
+		mMediaRecorder = null;
+		if (mCamera != null) {
+			mCamera.lock();
+		}
+		mSession.moveTo(CameraSession.State.PREVIEWING);
+	}
+	
+	/**
+	 * Stop video recording. A recording that stopped with nothing valid recorded, e.g. right
+	 * after it started, is deleted and reported to {@link VideoCaptureCallback#onVideoCaptureFailed(Exception)}
+	 * if the callback implements it. May be called from any thread.
+	 */
+	public void stopVideoRecording() {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doStopVideoRecording();
+			}
+		});
+	}
+	
+	private void doStopVideoRecording() {
+		if (mMediaRecorder == null) {
+			return;
+		}
+		releaseNextMediaRecorder();
+		try {
+			mMediaRecorder.stop();
+		} catch (RuntimeException e) {
+			// Nothing valid was recorded, e.g. stopped right after start(), and the file is unusable.
+			LogUtil.w(TAG, "stopVideoRecording - failed", e);
+			PerfEventLog.INSTANCE.recordError(PerfEvent.RECORD_STOP);
+			releaseStoppedMediaRecorder();
+			String path = mVideoProperties.getPath();
+			if (path != null) {
+				File file = new File(path);
+				file.delete();
+				MemoryUtil.getStorageBudgetManager().release(file);
+			}
+			mVideoProperties = null;
+			if (mCallback instanceof VideoCaptureCallback) {
+				((VideoCaptureCallback) mCallback).onVideoCaptureFailed(e);
+			}
+			return;
+		}
+		releaseStoppedMediaRecorder();
+		PerfEventLog.INSTANCE.record(PerfEvent.RECORD_STOP, (System.nanoTime() - mRecordingStartTime) / 1000000, 0);
+		if (mVideoProperties.isSegmented()) {
+			mVideoProperties.notifySegmentRecorded();
+		} else {
+			onMediaFileWritten(mVideoProperties.getPath());
+		}
+		reportVideoCaptured(mVideoProperties.getPath());
+		mVideoProperties = null;
+	}
+	
+	/**
+	 * Reports a recording to the callback once its files are saved.
+	 *
+	 * @param path the path of the video, or of its last segment
+	 */
+	private void reportVideoCaptured(final String path) {
+		final CameraCallback callback = mCallback;
+		if (callback != null) {
+			afterVideosSaved(new Runnable() {
+				@Override
+				public void run() {
+					callback.onVideoCaptured(path);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Runs a report on the main thread once the videos recorded so far are encrypted, right away if
+	 * none are being encrypted, so that nothing is reported before its file is final.
+	 *
+	 * @param report the report
+	 */
+	private void afterVideosSaved(final Runnable report) {
+		if (mVideoEncryptionExecutor == null) {
+			report.run();
+			return;
+		}
+		mVideoEncryptionExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				mHandler.post(report);
+			}
+		});
+	}
+	
+	/**
+	 * Measures the sustained write throughput of the video storage directory, which
+	 * {@link VideoProperties#setAdaptiveProfile(boolean)} uses to pick the video profile.
+	 * Blocks for a moment, so call it off the main thread, for instance when the app
+	 * starts. The result is cached for the life of the process.
+	 *
+	 * @return the throughput in bytes per second, or -1 if it could not be measured
+	 */
+	public long measureVideoStorageThroughput() {
+		File video = getMediaFile(false);
+		return video != null ? StorageThroughputProbe.getThroughput(video.getParentFile()) : -1;
+	}
+	
+	/**
+	 * Gets the video profiles the current camera supports, from its camcorder profiles.
+	 *
+	 * @return the video profiles
+	 */
+	public List<VideoProfile> getSupportedVideoProfiles() {
+		int[] qualities;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			qualities = new int[] { CamcorderProfile.QUALITY_1080P, CamcorderProfile.QUALITY_720P, CamcorderProfile.QUALITY_480P,
+					CamcorderProfile.QUALITY_CIF, CamcorderProfile.QUALITY_QCIF, CamcorderProfile.QUALITY_LOW };
+		} else {
+			qualities = new int[] { CamcorderProfile.QUALITY_HIGH, CamcorderProfile.QUALITY_LOW };
+		}
+		
+		List<VideoProfile> profiles = new ArrayList<VideoProfile>();
+		for (int quality : qualities) {
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && !CamcorderProfile.hasProfile(mCameraId, quality)) {
+				continue;
+			}
+			CamcorderProfile camcorderProfile = CamcorderProfile.get(mCameraId, quality);
+			if (camcorderProfile == null) {
+				continue;
+			}
+			VideoProfile profile = new VideoProfile(camcorderProfile.videoFrameWidth, camcorderProfile.videoFrameHeight,
+					camcorderProfile.videoFrameRate, camcorderProfile.videoBitRate, camcorderProfile.audioBitRate);
+			boolean duplicate = false;
+			for (VideoProfile other : profiles) {
+				duplicate |= other.width == profile.width && other.height == profile.height && other.frameRate == profile.frameRate;
+			}
+			if (!duplicate) {
+				profiles.add(profile);
+			}
+		}
+		return profiles;
+	}
+	
+	/**
+	 * Gets the surface the media recorder shows its preview on. Null in headless mode, where
+	 * the recorder takes the frames of the running preview.
+	 *
+	 * @return the surface, or null
+	 */
+	private Surface getRecorderPreviewSurface() {
+		return mCameraSurface != null ? mCameraSurface.getSurfaceHolder().getSurface() : null;
+	}
+	
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private void releasePreviewTexture() {
+		if (mPreviewTexture != null) {
+			mPreviewTexture.release();
+			mPreviewTexture = null;
+		}
+	}
+	
+	/**
+	 * Gets the camera display orientation.
+	 *
+	 * @return the camera display orientation
+	 */
+	public int getCameraDisplayOrientation() {
+	     android.hardware.Camera.CameraInfo info = new android.hardware.Camera.CameraInfo();
+	     android.hardware.Camera.getCameraInfo(mCameraId, info);
+	     int degrees = mDeviceRotation;
+	     if (degrees == -1) {
+	         int rotation = mContext instanceof Activity
+	                 ? ((Activity) mContext).getWindowManager().getDefaultDisplay().getRotation() : Surface.ROTATION_0;
+	         switch (rotation) {
+	             case Surface.ROTATION_0: degrees = 0; break;
+	             case Surface.ROTATION_90: degrees = 90; break;
+	             case Surface.ROTATION_180: degrees = 180; break;
+	             case Surface.ROTATION_270: degrees = 270; break;
+	         }
+	     }
+
+	     int result;
+	     if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+	         result = (info.orientation + degrees) % 360;
+	         result = (360 - result) % 360;  // compensate the mirror
+	     } else {  // back-facing
+	         result = (info.orientation - degrees + 360) % 360;
+	     }
+	     LogUtil.d(TAG, "getCameraDisplayOrientation - rotation: {}", result);
+	     return result;
+	 }
+	
+	/**
+	 * Allows the app to save the captured images and videos to a location
+	 * of their choice in the SD card.
+	 *
+	 * @param path - relative path under SD card where the media content is stored
+	 */
+	public void setImageStoragePath(String path) {
+		mImageStoragePath = Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + path;
+		mImageNamer = null;
+	}
+
+	/**
+	 * Sets the video storage path.
+	 *
+	 * @param path the new video storage path
+	 */
+	public void setVideoStoragePath(String path) {
+		mVideoStoragePath = Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + path;
+		mVideoNamer = null;
+	}
+	
+	/**
+	 * Save image to filesystem.
+	 *
+	 * @param data the data
+	 * @return the string
+	 */
+	public String saveImageToFilesystem(byte[] data) {
+		return saveImageToFilesystem(data, data.length);
+	}
+	
+	/**
+	 * Saves a picture taken with {@link #takePictureToMemory(InMemoryCaptureCallback)} the same way
+	 * {@link #takePicture()} would have. The buffer is not released.
+	 *
+	 * @param buffer the buffer
+	 * @return the full file path, or null if the write failed
+	 */
+	public String saveCaptureBuffer(CaptureBuffer buffer) {
+		return saveImageToFilesystem(buffer.getData(), buffer.getLength());
+	}
+	
+	private String saveImageToFilesystem(byte[] data, int length) {
+		DurableFileWriter writer = mFileWriter;
+		if (writer.getPolicy() == DurabilityPolicy.BATCHED) {
+			// A writer of its own, so the commit only takes this picture and never one saved meanwhile on another thread.
+			writer = new DurableFileWriter(DurabilityPolicy.BATCHED).setCipher(writer.getCipher());
+		}
+		CaptureRecord record = writeImage(data, length, writer);
+		if (record == null || (writer.getPolicy() == DurabilityPolicy.BATCHED && writer.commit().isEmpty())) {
+			return null;
+		}
+		onImageSaved(record);
+		return record.path;
+	}
+	
+	/**
+	 * Writes a picture with the given writer. It is not accounted for yet, see
+	 * {@link #onImageSaved(CaptureRecord)}: with a batched writer the file only appears
+	 * once the writer is committed, and may never do.
+	 *
+	 * @param data the data
+	 * @param length the length of the JPEG in data
+	 * @param writer the writer
+	 * @return the record of the picture, or null if the write failed
+	 */
+	private CaptureRecord writeImage(byte[] data, int length, DurableFileWriter writer) {
+		File picture = getMediaFile(true);		// Get image file container.
+		if (picture == null) {
+			return null;
+		}
+		long start = System.nanoTime();
+		try {
+			writer.write(picture, data, 0, length);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// The directory may have been removed behind our back; check it again next time.
+			MediaFileNamer namer = mImageNamer;
+			if (namer != null) {
+				namer.invalidateDirectory();
+			}
+			PerfEventLog.INSTANCE.recordError(PerfEvent.SAVE);
+			return null;
+		}
+		PerfEventLog.INSTANCE.record(PerfEvent.SAVE, length, (System.nanoTime() - start) / 1000);
+		long size = length + (writer.getCipher() != null ? MediaCipher.HEADER_SIZE : 0);
+		long now = System.currentTimeMillis();
+		return new CaptureRecord(picture.getAbsolutePath(), CaptureRecord.TYPE_IMAGE, size,
+				mPictureWidth, mPictureHeight, mPictureRotation, now, now, CaptureRecord.UNKNOWN, false);
+	}
+	
+	/**
+	 * Accounts for a picture once it is at its final path: in the storage budget, the catalog
+	 * and the post-processing queue.
+	 *
+	 * @param record the record of the picture
+	 */
+	private void onImageSaved(CaptureRecord record) {
+		MemoryUtil.getStorageBudgetManager().onFileWritten(new File(record.path), record.sizeBytes);
+		CaptureCatalog catalog = mCaptureCatalog;
+		if (catalog != null) {
+			catalog.record(record);
+		}
+		enqueuePostProcessing(record.path);
+	}
+	
+	/**
+	 * Finishes a recorded video file: trims it, encrypts it if a cipher is set, and accounts for it
+	 * in the storage budget and the catalog.
+	 *
+	 * @param path the path
+	 */
+	private void onMediaFileWritten(String path) {
+		if (path == null) {
+			return;
+		}
+		final File file = new File(path);
+		try {
+			// Drop the space reserved for the recording but not used.
+			VideoStorageReservation.trimToContent(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		final VideoProfile profile = mVideoProperties != null ? mVideoProperties.getSelectedProfile() : null;
+		final int orientation = getCameraDisplayOrientation();
+		final MediaCipher cipher = mMediaCipher;
+		if (cipher == null) {
+			onVideoSaved(file, profile, orientation);
+			return;
+		}
+		if (mVideoEncryptionExecutor == null) {
+			mVideoEncryptionExecutor = Executors.newSingleThreadExecutor();
+		}
+		mVideoEncryptionExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new DurableFileWriter(DurabilityPolicy.PER_FILE).setCipher(cipher).rewrite(file);
+				} catch (IOException e) {
+					LogUtil.e(TAG, "onMediaFileWritten - encryption failed, the video stays plain", e);
+				}
+				onVideoSaved(file, profile, orientation);
+			}
+		});
+	}
+	
+	/**
+	 * Accounts for a video file once it is final: in the storage budget, the catalog and the post-processing queue.
+	 *
+	 * @param file the file
+	 * @param profile the profile it was recorded with, may be null
+	 * @param orientation the orientation
+	 */
+	private void onVideoSaved(File file, VideoProfile profile, int orientation) {
+		MemoryUtil.getStorageBudgetManager().onFileWritten(file, file.length());
+		CaptureCatalog catalog = mCaptureCatalog;
+		if (catalog != null) {
+			catalog.record(new CaptureRecord(file.getPath(), CaptureRecord.TYPE_VIDEO, file.length(),
+					profile != null ? profile.width : CaptureRecord.UNKNOWN, profile != null ? profile.height : CaptureRecord.UNKNOWN,
+					orientation, file.lastModified(), file.lastModified(), CaptureRecord.UNKNOWN, false));
+		}
+		enqueuePostProcessing(file.getPath());
+	}
+	
+	/**
+	 * Adds the post-processing jobs of a written file.
+	 *
+	 * @param path the path
+	 */
+	private void enqueuePostProcessing(String path) {
+		ProcessingJobQueue queue = mPostProcessingQueue;
+		if (queue != null) {
+			for (String type : mPostProcessingTypes) {
+				try {
+					queue.enqueue(type, path);
+				} catch (IOException e) {
+					LogUtil.w(TAG, "enqueuePostProcessing - failed: {}", path, e);
+				} catch (IllegalStateException e) {
+					LogUtil.w(TAG, "enqueuePostProcessing - queue not started: {}", path, e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the media file. Names are unique even for several captures within the
+	 * same second, see {@link MediaFileNamer}.
+	 *
+	 * @param isImage the is image
+	 * @return the media file, or null if the storage directory cannot be created
+	 */
+	private File getMediaFile(boolean isImage) {
+		MediaFileNamer namer = isImage ? mImageNamer : mVideoNamer;
+		if (namer == null) {
+			namer = createMediaFileNamer(isImage);
+		}
+		File mediaFile = namer.next();
+		if (mediaFile == null) {
+			LogUtil.d(TAG, "getMediaFile - returning NULL");
+		}
+		return mediaFile;
+	}
+	
+	/**
+	 * Creates the namer for the image or video storage directory, defaulting the
+	 * directory to one named after today's date.
+	 *
+	 * @param isImage the is image
+	 * @return the media file namer
+	 */
+	private synchronized MediaFileNamer createMediaFileNamer(boolean isImage) {
+		File mediaDir = null;
+		if (isImage) {
+			if (mImageNamer != null) {
+				return mImageNamer;
+			}
+			if (mImageStoragePath != null && mImageStoragePath.length() > 0) {
+				mediaDir = new File(mImageStoragePath);
+			} else {
+				mImageStoragePath = new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date());
+				mediaDir = new File(Environment.getExternalStorageDirectory(), mImageStoragePath);
+				mImageStoragePath = mediaDir.getAbsolutePath();
+			}
+			LogUtil.i(TAG, "createMediaFileNamer - mImageStoragePath: {}", mImageStoragePath);
+			deleteStaleTempFiles(mediaDir);
+			MemoryUtil.getStorageBudgetManager().addCaptureDirectory(mediaDir);
+			mImageNamer = new MediaFileNamer(mediaDir, "PIC_", ".jpg");
+			return mImageNamer;
+		} else {
+			if (mVideoNamer != null) {
+				return mVideoNamer;
+			}
+			if (mVideoStoragePath != null && mVideoStoragePath.length() > 0) {
+				mediaDir = new File(mVideoStoragePath);
+			} else {
+				mVideoStoragePath = new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date());
+				mediaDir = new File(Environment.getExternalStorageDirectory(), mVideoStoragePath);
+				mVideoStoragePath = mediaDir.getAbsolutePath();
+			}
+			LogUtil.i(TAG, "createMediaFileNamer - mVideoStoragePath: {}", mVideoStoragePath);
+			deleteStaleTempFiles(mediaDir);
+			MemoryUtil.getStorageBudgetManager().addCaptureDirectory(mediaDir);
+			mVideoNamer = new MediaFileNamer(mediaDir, "VID_", ".mp4");
+			return mVideoNamer;
+		}
+	}
+	
+	/**
+	 * Deletes the temp files a crash left in a storage directory, once per directory and process.
+	 * Nothing is written there before its namer exists, so no temp file of a running write is hit.
+	 *
+	 * @param dir the storage directory
+	 */
+	private static void deleteStaleTempFiles(File dir) {
+		synchronized (sCleanedDirectories) {
+			if (!sCleanedDirectories.add(dir.getAbsolutePath())) {
+				return;
+			}
+		}
+		int deleted = DurableFileWriter.deleteStaleTempFiles(dir);
+		if (deleted > 0) {
+			LogUtil.i("CameraHandler", "deleteStaleTempFiles - {} in {}", deleted, dir);
+		}
+	}
+	
+	/**
+	 * Checks whether the current segmented recording can switch files with
+	 * MediaRecorder#setNextOutputFile. That only works for size based segments,
+	 * duration based segments always use the recorder switch.
+	 *
+	 * @return true, if the recorder switches files by itself
+	 */
+	private boolean usesNextOutputFile() {
+		return Build.VERSION.SDK_INT >= API_LEVEL_O && mVideoProperties.getMaxFileSizeBytes() > 0
+				&& getSetNextOutputFileMethod() != null;
+	}
+	
+	/**
+	 * Gets MediaRecorder#setNextOutputFile(File), which is not part of the SDK this library compiles against.
+	 *
+	 * @return the method, or null if unavailable
+	 */
+	private static synchronized Method getSetNextOutputFileMethod() {
+		if (!sSetNextOutputFileResolved) {
+			sSetNextOutputFileResolved = true;
+			try {
+				sSetNextOutputFile = MediaRecorder.class.getMethod("setNextOutputFile", File.class);
+			} catch (NoSuchMethodException e) {
+				sSetNextOutputFile = null;
+			}
+		}
+		return sSetNextOutputFile;
+	}
+	
+	/**
+	 * Creates a recorder configured for the next segment. Everything but prepare()
+	 * is done up front, since prepare() needs the camera which is still in use by the
+	 * current recorder.
+	 *
+	 * @return the media recorder, or null if it could not be configured
+	 */
+	private MediaRecorder createNextSegmentRecorder() {
+		MediaRecorder recorder = new MediaRecorder();
+		String nextPath = mVideoProperties.getNextSegmentPath();
+		try {
+			mNextReservation = mVideoProperties.setPropertiesToMediaRecorder(recorder, nextPath);
+			mPendingSegmentPath = nextPath;
+			return recorder;
+		} catch (Exception e) {
+			// Also when the storage is full; the recording then ends with the current segment.
+			e.printStackTrace();
+			recorder.release();
+			deleteUnusedSegment(nextPath);
+			return null;
+		}
+	}
+	
+	/**
+	 * Releases the recorder of the next segment, if any, and deletes the file created
+	 * and preallocated for it, which would otherwise stay behind at its reserved size.
+	 */
+	private void releaseNextMediaRecorder() {
+		if (mNextMediaRecorder != null) {
+			mNextMediaRecorder.release();
+			mNextMediaRecorder = null;
+		}
+		closeReservation(mNextReservation);
+		mNextReservation = null;
+		deleteUnusedSegment(mPendingSegmentPath);
+		mPendingSegmentPath = null;
+	}
+	
+	/**
+	 * Deletes the file of a segment which was never recorded to.
+	 *
+	 * @param path the path, may be null
+	 */
+	private static void deleteUnusedSegment(String path) {
+		if (path != null) {
+			File file = new File(path);
+			file.delete();
+			MemoryUtil.getStorageBudgetManager().release(file);
+		}
+	}
+	
+	/**
+	 * Stops the current recorder at a segment boundary and starts the recorder of
+	 * the next segment right away. The following recorder is configured once this
+	 * one is running so that the next switch is as short as possible.
+	 */
+	private void switchToNextSegmentRecorder() {
+		MediaRecorder next = mNextMediaRecorder != null ? mNextMediaRecorder : createNextSegmentRecorder();
+		String nextPath = mPendingSegmentPath;
+		VideoStorageReservation nextReservation = mNextReservation;
+		mNextMediaRecorder = null;
+		mPendingSegmentPath = null;
+		mNextReservation = null;
+		try {
+			mMediaRecorder.stop();
+		} catch (RuntimeException e) {
+			// The recorder may already have stopped itself at the limit.
+			e.printStackTrace();
+		}
+		mMediaRecorder.release();
+		mMediaRecorder = null;
+		mVideoProperties.notifySegmentRecorded();
+		
+		if (next == null) {
+			closeReservation(nextReservation);
+			finishSegmentedRecording();
+			return;
+		}
+		try {
+			Surface surface = getRecorderPreviewSurface();
+			if (surface != null) {
+				next.setPreviewDisplay(surface);
+			}
+			try {
+				next.prepare();
+			} finally {
+				closeReservation(nextReservation);
+			}
+			next.start();
+			next.setOnInfoListener(infoListener);
+			mMediaRecorder = next;
+			mVideoProperties.startNextSegment(nextPath);
+			LogUtil.i(TAG, "switchToNextSegmentRecorder - path: {}", mVideoProperties.getPath());
+		} catch (Exception e) {
+			e.printStackTrace();
+			next.release();
+			deleteUnusedSegment(nextPath);
+			finishSegmentedRecording();
+			return;
+		}
+		mNextMediaRecorder = createNextSegmentRecorder();
+	}
+	
+	/**
+	 * Ends a segmented recording which could not continue.
+	 */
+	private void finishSegmentedRecording() {
+		PerfEventLog.INSTANCE.record(PerfEvent.RECORD_STOP, (System.nanoTime() - mRecordingStartTime) / 1000000, 0);
+		if (mCamera != null) {
+			mCamera.lock();
+		}
+		mSession.moveTo(CameraSession.State.PREVIEWING);
+		reportVideoCaptured(mVideoProperties.getPath());
+		mVideoProperties = null;
+	}
+	
+	/**
+	 * Handles the recorder events of a segmented recording.
+	 *
+	 * @param mr the media recorder
+	 * @param what the event
+	 */
+	private void onSegmentedRecordingInfo(MediaRecorder mr, int what) {
+		if (what == MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING && usesNextOutputFile()) {
+			String nextPath = mVideoProperties.getNextSegmentPath();
+			try {
+				getSetNextOutputFileMethod().invoke(mr, new File(nextPath));
+				mPendingSegmentPath = nextPath;
+			} catch (Exception e) {
+				// Fall back to switching recorders once the limit is reached.
+				e.printStackTrace();
+			}
+		} else if (what == MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED && mPendingSegmentPath != null) {
+			mVideoProperties.notifySegmentRecorded();
+			mVideoProperties.startNextSegment(mPendingSegmentPath);
+			mPendingSegmentPath = null;
+		} else if (what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED || what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED) {
+			switchToNextSegmentRecorder();
+		}
+	}
+	
+	/** The info listener. */
+	private MediaRecorder.OnInfoListener infoListener = new MediaRecorder.OnInfoListener() {
+		@Override
+		public void onInfo(MediaRecorder mr, int what, int extra) {
+			if (mVideoProperties != null && mVideoProperties.isSegmented()) {
+				onSegmentedRecordingInfo(mr, what);
+				return;
+			}
+			if (what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED || what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED) {
+				stopVideoRecording();
+			}
+		}
+	};
+	
+	/**
+	 * The Class CameraSurface.
+	 */
+	class CameraSurface extends SurfaceView implements SurfaceHolder.Callback {
+
+		/** The m surface holder. */
+		private SurfaceHolder mSurfaceHolder;
+		
+		/**
+		 * Instantiates a new camera surface.
+		 *
+		 * @param context the context
+		 */
+		public CameraSurface(Context context) {
+			super(context);
+			
+			mSurfaceHolder = getHolder();
+			mSurfaceHolder.addCallback(this);
+			mSurfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+		}
+
+		/* (non-Javadoc)
+		 * @see android.view.SurfaceHolder.Callback#surfaceCreated(android.view.SurfaceHolder)
+		 */
+		@Override
+		public void surfaceCreated(SurfaceHolder holder) {
+			try {
+				mCamera.setPreviewDisplay(mSurfaceHolder);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		/* (non-Javadoc)
+		 * @see android.view.SurfaceHolder.Callback#surfaceChanged(android.view.SurfaceHolder, int, int, int)
+		 */
+		@Override
+		public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+			if (mSurfaceHolder.getSurface() == null) {
+				return;
+			}
+			
+			cancelVideoPrewarm();
+			doStopPreview();
+			mSurfaceWidth = width;
+			mSurfaceHeight = height;
+			mSizeSelection = null;
+			
+			try {
+				mCamera.setParameters(getParams(true));
+				showCameraPreview(mCameraPreview);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see android.view.SurfaceHolder.Callback#surfaceDestroyed(android.view.SurfaceHolder)
+		 */
+		@Override
+		public void surfaceDestroyed(SurfaceHolder holder) {
+			doReleaseCamera();
+		}
+		
+		/* (non-Javadoc)
+		 * @see android.view.View#onTouchEvent(android.view.MotionEvent)
+		 */
+		@Override
+		public boolean onTouchEvent(MotionEvent event) {
+			if (!mTapToFocus || mCamera == null) {
+				return super.onTouchEvent(event);
+			}
+			if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+				focusAt(event.getX(), event.getY(), getWidth(), getHeight());
+			}
+			return true;
+		}
+		
+		/**
+		 * Gets the surface holder.
+		 *
+		 * @return the surface holder
+		 */
+		public SurfaceHolder getSurfaceHolder() {
+			return mSurfaceHolder;
+		}
+	}
+	
+	/**
+	 * Sets the most pixels a picture may have, e.g. to keep files small. The largest picture within the
+	 * budget is taken, preferring the target aspect ratio. Applies from the next picture.
+	 *
+	 * @param maxPixels the max pixels, 0 for no limit (the default)
+	 */
+	public void setMaxPicturePixels(long maxPixels) {
+		mMaxPicturePixels = maxPixels;
+		mSizeSelection = null;
+	}
+	
+	/**
+	 * Sets the aspect ratio pictures and the preview aim at, e.g. 4.0 / 3 for the full sensor. By default
+	 * it is that of the video size, if set, otherwise that of the preview surface. Applies to pictures
+	 * from the next one and to the preview from the next time it starts.
+	 *
+	 * @param aspectRatio the aspect ratio, long side over short side, 0 for the default
+	 */
+	public void setTargetAspectRatio(double aspectRatio) {
+		mTargetAspectRatio = aspectRatio;
+		mSizeSelection = null;
+	}
+	
+	/**
+	 * Sets whether tapping the preview focuses and meters there. Defaults to true.
+	 *
+	 * @param tapToFocus whether taps focus
+	 */
+	public void setTapToFocus(boolean tapToFocus) {
+		mTapToFocus = tapToFocus;
+	}
+	
+	/**
+	 * Focuses and meters on a point of the preview, e.g. where it was tapped. The focus is held for
+	 * the following pictures, bursts and interval shots included, until {@link #clearFocus()}.
+	 *
+	 * @param x the x in the preview view
+	 * @param y the y in the preview view
+	 * @param viewWidth the width of the preview view
+	 * @param viewHeight the height of the preview view
+	 */
+	public void focusAt(final float x, final float y, final int viewWidth, final int viewHeight) {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				doFocusAt(x, y, viewWidth, viewHeight);
+			}
+		});
+	}
+	
+	private void doFocusAt(float x, float y, int viewWidth, int viewHeight) {
+		if (mCamera == null || viewWidth <= 0 || viewHeight <= 0) {
+			return;
+		}
+		// The camera cannot be focused while a prepared recorder holds it.
+		cancelVideoPrewarm();
+		FocusAreaMapper mapper = new FocusAreaMapper(viewWidth, viewHeight, getCameraDisplayOrientation(), isFrontFacingCamera());
+		mFocusController.focusOnRegion(mapper.regionAround(x, y, FOCUS_AREA_SIZE), new Runnable() {
+			@Override
+			public void run() {
+				resumeVideoPrewarm();
+			}
+		});
+	}
+	
+	/**
+	 * Goes back to focusing on the whole frame after {@link #focusAt(float, float, int, int)}.
+	 */
+	public void clearFocus() {
+		mSession.execute(new Runnable() {
+			@Override
+			public void run() {
+				cancelVideoPrewarm();
+				mFocusController.clearFocusRegion();
+				resumeVideoPrewarm();
+			}
+		});
+	}
+	
+	/**
+	 * Gets the focus controller, e.g. for the time continuous focus saves per capture.
+	 *
+	 * @return the focus controller
+	 */
+	public FocusController getFocusController() {
+		return mFocusController;
+	}
+	
+	/**
+	 * Sets what pictures should come out of the camera. The picture size, JPEG quality and embedded
+	 * thumbnail are set on the camera, so it produces them directly instead of a full sensor picture
+	 * that has to be scaled down afterwards. Replaces {@link #setMaxPicturePixels(long)} and
+	 * {@link #setTargetAspectRatio(double)}. Applies from the next picture.
+	 *
+	 * @param spec the output spec, null for the defaults
+	 */
+	public void setOutputSpec(OutputSpec spec) {
+		mOutputSpec = spec;
+		mMaxPicturePixels = spec != null ? spec.getMaxPixels() : 0;
+		mTargetAspectRatio = spec != null ? spec.getAspectRatio() : 0;
+		mSizeSelection = null;
+	}
+	
+	/**
+	 * Gets the output spec.
+	 *
+	 * @return the output spec, null for the defaults
+	 */
+	public OutputSpec getOutputSpec() {
+		return mOutputSpec;
+	}
+	
+	/**
+	 * Gets the preview, picture and video sizes chosen for the current camera, see {@link SizeSelector}.
+	 *
+	 * @return the sizes, null if the camera lists none
+	 */
+	public SizeSelector.Selection getSizeSelection() {
+		if (mSizeSelection == null && mCamera != null) {
+			SizeSelector selector = newSizeSelector(mCamera.getParameters());
+			if (selector != null) {
+				if (mVideoProperties != null && mVideoProperties.width > 0 && mVideoProperties.height > 0) {
+					selector.setVideoSize(mVideoProperties.width, mVideoProperties.height);
+				}
+				mSizeSelection = selector.select();
+				LogUtil.i(TAG, "getSizeSelection - {}", mSizeSelection);
+			}
+		}
+		return mSizeSelection;
+	}
+	
+	/**
+	 * Gets the supported video size closest to the one given. Cameras that list no video sizes
+	 * record at a preview size.
+	 *
+	 * @param width the width
+	 * @param height the height
+	 * @return the video size, the one given if the camera lists no sizes
+	 */
+	private Resolution getSupportedVideoSize(int width, int height) {
+		SizeSelector selector = mCamera != null ? newSizeSelector(mCamera.getParameters()) : null;
+		if (selector == null) {
+			return new Resolution(width, height);
+		}
+		return selector.setVideoSize(width, height).select().video;
+	}
+	
+	private SizeSelector newSizeSelector(Parameters params) {
+		List<Resolution> previewSizes = toResolutions(params.getSupportedPreviewSizes());
+		List<Resolution> pictureSizes = toResolutions(params.getSupportedPictureSizes());
+		if (previewSizes.isEmpty() || pictureSizes.isEmpty()) {
+			return null;
+		}
+		SizeSelector selector;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			selector = newSizeSelectorForVideo(params, previewSizes, pictureSizes);
+		} else {
+			selector = new SizeSelector(previewSizes, pictureSizes, null);
+		}
+		selector.setSurfaceSize(mSurfaceWidth, mSurfaceHeight).setTargetAspectRatio(mTargetAspectRatio)
+				.setMaxPicturePixels(mMaxPicturePixels);
+		OutputSpec spec = mOutputSpec;
+		if (spec != null && spec.hasThumbnailSize()) {
+			selector.setThumbnailSizes(toResolutions(params.getSupportedJpegThumbnailSizes()))
+					.setThumbnailSize(spec.getThumbnailWidth(), spec.getThumbnailHeight());
+		}
+		return selector;
+	}
+	
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private SizeSelector newSizeSelectorForVideo(Parameters params, List<Resolution> previewSizes, List<Resolution> pictureSizes) {
+		// Null when the camera records at the preview size.
+		List<Resolution> videoSizes = toResolutions(params.getSupportedVideoSizes());
+		SizeSelector selector = new SizeSelector(previewSizes, pictureSizes, videoSizes);
+		Camera.Size preferred = params.getPreferredPreviewSizeForVideo();
+		if (!videoSizes.isEmpty() && preferred != null) {
+			selector.setMaxPreviewSizeForVideo(new Resolution(preferred.width, preferred.height));
+		}
+		return selector;
+	}
+	
+	private static List<Resolution> toResolutions(List<Camera.Size> sizes) {
+		List<Resolution> resolutions = new ArrayList<Resolution>();
+		if (sizes != null) {
+			for (Camera.Size size : sizes) {
+				resolutions.add(new Resolution(size.width, size.height));
+			}
+		}
+		return resolutions;
+	}
+	
+	private Parameters getParams() {
+		return getParams(false);
+	}
+	
+	/**
+	 * Gets the parameters to set on the camera.
+	 *
+	 * @param previewStopped whether the preview is stopped, the preview size can only change then
+	 * @return the parameters
+	 */
+	private Parameters getParams(boolean previewStopped) {
+		Parameters params = mCamera.getParameters();
+		SizeSelector.Selection sizes = getSizeSelection();
+		if (sizes != null) {
+			params.setPictureSize(sizes.picture.width, sizes.picture.height);
+			if (previewStopped) {
+				params.setPreviewSize(sizes.preview.width, sizes.preview.height);
+			}
+			if (sizes.thumbnail != null) {
+				params.setJpegThumbnailSize(sizes.thumbnail.width, sizes.thumbnail.height);
+			}
+		}
+		OutputSpec spec = mOutputSpec;
+		if (spec != null && spec.hasThumbnailSize()) {
+			params.setJpegThumbnailQuality(spec.getThumbnailQuality());
+		}
+		Camera.Size pictureSize = params.getPictureSize();
+		if (pictureSize != null) {
+			mPictureWidth = pictureSize.width;
+			mPictureHeight = pictureSize.height;
+		}
+		mFocusController.configure(params);
+		params.setFlashMode(Camera.Parameters.FLASH_MODE_AUTO);
+		params.setJpegQuality(spec != null ? spec.getJpegQuality() : OutputSpec.DEFAULT_JPEG_QUALITY);
+		if (!BUILD_MODEL.equalsIgnoreCase("HTC One X")) {
+			mPictureRotation = getCameraDisplayOrientation();
+			params.setRotation(mPictureRotation);
+		}
+		params.set("cam_mode", 1);
+		return params;
+	}
+
+	/**
+	 * The Class VideoProperties.
+	 */
+	public class VideoProperties {
+		
+		/** The default video width. */
+		private final int DEFAULT_VIDEO_WIDTH = 640;
+		
+		/** The default video height. */
+		private final int DEFAULT_VIDEO_HEIGHT = 480;
+		
+		/** The default video framerate. */
+		private final int DEFAULT_VIDEO_FRAMERATE = 24;
+		
+		/** The default negative int. */
+		private final int DEFAULT_NEGATIVE_INT = -1;
+		
+		/** The default video bit rate. */
+		private final int DEFAULT_VIDEO_BIT_RATE = 7 * 1024 * 1024;
+		
+		/** The audio bit rate assumed when projecting the size of a recording without a profile. */
+		private final int DEFAULT_AUDIO_BIT_RATE = 128 * 1000;
+		
+		/** The path. */
+		private String path;
+		
+		/** The frame rate. */
+		private int frameRate;
+		
+		/** The width. */
+		private int width;
+		
+		/** The height. */
+		private int height;
+		
+		/** The max duration ms. */
+		private int maxDurationMs;
+		
+		/** The max file size bytes. */
+		private long maxFileSizeBytes;
+		
+		/** The segment callback. Non null for segmented recordings. */
+		private VideoSegmentCallback segmentCallback;
+		
+		/** Whether the profile is chosen from the storage throughput and the file size budget. */
+		private boolean adaptiveProfile;
+		
+		/** The profile chosen for the recording, when adaptive. */
+		private VideoProfile selectedProfile;
+		
+		/** The write throughput the profile was chosen for, in bytes per second. */
+		private long measuredThroughput = -1;
+		
+		/** Whether the path was generated rather than set by the app. */
+		private boolean generatedPath;
+		
+		/** The supported video size closest to the one requested, resolved while the camera is locked. */
+		private Resolution videoSize;
+		
+		/** The index of the segment being recorded, starting at 1. */
+		private int segmentIndex;
+		
+		/** The path the segment file names are derived from. */
+		private String segmentBasePath;
+		
+		/**
+		 * Sets the path.
+		 *
+		 * @param path the path
+		 * @return the video properties
+		 */
+		public VideoProperties setPath(String path) {
+			this.path = path;
+			return this;
+		}
+		
+		/**
+		 * Sets the frame rate.
+		 *
+		 * @param frameRate the frame rate
+		 * @return the video properties
+		 */
+		public VideoProperties setFrameRate(int frameRate) {
+			this.frameRate = frameRate;
+			return this;
+		}
+		
+		/**
+		 * Sets the width.
+		 *
+		 * @param width the width
+		 * @return the video properties
+		 */
+		public VideoProperties setWidth(int width) {
+			this.width = width;
+			return this;
+		}
+		
+		/**
+		 * Sets the height.
+		 *
+		 * @param height the height
+		 * @return the video properties
+		 */
+		public VideoProperties setHeight(int height) {
+			this.height = height;
+			return this;
+		}
+		
+		/**
+		 * Sets the max duration ms.
+		 *
+		 * @param maxDurationMs the max duration ms
+		 * @return the video properties
+		 */
+		public VideoProperties setMaxDurationMs(int maxDurationMs) {
+			this.maxDurationMs = maxDurationMs;
+			return this;
+		}
+		
+		/**
+		 * Sets the max file size bytes.
+		 *
+		 * @param maxFileSizeBytes the max file size bytes
+		 * @return the video properties
+		 */
+		public VideoProperties setMaxFileSizeBytes(long maxFileSizeBytes) {
+			this.maxFileSizeBytes = maxFileSizeBytes;
+			return this;
+		}
+		
+		/**
+		 * Enables segmented recording. Instead of stopping when the max duration or
+		 * the max file size is reached, recording continues into a new file, until
+		 * {@link CameraHandler#stopVideoRecording()} is called. Segment files are named
+		 * after the path (or the generated file name) with a _001, _002... suffix.
+		 * 
+		 * On API level 26 and above with a max file size, the recorder switches files
+		 * by itself without dropping frames. Otherwise the recorder of the next segment
+		 * is configured ahead of time and started as soon as the current one stops.
+		 *
+		 * @param segmentCallback the callback notified of each completed segment
+		 * @return the video properties
+		 */
+		public VideoProperties setSegmentCallback(VideoSegmentCallback segmentCallback) {
+			this.segmentCallback = segmentCallback;
+			return this;
+		}
+		
+		/**
+		 * Lets the recorder pick the resolution, frame rate and bit rate among the camera's
+		 * camcorder profiles so that the recording can be written as fast as it is produced
+		 * (see {@link CameraHandler#measureVideoStorageThroughput()}) and fits the max file
+		 * size over the max duration. Width, height and frame rate set on these properties
+		 * are then ignored.
+		 *
+		 * @param adaptiveProfile whether the profile is adaptive
+		 * @return the video properties
+		 */
+		public VideoProperties setAdaptiveProfile(boolean adaptiveProfile) {
+			this.adaptiveProfile = adaptiveProfile;
+			return this;
+		}
+		
+		/**
+		 * Gets the profile chosen for the recording.
+		 *
+		 * @return the selected profile, or null if the profile is not adaptive or not chosen yet
+		 */
+		public VideoProfile getSelectedProfile() {
+			return selectedProfile;
+		}
+		
+		/**
+		 * Gets the write throughput the profile was chosen for.
+		 *
+		 * @return the throughput in bytes per second, or -1 if it had not been measured
+		 */
+		public long getMeasuredThroughput() {
+			return measuredThroughput;
+		}
+		
+		/**
+		 * Chooses the adaptive profile for a recording to the given file.
+		 *
+		 * @param outputPath the output path
+		 * @return the video profile, or null if the camera reports no camcorder profile
+		 */
+		private VideoProfile selectProfile(String outputPath) {
+			List<VideoProfile> candidates = getSupportedVideoProfiles();
+			if (candidates.isEmpty()) {
+				return null;
+			}
+			measuredThroughput = StorageThroughputProbe.getCachedThroughput(new File(outputPath).getParentFile());
+			VideoProfile profile = new VideoProfileSelector(candidates).select(measuredThroughput, maxFileSizeBytes, maxDurationMs);
+			LogUtil.i(TAG, "selectProfile - throughput: {} profile: {}", measuredThroughput, profile);
+			return profile;
+		}
+		
+		/**
+		 * Gets the path. For segmented recordings, the path of the segment being recorded.
+		 *
+		 * @return the path
+		 */
+		public String getPath() {
+			return path;
+		}
+		
+		/**
+		 * Gets the max file size bytes.
+		 *
+		 * @return the max file size bytes
+		 */
+		public long getMaxFileSizeBytes() {
+			return maxFileSizeBytes;
+		}
+		
+		/**
+		 * Checks if is segmented.
+		 *
+		 * @return true, if is segmented
+		 */
+		public boolean isSegmented() {
+			return segmentCallback != null;
+		}
+		
+		/**
+		 * Gets the path of the segment following the one being recorded.
+		 *
+		 * @return the next segment path
+		 */
+		protected String getNextSegmentPath() {
+			if (segmentBasePath == null) {
+				segmentBasePath = (path != null && path.length() > 0) ? path : getMediaFile(false).getAbsolutePath();
+			}
+			String suffix = String.format(Locale.US, "_%03d", segmentIndex + 1);
+			int extension = segmentBasePath.lastIndexOf('.');
+			if (extension <= segmentBasePath.lastIndexOf(File.separatorChar)) {
+				return segmentBasePath + suffix;
+			}
+			return segmentBasePath.substring(0, extension) + suffix + segmentBasePath.substring(extension);
+		}
+		
+		/**
+		 * Moves on to the next segment.
+		 *
+		 * @param segmentPath the path of the segment now being recorded
+		 */
+		protected void startNextSegment(String segmentPath) {
+			segmentIndex++;
+			path = segmentPath;
+		}
+		
+		/**
+		 * Deletes the file created for a recorder which was prepared but never started,
+		 * so that the next recorder starts over with a fresh file.
+		 */
+		protected void discardOutput() {
+			if (path != null) {
+				File file = new File(path);
+				file.delete();
+				MemoryUtil.getStorageBudgetManager().release(file);
+			}
+			if (isSegmented()) {
+				segmentIndex--;
+			} else if (generatedPath) {
+				path = null;
+				generatedPath = false;
+			}
+		}
+		
+		/**
+		 * Notifies the segment callback that the segment being recorded is complete.
+		 */
+		protected void notifySegmentRecorded() {
+			onMediaFileWritten(path);
+			final VideoSegmentCallback callback = segmentCallback;
+			if (callback != null) {
+				final int index = segmentIndex;
+				final String segmentPath = path;
+				afterVideosSaved(new Runnable() {
+					@Override
+					public void run() {
+						callback.onVideoSegmentRecorded(index, segmentPath);
+					}
+				});
+			}
+		}
+		
+		/**
+		 * Sets the properties to media recorder.
+		 *
+		 * @param mediaRecorder the new properties to media recorder
+		 * @return the reservation the recorder writes to, to be closed once the recorder is prepared
+		 * @throws IOException Signals that there is no room for the recording or the output file could not be created.
+		 */
+		protected VideoStorageReservation setPropertiesToMediaRecorder(MediaRecorder mediaRecorder) throws IOException {
+			nextOutputPath();
+			return setPropertiesToMediaRecorder(mediaRecorder, path);
+		}
+		
+		/**
+		 * Sets the properties to a recorder prepared ahead of time, which may never be started. It
+		 * records to the path, and no space is reserved until {@link #reserveOutput()}.
+		 *
+		 * @param mediaRecorder the media recorder
+		 */
+		protected void setPropertiesToPrewarmedRecorder(MediaRecorder mediaRecorder) {
+			nextOutputPath();
+			applySettings(mediaRecorder, path);
+			mediaRecorder.setOutputFile(path);
+		}
+		
+		/**
+		 * Reserves the space for the recording of a recorder set up by
+		 * {@link #setPropertiesToPrewarmedRecorder(MediaRecorder)} and prepared. Its file is kept as is.
+		 *
+		 * @throws InsufficientStorageException if the recording would not fit on the storage
+		 * @throws IOException Signals that the file could not be opened.
+		 */
+		protected void reserveOutput() throws IOException {
+			// The recorder writes through its own descriptor, opened in prepare().
+			VideoStorageReservation.reserveInPlace(new File(path), getProjectedBytes(),
+					MemoryUtil.getStorageBudgetManager(), VideoStorageReservation.FALLOCATE).close();
+		}
+		
+		/**
+		 * Resolves the requested video size to one the camera supports. Called while the camera is
+		 * locked, as it returns empty parameters once a recorder has it; later segments keep the size.
+		 */
+		protected void resolveVideoSize() {
+			videoSize = getSupportedVideoSize(width > 0 ? width : DEFAULT_VIDEO_WIDTH, height > 0 ? height : DEFAULT_VIDEO_HEIGHT);
+		}
+		
+		/**
+		 * Moves on to the path of the next recording: the next segment, or a new file unless a path was set.
+		 */
+		private void nextOutputPath() {
+			if (isSegmented()) {
+				startNextSegment(getNextSegmentPath());
+			} else if (path == null || path.length() == 0) {
+				path = getMediaFile(false).getAbsolutePath();
+				generatedPath = true;
+			}
+		}
+		
+		/**
+		 * Projects the size of a recording with these properties.
+		 *
+		 * @return the projected size in bytes
+		 */
+		private long getProjectedBytes() {
+			int videoBitRate = selectedProfile != null ? selectedProfile.videoBitRate : DEFAULT_VIDEO_BIT_RATE;
+			int audioBitRate = selectedProfile != null ? selectedProfile.audioBitRate : DEFAULT_AUDIO_BIT_RATE;
+			return VideoStorageReservation.projectSize(videoBitRate, audioBitRate, maxDurationMs, maxFileSizeBytes);
+		}
+		
+		/**
+		 * Sets the properties to media recorder.
+		 *
+		 * @param mediaRecorder the media recorder
+		 * @param outputPath the path of the file to record to
+		 * @return the reservation the recorder writes to, to be closed once the recorder is prepared
+		 * @throws InsufficientStorageException if the recording would not fit on the storage
+		 * @throws IOException Signals that the output file could not be created.
+		 */
+		protected VideoStorageReservation setPropertiesToMediaRecorder(MediaRecorder mediaRecorder, String outputPath) throws IOException {
+			applySettings(mediaRecorder, outputPath);
+			
+			// Reserve the space for the whole recording up front. The recorder writes through the
+			// reservation's descriptor, as opening the path again would truncate the allocation.
+			// It only takes the descriptor over in prepare(), so the reservation stays open until then.
+			VideoStorageReservation reservation = VideoStorageReservation.reserve(new File(outputPath), getProjectedBytes(),
+					MemoryUtil.getStorageBudgetManager(), VideoStorageReservation.FALLOCATE);
+			try {
+				mediaRecorder.setOutputFile(reservation.getFileDescriptor());
+			} catch (IOException e) {
+				reservation.close();
+				throw e;
+			} catch (RuntimeException e) {
+				reservation.close();
+				throw e;
+			}
+			return reservation;
+		}
+		
+		/**
+		 * Sets everything but the output file to a media recorder.
+		 *
+		 * @param mediaRecorder the media recorder
+		 * @param outputPath the path of the file to record to, whose storage the profile may be picked for
+		 */
+		private void applySettings(MediaRecorder mediaRecorder, String outputPath) {
+			// Populate the assumed/defaulted values.
+			mediaRecorder.setCamera(mCamera);
+			mediaRecorder.setVideoSource(MediaRecorder.VideoSource.DEFAULT);
+			mediaRecorder.setAudioSource(MediaRecorder.AudioSource.DEFAULT);
+			mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+			mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.DEFAULT);
+			mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.DEFAULT);
+			
+//			mediaRecorder.setProfile(CamcorderProfile.get(CamcorderProfile.QUALITY_HIGH));
+			
+			// Now is the turn for user opted settings
+			if (!BUILD_MODEL.equalsIgnoreCase("HTC One X")) {
+				mediaRecorder.setOrientationHint(getCameraDisplayOrientation());
+				if (adaptiveProfile && selectedProfile == null) {
+					selectedProfile = selectProfile(outputPath);
+				}
+				if (selectedProfile != null) {
+					mediaRecorder.setVideoFrameRate(selectedProfile.frameRate);
+					mediaRecorder.setVideoEncodingBitRate(selectedProfile.videoBitRate);
+					mediaRecorder.setVideoSize(selectedProfile.width, selectedProfile.height);
+				} else {
+					mediaRecorder.setVideoFrameRate(frameRate > 0 ? frameRate : DEFAULT_VIDEO_FRAMERATE);
+					mediaRecorder.setVideoEncodingBitRate(DEFAULT_VIDEO_BIT_RATE);
+					// Encoders reject sizes the camera does not list.
+					Resolution size = videoSize != null ? videoSize
+							: new Resolution(width > 0 ? width : DEFAULT_VIDEO_WIDTH, height > 0 ? height : DEFAULT_VIDEO_HEIGHT);
+					mediaRecorder.setVideoSize(size.width, size.height);
+				}
+			}
+			
+			// Max duration for video recording. Negative or zero indicates no limit.
+			mediaRecorder.setMaxDuration(maxDurationMs > 0 ? maxDurationMs : DEFAULT_NEGATIVE_INT);
+			// Max file size of the video recorded. Negative or zero indicates no limit.
+			mediaRecorder.setMaxFileSize(maxFileSizeBytes > 0 ? maxFileSizeBytes : DEFAULT_NEGATIVE_INT);	// negative or zero indicates no limit.
+		}
+	}
+	
+}
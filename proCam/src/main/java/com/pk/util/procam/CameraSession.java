@@ -0,0 +1,239 @@
+package com.pk.util.procam;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The state of the camera owned by a {@link CameraHandler}, and the queue its operations run through.
+ * <p>
+ * The camera and its recorder are only touched on one thread, the camera thread: the one the camera
+ * is opened on, where its callbacks arrive. Operations passed to {@link #execute(Runnable)} from any
+ * other thread, or while earlier ones are still queued, are added to a lock-free queue and run there
+ * in order. Operations requested on the camera thread with nothing queued run right away, so callers
+ * on that thread keep seeing their results at once.
+ * <p>
+ * Every operation checks the state before touching the camera and moves it only along
+ * {@link #canMove(State, State)}, so e.g. a second picture requested while one is being taken, or a
+ * recording started during an interval session, is turned down instead of failing in the driver.
+ * The state can be read from any thread.
+ */
+public class CameraSession {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/**
+	 * The camera states.
+	 */
+	public enum State {
+
+		/** No camera is open. */
+		CLOSED,
+
+		/** The camera is being opened. */
+		OPENING,
+
+		/** The camera is open and the preview is not running, e.g. after a picture. */
+		OPENED,
+
+		/** The preview is running and the camera is free. */
+		PREVIEWING,
+
+		/** A picture or an interval session is being taken. */
+		CAPTURING,
+
+		/** A video is being recorded. */
+		RECORDING,
+
+		/** The camera is being released. */
+		RELEASING
+	}
+
+	/**
+	 * The thread the camera is used on.
+	 */
+	public interface CameraThread {
+
+		/**
+		 * Checks whether the caller runs on the camera thread.
+		 *
+		 * @return true, if it does
+		 */
+		public boolean isCurrentThread();
+
+		/**
+		 * Runs a task on the camera thread, later.
+		 *
+		 * @param task the task
+		 */
+		public void post(Runnable task);
+	}
+
+	/** The camera thread. */
+	private final CameraThread mThread;
+
+	/** The state. */
+	private final AtomicReference<State> mState = new AtomicReference<State>(State.CLOSED);
+
+	/** The operations waiting to run on the camera thread. */
+	private final ConcurrentLinkedQueue<Runnable> mCommands = new ConcurrentLinkedQueue<Runnable>();
+
+	/** Whether a drain of the queue has been posted and not started yet. */
+	private final AtomicBoolean mDrainPosted = new AtomicBoolean();
+
+	/** The number of transitions turned down. */
+	private volatile int mRejectedTransitions;
+
+	/** Runs the queued operations. */
+	private final Runnable mDrain = new Runnable() {
+		@Override
+		public void run() {
+			// Cleared first, so an operation queued from now on posts another drain.
+			mDrainPosted.set(false);
+			Runnable command;
+			while ((command = mCommands.poll()) != null) {
+				try {
+					command.run();
+				} catch (RuntimeException e) {
+					// There is no caller left to report to.
+					LogUtil.e(TAG, "drain - operation failed in state {}", mState.get(), e);
+				}
+			}
+		}
+	};
+
+	/**
+	 * Instantiates a new camera session.
+	 *
+	 * @param thread the camera thread
+	 */
+	public CameraSession(CameraThread thread) {
+		mThread = thread;
+	}
+
+	/**
+	 * Checks whether the camera may move from one state to another.
+	 *
+	 * @param from the current state
+	 * @param to the next state
+	 * @return true, if it may
+	 */
+	public static boolean canMove(State from, State to) {
+		switch (from) {
+		case CLOSED:
+			return to == State.OPENING;
+		case OPENING:
+			return to == State.OPENED || to == State.CLOSED;
+		case OPENED:
+			return to == State.PREVIEWING || to == State.OPENING || to == State.RELEASING;
+		case PREVIEWING:
+			return to == State.CAPTURING || to == State.RECORDING || to == State.OPENED
+					|| to == State.OPENING || to == State.RELEASING;
+		case CAPTURING:
+			return to == State.OPENED || to == State.PREVIEWING || to == State.RELEASING;
+		case RECORDING:
+			return to == State.PREVIEWING || to == State.RELEASING;
+		case RELEASING:
+			return to == State.CLOSED;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the state.
+	 *
+	 * @return the state
+	 */
+	public State getState() {
+		return mState.get();
+	}
+
+	/**
+	 * Checks whether the camera is in one of the given states.
+	 *
+	 * @param states the states
+	 * @return true, if it is
+	 */
+	public boolean isIn(State... states) {
+		State state = mState.get();
+		for (State s : states) {
+			if (s == state) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the camera to a state, if {@link #canMove(State, State)} allows it from the current one.
+	 * Moving to the current state is allowed and does nothing. Called on the camera thread.
+	 *
+	 * @param to the next state
+	 * @return true, if the camera is in that state now
+	 */
+	public boolean moveTo(State to) {
+		while (true) {
+			State from = mState.get();
+			if (from == to) {
+				return true;
+			}
+			if (!canMove(from, to)) {
+				mRejectedTransitions++;
+				LogUtil.w(TAG, "moveTo - not allowed: {} -> {}", from, to);
+				return false;
+			}
+			if (mState.compareAndSet(from, to)) {
+				LogUtil.d(TAG, "moveTo - {} -> {}", from, to);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Runs an operation on the camera thread: right away if called there with nothing queued, otherwise
+	 * after the operations queued before it, also when called from a queued operation. Callable from
+	 * any thread.
+	 *
+	 * @param command the operation
+	 * @return true, if it ran right away
+	 */
+	public boolean execute(Runnable command) {
+		if (mThread.isCurrentThread() && mCommands.isEmpty()) {
+			command.run();
+			return true;
+		}
+		mCommands.offer(command);
+		if (mDrainPosted.compareAndSet(false, true)) {
+			mThread.post(mDrain);
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the caller runs on the camera thread.
+	 *
+	 * @return true, if it does
+	 */
+	public boolean isCameraThread() {
+		return mThread.isCurrentThread();
+	}
+
+	/**
+	 * Gets the number of operations waiting to run.
+	 *
+	 * @return the queued operation count
+	 */
+	public int getQueuedCount() {
+		return mCommands.size();
+	}
+
+	/**
+	 * Gets the number of transitions turned down, each one an operation the state did not allow.
+	 *
+	 * @return the rejected transition count
+	 */
+	public int getRejectedTransitionCount() {
+		return mRejectedTransitions;
+	}
+}
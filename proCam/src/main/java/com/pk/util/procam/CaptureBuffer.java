@@ -0,0 +1,88 @@
+package com.pk.util.procam;
+
+/**
+ * The JPEG of a picture taken with {@link CameraHandler#takePictureToMemory(InMemoryCaptureCallback)},
+ * held in a buffer of a {@link CaptureBufferPool}.
+ * <p>
+ * The buffer must be given back with {@link #release()} once the app is done with it, whether or not it
+ * was saved. The data array may be larger than the JPEG, only the first {@link #getLength()} bytes are valid.
+ * A buffer is not thread-safe; hand it over between threads, don't share it.
+ */
+public class CaptureBuffer {
+
+	/** The m pool. */
+	private final CaptureBufferPool mPool;
+
+	/** The lease of the buffer in the pool. */
+	CaptureBufferPool.Lease mLease;
+
+	/** The m length. */
+	private int mLength;
+
+	/** Whether the buffer was released. */
+	private boolean mReleased;
+
+	CaptureBuffer(CaptureBufferPool pool) {
+		mPool = pool;
+	}
+
+	/**
+	 * Copies the JPEG into the buffer, growing its array when it is too small.
+	 *
+	 * @param data the data
+	 * @param offset the offset
+	 * @param length the length
+	 */
+	void set(byte[] data, int offset, int length) {
+		checkNotReleased();
+		mLease.ensureCapacity(length);
+		System.arraycopy(data, offset, mLease.mData, 0, length);
+		mLength = length;
+	}
+
+	/**
+	 * Gets the data array. Only valid until {@link #release()}.
+	 *
+	 * @return the data, with the JPEG in its first {@link #getLength()} bytes
+	 */
+	public byte[] getData() {
+		checkNotReleased();
+		return mLease.mData;
+	}
+
+	/**
+	 * Gets the length of the JPEG.
+	 *
+	 * @return the length
+	 */
+	public int getLength() {
+		checkNotReleased();
+		return mLength;
+	}
+
+	/**
+	 * Checks whether the buffer was released.
+	 *
+	 * @return true, if released
+	 */
+	public boolean isReleased() {
+		return mReleased;
+	}
+
+	/**
+	 * Gives the buffer back to the pool. The data must not be used afterwards.
+	 *
+	 * @throws IllegalStateException if already released
+	 */
+	public void release() {
+		checkNotReleased();
+		mReleased = true;
+		mPool.release(this);
+	}
+
+	private void checkNotReleased() {
+		if (mReleased) {
+			throw new IllegalStateException("Capture buffer already released");
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package com.pk.util.procam;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Bounded pool of the buffers pictures taken to memory are delivered in.
+ * <p>
+ * At most {@link #getMaxBuffers()} buffers are out at a time, which caps the memory held by
+ * pictures the app has not released yet. Released arrays are kept and reused, so a steady stream
+ * of captures does not allocate a new multi-megabyte array per picture.
+ * <p>
+ * Leaks are instrumented two ways. A buffer that becomes unreachable without being released is
+ * noticed on the next acquire, logged with where it was acquired (when {@link #setLeakTracking(boolean)}
+ * is on), counted in {@link #getLeakedCount()} and its slot reclaimed. {@link #checkForLeaks(long)}
+ * reports buffers that are still reachable but held for suspiciously long.
+ */
+public class CaptureBufferPool {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The default max number of buffers out at a time. */
+	public static final int DEFAULT_MAX_BUFFERS = 3;
+
+	/**
+	 * The pool's side of a buffer that is out: the array, and the weak reference through which the
+	 * pool notices the buffer being dropped.
+	 */
+	static class Lease extends WeakReference<CaptureBuffer> {
+
+		/** The data, kept here so it can be reclaimed when the buffer is leaked. */
+		byte[] mData;
+
+		/** When the buffer was acquired, in {@link Clock#ELAPSED_REALTIME} time. */
+		final long mAcquiredAt;
+
+		/** Where the buffer was acquired, null unless leak tracking is on. */
+		final Throwable mAcquiredBy;
+
+		Lease(CaptureBuffer buffer, ReferenceQueue<CaptureBuffer> queue, byte[] data, long acquiredAt, Throwable acquiredBy) {
+			super(buffer, queue);
+			mData = data;
+			mAcquiredAt = acquiredAt;
+			mAcquiredBy = acquiredBy;
+		}
+
+		void ensureCapacity(int length) {
+			if (mData == null || mData.length < length) {
+				// A little headroom so slightly bigger pictures do not grow it again.
+				mData = new byte[length + length / 8];
+			}
+		}
+	}
+
+	/** The m max buffers. */
+	private final int mMaxBuffers;
+
+	/** The m clock. */
+	private final Clock mClock;
+
+	/** The released arrays, most recently used first. */
+	private final Deque<byte[]> mFree = new ArrayDeque<byte[]>();
+
+	/** The leases of buffers that are out. */
+	private final Set<Lease> mLeases = new HashSet<Lease>();
+
+	/** The queue leaked buffers show up in. */
+	private final ReferenceQueue<CaptureBuffer> mLeaked = new ReferenceQueue<CaptureBuffer>();
+
+	/** Whether acquires record a stack trace. */
+	private volatile boolean mLeakTracking;
+
+	/** The m acquired count. */
+	private long mAcquiredCount;
+
+	/** The acquires that reused a released array. */
+	private long mReusedCount;
+
+	/** The acquires refused because every buffer was out. */
+	private long mExhaustedCount;
+
+	/** The m leaked count. */
+	private long mLeakedCount;
+
+	/**
+	 * Instantiates a new capture buffer pool.
+	 *
+	 * @param maxBuffers the max number of buffers out at a time
+	 */
+	public CaptureBufferPool(int maxBuffers) {
+		this(maxBuffers, Clock.ELAPSED_REALTIME);
+	}
+
+	CaptureBufferPool(int maxBuffers, Clock clock) {
+		if (maxBuffers <= 0) {
+			throw new IllegalArgumentException("maxBuffers: " + maxBuffers);
+		}
+		mMaxBuffers = maxBuffers;
+		mClock = clock;
+	}
+
+	/**
+	 * Sets whether each acquire records its stack trace, reported when the buffer leaks. Costs an
+	 * exception per capture, meant for debug builds.
+	 *
+	 * @param enabled true to record stack traces
+	 * @return the capture buffer pool
+	 */
+	public CaptureBufferPool setLeakTracking(boolean enabled) {
+		mLeakTracking = enabled;
+		return this;
+	}
+
+	/**
+	 * Gets the max number of buffers out at a time.
+	 *
+	 * @return the max buffers
+	 */
+	public int getMaxBuffers() {
+		return mMaxBuffers;
+	}
+
+	/**
+	 * Takes an empty buffer out of the pool.
+	 *
+	 * @return the buffer, or null if the max number of buffers are out
+	 */
+	public synchronized CaptureBuffer acquire() {
+		reclaimLeaked();
+		if (mLeases.size() >= mMaxBuffers) {
+			mExhaustedCount++;
+			LogUtil.w(TAG, "acquire - all {} buffers are out", mMaxBuffers);
+			return null;
+		}
+		byte[] data = mFree.pollFirst();
+		if (data != null) {
+			mReusedCount++;
+		}
+		mAcquiredCount++;
+		Throwable acquiredBy = mLeakTracking ? new Throwable("Capture buffer acquired here") : null;
+		// The lease refers to its buffer only weakly, so dropping the buffer shows up in mLeaked.
+		CaptureBuffer buffer = new CaptureBuffer(this);
+		Lease lease = new Lease(buffer, mLeaked, data, mClock.now(), acquiredBy);
+		buffer.mLease = lease;
+		mLeases.add(lease);
+		return buffer;
+	}
+
+	/**
+	 * Takes a buffer out of the pool and copies a JPEG into it.
+	 *
+	 * @param data the data
+	 * @return the buffer, or null if the max number of buffers are out
+	 */
+	public CaptureBuffer acquire(byte[] data) {
+		CaptureBuffer buffer = acquire();
+		if (buffer != null) {
+			buffer.set(data, 0, data.length);
+		}
+		return buffer;
+	}
+
+	synchronized void release(CaptureBuffer buffer) {
+		Lease lease = buffer.mLease;
+		if (mLeases.remove(lease)) {
+			lease.clear();
+			recycle(lease);
+		}
+	}
+
+	/**
+	 * Reclaims the slots of buffers that became unreachable without being released.
+	 */
+	private void reclaimLeaked() {
+		Reference<? extends CaptureBuffer> reference;
+		while ((reference = mLeaked.poll()) != null) {
+			Lease lease = (Lease) reference;
+			if (mLeases.remove(lease)) {
+				mLeakedCount++;
+				if (lease.mAcquiredBy != null) {
+					LogUtil.e(TAG, "reclaimLeaked - capture buffer was never released", lease.mAcquiredBy);
+				} else {
+					LogUtil.e(TAG, "reclaimLeaked - capture buffer was never released, enable leak tracking to see where it was acquired");
+				}
+				recycle(lease);
+			}
+		}
+	}
+
+	private void recycle(Lease lease) {
+		if (lease.mData != null && mFree.size() < mMaxBuffers) {
+			mFree.addFirst(lease.mData);
+		}
+		lease.mData = null;
+	}
+
+	/**
+	 * Logs every buffer held longer than a threshold.
+	 *
+	 * @param olderThanMs the threshold in milliseconds
+	 * @return the number of such buffers
+	 */
+	public synchronized int checkForLeaks(long olderThanMs) {
+		reclaimLeaked();
+		long now = mClock.now();
+		int count = 0;
+		for (Lease lease : mLeases) {
+			long heldMs = now - lease.mAcquiredAt;
+			if (heldMs >= olderThanMs) {
+				count++;
+				if (lease.mAcquiredBy != null) {
+					LogUtil.w(TAG, "checkForLeaks - capture buffer held for {} ms", heldMs, lease.mAcquiredBy);
+				} else {
+					LogUtil.w(TAG, "checkForLeaks - capture buffer held for {} ms", heldMs);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of buffers out.
+	 *
+	 * @return the outstanding count
+	 */
+	public synchronized int getOutstandingCount() {
+		reclaimLeaked();
+		return mLeases.size();
+	}
+
+	/**
+	 * Gets the number of buffers that became unreachable without being released.
+	 *
+	 * @return the leaked count
+	 */
+	public synchronized long getLeakedCount() {
+		reclaimLeaked();
+		return mLeakedCount;
+	}
+
+	public synchronized long getAcquiredCount() {
+		return mAcquiredCount;
+	}
+
+	public synchronized long getReusedCount() {
+		return mReusedCount;
+	}
+
+	public synchronized long getExhaustedCount() {
+		return mExhaustedCount;
+	}
+
+	/**
+	 * Drops the released arrays kept for reuse, e.g. on low memory.
+	 */
+	public synchronized void trim() {
+		mFree.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CaptureBufferPool [out=" + mLeases.size() + "/" + mMaxBuffers + ", acquired=" + mAcquiredCount
+				+ ", reused=" + mReusedCount + ", exhausted=" + mExhaustedCount + ", leaked=" + mLeakedCount + "]";
+	}
+}
@@ -0,0 +1,394 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Index of the captures written by {@link CameraHandler}, so that previous captures can be found
+ * without listing the storage directories.
+ * <p>
+ * Records are inserted in batches: {@link #record(CaptureRecord)} only queues them, and a background
+ * thread writes everything queued in one transaction shortly after, or right away once a batch is
+ * full. Queries first write what is queued, so they always see every recorded capture. The table is
+ * indexed by path and by upload state, type and capture time, so lookups such as today's pictures
+ * that are not uploaded yet do not scan the table.
+ * <p>
+ * Captures evicted by the {@link StorageBudgetManager} are removed as they go. Files that appear or
+ * disappear behind the catalog's back are picked up by {@link #reconcile(List, StorageFileSystem)},
+ * which only lists directories whose modified time changed.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class CaptureCatalog implements EvictionPlanner.UploadState, StorageBudgetManager.EvictionListener {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The database name. */
+	public static final String DATABASE_NAME = "procam_catalog.db";
+
+	/** The database version. */
+	private static final int DATABASE_VERSION = 1;
+
+	/** The number of queued records that are written without waiting. */
+	public static final int DEFAULT_BATCH_SIZE = 32;
+
+	/** How long queued records wait for more before they are written. */
+	public static final long DEFAULT_FLUSH_DELAY_MS = 250;
+
+	static final String TABLE_CAPTURES = "captures";
+	static final String TABLE_DIRECTORIES = "directories";
+
+	private static final String CAPTURE_COLUMNS = "path, type, size, width, height, orientation, captured_at, modified_at, sharpness, uploaded";
+
+	/** The database helper. */
+	private final OpenHelper mHelper;
+
+	/** The records waiting to be inserted. */
+	private final List<CaptureRecord> mPending = new ArrayList<CaptureRecord>();
+
+	/** The writer thread. */
+	private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+	/** Whether a flush of {@link #mPending} is scheduled. */
+	private boolean mFlushScheduled;
+
+	/** The insert statement, compiled once. */
+	private SQLiteStatement mInsert;
+
+	/** The upload state statement, compiled once. */
+	private SQLiteStatement mUploadedQuery;
+
+	/** Writes the queued records. */
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Instantiates a new capture catalog.
+	 *
+	 * @param context the context
+	 */
+	public CaptureCatalog(Context context) {
+		mHelper = new OpenHelper(context);
+	}
+
+	/**
+	 * Records a capture, replacing the record with the same path.
+	 *
+	 * @param record the record
+	 */
+	public void record(CaptureRecord record) {
+		synchronized (mPending) {
+			mPending.add(record);
+			if (mPending.size() >= DEFAULT_BATCH_SIZE) {
+				mExecutor.execute(mFlushRunnable);
+			} else if (!mFlushScheduled) {
+				mFlushScheduled = true;
+				mExecutor.schedule(mFlushRunnable, DEFAULT_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Writes the queued records in one transaction.
+	 *
+	 * @return the number of records written
+	 */
+	public synchronized int flush() {
+		List<CaptureRecord> batch;
+		synchronized (mPending) {
+			mFlushScheduled = false;
+			if (mPending.isEmpty()) {
+				return 0;
+			}
+			batch = new ArrayList<CaptureRecord>(mPending);
+			mPending.clear();
+		}
+		SQLiteDatabase db = mHelper.getWritableDatabase();
+		if (mInsert == null) {
+			mInsert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_CAPTURES + " (" + CAPTURE_COLUMNS
+					+ ", dir) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		}
+		db.beginTransaction();
+		try {
+			for (CaptureRecord record : batch) {
+				bindInsert(record);
+				mInsert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		LogUtil.d(TAG, "flush - records: {}", batch.size());
+		return batch.size();
+	}
+
+	private void bindInsert(CaptureRecord record) {
+		SQLiteStatement insert = mInsert;
+		insert.clearBindings();
+		insert.bindString(1, record.path);
+		insert.bindLong(2, record.type);
+		insert.bindLong(3, record.sizeBytes);
+		insert.bindLong(4, record.width);
+		insert.bindLong(5, record.height);
+		insert.bindLong(6, record.orientation);
+		insert.bindLong(7, record.capturedAt);
+		insert.bindLong(8, record.modifiedAt);
+		insert.bindDouble(9, record.sharpness);
+		insert.bindLong(10, record.uploaded ? 1 : 0);
+		String dir = new File(record.path).getParent();
+		if (dir != null) {
+			insert.bindString(11, dir);
+		} else {
+			insert.bindNull(11);
+		}
+	}
+
+	/**
+	 * Finds captures, newest first.
+	 *
+	 * @param type the type, or {@link CaptureRecord#UNKNOWN} for any
+	 * @param capturedFrom the earliest capture time, inclusive
+	 * @param capturedTo the latest capture time, exclusive
+	 * @param uploaded the upload state, or null for any
+	 * @param limit the max number of records, zero or less for no limit
+	 * @return the records
+	 */
+	public synchronized List<CaptureRecord> query(int type, long capturedFrom, long capturedTo, Boolean uploaded, int limit) {
+		flush();
+		StringBuilder sql = new StringBuilder("SELECT ").append(CAPTURE_COLUMNS).append(" FROM ").append(TABLE_CAPTURES)
+				.append(" WHERE captured_at >= ? AND captured_at < ?");
+		List<String> args = new ArrayList<String>(4);
+		args.add(Long.toString(capturedFrom));
+		args.add(Long.toString(capturedTo));
+		if (uploaded != null) {
+			sql.append(" AND uploaded = ?");
+			args.add(uploaded ? "1" : "0");
+		}
+		if (type != CaptureRecord.UNKNOWN) {
+			sql.append(" AND type = ?");
+			args.add(Integer.toString(type));
+		}
+		sql.append(" ORDER BY captured_at DESC");
+		if (limit > 0) {
+			sql.append(" LIMIT ").append(limit);
+		}
+
+		Cursor cursor = mHelper.getReadableDatabase().rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+		List<CaptureRecord> records = new ArrayList<CaptureRecord>(cursor.getCount());
+		try {
+			while (cursor.moveToNext()) {
+				records.add(new CaptureRecord(cursor.getString(0), cursor.getInt(1), cursor.getLong(2), cursor.getInt(3),
+						cursor.getInt(4), cursor.getInt(5), cursor.getLong(6), cursor.getLong(7), cursor.getDouble(8),
+						cursor.getInt(9) != 0));
+			}
+		} finally {
+			cursor.close();
+		}
+		return records;
+	}
+
+	/**
+	 * Finds the captures of today that are not uploaded yet, newest first.
+	 *
+	 * @param type the type, or {@link CaptureRecord#UNKNOWN} for any
+	 * @return the records
+	 */
+	public List<CaptureRecord> getTodaysNotUploaded(int type) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		long start = calendar.getTimeInMillis();
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		return query(type, start, calendar.getTimeInMillis(), Boolean.FALSE, 0);
+	}
+
+	/**
+	 * Sets the upload state of a capture.
+	 *
+	 * @param path the path
+	 * @param uploaded whether it is uploaded
+	 */
+	public synchronized void setUploaded(String path, boolean uploaded) {
+		flush();
+		mHelper.getWritableDatabase().execSQL("UPDATE " + TABLE_CAPTURES + " SET uploaded = ? WHERE path = ?",
+				new Object[] { uploaded ? 1 : 0, path });
+	}
+
+	/**
+	 * Sets the sharpness score of a capture.
+	 *
+	 * @param path the path
+	 * @param sharpness the sharpness
+	 */
+	public synchronized void setSharpness(String path, double sharpness) {
+		flush();
+		mHelper.getWritableDatabase().execSQL("UPDATE " + TABLE_CAPTURES + " SET sharpness = ? WHERE path = ?",
+				new Object[] { sharpness, path });
+	}
+
+	@Override
+	public synchronized boolean isUploaded(File file) {
+		flush();
+		if (mUploadedQuery == null) {
+			mUploadedQuery = mHelper.getWritableDatabase().compileStatement(
+					"SELECT COUNT(*) FROM " + TABLE_CAPTURES + " WHERE path = ? AND uploaded = 1");
+		}
+		mUploadedQuery.bindString(1, file.getAbsolutePath());
+		return mUploadedQuery.simpleQueryForLong() > 0;
+	}
+
+	@Override
+	public synchronized void onEvicted(File file) {
+		flush();
+		mHelper.getWritableDatabase().delete(TABLE_CAPTURES, "path = ?", new String[] { file.getAbsolutePath() });
+	}
+
+	/**
+	 * Brings the catalog in line with capture directories. A directory is only listed when its
+	 * modified time changed since its last scan. Files found are added with the attributes the file
+	 * system knows, records without a file are removed.
+	 *
+	 * @param dirs the directories
+	 * @param fileSystem the file system
+	 * @return the number of records added, changed or removed
+	 */
+	public synchronized int reconcile(List<File> dirs, StorageFileSystem fileSystem) {
+		flush();
+		SQLiteDatabase db = mHelper.getWritableDatabase();
+		int changes = 0;
+		for (File dir : dirs) {
+			String dirPath = dir.getAbsolutePath();
+			long lastModified = dir.lastModified();
+			long scannedModified = -1;
+			long scannedAt = 0;
+			Cursor cursor = db.rawQuery("SELECT modified_at, scanned_at FROM " + TABLE_DIRECTORIES + " WHERE path = ?",
+					new String[] { dirPath });
+			try {
+				if (cursor.moveToFirst()) {
+					scannedModified = cursor.getLong(0);
+					scannedAt = cursor.getLong(1);
+				}
+			} finally {
+				cursor.close();
+			}
+			if (!CatalogDiff.isDirectoryStale(lastModified, scannedModified, scannedAt)) {
+				continue;
+			}
+
+			Map<String, long[]> known = new HashMap<String, long[]>();
+			cursor = db.rawQuery("SELECT path, size, modified_at FROM " + TABLE_CAPTURES + " WHERE dir = ?", new String[] { dirPath });
+			try {
+				while (cursor.moveToNext()) {
+					known.put(cursor.getString(0), new long[] { cursor.getLong(1), cursor.getLong(2) });
+				}
+			} finally {
+				cursor.close();
+			}
+			CatalogDiff diff = CatalogDiff.compute(known, fileSystem.listFiles(dir));
+
+			db.beginTransaction();
+			try {
+				synchronized (mPending) {
+					for (StorageFileSystem.StoredFile file : diff.added) {
+						String path = file.file.getAbsolutePath();
+						mPending.add(new CaptureRecord(path, CaptureRecord.typeOf(path), file.length, CaptureRecord.UNKNOWN,
+								CaptureRecord.UNKNOWN, CaptureRecord.UNKNOWN, file.lastModified, file.lastModified,
+								CaptureRecord.UNKNOWN, false));
+					}
+				}
+				flush();
+				for (StorageFileSystem.StoredFile file : diff.changed) {
+					db.execSQL("UPDATE " + TABLE_CAPTURES + " SET size = ?, modified_at = ? WHERE path = ?",
+							new Object[] { file.length, file.lastModified, file.file.getAbsolutePath() });
+				}
+				for (String path : diff.removed) {
+					db.delete(TABLE_CAPTURES, "path = ?", new String[] { path });
+				}
+				db.execSQL("INSERT OR REPLACE INTO " + TABLE_DIRECTORIES + " (path, modified_at, scanned_at) VALUES (?, ?, ?)",
+						new Object[] { dirPath, lastModified, System.currentTimeMillis() });
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			int dirChanges = diff.added.size() + diff.changed.size() + diff.removed.size();
+			changes += dirChanges;
+			LogUtil.i(TAG, "reconcile - dir: {} changes: {}", dirPath, dirChanges);
+		}
+		return changes;
+	}
+
+	/**
+	 * Writes what is queued and closes the database.
+	 */
+	public synchronized void close() {
+		flush();
+		mExecutor.shutdown();
+		if (mInsert != null) {
+			mInsert.close();
+			mInsert = null;
+		}
+		if (mUploadedQuery != null) {
+			mUploadedQuery.close();
+			mUploadedQuery = null;
+		}
+		mHelper.close();
+	}
+
+	/**
+	 * Creates and upgrades the catalog database.
+	 */
+	private static class OpenHelper extends SQLiteOpenHelper {
+
+		OpenHelper(Context context) {
+			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		}
+
+		@Override
+		public void onCreate(SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE " + TABLE_CAPTURES + " ("
+					+ "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+					+ "path TEXT NOT NULL UNIQUE, "
+					+ "dir TEXT, "
+					+ "type INTEGER NOT NULL, "
+					+ "size INTEGER NOT NULL, "
+					+ "width INTEGER, "
+					+ "height INTEGER, "
+					+ "orientation INTEGER, "
+					+ "captured_at INTEGER NOT NULL, "
+					+ "modified_at INTEGER NOT NULL, "
+					+ "sharpness REAL, "
+					+ "uploaded INTEGER NOT NULL DEFAULT 0)");
+			db.execSQL("CREATE INDEX captures_upload_type_time ON " + TABLE_CAPTURES + " (uploaded, type, captured_at)");
+			db.execSQL("CREATE INDEX captures_time ON " + TABLE_CAPTURES + " (captured_at)");
+			db.execSQL("CREATE INDEX captures_dir ON " + TABLE_CAPTURES + " (dir)");
+			db.execSQL("CREATE TABLE " + TABLE_DIRECTORIES + " ("
+					+ "path TEXT PRIMARY KEY, "
+					+ "modified_at INTEGER NOT NULL, "
+					+ "scanned_at INTEGER NOT NULL)");
+		}
+
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			// First version, nothing to migrate yet.
+		}
+	}
+}
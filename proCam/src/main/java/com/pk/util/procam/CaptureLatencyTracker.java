@@ -0,0 +1,227 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timestamps the {@link CaptureStage}s of each capture and keeps a histogram of the
+ * time spent between consecutive stages, of the whole capture, and of the time it
+ * takes a video recording to start. Timestamps live in a small fixed ring of
+ * slots and histograms are lock free, so marking a stage does not allocate.
+ *
+ * Single captures go through the current capture: {@link #beginCapture()} on the
+ * button press, {@link #mark(CaptureStage)} for the following stages. Queries and
+ * {@link #dump(File)} can run at any time from any thread.
+ */
+public enum CaptureLatencyTracker {
+
+	INSTANCE;
+
+	/** The number of captures that can be in flight at the same time. */
+	private static final int SLOT_COUNT = 16;
+
+	/** The stages. */
+	private final CaptureStage[] mStages = CaptureStage.values();
+
+	/** The index in a slot holding the id of the capture using it, after the stage timestamps. */
+	private final int mIdIndex = mStages.length;
+
+	/** The stage timestamps of the captures in flight, in nanoseconds, plus their ids. */
+	private final AtomicLongArray[] mSlots = new AtomicLongArray[SLOT_COUNT];
+
+	/** The time spent reaching each stage from the previous stage that was marked. */
+	private final LatencyHistogram[] mStageHistograms = new LatencyHistogram[mStages.length];
+
+	/** The time from the button press to the callback delivery. */
+	private final LatencyHistogram mTotalHistogram = new LatencyHistogram();
+
+	/** The time from the record request to the recorder running. */
+	private final LatencyHistogram mRecordStartHistogram = new LatencyHistogram();
+
+	/** The last capture id handed out. */
+	private final AtomicLong mLastId = new AtomicLong();
+
+	/** The id of the current capture, 0 if none. */
+	private final AtomicLong mCurrentId = new AtomicLong();
+
+	/** Whether stages are recorded. */
+	private volatile boolean mEnabled = true;
+
+	private CaptureLatencyTracker() {
+		for (int i = 0; i < SLOT_COUNT; i++) {
+			mSlots[i] = new AtomicLongArray(mStages.length + 1);
+		}
+		for (int i = 0; i < mStages.length; i++) {
+			mStageHistograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Enables or disables recording.
+	 *
+	 * @param enabled whether stages are recorded
+	 */
+	public void setEnabled(boolean enabled) {
+		mEnabled = enabled;
+	}
+
+	/**
+	 * Checks if recording is enabled.
+	 *
+	 * @return true, if enabled
+	 */
+	public boolean isEnabled() {
+		return mEnabled;
+	}
+
+	/**
+	 * Starts tracking a capture at its button press and makes it the current capture.
+	 *
+	 * @return the capture id, 0 if recording is disabled
+	 */
+	public long beginCapture() {
+		if (!mEnabled) {
+			return 0;
+		}
+		long id = mLastId.incrementAndGet();
+		AtomicLongArray slot = mSlots[(int) (id % SLOT_COUNT)];
+		slot.set(mIdIndex, id);
+		for (int i = 1; i < mStages.length; i++) {
+			slot.set(i, 0);
+		}
+		slot.set(CaptureStage.BUTTON_PRESS.ordinal(), System.nanoTime());
+		mCurrentId.set(id);
+		return id;
+	}
+
+	/**
+	 * Gets the current capture if it has only had its button press marked so far,
+	 * otherwise begins a new capture. Lets the camera code track captures which were
+	 * not started from a button.
+	 *
+	 * @return the capture id, 0 if recording is disabled
+	 */
+	public long currentOrBeginCapture() {
+		long id = mCurrentId.get();
+		if (id != 0) {
+			AtomicLongArray slot = mSlots[(int) (id % SLOT_COUNT)];
+			if (slot.get(mIdIndex) == id && slot.get(CaptureStage.PARAMETERS_SET.ordinal()) == 0) {
+				return id;
+			}
+		}
+		return beginCapture();
+	}
+
+	/**
+	 * Marks a stage of the current capture.
+	 *
+	 * @param stage the stage
+	 */
+	public void mark(CaptureStage stage) {
+		mark(mCurrentId.get(), stage);
+	}
+
+	/**
+	 * Marks a stage of a capture. Ignored for unknown or evicted captures.
+	 *
+	 * @param captureId the capture id
+	 * @param stage the stage
+	 */
+	public void mark(long captureId, CaptureStage stage) {
+		if (!mEnabled || captureId == 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		AtomicLongArray slot = mSlots[(int) (captureId % SLOT_COUNT)];
+		if (slot.get(mIdIndex) != captureId) {
+			return;
+		}
+		int index = stage.ordinal();
+		slot.set(index, now);
+		for (int previous = index - 1; previous >= 0; previous--) {
+			long previousTime = slot.get(previous);
+			if (previousTime != 0) {
+				mStageHistograms[index].record((now - previousTime) / 1000);
+				break;
+			}
+		}
+
+		if (stage == CaptureStage.CALLBACK_DELIVERED) {
+			mTotalHistogram.record((now - slot.get(CaptureStage.BUTTON_PRESS.ordinal())) / 1000);
+			mCurrentId.compareAndSet(captureId, 0);
+		}
+	}
+
+	/**
+	 * Records the time it took a video recording to start.
+	 *
+	 * @param latencyUs the latency in microseconds
+	 */
+	public void recordVideoStart(long latencyUs) {
+		if (mEnabled) {
+			mRecordStartHistogram.record(latencyUs);
+		}
+	}
+
+	/**
+	 * Gets the histogram of the time spent reaching a stage from the previous marked stage.
+	 *
+	 * @param stage the stage
+	 * @return the histogram
+	 */
+	public LatencyHistogram getStageHistogram(CaptureStage stage) {
+		return mStageHistograms[stage.ordinal()];
+	}
+
+	/**
+	 * Gets the histogram of the time from the button press to the callback delivery.
+	 *
+	 * @return the histogram
+	 */
+	public LatencyHistogram getTotalHistogram() {
+		return mTotalHistogram;
+	}
+
+	/**
+	 * Gets the histogram of the time from the record request to the recorder running.
+	 *
+	 * @return the histogram
+	 */
+	public LatencyHistogram getVideoStartHistogram() {
+		return mRecordStartHistogram;
+	}
+
+	/**
+	 * Clears all histograms.
+	 */
+	public void reset() {
+		for (LatencyHistogram histogram : mStageHistograms) {
+			histogram.reset();
+		}
+		mTotalHistogram.reset();
+		mRecordStartHistogram.reset();
+	}
+
+	/**
+	 * Writes all histograms to a text file, one line per histogram.
+	 *
+	 * @param file the file
+	 * @throws IOException Signals that the file could not be written.
+	 */
+	public void dump(File file) throws IOException {
+		Writer writer = new FileWriter(file);
+		try {
+			for (int i = 1; i < mStages.length; i++) {
+				writer.write(mStages[i].name()+" "+mStageHistograms[i]+"\n");
+			}
+			writer.write("TOTAL "+mTotalHistogram+"\n");
+			writer.write("VIDEO_START "+mRecordStartHistogram+"\n");
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.pk.util.procam;
+
+import java.util.Locale;
+
+/**
+ * A capture as kept in the {@link CaptureCatalog}.
+ */
+public class CaptureRecord {
+
+	/** The type of a picture. */
+	public static final int TYPE_IMAGE = 0;
+
+	/** The type of a video. */
+	public static final int TYPE_VIDEO = 1;
+
+	/** The value of attributes that are not known, e.g. for files found by a scan. */
+	public static final int UNKNOWN = -1;
+
+	/** The full file path. */
+	public final String path;
+
+	/** The type, {@link #TYPE_IMAGE} or {@link #TYPE_VIDEO}. */
+	public final int type;
+
+	/** The size in bytes. */
+	public final long sizeBytes;
+
+	/** The width in pixels, or {@link #UNKNOWN}. */
+	public final int width;
+
+	/** The height in pixels, or {@link #UNKNOWN}. */
+	public final int height;
+
+	/** The orientation in degrees, or {@link #UNKNOWN}. */
+	public final int orientation;
+
+	/** The wall clock time of the capture, in milliseconds. */
+	public final long capturedAt;
+
+	/** The last modified time of the file, in milliseconds. */
+	public final long modifiedAt;
+
+	/** The sharpness score, or {@link #UNKNOWN}. */
+	public final double sharpness;
+
+	/** Whether the capture is uploaded. */
+	public final boolean uploaded;
+
+	public CaptureRecord(String path, int type, long sizeBytes, int width, int height, int orientation,
+			long capturedAt, long modifiedAt, double sharpness, boolean uploaded) {
+		this.path = path;
+		this.type = type;
+		this.sizeBytes = sizeBytes;
+		this.width = width;
+		this.height = height;
+		this.orientation = orientation;
+		this.capturedAt = capturedAt;
+		this.modifiedAt = modifiedAt;
+		this.sharpness = sharpness;
+		this.uploaded = uploaded;
+	}
+
+	/**
+	 * Gets the type of a media file from its extension.
+	 *
+	 * @param path the path
+	 * @return {@link #TYPE_IMAGE}, {@link #TYPE_VIDEO} or {@link #UNKNOWN} for other files
+	 */
+	public static int typeOf(String path) {
+		String lower = path.toLowerCase(Locale.US);
+		if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+			return TYPE_IMAGE;
+		}
+		if (lower.endsWith(".mp4") || lower.endsWith(".3gp")) {
+			return TYPE_VIDEO;
+		}
+		return UNKNOWN;
+	}
+
+	@Override
+	public String toString() {
+		return "CaptureRecord [path=" + path + ", type=" + type + ", sizeBytes=" + sizeBytes + ", uploaded=" + uploaded + "]";
+	}
+}
@@ -0,0 +1,305 @@
+package com.pk.util.procam;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Saves captured JPEG data on a background thread so that the camera can go on
+ * to the next shot while the previous one is still being written.
+ *
+ * Pending captures are written in batches: each time the worker wakes up it
+ * drains everything queued so far (up to the batch size), writes the batch and
+ * only then acknowledges the captures of that batch.
+ *
+ * With a {@link Committer} a batch is a group commit: the writer only stages the
+ * files, the committer makes the whole batch durable in one go (e.g. a
+ * {@link DurableFileWriter} with {@link DurabilityPolicy#BATCHED}) and the
+ * captures are acknowledged after that. A max latency lets the first capture of a
+ * batch wait a little for more to join it.
+ */
+public class CaptureSaveQueue {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The default max number of captures written in one batch. */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 8;
+
+	/**
+	 * Writes the data of one capture.
+	 */
+	public interface Writer {
+
+		/**
+		 * Write.
+		 *
+		 * @param data the JPEG data
+		 * @return the full file path, or null if the write failed
+		 */
+		public String write(byte[] data);
+	}
+
+	/**
+	 * Makes the files of a batch durable.
+	 */
+	public interface Committer {
+
+		/**
+		 * Commits everything written since the last call.
+		 *
+		 * @return the paths that were committed, the others are reported as failed
+		 */
+		public Collection<String> commit();
+	}
+
+	/**
+	 * Notified on the worker thread once a capture has been written, or on the caller's thread
+	 * if it was queued after {@link CaptureSaveQueue#shutdown(SaveCallback)}.
+	 */
+	public interface SaveCallback {
+
+		/**
+		 * On saved.
+		 *
+		 * @param fullFilePath the full file path, or null if the write failed
+		 */
+		public void onSaved(String fullFilePath);
+	}
+
+	/** The writer. */
+	private final Writer mWriter;
+
+	/** The committer, may be null. */
+	private final Committer mCommitter;
+
+	/** The max batch size. */
+	private final int mMaxBatchSize;
+
+	/** How long the first capture of a batch waits for more to join it, in nanoseconds. */
+	private final long mMaxLatencyNs;
+
+	/** The number of batches written. */
+	private volatile int mBatchCount;
+
+	/** The number of captures written. */
+	private volatile int mSavedCount;
+
+	/** The pending captures. */
+	private final BlockingQueue<PendingCapture> mQueue = new LinkedBlockingQueue<PendingCapture>();
+
+	/** The worker thread. */
+	private final Thread mWorker;
+
+	/** Whether the queue was shut down, guarded by the queue. */
+	private boolean mShutdown;
+
+	/**
+	 * Instantiates a new capture save queue and starts its worker thread.
+	 *
+	 * @param writer the writer
+	 * @param maxBatchSize the max number of captures written in one batch
+	 */
+	public CaptureSaveQueue(Writer writer, int maxBatchSize) {
+		this(writer, null, maxBatchSize, 0);
+	}
+
+	/**
+	 * Instantiates a new group commit capture save queue and starts its worker thread.
+	 *
+	 * @param writer the writer
+	 * @param committer the committer called once per batch, may be null
+	 * @param maxBatchSize the max number of captures written in one batch
+	 * @param maxLatencyMs how long the first capture of a batch may wait for more captures before the batch is written
+	 */
+	public CaptureSaveQueue(Writer writer, Committer committer, int maxBatchSize, long maxLatencyMs) {
+		mWriter = writer;
+		mCommitter = committer;
+		mMaxBatchSize = Math.max(1, maxBatchSize);
+		mMaxLatencyNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxLatencyMs));
+		mWorker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processQueue();
+			}
+		}, TAG);
+		mWorker.setDaemon(true);
+		mWorker.start();
+	}
+
+	/**
+	 * Queues a capture for saving. Once the queue is shut down, the capture is not saved and the
+	 * callback is called right away with a null path.
+	 *
+	 * @param data the JPEG data
+	 * @param callback the callback, may be null
+	 */
+	public void enqueue(byte[] data, SaveCallback callback) {
+		synchronized (mQueue) {
+			if (!mShutdown) {
+				mQueue.add(new PendingCapture(data, callback));
+				return;
+			}
+		}
+		LogUtil.w(TAG, "enqueue - queue shut down, capture dropped");
+		if (callback != null) {
+			callback.onSaved(null);
+		}
+	}
+
+	/**
+	 * Saves everything queued so far and stops the worker thread.
+	 *
+	 * @param callback called with a null path once the last capture has been saved, right away if
+	 *            the queue was already shut down; may be null
+	 */
+	public void shutdown(SaveCallback callback) {
+		synchronized (mQueue) {
+			if (!mShutdown) {
+				mShutdown = true;
+				// Nothing is queued after the stop marker, so every capture queued is saved.
+				mQueue.add(new PendingCapture(null, callback));
+				return;
+			}
+		}
+		if (callback != null) {
+			callback.onSaved(null);
+		}
+	}
+
+	/**
+	 * Gets the number of batches written so far.
+	 *
+	 * @return the batch count
+	 */
+	public int getBatchCount() {
+		return mBatchCount;
+	}
+
+	/**
+	 * Gets the number of captures written so far.
+	 *
+	 * @return the saved count
+	 */
+	public int getSavedCount() {
+		return mSavedCount;
+	}
+
+	/**
+	 * Worker loop.
+	 */
+	private void processQueue() {
+		List<PendingCapture> batch = new ArrayList<PendingCapture>(mMaxBatchSize);
+		boolean running = true;
+		while (running) {
+			try {
+				batch.add(mQueue.take());
+			} catch (InterruptedException e) {
+				break;
+			}
+			mQueue.drainTo(batch, mMaxBatchSize - 1);
+			if (mMaxLatencyNs > 0 && !fillBatch(batch)) {
+				running = false;
+			}
+
+			String[] paths = new String[batch.size()];
+			int written = 0;
+			for (int i = 0; i < batch.size(); i++) {
+				PendingCapture capture = batch.get(i);
+				if (capture.data == null) {
+					running = false;
+				} else {
+					paths[i] = mWriter.write(capture.data);
+					if (paths[i] != null) {
+						written++;
+					}
+				}
+			}
+			if (mCommitter != null && written > 0) {
+				commit(paths);
+			}
+			if (!batch.get(0).isStopMarker()) {
+				mBatchCount++;
+			}
+			mSavedCount += written;
+			LogUtil.d(TAG, "processQueue - batch written: {}", batch.size());
+
+			for (int i = 0; i < batch.size(); i++) {
+				PendingCapture capture = batch.get(i);
+				if (capture.callback != null) {
+					capture.callback.onSaved(paths[i]);
+				}
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Waits for more captures until the batch is full, the max latency has passed
+	 * since the first capture was taken from the queue or the queue is shut down.
+	 *
+	 * @param batch the batch
+	 * @return false, if interrupted
+	 */
+	private boolean fillBatch(List<PendingCapture> batch) {
+		long deadline = System.nanoTime() + mMaxLatencyNs;
+		while (batch.size() < mMaxBatchSize && batch.get(batch.size() - 1).data != null) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				break;
+			}
+			PendingCapture capture;
+			try {
+				capture = mQueue.poll(remaining, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				return false;
+			}
+			if (capture == null) {
+				break;
+			}
+			batch.add(capture);
+			mQueue.drainTo(batch, mMaxBatchSize - batch.size());
+		}
+		return true;
+	}
+
+	/**
+	 * Commits a batch, clearing the paths of captures that did not make it.
+	 *
+	 * @param paths the paths written by the batch
+	 */
+	private void commit(String[] paths) {
+		Set<String> committed = new HashSet<String>(mCommitter.commit());
+		for (int i = 0; i < paths.length; i++) {
+			if (paths[i] != null && !committed.contains(paths[i])) {
+				paths[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * A capture waiting to be saved.
+	 */
+	private static class PendingCapture {
+
+		/** The data. */
+		final byte[] data;
+
+		/** The callback. */
+		final SaveCallback callback;
+
+		PendingCapture(byte[] data, SaveCallback callback) {
+			this.data = data;
+			this.callback = callback;
+		}
+
+		boolean isStopMarker() {
+			return data == null;
+		}
+	}
+}
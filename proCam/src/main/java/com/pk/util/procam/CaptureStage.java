@@ -0,0 +1,31 @@
+package com.pk.util.procam;
+
+/**
+ * The stages of a still capture, in the order they happen.
+ */
+public enum CaptureStage {
+
+	/** The capture button was pressed. */
+	BUTTON_PRESS,
+
+	/** The camera parameters have been set. */
+	PARAMETERS_SET,
+
+	/** The camera was focused, or known to be already. */
+	FOCUSED,
+
+	/** The shutter callback fired. */
+	SHUTTER,
+
+	/** The JPEG data was delivered by the camera. */
+	JPEG_CALLBACK,
+
+	/** The JPEG file was written. */
+	FILE_WRITTEN,
+
+	/** The orientation of the file was fixed. */
+	EXIF_PATCHED,
+
+	/** The application callback returned. */
+	CALLBACK_DELIVERED
+}
@@ -0,0 +1,90 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What changed in a capture directory since it was last scanned into the {@link CaptureCatalog}.
+ */
+public class CatalogDiff {
+
+	/**
+	 * How close to a scan a directory change must be to be distrusted. Directory times have a
+	 * resolution of up to two seconds on some file systems, so a file added in the same tick as a
+	 * scan does not change the time the scan saw.
+	 */
+	static final long MODIFIED_TIME_RESOLUTION_MS = 2000;
+
+	/** The media files not in the catalog. */
+	public final List<StorageFileSystem.StoredFile> added = new ArrayList<StorageFileSystem.StoredFile>();
+
+	/** The media files whose size or time differs from the catalog. */
+	public final List<StorageFileSystem.StoredFile> changed = new ArrayList<StorageFileSystem.StoredFile>();
+
+	/** The paths in the catalog without a file. */
+	public final List<String> removed = new ArrayList<String>();
+
+	/**
+	 * Checks whether a directory must be listed again.
+	 *
+	 * @param lastModified the last modified time of the directory now
+	 * @param scannedModified the last modified time of the directory at the last scan, or -1 if never scanned
+	 * @param scannedAt the wall clock time of the last scan
+	 * @return true, if the directory may have changed
+	 */
+	public static boolean isDirectoryStale(long lastModified, long scannedModified, long scannedAt) {
+		return scannedModified < 0 || lastModified != scannedModified
+				|| scannedModified >= scannedAt - MODIFIED_TIME_RESOLUTION_MS;
+	}
+
+	/**
+	 * Compares a listing with the catalog.
+	 *
+	 * @param known the catalog entries of the directory, path to {size, modified time}
+	 * @param files the listing of the directory
+	 * @return the diff
+	 */
+	public static CatalogDiff compute(Map<String, long[]> known, List<StorageFileSystem.StoredFile> files) {
+		CatalogDiff diff = new CatalogDiff();
+		Set<String> seen = new HashSet<String>();
+		for (StorageFileSystem.StoredFile file : files) {
+			String path = file.file.getAbsolutePath();
+			if (!isMediaFile(file.file)) {
+				continue;
+			}
+			seen.add(path);
+			long[] entry = known.get(path);
+			if (entry == null) {
+				diff.added.add(file);
+			} else if (entry[0] != file.length || entry[1] != file.lastModified) {
+				diff.changed.add(file);
+			}
+		}
+		for (String path : known.keySet()) {
+			if (!seen.contains(path)) {
+				diff.removed.add(path);
+			}
+		}
+		return diff;
+	}
+
+	/**
+	 * Checks if a file is a finished capture: a picture or video and not a temp file.
+	 */
+	static boolean isMediaFile(File file) {
+		return !file.getName().startsWith(DurableFileWriter.TEMP_PREFIX) && CaptureRecord.typeOf(file.getName()) != CaptureRecord.UNKNOWN;
+	}
+
+	/**
+	 * Checks if nothing changed.
+	 *
+	 * @return true, if empty
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+	}
+}
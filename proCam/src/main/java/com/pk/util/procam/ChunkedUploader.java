@@ -0,0 +1,381 @@
+package com.pk.util.procam;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Uploads captured files in fixed size chunks over a resumable upload protocol, so a dropped
+ * connection or a restart only costs the chunk in flight.
+ * <p>
+ * The protocol is the common resumable one: a <code>POST</code> to the endpoint with
+ * <code>X-Upload-Content-Length</code> creates a session and returns its URI in <code>Location</code>.
+ * Each chunk is a <code>PUT</code> to the session with <code>Content-Range: bytes first-last/total</code>,
+ * answered with <code>308</code> and the <code>Range</code> received so far, or <code>200</code>/<code>201</code>
+ * once the file is complete. A <code>PUT</code> with <code>Content-Range: bytes *&#47;total</code> and no
+ * body asks for the received range. The server's answer is always taken as the offset to continue from.
+ * <p>
+ * Chunks are streamed from the file with {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * in fixed length streaming mode, so neither the file nor a chunk is held in memory. The app needs the
+ * <code>INTERNET</code> permission.
+ */
+public class ChunkedUploader {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The default chunk size, a multiple of 256 KB as most resumable servers require. */
+	public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+	/** The default number of files uploaded at the same time. */
+	public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 2;
+
+	/** HTTP status of an incomplete upload. */
+	static final int HTTP_RESUME_INCOMPLETE = 308;
+
+	/** Returned instead of an offset once the server has the whole file. */
+	private static final long COMPLETE = -1;
+
+	/**
+	 * The server no longer knows the upload session.
+	 */
+	static class SessionExpiredException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		SessionExpiredException(String message) {
+			super(message);
+		}
+	}
+
+	/** The endpoint sessions are created at. */
+	private final URL mEndpoint;
+
+	/** The m progress store. */
+	private final UploadProgressStore mProgressStore;
+
+	/** The m stats. */
+	private final UploadStats mStats = new UploadStats();
+
+	/** The m chunk size. */
+	private int mChunkSize = DEFAULT_CHUNK_SIZE;
+
+	/** The permits of concurrent uploads. */
+	private Semaphore mTransfers = new Semaphore(DEFAULT_MAX_CONCURRENT_UPLOADS, true);
+
+	/** The m times a failed chunk is resent before the upload fails. */
+	private int mMaxChunkRetries = 3;
+
+	/** The m delay before the first resend, doubled for each further one. */
+	private long mRetryDelayMs = 500;
+
+	/** The m connect and read timeout. */
+	private int mTimeoutMs = 30000;
+
+	/**
+	 * Instantiates a new chunked uploader.
+	 *
+	 * @param endpoint the endpoint sessions are created at
+	 * @param progressStore the store of upload progress
+	 */
+	public ChunkedUploader(URL endpoint, UploadProgressStore progressStore) {
+		mEndpoint = endpoint;
+		mProgressStore = progressStore;
+	}
+
+	/**
+	 * Sets the chunk size. Defaults to {@link #DEFAULT_CHUNK_SIZE}.
+	 *
+	 * @param chunkSize the chunk size in bytes
+	 * @return the chunked uploader
+	 */
+	public ChunkedUploader setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize: " + chunkSize);
+		}
+		mChunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Sets the number of files uploaded at the same time, further calls to {@link #upload(File)} wait.
+	 * Must be set before the first upload. Defaults to {@link #DEFAULT_MAX_CONCURRENT_UPLOADS}.
+	 *
+	 * @param maxConcurrentUploads the max concurrent uploads
+	 * @return the chunked uploader
+	 */
+	public ChunkedUploader setMaxConcurrentUploads(int maxConcurrentUploads) {
+		mTransfers = new Semaphore(maxConcurrentUploads, true);
+		return this;
+	}
+
+	/**
+	 * Sets how often a failed chunk is resent before the upload fails. Defaults to 3.
+	 *
+	 * @param maxChunkRetries the max chunk retries
+	 * @return the chunked uploader
+	 */
+	public ChunkedUploader setMaxChunkRetries(int maxChunkRetries) {
+		mMaxChunkRetries = maxChunkRetries;
+		return this;
+	}
+
+	/**
+	 * Sets the delay before the first resend of a failed chunk. Defaults to 500 ms.
+	 *
+	 * @param retryDelayMs the retry delay in milliseconds
+	 * @return the chunked uploader
+	 */
+	public ChunkedUploader setRetryDelayMs(long retryDelayMs) {
+		mRetryDelayMs = retryDelayMs;
+		return this;
+	}
+
+	/**
+	 * Sets the connect and read timeout of each request. Defaults to 30 seconds.
+	 *
+	 * @param timeoutMs the timeout in milliseconds
+	 * @return the chunked uploader
+	 */
+	public ChunkedUploader setTimeoutMs(int timeoutMs) {
+		mTimeoutMs = timeoutMs;
+		return this;
+	}
+
+	/**
+	 * Gets the stats.
+	 *
+	 * @return the stats
+	 */
+	public UploadStats getStats() {
+		return mStats;
+	}
+
+	/**
+	 * Uploads a file, continuing an earlier session of it if the server still has one. Blocks
+	 * while the maximum number of uploads are running.
+	 *
+	 * @param file the file
+	 * @return the session URI the file was uploaded to
+	 * @throws IOException if the upload failed; its progress is kept for the next call
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public String upload(File file) throws IOException, InterruptedException {
+		if (!file.isFile()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		mTransfers.acquire();
+		mStats.onTransferStarted();
+		try {
+			return transfer(file);
+		} finally {
+			mStats.onTransferFinished();
+			mTransfers.release();
+		}
+	}
+
+	private String transfer(File file) throws IOException, InterruptedException {
+		long length = file.length();
+		UploadProgressStore.Progress progress = mProgressStore.get(file);
+		long offset = 0;
+		if (progress != null && progress.matches(file)) {
+			try {
+				offset = queryOffset(progress.sessionUri, length);
+				mStats.onFileResumed();
+				LogUtil.d(TAG, "transfer - resuming {} at {}", file.getName(), offset);
+			} catch (SessionExpiredException e) {
+				progress = null;
+			}
+		} else {
+			progress = null;
+		}
+		if (progress == null) {
+			progress = new UploadProgressStore.Progress(createSession(file, length), length, file.lastModified(), 0);
+			mProgressStore.put(file, progress);
+		}
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			int failures = 0;
+			boolean resync = false;
+			while (offset != COMPLETE) {
+				try {
+					if (resync) {
+						offset = queryOffset(progress.sessionUri, length);
+						resync = false;
+					} else if (offset < length) {
+						int count = (int) Math.min(mChunkSize, length - offset);
+						long start = System.nanoTime();
+						long next = sendChunk(progress.sessionUri, channel, offset, count, length);
+						mStats.onChunkSent(next == COMPLETE ? length - offset : Math.max(0, next - offset), System.nanoTime() - start);
+						offset = next;
+						if (offset != COMPLETE) {
+							progress = progress.withOffset(offset);
+							mProgressStore.put(file, progress);
+						}
+						failures = 0;
+					} else {
+						offset = queryOffset(progress.sessionUri, length);
+						if (offset != COMPLETE) {
+							throw new IOException("Server has all " + length + " bytes but did not complete");
+						}
+					}
+				} catch (SessionExpiredException e) {
+					// Let the next attempt start over with a new session.
+					mProgressStore.remove(file);
+					throw e;
+				} catch (IOException e) {
+					mStats.onChunkFailed();
+					if (failures++ >= mMaxChunkRetries) {
+						throw e;
+					}
+					LogUtil.w(TAG, "transfer - chunk failed, resending: {}", file, e);
+					Thread.sleep(mRetryDelayMs << Math.min(failures - 1, 16));
+					resync = true;
+				}
+			}
+		} finally {
+			randomAccessFile.close();
+		}
+		mProgressStore.remove(file);
+		mStats.onFileUploaded();
+		LogUtil.d(TAG, "transfer - uploaded {}", file.getName());
+		return progress.sessionUri;
+	}
+
+	private String createSession(File file, long length) throws IOException {
+		HttpURLConnection connection = open(mEndpoint, "POST");
+		try {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(0);
+			connection.setRequestProperty("X-Upload-Content-Length", String.valueOf(length));
+			connection.setRequestProperty("X-Upload-Content-Name", file.getName());
+			connection.getOutputStream().close();
+			int code = connection.getResponseCode();
+			String location = connection.getHeaderField("Location");
+			if ((code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_CREATED) || location == null) {
+				throw new IOException("Creating session failed: " + code);
+			}
+			return new URL(mEndpoint, location).toString();
+		} finally {
+			close(connection);
+		}
+	}
+
+	private long sendChunk(String sessionUri, FileChannel channel, long offset, int count, long length) throws IOException {
+		HttpURLConnection connection = open(new URL(sessionUri), "PUT");
+		try {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(count);
+			connection.setRequestProperty("Content-Range", "bytes " + offset + "-" + (offset + count - 1) + "/" + length);
+			OutputStream out = connection.getOutputStream();
+			WritableByteChannel target = Channels.newChannel(out);
+			long position = offset;
+			long end = offset + count;
+			while (position < end) {
+				long sent = channel.transferTo(position, end - position, target);
+				if (sent <= 0) {
+					throw new EOFException("File shrank during upload");
+				}
+				position += sent;
+			}
+			out.close();
+			return readOffset(connection);
+		} finally {
+			close(connection);
+		}
+	}
+
+	private long queryOffset(String sessionUri, long length) throws IOException {
+		HttpURLConnection connection = open(new URL(sessionUri), "PUT");
+		try {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(0);
+			connection.setRequestProperty("Content-Range", "bytes */" + length);
+			connection.getOutputStream().close();
+			return readOffset(connection);
+		} finally {
+			close(connection);
+		}
+	}
+
+	/**
+	 * Reads the offset to continue from out of a response.
+	 */
+	private long readOffset(HttpURLConnection connection) throws IOException {
+		int code = connection.getResponseCode();
+		switch (code) {
+		case HttpURLConnection.HTTP_OK:
+		case HttpURLConnection.HTTP_CREATED:
+			return COMPLETE;
+		case HTTP_RESUME_INCOMPLETE:
+			return parseRange(connection.getHeaderField("Range"));
+		case HttpURLConnection.HTTP_NOT_FOUND:
+		case HttpURLConnection.HTTP_GONE:
+			throw new SessionExpiredException("Session expired: " + code);
+		default:
+			throw new IOException("Unexpected response: " + code);
+		}
+	}
+
+	/**
+	 * Parses a <code>Range: bytes=0-last</code> header into the number of bytes received.
+	 *
+	 * @param range the header, null if nothing was received
+	 * @return the number of bytes received
+	 * @throws IOException if the header is malformed
+	 */
+	static long parseRange(String range) throws IOException {
+		if (range == null) {
+			return 0;
+		}
+		int dash = range.lastIndexOf('-');
+		if (!range.startsWith("bytes=0-") || dash < 0) {
+			throw new IOException("Bad range: " + range);
+		}
+		try {
+			return Long.parseLong(range.substring(dash + 1).trim()) + 1;
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad range: " + range);
+		}
+	}
+
+	private HttpURLConnection open(URL url, String method) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setInstanceFollowRedirects(false);
+		connection.setUseCaches(false);
+		connection.setConnectTimeout(mTimeoutMs);
+		connection.setReadTimeout(mTimeoutMs);
+		return connection;
+	}
+
+	/**
+	 * Drains and closes a connection so it can be kept alive for the next chunk.
+	 */
+	private static void close(HttpURLConnection connection) {
+		try {
+			InputStream in = connection.getErrorStream();
+			if (in == null) {
+				in = connection.getInputStream();
+			}
+			byte[] buffer = new byte[512];
+			while (in.read(buffer) >= 0) {
+				// Drain.
+			}
+			in.close();
+		} catch (IOException e) {
+			connection.disconnect();
+		}
+	}
+}
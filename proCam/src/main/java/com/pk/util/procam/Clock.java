@@ -0,0 +1,45 @@
+package com.pk.util.procam;
+
+import android.os.SystemClock;
+
+/**
+ * Source of time in milliseconds. Scheduling code takes a Clock instead of
+ * reading the system time directly so that it can be driven by a fake clock in
+ * unit tests.
+ */
+public interface Clock {
+
+	/** Clock backed by {@link SystemClock#elapsedRealtime()}, which keeps counting in deep sleep. */
+	public static final Clock ELAPSED_REALTIME = new Clock() {
+		@Override
+		public long now() {
+			return SystemClock.elapsedRealtime();
+		}
+	};
+
+	/**
+	 * Clock backed by {@link SystemClock#uptimeMillis()}, which stops in deep sleep. The clock
+	 * {@link android.os.Handler#postAtTime(Runnable, long)} takes its times in.
+	 */
+	public static final Clock UPTIME = new Clock() {
+		@Override
+		public long now() {
+			return SystemClock.uptimeMillis();
+		}
+	};
+
+	/** Clock backed by {@link System#currentTimeMillis()}, for wall clock timestamps. Not monotonic. */
+	public static final Clock WALL_CLOCK = new Clock() {
+		@Override
+		public long now() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/**
+	 * Current time.
+	 *
+	 * @return the current time in milliseconds
+	 */
+	public long now();
+}
@@ -0,0 +1,16 @@
+package com.pk.util.procam;
+
+/**
+ * How hard {@link DurableFileWriter} works to get a file onto storage before it reports it as saved.
+ */
+public enum DurabilityPolicy {
+
+	/** Written to a temp file and renamed into place, left to the kernel to flush. Survives an app crash, not a power loss. */
+	NONE,
+
+	/** Each file is fsynced before it is renamed into place. */
+	PER_FILE,
+
+	/** Files are held back until {@link DurableFileWriter#commit()}, which fsyncs them one after another and then renames them all. */
+	BATCHED
+}
@@ -0,0 +1,451 @@
+package com.pk.util.procam;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+/**
+ * Writes media files so that a crash never leaves a truncated file at the final path.
+ * <p>
+ * Data goes into a hidden temp file next to the target through a {@link FileChannel}, is synced
+ * according to the {@link DurabilityPolicy} and is then renamed over the target, which is atomic
+ * within one filesystem. With a durable policy the directory is synced after the rename as well,
+ * once per batch for {@link DurabilityPolicy#BATCHED}, so that the new name survives a power loss
+ * (API level 21 and up, where the directory can be opened). A file that was being written when the process died only leaves a temp file
+ * behind, see {@link #deleteStaleTempFiles(File)}.
+ * <p>
+ * With a {@link MediaCipher} set, files are encrypted on their way to the temp file, so encryption costs
+ * no extra pass over storage.
+ */
+public class DurableFileWriter {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The prefix of temp files. */
+	static final String TEMP_PREFIX = ".";
+
+	/** The suffix of temp files. */
+	static final String TEMP_SUFFIX = ".tmp";
+
+	/** The buffer size of streams returned by {@link PendingFile#getStream()}. */
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+	/** The durability policy. */
+	private final DurabilityPolicy mPolicy;
+
+	/** The cipher files are encrypted with, null to write plain files. */
+	private volatile MediaCipher mCipher;
+
+	/** The files finished but not yet committed, only used by {@link DurabilityPolicy#BATCHED}. */
+	private final List<PendingFile> mUncommitted = new ArrayList<PendingFile>();
+
+	/**
+	 * Instantiates a new durable file writer.
+	 *
+	 * @param policy the durability policy
+	 */
+	public DurableFileWriter(DurabilityPolicy policy) {
+		mPolicy = policy;
+	}
+
+	/**
+	 * Gets the durability policy.
+	 *
+	 * @return the policy
+	 */
+	public DurabilityPolicy getPolicy() {
+		return mPolicy;
+	}
+
+	/**
+	 * Sets the cipher files begun from now on are encrypted with.
+	 *
+	 * @param cipher the cipher, null to write plain files
+	 * @return the durable file writer
+	 */
+	public DurableFileWriter setCipher(MediaCipher cipher) {
+		mCipher = cipher;
+		return this;
+	}
+
+	/**
+	 * Gets the cipher files are encrypted with.
+	 *
+	 * @return the cipher, null if files are written plain
+	 */
+	public MediaCipher getCipher() {
+		return mCipher;
+	}
+
+	/**
+	 * Writes a whole file. With {@link DurabilityPolicy#BATCHED} the file only appears at its path once
+	 * {@link #commit()} is called.
+	 *
+	 * @param target the final file
+	 * @param data the data
+	 * @throws IOException Signals that the file could not be written, nothing is left at the target in that case.
+	 */
+	public void write(File target, byte[] data) throws IOException {
+		write(target, data, 0, data.length);
+	}
+
+	/**
+	 * Writes a whole file from part of an array, see {@link #write(File, byte[])}.
+	 *
+	 * @param target the final file
+	 * @param data the data
+	 * @param offset the offset of the file content in data
+	 * @param length the length of the file content
+	 * @throws IOException Signals that the file could not be written, nothing is left at the target in that case.
+	 */
+	public void write(File target, byte[] data, int offset, int length) throws IOException {
+		PendingFile file = begin(target);
+		try {
+			file.write(data, offset, length);
+		} catch (IOException e) {
+			file.abort();
+			throw e;
+		}
+		finish(file);
+	}
+
+	/**
+	 * Writes an existing file again through this writer, e.g. to encrypt a video the recorder wrote plain.
+	 * The copy replaces the file in one rename, so the path holds either the old or the new content
+	 * in full. With {@link DurabilityPolicy#BATCHED} that happens on {@link #commit()}.
+	 *
+	 * @param file the file
+	 * @throws IOException Signals that the file could not be read or written, it is left as it was in that case.
+	 */
+	public void rewrite(File file) throws IOException {
+		PendingFile copy = begin(file);
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					copy.write(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			copy.abort();
+			throw e;
+		}
+		finish(copy);
+	}
+
+	/**
+	 * Starts writing a file.
+	 *
+	 * @param target the final file
+	 * @return the pending file, to be passed to {@link #finish(PendingFile)} or {@link PendingFile#abort()}
+	 * @throws IOException Signals that the temp file could not be created.
+	 */
+	public PendingFile begin(File target) throws IOException {
+		return new PendingFile(target, mCipher);
+	}
+
+	/**
+	 * Finishes a file. Unless the policy is {@link DurabilityPolicy#BATCHED}, the file is at its final path
+	 * when this returns.
+	 *
+	 * @param file the pending file
+	 * @throws IOException Signals that the file could not be synced or renamed, the temp file is removed in that case.
+	 */
+	public void finish(PendingFile file) throws IOException {
+		try {
+			file.flush();
+			if (mPolicy == DurabilityPolicy.BATCHED) {
+				synchronized (mUncommitted) {
+					mUncommitted.add(file);
+				}
+				return;
+			}
+			if (mPolicy == DurabilityPolicy.PER_FILE) {
+				file.mChannel.force(false);
+			}
+			file.close();
+			file.rename();
+		} catch (IOException e) {
+			file.abort();
+			throw e;
+		}
+		if (mPolicy == DurabilityPolicy.PER_FILE) {
+			syncDirectory(file.mTarget.getParentFile());
+		}
+	}
+
+	/**
+	 * Syncs and renames every file finished since the last commit. Does nothing unless the policy is
+	 * {@link DurabilityPolicy#BATCHED}.
+	 *
+	 * Files that cannot be synced or renamed are removed and left out of the result.
+	 *
+	 * @return the files now at their final path, in the order they were finished
+	 */
+	public List<File> commit() {
+		List<PendingFile> batch;
+		synchronized (mUncommitted) {
+			batch = new ArrayList<PendingFile>(mUncommitted);
+			mUncommitted.clear();
+		}
+		List<File> committed = new ArrayList<File>(batch.size());
+		// Sync everything first so the device sees the writes back to back, then make them visible.
+		for (PendingFile file : batch) {
+			try {
+				file.mChannel.force(false);
+				file.close();
+			} catch (IOException e) {
+				LogUtil.w(TAG, "commit - sync failed: {}", file.mTarget, e);
+				file.abort();
+			}
+		}
+		for (PendingFile file : batch) {
+			if (file.mAborted) {
+				continue;
+			}
+			try {
+				file.rename();
+				committed.add(file.mTarget);
+			} catch (IOException e) {
+				LogUtil.w(TAG, "commit - rename failed: {}", file.mTarget, e);
+				file.abort();
+			}
+		}
+		// One directory sync covers all renames of the batch.
+		Set<File> dirs = new LinkedHashSet<File>();
+		for (File file : committed) {
+			dirs.add(file.getParentFile());
+		}
+		for (File dir : dirs) {
+			syncDirectory(dir);
+		}
+		return committed;
+	}
+
+	/**
+	 * Gets the number of files waiting for {@link #commit()}.
+	 *
+	 * @return the count
+	 */
+	public int getUncommittedCount() {
+		synchronized (mUncommitted) {
+			return mUncommitted.size();
+		}
+	}
+
+	/**
+	 * Deletes the temp files left in a directory by writes that never finished.
+	 *
+	 * @param dir the directory
+	 * @return the number of files deleted
+	 */
+	public static int deleteStaleTempFiles(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		int deleted = 0;
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX) && file.isFile() && file.delete()) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Syncs a directory so that renames into it are durable. Only possible from API level 21,
+	 * elsewhere (including plain JVM tests) this does nothing.
+	 *
+	 * @param dir the directory
+	 * @return true, if synced
+	 */
+	static boolean syncDirectory(File dir) {
+		if (dir == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+			return false;
+		}
+		return syncDirectoryLollipop(dir);
+	}
+
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static boolean syncDirectoryLollipop(File dir) {
+		try {
+			FileDescriptor fd = Os.open(dir.getAbsolutePath(), OsConstants.O_RDONLY, 0);
+			try {
+				Os.fsync(fd);
+			} finally {
+				Os.close(fd);
+			}
+			return true;
+		} catch (ErrnoException e) {
+			LogUtil.w("DurableFileWriter", "syncDirectory - failed: {}", dir, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the temp file used while writing a target.
+	 *
+	 * @param target the target
+	 * @return the temp file
+	 */
+	static File getTempFile(File target) {
+		return new File(target.getParentFile(), TEMP_PREFIX + target.getName() + TEMP_SUFFIX);
+	}
+
+	/**
+	 * A file being written.
+	 */
+	public static class PendingFile {
+
+		/** The final file. */
+		private final File mTarget;
+
+		/** The temp file. */
+		private final File mTemp;
+
+		/** The temp file, open for writing. */
+		private final RandomAccessFile mFile;
+
+		/** The channel of the temp file. */
+		private final FileChannel mChannel;
+
+		/** The buffered stream over the channel, created on demand. */
+		private OutputStream mStream;
+
+		/** The encrypting stream over the channel, null for a plain file. */
+		private final EncryptingOutputStream mEncryptingStream;
+
+		/** Whether the file was aborted. */
+		private boolean mAborted;
+
+		PendingFile(File target, MediaCipher cipher) throws IOException {
+			mTarget = target;
+			mTemp = getTempFile(target);
+			mFile = new RandomAccessFile(mTemp, "rw");
+			mFile.setLength(0);
+			mChannel = mFile.getChannel();
+			if (cipher != null) {
+				try {
+					mEncryptingStream = cipher.startEncrypting(Channels.newOutputStream(mChannel));
+				} catch (IOException e) {
+					abort();
+					throw e;
+				}
+			} else {
+				mEncryptingStream = null;
+			}
+		}
+
+		/**
+		 * Gets the final file.
+		 *
+		 * @return the target
+		 */
+		public File getTarget() {
+			return mTarget;
+		}
+
+		/**
+		 * Writes data at the current position.
+		 *
+		 * @param data the data
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		public void write(byte[] data) throws IOException {
+			write(data, 0, data.length);
+		}
+
+		/**
+		 * Writes part of an array at the current position.
+		 *
+		 * @param data the data
+		 * @param offset the offset
+		 * @param length the length
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		public void write(byte[] data, int offset, int length) throws IOException {
+			if (mStream != null) {
+				mStream.write(data, offset, length);
+				return;
+			}
+			if (mEncryptingStream != null) {
+				mEncryptingStream.write(data, offset, length);
+				return;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+			while (buffer.hasRemaining()) {
+				mChannel.write(buffer);
+			}
+		}
+
+		/**
+		 * Gets a buffered stream writing into the file, e.g. for {@link android.graphics.Bitmap#compress}.
+		 * The stream must not be closed by the caller.
+		 *
+		 * @return the stream
+		 */
+		public OutputStream getStream() {
+			if (mStream == null) {
+				mStream = new BufferedOutputStream(mEncryptingStream != null ? mEncryptingStream
+						: Channels.newOutputStream(mChannel), STREAM_BUFFER_SIZE);
+			}
+			return mStream;
+		}
+
+		/**
+		 * Abandons the file: closes and deletes the temp file and leaves the target untouched.
+		 */
+		public void abort() {
+			mAborted = true;
+			try {
+				mFile.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mTemp.delete();
+		}
+
+		private void flush() throws IOException {
+			if (mStream != null) {
+				mStream.flush();
+			}
+			if (mEncryptingStream != null) {
+				// Only finishes the cipher, the channel stays open for the sync.
+				mEncryptingStream.finish();
+			}
+		}
+
+		private void close() throws IOException {
+			mFile.close();
+		}
+
+		private void rename() throws IOException {
+			if (!mTemp.renameTo(mTarget)) {
+				throw new IOException("Unable to rename " + mTemp + " to " + mTarget);
+			}
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package com.pk.util.procam;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded circular buffer of encoded media samples.
+ *
+ * Sample data is copied into a single byte array allocated up front, and the
+ * sample metadata lives in fixed size parallel arrays, so adding a sample never
+ * allocates. When a new sample does not fit, the oldest samples are evicted.
+ *
+ * Not thread safe. Samples must be added in presentation time order.
+ */
+public class EncodedSampleRingBuffer {
+
+	/** Flag of a sample that can be decoded on its own. Same value as MediaCodec.BUFFER_FLAG_SYNC_FRAME. */
+	public static final int FLAG_KEY_FRAME = 1;
+
+	/**
+	 * Receives the samples read out of the buffer.
+	 */
+	public interface SampleSink {
+
+		/**
+		 * Write sample. The data array is the buffer's own storage and must not be kept.
+		 *
+		 * @param data the array holding the sample
+		 * @param offset the offset of the sample in data
+		 * @param size the size of the sample
+		 * @param presentationTimeUs the presentation time of the sample
+		 * @param flags the flags of the sample
+		 */
+		public void writeSample(byte[] data, int offset, int size, long presentationTimeUs, int flags);
+	}
+
+	/** The sample data. */
+	private final byte[] mData;
+
+	/** The offsets of the samples in mData. */
+	private final int[] mOffsets;
+
+	/** The sizes of the samples. */
+	private final int[] mSizes;
+
+	/** The presentation times of the samples. */
+	private final long[] mPresentationTimesUs;
+
+	/** The flags of the samples. */
+	private final int[] mFlags;
+
+	/** The slot of the oldest sample. */
+	private int mHead = 0;
+
+	/** The number of samples held. */
+	private int mCount = 0;
+
+	/** The offset in mData the next sample is written at. */
+	private int mWriteOffset = 0;
+
+	/** The number of bytes held, not counting space lost at the end of mData when wrapping. */
+	private int mSizeBytes = 0;
+
+	/** Set once a sample had to be dropped, until the next key frame arrives. */
+	private boolean mWaitingForKeyFrame = false;
+
+	/**
+	 * Instantiates a new encoded sample ring buffer.
+	 *
+	 * @param byteBudget the number of bytes of sample data the buffer can hold
+	 * @param maxSamples the number of samples the buffer can hold
+	 */
+	public EncodedSampleRingBuffer(int byteBudget, int maxSamples) {
+		if (byteBudget <= 0 || maxSamples <= 0) {
+			throw new IllegalArgumentException("byteBudget: "+byteBudget+" maxSamples: "+maxSamples);
+		}
+		mData = new byte[byteBudget];
+		mOffsets = new int[maxSamples];
+		mSizes = new int[maxSamples];
+		mPresentationTimesUs = new long[maxSamples];
+		mFlags = new int[maxSamples];
+	}
+
+	/**
+	 * Adds a sample, evicting the oldest ones to make room. A sample larger than the
+	 * whole buffer is dropped, and so are the samples depending on it up to the next
+	 * key frame.
+	 *
+	 * @param src the array holding the sample
+	 * @param offset the offset of the sample in src
+	 * @param size the size of the sample
+	 * @param presentationTimeUs the presentation time of the sample
+	 * @param flags the flags of the sample
+	 * @return true, if the sample was added
+	 */
+	public boolean add(byte[] src, int offset, int size, long presentationTimeUs, int flags) {
+		int offsetInBuffer = reserve(size, flags);
+		if (offsetInBuffer < 0) {
+			return false;
+		}
+		System.arraycopy(src, offset, mData, offsetInBuffer, size);
+		commit(offsetInBuffer, size, presentationTimeUs, flags);
+		return true;
+	}
+
+	/**
+	 * Adds a sample from a ByteBuffer, reading it from the buffer's position.
+	 * The position of src is left unchanged.
+	 *
+	 * @param src the buffer holding the sample
+	 * @param size the size of the sample
+	 * @param presentationTimeUs the presentation time of the sample
+	 * @param flags the flags of the sample
+	 * @return true, if the sample was added
+	 */
+	public boolean add(ByteBuffer src, int size, long presentationTimeUs, int flags) {
+		int offsetInBuffer = reserve(size, flags);
+		if (offsetInBuffer < 0) {
+			return false;
+		}
+		int position = src.position();
+		src.get(mData, offsetInBuffer, size);
+		src.position(position);
+		commit(offsetInBuffer, size, presentationTimeUs, flags);
+		return true;
+	}
+
+	/**
+	 * Finds room for a sample, evicting the oldest samples if needed.
+	 *
+	 * @param size the size of the sample
+	 * @param flags the flags of the sample
+	 * @return the offset to write the sample at, or -1 if the sample is dropped
+	 */
+	private int reserve(int size, int flags) {
+		boolean keyFrame = (flags & FLAG_KEY_FRAME) != 0;
+		if (size > mData.length) {
+			mWaitingForKeyFrame = true;
+			return -1;
+		}
+		if (mWaitingForKeyFrame && !keyFrame) {
+			return -1;
+		}
+		mWaitingForKeyFrame = false;
+
+		if (mCount == mOffsets.length) {
+			evictOldest();
+		}
+		while (true) {
+			if (mCount == 0) {
+				mWriteOffset = 0;
+				return 0;
+			}
+			int headOffset = mOffsets[mHead];
+			if (mWriteOffset > headOffset) {
+				// Free space is [mWriteOffset, end) and [0, headOffset).
+				if (mWriteOffset + size <= mData.length) {
+					return mWriteOffset;
+				}
+				if (size <= headOffset) {
+					mWriteOffset = 0;
+					return 0;
+				}
+			} else if (mWriteOffset + size <= headOffset) {
+				// Wrapped: free space is [mWriteOffset, headOffset).
+				return mWriteOffset;
+			}
+			evictOldest();
+		}
+	}
+
+	/**
+	 * Records a sample written at the given offset.
+	 */
+	private void commit(int offsetInBuffer, int size, long presentationTimeUs, int flags) {
+		int slot = (mHead + mCount) % mOffsets.length;
+		mOffsets[slot] = offsetInBuffer;
+		mSizes[slot] = size;
+		mPresentationTimesUs[slot] = presentationTimeUs;
+		mFlags[slot] = flags;
+		mCount++;
+		mSizeBytes += size;
+		mWriteOffset = offsetInBuffer + size;
+	}
+
+	/**
+	 * Evicts the oldest sample.
+	 */
+	private void evictOldest() {
+		mSizeBytes -= mSizes[mHead];
+		mHead = (mHead + 1) % mOffsets.length;
+		mCount--;
+	}
+
+	/**
+	 * Evicts the samples presented before the given time.
+	 *
+	 * @param presentationTimeUs the time
+	 */
+	public void evictOlderThan(long presentationTimeUs) {
+		while (mCount > 0 && mPresentationTimesUs[mHead] < presentationTimeUs) {
+			evictOldest();
+		}
+	}
+
+	/**
+	 * Writes the samples held to the sink, starting at the oldest key frame, and
+	 * empties the buffer.
+	 *
+	 * @param sink the sink
+	 * @return the number of samples written
+	 */
+	public int drainTo(SampleSink sink) {
+		while (mCount > 0 && (mFlags[mHead] & FLAG_KEY_FRAME) == 0) {
+			evictOldest();
+		}
+		int written = 0;
+		while (mCount > 0) {
+			sink.writeSample(mData, mOffsets[mHead], mSizes[mHead], mPresentationTimesUs[mHead], mFlags[mHead]);
+			evictOldest();
+			written++;
+		}
+		clear();
+		return written;
+	}
+
+	/**
+	 * Removes all samples.
+	 */
+	public void clear() {
+		mHead = 0;
+		mCount = 0;
+		mWriteOffset = 0;
+		mSizeBytes = 0;
+	}
+
+	/**
+	 * Gets the number of samples held.
+	 *
+	 * @return the sample count
+	 */
+	public int getSampleCount() {
+		return mCount;
+	}
+
+	/**
+	 * Gets the number of bytes of sample data held.
+	 *
+	 * @return the size in bytes
+	 */
+	public int getSizeBytes() {
+		return mSizeBytes;
+	}
+
+	/**
+	 * Gets the byte budget.
+	 *
+	 * @return the byte budget
+	 */
+	public int getByteBudget() {
+		return mData.length;
+	}
+
+	/**
+	 * Gets the presentation time of the oldest sample.
+	 *
+	 * @return the time, or -1 if the buffer is empty
+	 */
+	public long getOldestPresentationTimeUs() {
+		return mCount > 0 ? mPresentationTimesUs[mHead] : -1;
+	}
+}
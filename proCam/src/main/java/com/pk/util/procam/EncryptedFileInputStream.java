@@ -0,0 +1,174 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Reads a file written by {@link MediaCipher}, decrypting in place as it goes. The stream is seekable:
+ * {@link #seek(long)}, {@link #skip(long)} and {@link #reset()} restart the counter at the new position
+ * instead of decrypting everything before it, so decoders that look at the header and come back, like
+ * {@link android.graphics.BitmapFactory}, cost no more than on a plain file.
+ */
+public class EncryptedFileInputStream extends InputStream {
+
+	/** The m media cipher. */
+	private final MediaCipher mMediaCipher;
+
+	/** The m file. */
+	private final RandomAccessFile mFile;
+
+	/** The IV of the file. */
+	private final byte[] mIv = new byte[MediaCipher.IV_SIZE];
+
+	/** The plaintext length. */
+	private final long mLength;
+
+	/** The cipher at {@link #mPosition}. */
+	private Cipher mCipher;
+
+	/** The position in the plaintext. */
+	private long mPosition;
+
+	/** The position saved by {@link #mark(int)}. */
+	private long mMark;
+
+	/** The single byte of {@link #read()}. */
+	private final byte[] mSingle = new byte[1];
+
+	/**
+	 * Opens an encrypted file.
+	 *
+	 * @param mediaCipher the media cipher holding the key
+	 * @param file the file
+	 * @throws IOException if the file cannot be read or is not encrypted
+	 */
+	public EncryptedFileInputStream(MediaCipher mediaCipher, File file) throws IOException {
+		mMediaCipher = mediaCipher;
+		mFile = new RandomAccessFile(file, "r");
+		try {
+			byte[] magic = new byte[MediaCipher.MAGIC.length];
+			mFile.readFully(magic);
+			if (!Arrays.equals(MediaCipher.MAGIC, magic)) {
+				throw new IOException("Not an encrypted file: " + file);
+			}
+			mFile.readFully(mIv);
+		} catch (IOException e) {
+			mFile.close();
+			throw e;
+		}
+		mLength = mFile.length() - MediaCipher.HEADER_SIZE;
+		seek(0);
+	}
+
+	/**
+	 * Gets the plaintext length.
+	 *
+	 * @return the length
+	 */
+	public long length() {
+		return mLength;
+	}
+
+	/**
+	 * Gets the position in the plaintext.
+	 *
+	 * @return the position
+	 */
+	public long getPosition() {
+		return mPosition;
+	}
+
+	/**
+	 * Moves to a position in the plaintext.
+	 *
+	 * @param position the position
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void seek(long position) throws IOException {
+		if (position < 0) {
+			throw new IOException("Negative position: " + position);
+		}
+		position = Math.min(position, mLength);
+		mCipher = mMediaCipher.newCipher(mIv, position / MediaCipher.BLOCK_SIZE);
+		int within = (int) (position % MediaCipher.BLOCK_SIZE);
+		if (within > 0) {
+			// Use up the key stream of the block up to the position.
+			byte[] discard = new byte[within];
+			update(discard, 0, within);
+		}
+		mFile.seek(MediaCipher.HEADER_SIZE + position);
+		mPosition = position;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(mSingle, 0, 1) < 0 ? -1 : mSingle[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int count) throws IOException {
+		if (count == 0) {
+			return 0;
+		}
+		if (mPosition >= mLength) {
+			return -1;
+		}
+		int read = mFile.read(buffer, offset, (int) Math.min(count, mLength - mPosition));
+		if (read <= 0) {
+			return -1;
+		}
+		update(buffer, offset, read);
+		mPosition += read;
+		return read;
+	}
+
+	@Override
+	public long skip(long count) throws IOException {
+		long target = Math.min(mLength, mPosition + Math.max(0, count));
+		long skipped = target - mPosition;
+		seek(target);
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, mLength - mPosition);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readLimit) {
+		mMark = mPosition;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		seek(mMark);
+	}
+
+	@Override
+	public void close() throws IOException {
+		mFile.close();
+	}
+
+	/**
+	 * Decrypts in place, which counter mode allows as output never runs ahead of input.
+	 */
+	private void update(byte[] buffer, int offset, int count) throws IOException {
+		try {
+			mCipher.update(buffer, offset, count, buffer, offset);
+		} catch (ShortBufferException e) {
+			throw new IOException("Cipher output too large: " + e);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.pk.util.procam;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Encrypts everything written through it with a counter mode cipher. The ciphertext goes through one
+ * buffer allocated with the stream, so writing does not allocate and never holds more than one buffer
+ * of data. The cipher is only finished by {@link #finish()} or {@link #close()}.
+ */
+class EncryptingOutputStream extends FilterOutputStream {
+
+	/** The size of the plaintext written to the cipher at once. */
+	static final int BUFFER_SIZE = 16 * 1024;
+
+	/** The cipher, in encrypt mode at the current position. */
+	private final Cipher mCipher;
+
+	/** The ciphertext buffer, reused for every write and grown if the cipher asks for more. */
+	private byte[] mBuffer;
+
+	/** The single byte of {@link #write(int)}. */
+	private final byte[] mSingle = new byte[1];
+
+	/** Whether the cipher was finished. */
+	private boolean mFinished;
+
+	EncryptingOutputStream(OutputStream out, Cipher cipher) {
+		super(out);
+		mCipher = cipher;
+		mBuffer = new byte[cipher.getOutputSize(BUFFER_SIZE)];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		mSingle[0] = (byte) b;
+		write(mSingle, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int count) throws IOException {
+		if (mFinished) {
+			throw new IOException("Stream finished");
+		}
+		try {
+			while (count > 0) {
+				int chunk = Math.min(count, BUFFER_SIZE);
+				// The cipher may hold back or release buffered bytes, so the output is not the size of the input.
+				int produced = mCipher.update(data, offset, chunk, ensureBuffer(mCipher.getOutputSize(chunk)), 0);
+				out.write(mBuffer, 0, produced);
+				offset += chunk;
+				count -= chunk;
+			}
+		} catch (ShortBufferException e) {
+			throw new IOException("Cipher output too large: " + e);
+		}
+	}
+
+	/**
+	 * Finishes the cipher and writes what it still holds, without closing the underlying stream.
+	 * Further writes fail.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void finish() throws IOException {
+		if (mFinished) {
+			return;
+		}
+		mFinished = true;
+		try {
+			int produced = mCipher.doFinal(ensureBuffer(mCipher.getOutputSize(0)), 0);
+			out.write(mBuffer, 0, produced);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Unable to finish the cipher: " + e);
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	private byte[] ensureBuffer(int size) {
+		if (mBuffer.length < size) {
+			mBuffer = new byte[size];
+		}
+		return mBuffer;
+	}
+}
@@ -0,0 +1,99 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides which captures to delete to free a number of bytes. Only captures that have been
+ * uploaded are candidates, and they go least recently used first.
+ */
+public final class EvictionPlanner {
+
+	/**
+	 * Tells whether a capture has a copy elsewhere and may be deleted locally.
+	 */
+	public interface UploadState {
+
+		/**
+		 * Checks if a file is uploaded.
+		 *
+		 * @param file the file
+		 * @return true, if uploaded
+		 */
+		public boolean isUploaded(File file);
+	}
+
+	/** Orders files least recently modified first, by name for equal times. */
+	private static final Comparator<StorageFileSystem.StoredFile> LEAST_RECENTLY_USED = new Comparator<StorageFileSystem.StoredFile>() {
+		@Override
+		public int compare(StorageFileSystem.StoredFile a, StorageFileSystem.StoredFile b) {
+			if (a.lastModified != b.lastModified) {
+				return a.lastModified < b.lastModified ? -1 : 1;
+			}
+			return a.file.getName().compareTo(b.file.getName());
+		}
+	};
+
+	private EvictionPlanner() {
+	}
+
+	/**
+	 * Plans an eviction.
+	 *
+	 * @param files the files of a capture directory
+	 * @param bytesToFree the bytes to free
+	 * @param uploadState the upload state, null to treat nothing as uploaded
+	 * @return the plan
+	 */
+	public static Plan plan(List<StorageFileSystem.StoredFile> files, long bytesToFree, UploadState uploadState) {
+		List<StorageFileSystem.StoredFile> evict = new ArrayList<StorageFileSystem.StoredFile>();
+		long freed = 0;
+		if (bytesToFree > 0 && uploadState != null) {
+			List<StorageFileSystem.StoredFile> candidates = new ArrayList<StorageFileSystem.StoredFile>(files);
+			Collections.sort(candidates, LEAST_RECENTLY_USED);
+			for (StorageFileSystem.StoredFile candidate : candidates) {
+				if (freed >= bytesToFree) {
+					break;
+				}
+				if (uploadState.isUploaded(candidate.file)) {
+					evict.add(candidate);
+					freed += candidate.length;
+				}
+			}
+		}
+		return new Plan(evict, Math.max(0, bytesToFree), freed);
+	}
+
+	/**
+	 * The files to delete.
+	 */
+	public static class Plan {
+
+		/** The files to delete, least recently used first. */
+		public final List<StorageFileSystem.StoredFile> files;
+
+		/** The bytes that should be freed. */
+		public final long bytesToFree;
+
+		/** The bytes freed by deleting the files. */
+		public final long bytesFreed;
+
+		Plan(List<StorageFileSystem.StoredFile> files, long bytesToFree, long bytesFreed) {
+			this.files = files;
+			this.bytesToFree = bytesToFree;
+			this.bytesFreed = bytesFreed;
+		}
+
+		/**
+		 * Checks if deleting the files frees enough.
+		 *
+		 * @return true, if satisfied
+		 */
+		public boolean isSatisfied() {
+			return bytesFreed >= bytesToFree;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.pk.util.procam;
+
+/**
+ * Maps points of the preview view to the driver coordinates of focus and metering areas, see
+ * {@link FocusRegion}, and back.
+ * <p>
+ * The preview is the sensor image mirrored for front cameras, then rotated clockwise by the display
+ * orientation (CameraHandler#getCameraDisplayOrientation) and stretched over the view. Mapping a touch
+ * undoes those steps in reverse order. Plain Java, so the transforms are tested without a device.
+ */
+public class FocusAreaMapper {
+
+	/** The view width. */
+	private final int mViewWidth;
+
+	/** The view height. */
+	private final int mViewHeight;
+
+	/** The display orientation, 0, 90, 180 or 270. */
+	private final int mDisplayOrientation;
+
+	/** Whether the preview is mirrored, as for front cameras. */
+	private final boolean mMirror;
+
+	/**
+	 * Instantiates a new focus area mapper.
+	 *
+	 * @param viewWidth the width of the preview view
+	 * @param viewHeight the height of the preview view
+	 * @param displayOrientation the display orientation in degrees, 0, 90, 180 or 270
+	 * @param mirror whether the preview is mirrored, true for front cameras
+	 */
+	public FocusAreaMapper(int viewWidth, int viewHeight, int displayOrientation, boolean mirror) {
+		if (viewWidth <= 0 || viewHeight <= 0) {
+			throw new IllegalArgumentException("View size " + viewWidth + "x" + viewHeight);
+		}
+		if (displayOrientation % 90 != 0) {
+			throw new IllegalArgumentException("Display orientation " + displayOrientation);
+		}
+		mViewWidth = viewWidth;
+		mViewHeight = viewHeight;
+		mDisplayOrientation = ((displayOrientation % 360) + 360) % 360;
+		mMirror = mirror;
+	}
+
+	/**
+	 * Maps a view point to driver coordinates. Points outside the view are clamped to its edges.
+	 *
+	 * @param x the x in the view
+	 * @param y the y in the view
+	 * @return the x and y in driver coordinates
+	 */
+	public int[] toDriver(float x, float y) {
+		double u = (clamp(x, 0, mViewWidth) / mViewWidth) * 2 - 1;
+		double v = (clamp(y, 0, mViewHeight) / mViewHeight) * 2 - 1;
+		// Undo the rotation: turn back counterclockwise.
+		double sensorX;
+		double sensorY;
+		switch (mDisplayOrientation) {
+		case 90:
+			sensorX = v;
+			sensorY = -u;
+			break;
+		case 180:
+			sensorX = -u;
+			sensorY = -v;
+			break;
+		case 270:
+			sensorX = -v;
+			sensorY = u;
+			break;
+		default:
+			sensorX = u;
+			sensorY = v;
+			break;
+		}
+		if (mMirror) {
+			sensorX = -sensorX;
+		}
+		return new int[] { toDriverUnits(sensorX), toDriverUnits(sensorY) };
+	}
+
+	/**
+	 * Maps driver coordinates to a view point, e.g. to draw where the camera focused.
+	 *
+	 * @param x the x in driver coordinates
+	 * @param y the y in driver coordinates
+	 * @return the x and y in the view
+	 */
+	public float[] toView(int x, int y) {
+		double sensorX = (double) x / FocusRegion.MAX;
+		double sensorY = (double) y / FocusRegion.MAX;
+		if (mMirror) {
+			sensorX = -sensorX;
+		}
+		// Rotate clockwise, y pointing down.
+		double u;
+		double v;
+		switch (mDisplayOrientation) {
+		case 90:
+			u = -sensorY;
+			v = sensorX;
+			break;
+		case 180:
+			u = -sensorX;
+			v = -sensorY;
+			break;
+		case 270:
+			u = sensorY;
+			v = -sensorX;
+			break;
+		default:
+			u = sensorX;
+			v = sensorY;
+			break;
+		}
+		return new float[] { (float) ((u + 1) / 2 * mViewWidth), (float) ((v + 1) / 2 * mViewHeight) };
+	}
+
+	/**
+	 * Gets a square region of the given size in driver units around a view point. Near the edges the
+	 * region is moved, not shrunk, to stay within the driver coordinates.
+	 *
+	 * @param x the x in the view
+	 * @param y the y in the view
+	 * @param size the width and height in driver units, at most 2000
+	 * @return the region
+	 */
+	public FocusRegion regionAround(float x, float y, int size) {
+		int[] center = toDriver(x, y);
+		size = Math.max(1, Math.min(FocusRegion.MAX - FocusRegion.MIN, size));
+		int left = clamp(center[0] - size / 2, FocusRegion.MIN, FocusRegion.MAX - size);
+		int top = clamp(center[1] - size / 2, FocusRegion.MIN, FocusRegion.MAX - size);
+		return new FocusRegion(left, top, left + size, top + size);
+	}
+
+	private static int toDriverUnits(double normalized) {
+		return clamp((int) Math.round(normalized * FocusRegion.MAX), FocusRegion.MIN, FocusRegion.MAX);
+	}
+
+	private static double clamp(float value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+}
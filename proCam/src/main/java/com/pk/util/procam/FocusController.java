@@ -0,0 +1,397 @@
+package com.pk.util.procam;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.annotation.TargetApi;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.hardware.Camera.Parameters;
+import android.os.Build;
+import android.os.Handler;
+
+/**
+ * Keeps the camera focused so pictures can be taken without a focus sweep first.
+ * <p>
+ * Where supported the camera runs {@link Parameters#FOCUS_MODE_CONTINUOUS_PICTURE}, which keeps
+ * focusing while the preview runs. Its lens moves are followed (API level 16) so a capture starts
+ * right away once the lens has settled. While it is still moving, or its state is not known, a
+ * single autoFocus waits for the scan to end; in continuous mode that returns at once when no scan
+ * is running. Cameras without continuous focus do a full autoFocus run before each picture, and
+ * fixed focus cameras capture right away.
+ * <p>
+ * A region can be focused on, e.g. where the preview was tapped, see {@link #focusOnRegion(FocusRegion)}.
+ * The camera then runs {@link Parameters#FOCUS_MODE_AUTO} on that focus and metering area, and the
+ * lens stays there for every following capture, bursts included, until {@link #clearFocusRegion()}.
+ * <p>
+ * The time each capture waited and what it saved against a full sweep are kept in the
+ * {@link FocusTracker} and logged as {@link PerfEvent#FOCUS}. All methods are called on the thread
+ * the camera was opened on.
+ */
+public class FocusController {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** How long a capture waits for an autofocus callback before it goes ahead regardless. */
+	public static final long AUTO_FOCUS_TIMEOUT_MS = 3000;
+
+	/** The handler of the camera thread. */
+	private final Handler mHandler;
+
+	/** The tracker. */
+	private final FocusTracker mTracker;
+
+	/** The camera, null when released. */
+	private Camera mCamera;
+
+	/** The focus mode set on the camera, null until configured. */
+	private String mFocusMode;
+
+	/** Whether an autoFocus run locked the lens in continuous mode. */
+	private boolean mFocusLocked;
+
+	/** The region focused on, null for the whole frame. */
+	private FocusRegion mRegion;
+
+	/** Whether the camera is still focusing on the region. */
+	private boolean mRegionFocusing;
+
+	/** Run once the camera is done focusing on the region, null if none. */
+	private Runnable mRegionFocused;
+
+	/** The capture waiting for focus, null if none. */
+	private Runnable mPendingCapture;
+
+	/** Whether the pending capture waits for a full autofocus run. */
+	private boolean mPendingFullSweep;
+
+	/** When the pending capture started waiting, from System#nanoTime. */
+	private long mFocusStartNs;
+
+	/** Lets the pending capture go ahead when the autofocus callback does not come. */
+	private final Runnable mFocusTimeout = new Runnable() {
+		@Override
+		public void run() {
+			LogUtil.w(TAG, "focusThen - no autofocus callback after {} ms", AUTO_FOCUS_TIMEOUT_MS);
+			if (mRegion == null) {
+				cancelAutoFocus();
+			}
+			onRegionFocused();
+		}
+	};
+
+	/**
+	 * Instantiates a new focus controller.
+	 *
+	 * @param handler the handler of the camera thread
+	 * @param clock the clock lens moves are timed with
+	 */
+	public FocusController(Handler handler, Clock clock) {
+		mHandler = handler;
+		mTracker = new FocusTracker(clock);
+	}
+
+	/**
+	 * Sets the camera, e.g. once opened or switched. A capture waiting for focus on the previous
+	 * camera is dropped.
+	 *
+	 * @param camera the camera, null when released
+	 */
+	public void setCamera(Camera camera) {
+		mHandler.removeCallbacks(mFocusTimeout);
+		mPendingCapture = null;
+		mCamera = camera;
+		mFocusMode = null;
+		mFocusLocked = false;
+		mRegion = null;
+		mRegionFocusing = false;
+		mRegionFocused = null;
+		mTracker.reset();
+	}
+
+	/**
+	 * Sets the best focus mode the camera supports on the parameters.
+	 *
+	 * @param params the parameters
+	 */
+	public void configure(Parameters params) {
+		List<String> modes = params.getSupportedFocusModes();
+		String mode;
+		if (mRegion != null && modes != null && modes.contains(Parameters.FOCUS_MODE_AUTO)) {
+			// Holds the lens where the region was focused.
+			mode = Parameters.FOCUS_MODE_AUTO;
+		} else if (modes != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+				&& modes.contains(Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+			mode = Parameters.FOCUS_MODE_CONTINUOUS_PICTURE;
+		} else if (modes != null && modes.contains(Parameters.FOCUS_MODE_AUTO)) {
+			mode = Parameters.FOCUS_MODE_AUTO;
+		} else {
+			mode = params.getFocusMode();
+		}
+		if (mode != null && !mode.equals(mFocusMode)) {
+			LogUtil.i(TAG, "configure - focus mode: {}", mode);
+			mTracker.reset();
+		}
+		if (mode != null) {
+			params.setFocusMode(mode);
+		}
+		mFocusMode = mode;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			setAreas(params, mRegion);
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	private static void setAreas(Parameters params, FocusRegion region) {
+		List<Camera.Area> areas = null;
+		if (region != null) {
+			areas = new ArrayList<Camera.Area>();
+			areas.add(new Camera.Area(new Rect(region.left, region.top, region.right, region.bottom), 1000));
+		}
+		// Null restores the driver's default areas.
+		if (params.getMaxNumFocusAreas() > 0) {
+			params.setFocusAreas(areas);
+		}
+		if (params.getMaxNumMeteringAreas() > 0) {
+			params.setMeteringAreas(areas);
+		}
+	}
+
+	/**
+	 * Focuses and meters on a region and keeps the lens there for the following captures, until
+	 * {@link #clearFocusRegion()}. A capture requested while the camera is still focusing waits for it.
+	 * Cameras without focus or metering areas focus the whole frame once and hold it.
+	 *
+	 * @param region the region
+	 */
+	public void focusOnRegion(FocusRegion region) {
+		focusOnRegion(region, null);
+	}
+
+	/**
+	 * Focuses and meters on a region, see {@link #focusOnRegion(FocusRegion)}, and tells when the
+	 * camera is done with it.
+	 *
+	 * @param region the region
+	 * @param onFocused run once focused, or given up on, after any capture waiting for it; not run
+	 *        if the region is cleared or the camera changes first
+	 */
+	public void focusOnRegion(FocusRegion region, Runnable onFocused) {
+		if (mCamera == null) {
+			return;
+		}
+		LogUtil.i(TAG, "focusOnRegion - region: {}", region);
+		mRegion = region;
+		mRegionFocused = onFocused;
+		try {
+			mCamera.cancelAutoFocus();
+			Parameters params = mCamera.getParameters();
+			configure(params);
+			mCamera.setParameters(params);
+			if (!Parameters.FOCUS_MODE_AUTO.equals(mFocusMode)) {
+				// A fixed focus camera can still meter on the region.
+				onRegionFocused();
+				return;
+			}
+			mRegionFocusing = true;
+			final long start = System.nanoTime();
+			mCamera.autoFocus(new Camera.AutoFocusCallback() {
+				@Override
+				public void onAutoFocus(boolean success, Camera camera) {
+					long durationUs = (System.nanoTime() - start) / 1000;
+					mTracker.onRegionFocused(success, durationUs);
+					LogUtil.d(TAG, "focusOnRegion - focused: {} in {} us", success, durationUs);
+					onRegionFocused();
+				}
+			});
+			mHandler.removeCallbacks(mFocusTimeout);
+			mHandler.postDelayed(mFocusTimeout, AUTO_FOCUS_TIMEOUT_MS);
+		} catch (RuntimeException e) {
+			LogUtil.w(TAG, "focusOnRegion - failed", e);
+			onRegionFocused();
+		}
+	}
+
+	/**
+	 * Goes back to focusing on the whole frame, continuously where supported.
+	 */
+	public void clearFocusRegion() {
+		if (mRegion == null) {
+			return;
+		}
+		mRegion = null;
+		mRegionFocusing = false;
+		mRegionFocused = null;
+		if (mCamera == null) {
+			return;
+		}
+		try {
+			mCamera.cancelAutoFocus();
+			Parameters params = mCamera.getParameters();
+			configure(params);
+			mCamera.setParameters(params);
+		} catch (RuntimeException e) {
+			LogUtil.w(TAG, "clearFocusRegion - failed", e);
+		}
+		runPendingCapture();
+	}
+
+	/**
+	 * Gets the region focused on.
+	 *
+	 * @return the region, null for the whole frame
+	 */
+	public FocusRegion getFocusRegion() {
+		return mRegion;
+	}
+
+	/**
+	 * Called once the preview has started, so continuous focus runs again.
+	 */
+	public void onPreviewStarted() {
+		if (mRegion != null) {
+			// The lens stays on the region, e.g. between the shots of a burst.
+			return;
+		}
+		mTracker.reset();
+		mFocusLocked = false;
+		if (mCamera != null && isContinuous() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			listenForLensMoves();
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void listenForLensMoves() {
+		mCamera.setAutoFocusMoveCallback(new Camera.AutoFocusMoveCallback() {
+			@Override
+			public void onAutoFocusMoving(boolean start, Camera camera) {
+				mTracker.onMoving(start);
+			}
+		});
+	}
+
+	/**
+	 * Runs a capture once the camera is focused: right away if it already is, otherwise after a
+	 * single autoFocus run.
+	 *
+	 * @param capture the capture
+	 */
+	public void focusThen(Runnable capture) {
+		if (mRegion != null && mCamera != null) {
+			if (!mRegionFocusing) {
+				// The lens is held on the region.
+				onCaptureFocused(0, false);
+				capture.run();
+				return;
+			}
+			// Run by the region's autofocus callback.
+			mHandler.removeCallbacks(mFocusTimeout);
+			mPendingCapture = capture;
+			mPendingFullSweep = false;
+			mFocusStartNs = System.nanoTime();
+			mHandler.postDelayed(mFocusTimeout, AUTO_FOCUS_TIMEOUT_MS);
+			return;
+		}
+		boolean continuous = isContinuous();
+		boolean autoFocusing = continuous || Parameters.FOCUS_MODE_AUTO.equals(mFocusMode);
+		if (mCamera == null || !autoFocusing || (continuous && mTracker.canCaptureNow())) {
+			onCaptureFocused(0, false);
+			capture.run();
+			return;
+		}
+
+		mHandler.removeCallbacks(mFocusTimeout);
+		mPendingCapture = capture;
+		mPendingFullSweep = !continuous;
+		mFocusStartNs = System.nanoTime();
+		try {
+			mCamera.autoFocus(new Camera.AutoFocusCallback() {
+				@Override
+				public void onAutoFocus(boolean success, Camera camera) {
+					mTracker.onAutoFocus(success);
+					// In continuous mode autoFocus holds the lens until cancelAutoFocus.
+					mFocusLocked = isContinuous();
+					runPendingCapture();
+				}
+			});
+			mHandler.postDelayed(mFocusTimeout, AUTO_FOCUS_TIMEOUT_MS);
+		} catch (RuntimeException e) {
+			// Thrown when the preview is not running; the camera cannot focus then anyway.
+			LogUtil.w(TAG, "focusThen - autoFocus failed", e);
+			runPendingCapture();
+		}
+	}
+
+	/**
+	 * Called once a picture has been taken, so continuous focus resumes.
+	 */
+	public void onCaptureFinished() {
+		if (mFocusLocked) {
+			cancelAutoFocus();
+			mFocusLocked = false;
+		}
+	}
+
+	/**
+	 * Gets the tracker holding the focus state and the time saved per capture.
+	 *
+	 * @return the tracker
+	 */
+	public FocusTracker getTracker() {
+		return mTracker;
+	}
+
+	/**
+	 * Gets the focus mode set on the camera.
+	 *
+	 * @return the focus mode, null until configured
+	 */
+	public String getFocusMode() {
+		return mFocusMode;
+	}
+
+	private boolean isContinuous() {
+		return Parameters.FOCUS_MODE_CONTINUOUS_PICTURE.equals(mFocusMode);
+	}
+
+	/**
+	 * Ends focusing on the region: the capture waiting for it runs, then the region's callback.
+	 */
+	private void onRegionFocused() {
+		mHandler.removeCallbacks(mFocusTimeout);
+		mRegionFocusing = false;
+		Runnable onFocused = mRegionFocused;
+		mRegionFocused = null;
+		runPendingCapture();
+		if (onFocused != null) {
+			onFocused.run();
+		}
+	}
+
+	private void runPendingCapture() {
+		Runnable capture = mPendingCapture;
+		if (capture == null) {
+			return;
+		}
+		mPendingCapture = null;
+		mHandler.removeCallbacks(mFocusTimeout);
+		onCaptureFocused((System.nanoTime() - mFocusStartNs) / 1000, mPendingFullSweep);
+		capture.run();
+	}
+
+	private void onCaptureFocused(long waitUs, boolean fullSweep) {
+		long savedUs = mTracker.onCaptureFocused(waitUs, fullSweep);
+		PerfEventLog.INSTANCE.record(PerfEvent.FOCUS, waitUs, savedUs);
+		LogUtil.d(TAG, "onCaptureFocused - waited: {} us, saved: {} us", waitUs, savedUs);
+	}
+
+	private void cancelAutoFocus() {
+		if (mCamera != null) {
+			try {
+				mCamera.cancelAutoFocus();
+			} catch (RuntimeException e) {
+				LogUtil.w(TAG, "cancelAutoFocus - failed", e);
+			}
+		}
+	}
+}
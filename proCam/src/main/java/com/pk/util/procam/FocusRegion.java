@@ -0,0 +1,89 @@
+package com.pk.util.procam;
+
+/**
+ * A rectangle in the coordinates camera drivers use for focus and metering areas: -1000,-1000 is the
+ * top left of the sensor image and 1000,1000 its bottom right, whatever the display orientation.
+ */
+public class FocusRegion {
+
+	/** The lowest coordinate. */
+	public static final int MIN = -1000;
+
+	/** The highest coordinate. */
+	public static final int MAX = 1000;
+
+	/** The left. */
+	public final int left;
+
+	/** The top. */
+	public final int top;
+
+	/** The right. */
+	public final int right;
+
+	/** The bottom. */
+	public final int bottom;
+
+	/**
+	 * Instantiates a new focus region.
+	 *
+	 * @param left the left
+	 * @param top the top
+	 * @param right the right
+	 * @param bottom the bottom
+	 */
+	public FocusRegion(int left, int top, int right, int bottom) {
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+	}
+
+	/**
+	 * Gets the width.
+	 *
+	 * @return the width
+	 */
+	public int getWidth() {
+		return right - left;
+	}
+
+	/**
+	 * Gets the height.
+	 *
+	 * @return the height
+	 */
+	public int getHeight() {
+		return bottom - top;
+	}
+
+	/**
+	 * Checks whether a point lies in the region, edges included.
+	 *
+	 * @param x the x
+	 * @param y the y
+	 * @return true, if it does
+	 */
+	public boolean contains(int x, int y) {
+		return x >= left && x <= right && y >= top && y <= bottom;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof FocusRegion)) {
+			return false;
+		}
+		FocusRegion other = (FocusRegion) o;
+		return left == other.left && top == other.top && right == other.right && bottom == other.bottom;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((left * 31 + top) * 31 + right) * 31 + bottom;
+	}
+
+	@Override
+	public String toString() {
+		return "FocusRegion [" + left + "," + top + " - " + right + "," + bottom + "]";
+	}
+}
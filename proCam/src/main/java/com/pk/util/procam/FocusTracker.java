@@ -0,0 +1,204 @@
+package com.pk.util.procam;
+
+/**
+ * Follows the focus state of the camera from its callbacks and decides whether a picture can be taken
+ * right away. It also keeps the figures that show what continuous autofocus saves: how long focus
+ * sweeps take, how long captures actually waited for focus, and the difference. Focus runs on a
+ * region are kept apart, to compare them with full frame sweeps. Fed by
+ * {@link FocusController}; plain Java so it can be tested without a camera.
+ */
+public class FocusTracker {
+
+	/**
+	 * The focus states.
+	 */
+	public enum State {
+
+		/** Nothing is known since the preview started. */
+		UNKNOWN,
+
+		/** Continuous autofocus is moving the lens. */
+		SCANNING,
+
+		/** The lens has settled, or an autofocus run succeeded. */
+		FOCUSED,
+
+		/** An autofocus run failed. */
+		UNFOCUSED
+	}
+
+	/** The clock. */
+	private final Clock mClock;
+
+	/** The state. */
+	private State mState = State.UNKNOWN;
+
+	/** When the current scan started, -1 if none is running. */
+	private long mScanStartMs = -1;
+
+	/** The durations of complete focus sweeps: continuous scans and full autofocus runs. */
+	private final LatencyHistogram mSweepHistogram = new LatencyHistogram();
+
+	/** The durations of autofocus runs on a region. */
+	private final LatencyHistogram mRegionHistogram = new LatencyHistogram();
+
+	/** The time each capture waited for focus. */
+	private final LatencyHistogram mWaitHistogram = new LatencyHistogram();
+
+	/** The m captures taken without waiting for focus. */
+	private long mImmediateCaptures;
+
+	/** The m estimated time saved over all captures, in microseconds. */
+	private long mSavedUs;
+
+	/**
+	 * Instantiates a new focus tracker.
+	 *
+	 * @param clock the clock
+	 */
+	public FocusTracker(Clock clock) {
+		mClock = clock;
+	}
+
+	/**
+	 * Forgets the state, e.g. when the preview starts or the focus mode changes. The figures are kept.
+	 */
+	public synchronized void reset() {
+		mState = State.UNKNOWN;
+		mScanStartMs = -1;
+	}
+
+	/**
+	 * Called when continuous autofocus starts or stops moving the lens.
+	 *
+	 * @param start true, if it started
+	 */
+	public synchronized void onMoving(boolean start) {
+		long now = mClock.now();
+		if (start) {
+			mState = State.SCANNING;
+			mScanStartMs = now;
+		} else {
+			if (mScanStartMs >= 0) {
+				mSweepHistogram.record((now - mScanStartMs) * 1000);
+			}
+			mScanStartMs = -1;
+			mState = State.FOCUSED;
+		}
+	}
+
+	/**
+	 * Called with the result of an autofocus run.
+	 *
+	 * @param success whether the camera is in focus
+	 */
+	public synchronized void onAutoFocus(boolean success) {
+		mState = success ? State.FOCUSED : State.UNFOCUSED;
+		mScanStartMs = -1;
+	}
+
+	/**
+	 * Called with the result of an autofocus run on a region.
+	 *
+	 * @param success whether the region is in focus
+	 * @param durationUs how long the run took, in microseconds
+	 */
+	public synchronized void onRegionFocused(boolean success, long durationUs) {
+		onAutoFocus(success);
+		mRegionHistogram.record(durationUs);
+	}
+
+	/**
+	 * Checks whether a picture can be taken without focusing first.
+	 *
+	 * @return true, if the lens is known to have settled
+	 */
+	public synchronized boolean canCaptureNow() {
+		return mState == State.FOCUSED;
+	}
+
+	/**
+	 * Gets the state.
+	 *
+	 * @return the state
+	 */
+	public synchronized State getState() {
+		return mState;
+	}
+
+	/**
+	 * Called once a capture is ready to be taken. Counts as saved whatever is left of a typical
+	 * sweep after the time actually waited, once sweeps have been measured.
+	 *
+	 * @param waitUs the time spent waiting for focus, in microseconds
+	 * @param fullSweep whether the wait was a full autofocus run, which then counts as a sweep
+	 * @return the time saved by this capture, in microseconds
+	 */
+	public synchronized long onCaptureFocused(long waitUs, boolean fullSweep) {
+		mWaitHistogram.record(waitUs);
+		if (fullSweep) {
+			mSweepHistogram.record(waitUs);
+		}
+		if (waitUs == 0) {
+			mImmediateCaptures++;
+		}
+		long saved = mSweepHistogram.getCount() > 0 ? Math.max(0, mSweepHistogram.getMeanUs() - waitUs) : 0;
+		mSavedUs += saved;
+		return saved;
+	}
+
+	/**
+	 * Gets the number of captures.
+	 *
+	 * @return the capture count
+	 */
+	public synchronized long getCaptureCount() {
+		return mWaitHistogram.getCount();
+	}
+
+	/**
+	 * Gets the number of captures taken without waiting for focus.
+	 *
+	 * @return the immediate capture count
+	 */
+	public synchronized long getImmediateCaptureCount() {
+		return mImmediateCaptures;
+	}
+
+	/**
+	 * Gets the mean time saved per capture against sweeping before each one.
+	 *
+	 * @return the saved time in milliseconds
+	 */
+	public synchronized long getSavedMsPerCapture() {
+		long captures = mWaitHistogram.getCount();
+		return captures > 0 ? mSavedUs / captures / 1000 : 0;
+	}
+
+	/**
+	 * Gets the histogram of the focus sweep durations.
+	 *
+	 * @return the histogram
+	 */
+	public LatencyHistogram getSweepHistogram() {
+		return mSweepHistogram;
+	}
+
+	/**
+	 * Gets the histogram of the autofocus runs on a region, against {@link #getSweepHistogram()}.
+	 *
+	 * @return the histogram
+	 */
+	public LatencyHistogram getRegionHistogram() {
+		return mRegionHistogram;
+	}
+
+	/**
+	 * Gets the histogram of the time captures waited for focus.
+	 *
+	 * @return the histogram
+	 */
+	public LatencyHistogram getWaitHistogram() {
+		return mWaitHistogram;
+	}
+}
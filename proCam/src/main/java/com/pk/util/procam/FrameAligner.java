@@ -0,0 +1,299 @@
+package com.pk.util.procam;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Finds how far each tile of a frame has moved against a reference frame of the same burst, on the
+ * luma plane.
+ * <p>
+ * Both frames are downsampled into pyramids of up to {@link #MAX_LEVELS} levels. On the coarsest level
+ * one translation is searched for the whole frame, {@link #COARSE_RADIUS} pixels each way, which
+ * catches hand shake of up to 8 times that at full size. Every tile of {@link #TILE_SIZE} pixels then
+ * starts from it and is refined by a pixel each way on every level down to full size, so tiles of a
+ * moving subject or of a slightly rotated frame find their own offset. The cost is the sum of absolute
+ * differences. Tile rows are searched in parallel on the pool.
+ * <p>
+ * Plain Java, so alignment is tested and benchmarked without a device.
+ */
+public class FrameAligner {
+
+	/** The width and height of a tile at full size. */
+	public static final int TILE_SIZE = 32;
+
+	/** The most pyramid levels, full size included. */
+	public static final int MAX_LEVELS = 4;
+
+	/** How far the whole frame is searched on the coarsest level, in pixels of that level. */
+	public static final int COARSE_RADIUS = 4;
+
+	/** The smallest width or height of a pyramid level. */
+	private static final int MIN_LEVEL_SIZE = 32;
+
+	/** The smallest half width of a tile's search window, so coarse levels still compare enough pixels. */
+	private static final int MIN_HALF_WINDOW = 4;
+
+	/** The frame width. */
+	private final int mWidth;
+
+	/** The frame height. */
+	private final int mHeight;
+
+	/** The number of pyramid levels. */
+	private final int mLevels;
+
+	/** The width of each level. */
+	private final int[] mLevelWidths;
+
+	/** The height of each level. */
+	private final int[] mLevelHeights;
+
+	/** The tile columns. */
+	private final int mTilesX;
+
+	/** The tile rows. */
+	private final int mTilesY;
+
+	/** The pool, null to run on the calling thread. */
+	private final ForkJoinPool mPool;
+
+	/** The reference pyramid; level 0 is the reference frame itself. */
+	private final byte[][] mReference;
+
+	/** The pyramid of the frame being aligned, reused for every frame. */
+	private final byte[][] mFrame;
+
+	/**
+	 * Instantiates a new frame aligner.
+	 *
+	 * @param width the frame width
+	 * @param height the frame height
+	 * @param pool the pool tile rows are searched on, null to search on the calling thread
+	 */
+	public FrameAligner(int width, int height, ForkJoinPool pool) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Frame size " + width + "x" + height);
+		}
+		mWidth = width;
+		mHeight = height;
+		mPool = pool;
+		int levels = 1;
+		while (levels < MAX_LEVELS && Math.min(width >> levels, height >> levels) >= MIN_LEVEL_SIZE) {
+			levels++;
+		}
+		mLevels = levels;
+		mLevelWidths = new int[levels];
+		mLevelHeights = new int[levels];
+		mReference = new byte[levels][];
+		mFrame = new byte[levels][];
+		for (int level = 0; level < levels; level++) {
+			mLevelWidths[level] = width >> level;
+			mLevelHeights[level] = height >> level;
+			if (level > 0) {
+				mReference[level] = new byte[mLevelWidths[level] * mLevelHeights[level]];
+				mFrame[level] = new byte[mLevelWidths[level] * mLevelHeights[level]];
+			}
+		}
+		mTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		mTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+	/**
+	 * Sets the reference frame. Only its luma, the first width * height bytes, is read, and it is not
+	 * copied: it must not change while frames are aligned to it.
+	 *
+	 * @param luma the reference frame
+	 */
+	public void setReference(byte[] luma) {
+		buildPyramid(luma, mReference);
+	}
+
+	/**
+	 * Aligns a frame to the reference.
+	 *
+	 * @param luma the frame, of which the first width * height bytes are read
+	 * @param displacements the array to fill, or null to allocate one
+	 * @return for each tile, row by row, the x and y in full size pixels to add to a reference
+	 *         pixel to find it in the frame
+	 */
+	public int[] align(byte[] luma, int[] displacements) {
+		if (mReference[0] == null) {
+			throw new IllegalStateException("No reference frame");
+		}
+		if (displacements == null || displacements.length < mTilesX * mTilesY * 2) {
+			displacements = new int[mTilesX * mTilesY * 2];
+		}
+		buildPyramid(luma, mFrame);
+
+		int coarsest = mLevels - 1;
+		int[] global = searchGlobal(coarsest);
+		for (int i = 0; i < mTilesX * mTilesY; i++) {
+			displacements[i * 2] = global[0] << coarsest;
+			displacements[i * 2 + 1] = global[1] << coarsest;
+		}
+		final int[] result = displacements;
+		for (int level = coarsest; level >= 0; level--) {
+			final int l = level;
+			RowTask.run(mPool, mTilesY, new RowTask.Body() {
+				@Override
+				public void run(int from, int to) {
+					for (int ty = from; ty < to; ty++) {
+						for (int tx = 0; tx < mTilesX; tx++) {
+							refineTile(l, tx, ty, result);
+						}
+					}
+				}
+			});
+		}
+		return displacements;
+	}
+
+	/**
+	 * Gets the number of tile columns.
+	 *
+	 * @return the tile columns
+	 */
+	public int getTilesX() {
+		return mTilesX;
+	}
+
+	/**
+	 * Gets the number of tile rows.
+	 *
+	 * @return the tile rows
+	 */
+	public int getTilesY() {
+		return mTilesY;
+	}
+
+	/**
+	 * Gets the number of pyramid levels.
+	 *
+	 * @return the levels, full size included
+	 */
+	public int getLevels() {
+		return mLevels;
+	}
+
+	private void buildPyramid(byte[] luma, byte[][] pyramid) {
+		pyramid[0] = luma;
+		for (int level = 1; level < mLevels; level++) {
+			final byte[] src = pyramid[level - 1];
+			final byte[] dst = pyramid[level];
+			final int srcWidth = mLevelWidths[level - 1];
+			final int width = mLevelWidths[level];
+			RowTask.run(level == 1 ? mPool : null, mLevelHeights[level], new RowTask.Body() {
+				@Override
+				public void run(int from, int to) {
+					for (int y = from; y < to; y++) {
+						int top = y * 2 * srcWidth;
+						int bottom = top + srcWidth;
+						int out = y * width;
+						for (int x = 0; x < width; x++) {
+							int sum = (src[top + x * 2] & 0xFF) + (src[top + x * 2 + 1] & 0xFF)
+									+ (src[bottom + x * 2] & 0xFF) + (src[bottom + x * 2 + 1] & 0xFF);
+							dst[out + x] = (byte) ((sum + 2) >> 2);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Searches one translation for the whole frame on a level, over the part of the frame that stays in
+	 * bounds for every candidate. No movement wins ties.
+	 */
+	private int[] searchGlobal(int level) {
+		int width = mLevelWidths[level];
+		int height = mLevelHeights[level];
+		int radius = Math.min(COARSE_RADIUS, Math.min(width, height) / 4);
+		int x0 = radius, x1 = width - radius, y0 = radius, y1 = height - radius;
+		int bestX = 0, bestY = 0;
+		long best = sad(level, x0, y0, x1, y1, 0, 0, Long.MAX_VALUE);
+		for (int dy = -radius; dy <= radius; dy++) {
+			for (int dx = -radius; dx <= radius; dx++) {
+				if (dx == 0 && dy == 0) {
+					continue;
+				}
+				long cost = sad(level, x0, y0, x1, y1, dx, dy, best);
+				if (cost < best) {
+					best = cost;
+					bestX = dx;
+					bestY = dy;
+				}
+			}
+		}
+		return new int[] { bestX, bestY };
+	}
+
+	/**
+	 * Refines the displacement of a tile by a pixel each way on a level. Keeps the current one on ties.
+	 */
+	private void refineTile(int level, int tx, int ty, int[] displacements) {
+		int width = mLevelWidths[level];
+		int height = mLevelHeights[level];
+		int index = (ty * mTilesX + tx) * 2;
+		int guessX = displacements[index] >> level;
+		int guessY = displacements[index + 1] >> level;
+		int half = Math.max(MIN_HALF_WINDOW, (TILE_SIZE / 2) >> level);
+		int centerX = Math.min(width - 1, (tx * TILE_SIZE + TILE_SIZE / 2) >> level);
+		int centerY = Math.min(height - 1, (ty * TILE_SIZE + TILE_SIZE / 2) >> level);
+		int x0 = Math.max(0, centerX - half), x1 = Math.min(width, centerX + half);
+		int y0 = Math.max(0, centerY - half), y1 = Math.min(height, centerY + half);
+
+		int bestX = guessX, bestY = guessY;
+		long best = sad(level, x0, y0, x1, y1, guessX, guessY, Long.MAX_VALUE);
+		for (int dy = guessY - 1; dy <= guessY + 1; dy++) {
+			for (int dx = guessX - 1; dx <= guessX + 1; dx++) {
+				if (dx == guessX && dy == guessY) {
+					continue;
+				}
+				long cost = sad(level, x0, y0, x1, y1, dx, dy, best);
+				if (cost < best) {
+					best = cost;
+					bestX = dx;
+					bestY = dy;
+				}
+			}
+		}
+		displacements[index] = bestX << level;
+		displacements[index + 1] = bestY << level;
+	}
+
+	/**
+	 * Sums the absolute differences between a window of the reference and the same window of the frame
+	 * moved by dx, dy, reading edge pixels for those that fall outside. Gives up once above the limit.
+	 */
+	private long sad(int level, int x0, int y0, int x1, int y1, int dx, int dy, long limit) {
+		byte[] reference = mReference[level];
+		byte[] frame = mFrame[level];
+		int width = mLevelWidths[level];
+		int height = mLevelHeights[level];
+		boolean inside = x0 + dx >= 0 && x1 - 1 + dx < width;
+		long sum = 0;
+		for (int y = y0; y < y1; y++) {
+			int referenceRow = y * width;
+			int frameRow = clamp(y + dy, height) * width;
+			if (inside) {
+				int offset = frameRow + dx;
+				for (int x = x0; x < x1; x++) {
+					int d = (reference[referenceRow + x] & 0xFF) - (frame[offset + x] & 0xFF);
+					sum += d < 0 ? -d : d;
+				}
+			} else {
+				for (int x = x0; x < x1; x++) {
+					int d = (reference[referenceRow + x] & 0xFF) - (frame[frameRow + clamp(x + dx, width)] & 0xFF);
+					sum += d < 0 ? -d : d;
+				}
+			}
+			if (sum >= limit) {
+				return sum;
+			}
+		}
+		return sum;
+	}
+
+	static int clamp(int value, int size) {
+		return value < 0 ? 0 : value >= size ? size - 1 : value;
+	}
+}
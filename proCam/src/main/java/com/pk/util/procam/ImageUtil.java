@@ -1,266 +1,507 @@
-/*
- * Copyright (c) 2013 ALLDATA, LLC. All rights reserved.
- * Created on : 02 August 2013
- * FileName: ImageUtil.java 
- */
-package com.pk.util.procam;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-
-import android.content.Context;
-import android.content.res.AssetManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
-import android.media.ExifInterface;
-import android.media.ThumbnailUtils;
-import android.os.Environment;
-import android.provider.MediaStore;
-import android.util.Log;
-
-/**
- * Describes the Images and videos of the properties (width and height) here.
- * 
- */
-public enum ImageUtil {
-
-	INSTANCE;
-	
-	private final String TAG = getClass().getSimpleName();
-	private final String JPEG_FILE_PREFIX = "IMG_";
-	private final String JPEG_FILE_SUFFIX = ".jpg";
-
-	/**
-	 * Creates a thumbnail of the file (image or video) given. Size restriction
-	 * of image thumbnail is given at 128*128 for now.
-	 * 
-	 * @param isVideo
-	 *            - whether the file mentioned in path is a video or a image.
-	 * @param path
-	 *            - Path to the file for which thumbnail has to be created.
-	 * @return - Bitmap object containing the thumbnail.
-	 */
-	public Bitmap createThumbnails(boolean isVideo, String path) {
-		Bitmap thumb;
-		if (isVideo) {
-			thumb = ThumbnailUtils.createVideoThumbnail(path,
-					MediaStore.Images.Thumbnails.MICRO_KIND);
-		} else {
-			thumb = optimizeBitmap(path, 128, 128);
-		}
-		return thumb;
-	}
-
-	/**
-	 * Creates a full screen thumbnail of the video mentioned in path. Useful
-	 * for showing video preview in lightbox.
-	 * 
-	 * @param path
-	 *            - Path to the file for which thumbnail has to be created.
-	 * @return - Bitmap object containing the thumbnail.
-	 */
-	public Bitmap createFullscreenVideoThumbnail(String path) {
-		return ThumbnailUtils.createVideoThumbnail(path,
-				MediaStore.Images.Thumbnails.MINI_KIND);
-	}
-
-	/**
-	 * Read a file from path and create a image bitmap of the specified size Use
-	 * optimizeBitmap. Unless inSampleSize needs to be calculated manually, do
-	 * not use this function
-	 * 
-	 * @param path
-	 *            - Path to the file
-	 * @param reqWidth
-	 *            - the width of the result image bitmap
-	 * @param reqHeight
-	 *            - the height of the result image bitmap
-	 * @return - Bitmap with size equivalent to specified width and height
-	 */
-	public Bitmap createBitmapFromPath(String path, int reqWidth, int reqHeight) {
-		final BitmapFactory.Options options = new BitmapFactory.Options();
-		options.inJustDecodeBounds = true;
-		BitmapFactory.decodeFile(path, options);
-
-		// Calculate inSampleSize
-		options.inSampleSize = calculateInSampleSize(options, reqWidth,
-				reqHeight);
-
-		// Decode bitmap with inSampleSize set
-		options.inJustDecodeBounds = false;
-		return BitmapFactory.decodeFile(path, options);
-	}
-
-	public int calculateInSampleSize(BitmapFactory.Options options,
-			int reqWidth, int reqHeight) {
-		// Raw height and width of image
-		final int height = options.outHeight;
-		final int width = options.outWidth;
-		int inSampleSize = 1;
-
-		if (height > reqHeight || width > reqWidth) {
-			if (width > height) {
-				inSampleSize = Math.round((float) height / (float) reqHeight);
-			} else {
-				inSampleSize = Math.round((float) width / (float) reqWidth);
-			}
-		}
-		return inSampleSize;
-	}
-
-	/**
-	 * There isn't enough memory to open up more than a couple camera photos So
-	 * pre-scale the target bitmap into which the file is decoded
-	 * 
-	 * @param path
-	 *            - path to the picture
-	 * @param targetW
-	 *            - target width of the bitmap
-	 * @param targetH
-	 *            - target height of the bitmap
-	 * @return
-	 */
-	public Bitmap optimizeBitmap(String path, int targetW, int targetH) {
-
-		/* Get the size of the image */
-		BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-		bmOptions.inJustDecodeBounds = true;
-		BitmapFactory.decodeFile(path, bmOptions);
-		int photoW = bmOptions.outWidth;
-		int photoH = bmOptions.outHeight;
-
-		/* Figure out which way needs to be reduced less */
-		int scaleFactor = 1;
-		if ((targetW > 0) || (targetH > 0)) {
-			scaleFactor = Math.min(photoW / targetW, photoH / targetH);
-		}
-
-		/* Set bitmap options to scale the image decode target */
-		bmOptions.inJustDecodeBounds = false;
-		bmOptions.inSampleSize = scaleFactor;
-		bmOptions.inPurgeable = true;
-
-		/* Decode the JPEG file into a Bitmap */
-		return BitmapFactory.decodeFile(path, bmOptions);
-	}
-
-	public Bitmap getBitmapFromAsset(Context context, String filename) {
-		AssetManager assetManager = context.getAssets();
-		InputStream istr = null;
-		try {
-			istr = assetManager.open(filename);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		Bitmap bitmap = BitmapFactory.decodeStream(istr);
-		return bitmap;
-	}
-
-	/**
-	 * Static function to get an Image storage directory in case of problems
-	 * with default camera application.
-	 * 
-	 * @return - File to store the image or video data.
-	 */
-	public File getImageStorageDirectory() {
-
-		File storageDir = null;
-
-		if (Environment.MEDIA_MOUNTED.equals(Environment
-				.getExternalStorageState())) {
-
-			String albumName = "USB HERMES";
-			storageDir = new File(
-					Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
-					albumName);
-
-			if (storageDir != null) {
-				if (!storageDir.mkdirs()) {
-					if (!storageDir.exists()) {
-						Log.d("CameraSample", "failed to create directory");
-						return null;
-					}
-				}
-			}
-		} else {
-			return null;
-		}
-		String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US)
-				.format(new Date());
-		String imageFileName = JPEG_FILE_PREFIX + timeStamp + "_";
-		try {
-			return File.createTempFile(imageFileName, JPEG_FILE_SUFFIX,
-					storageDir);
-		} catch (IOException e) {
-			e.printStackTrace();
-			return null;
-		}
-	}
-	
-	public Bitmap getRotatedBitmap(String fullFilePath) {
-		int exifOrientation = 0;
-		ExifInterface exif;
-		try {
-			exif = new ExifInterface(fullFilePath);
-			exifOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
-					ExifInterface.ORIENTATION_NORMAL);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		int rotate = 0;
-		switch (exifOrientation) {
-		case ExifInterface.ORIENTATION_ROTATE_90:
-			rotate = 90;
-			break;
-
-		case ExifInterface.ORIENTATION_ROTATE_180:
-			rotate = 180;
-			break;
-
-		case ExifInterface.ORIENTATION_ROTATE_270:
-			rotate = 270;
-			break;
-		}
-
-		Bitmap bitmap = ImageUtil.INSTANCE.createBitmapFromPath(fullFilePath, 1280, 720);
-		Log.i(TAG, "getRotatedBitmap rotation in Image: "+rotate);
-		if (rotate != 0) {
-			int w = bitmap.getWidth();
-			int h = bitmap.getHeight();
-
-			// Setting pre rotate
-			Matrix mtx = new Matrix();
-			mtx.preRotate(rotate);
-
-			// Rotating Bitmap & convert to ARGB_8888, required by tess
-			bitmap = Bitmap.createBitmap(bitmap, 0, 0, w, h, mtx, false);
-			bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
-		}
-		
-		return bitmap;
-	}
-	
-	public void saveBitmapToNewFile(Bitmap bitmap, String filePath) {
-		File file = new File(filePath);
-		file.delete();
-		try {
-			file.createNewFile();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			FileOutputStream out = new FileOutputStream(file);
-			bitmap.compress(Bitmap.CompressFormat.JPEG, 100, out);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
-	}
+/*
+ * Copyright (c) 2013 ALLDATA, LLC. All rights reserved.
+ * Created on : 02 August 2013
+ * FileName: ImageUtil.java 
+ */
+package com.pk.util.procam;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.media.MediaDataSource;
+import android.media.MediaMetadataRetriever;
+import android.media.ThumbnailUtils;
+import android.os.Build;
+import android.os.Environment;
+import android.provider.MediaStore;
+
+/**
+ * Describes the Images and videos of the properties (width and height) here.
+ * 
+ */
+public enum ImageUtil {
+
+	INSTANCE;
+	
+	private final String TAG = getClass().getSimpleName();
+	private final String JPEG_FILE_PREFIX = "IMG_";
+	private final String JPEG_FILE_SUFFIX = ".jpg";
+	private final DurableFileWriter mFileWriter = new DurableFileWriter(DurabilityPolicy.PER_FILE);
+	private volatile MediaCipher mCipher;
+
+	/**
+	 * Sets the cipher encrypted pictures are decoded with. Bitmaps saved by
+	 * {@link #saveBitmapToNewFile(Bitmap, String)} are encrypted with it as well.
+	 * Plain files are still read as they are.
+	 * 
+	 * @param cipher
+	 *            - the cipher, null to only read plain files.
+	 */
+	public void setMediaCipher(MediaCipher cipher) {
+		mCipher = cipher;
+		mFileWriter.setCipher(cipher);
+	}
+
+	/**
+	 * Creates a thumbnail of the file (image or video) given. Size restriction
+	 * of image thumbnail is given at 128*128 for now. The thumbnail the camera
+	 * embedded in a picture is used when it is large enough, so the picture
+	 * itself is not decoded, see {@link OutputSpec#setThumbnailSize(int, int)}.
+	 * 
+	 * @param isVideo
+	 *            - whether the file mentioned in path is a video or a image.
+	 * @param path
+	 *            - Path to the file for which thumbnail has to be created.
+	 * @return - Bitmap object containing the thumbnail.
+	 */
+	public Bitmap createThumbnails(boolean isVideo, String path) {
+		Bitmap thumb;
+		if (isVideo) {
+			thumb = createVideoThumbnail(path, MediaStore.Images.Thumbnails.MICRO_KIND);
+		} else {
+			thumb = decodeEmbeddedThumbnail(path, 128, 128);
+			if (thumb == null) {
+				thumb = optimizeBitmap(path, 128, 128);
+			}
+		}
+		return thumb;
+	}
+
+	/**
+	 * Creates a full screen thumbnail of the video mentioned in path. Useful
+	 * for showing video preview in lightbox.
+	 * 
+	 * @param path
+	 *            - Path to the file for which thumbnail has to be created.
+	 * @return - Bitmap object containing the thumbnail.
+	 */
+	public Bitmap createFullscreenVideoThumbnail(String path) {
+		return createVideoThumbnail(path, MediaStore.Images.Thumbnails.MINI_KIND);
+	}
+
+	/**
+	 * Creates a thumbnail of a video, decrypting it on the fly if it is encrypted. Encrypted videos
+	 * need API level 23, below that null is returned for them.
+	 * 
+	 * @param path
+	 *            - path to the video
+	 * @param kind
+	 *            - MediaStore.Images.Thumbnails.MICRO_KIND or MINI_KIND
+	 * @return the thumbnail, null if the video could not be decoded
+	 */
+	private Bitmap createVideoThumbnail(String path, int kind) {
+		MediaCipher cipher = mCipher;
+		File file = new File(path);
+		if (cipher == null || !MediaCipher.isEncrypted(file)) {
+			return ThumbnailUtils.createVideoThumbnail(path, kind);
+		}
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+			return null;
+		}
+		EncryptedFileInputStream in = null;
+		try {
+			in = new EncryptedFileInputStream(cipher, file);
+			return createVideoThumbnail(in, kind);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.M)
+	private static Bitmap createVideoThumbnail(final EncryptedFileInputStream in, int kind) {
+		MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+		Bitmap frame;
+		try {
+			retriever.setDataSource(new MediaDataSource() {
+				@Override
+				public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+					if (position >= in.length()) {
+						return -1;
+					}
+					in.seek(position);
+					return in.read(buffer, offset, size);
+				}
+
+				@Override
+				public long getSize() {
+					return in.length();
+				}
+
+				@Override
+				public void close() {
+				}
+			});
+			frame = retriever.getFrameAtTime(-1);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			retriever.release();
+		}
+		if (frame == null) {
+			return null;
+		}
+		if (kind == MediaStore.Images.Thumbnails.MICRO_KIND) {
+			return ThumbnailUtils.extractThumbnail(frame, 96, 96, ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+		}
+		// The size ThumbnailUtils makes mini thumbnails of videos.
+		float scale = 512f / Math.max(frame.getWidth(), frame.getHeight());
+		if (scale >= 1) {
+			return frame;
+		}
+		Bitmap scaled = Bitmap.createScaledBitmap(frame, Math.round(frame.getWidth() * scale), Math.round(frame.getHeight() * scale), true);
+		frame.recycle();
+		return scaled;
+	}
+
+	/**
+	 * Read a file from path and create a image bitmap of the specified size Use
+	 * optimizeBitmap. Unless inSampleSize needs to be calculated manually, do
+	 * not use this function
+	 * 
+	 * @param path
+	 *            - Path to the file
+	 * @param reqWidth
+	 *            - the width of the result image bitmap
+	 * @param reqHeight
+	 *            - the height of the result image bitmap
+	 * @return - Bitmap with size equivalent to specified width and height
+	 */
+	public Bitmap createBitmapFromPath(String path, int reqWidth, int reqHeight) {
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		decodeFile(path, options);
+
+		// Calculate inSampleSize
+		options.inSampleSize = calculateInSampleSize(options, reqWidth,
+				reqHeight);
+
+		// Decode bitmap with inSampleSize set
+		options.inJustDecodeBounds = false;
+		return decodeFile(path, options);
+	}
+
+	public int calculateInSampleSize(BitmapFactory.Options options,
+			int reqWidth, int reqHeight) {
+		// Raw height and width of image
+		final int height = options.outHeight;
+		final int width = options.outWidth;
+		int inSampleSize = 1;
+
+		if (height > reqHeight || width > reqWidth) {
+			if (width > height) {
+				inSampleSize = Math.round((float) height / (float) reqHeight);
+			} else {
+				inSampleSize = Math.round((float) width / (float) reqWidth);
+			}
+		}
+		return inSampleSize;
+	}
+
+	/**
+	 * There isn't enough memory to open up more than a couple camera photos So
+	 * pre-scale the target bitmap into which the file is decoded
+	 * 
+	 * @param path
+	 *            - path to the picture
+	 * @param targetW
+	 *            - target width of the bitmap
+	 * @param targetH
+	 *            - target height of the bitmap
+	 * @return
+	 */
+	public Bitmap optimizeBitmap(String path, int targetW, int targetH) {
+
+		/* Get the size of the image */
+		BitmapFactory.Options bmOptions = new BitmapFactory.Options();
+		bmOptions.inJustDecodeBounds = true;
+		decodeFile(path, bmOptions);
+		int photoW = bmOptions.outWidth;
+		int photoH = bmOptions.outHeight;
+
+		/* Figure out which way needs to be reduced less */
+		int scaleFactor = 1;
+		if ((targetW > 0) || (targetH > 0)) {
+			scaleFactor = Math.min(photoW / targetW, photoH / targetH);
+		}
+
+		/* Set bitmap options to scale the image decode target */
+		bmOptions.inJustDecodeBounds = false;
+		bmOptions.inSampleSize = scaleFactor;
+		bmOptions.inPurgeable = true;
+
+		/* Decode the JPEG file into a Bitmap */
+		return decodeFile(path, bmOptions);
+	}
+
+	/**
+	 * Decodes a picture file, decrypting it on the fly if it is encrypted.
+	 * 
+	 * @param path
+	 *            - path to the picture
+	 * @param options
+	 *            - the decode options
+	 * @return the bitmap, null if only bounds were decoded or decoding failed
+	 */
+	private Bitmap decodeFile(String path, BitmapFactory.Options options) {
+		MediaCipher cipher = mCipher;
+		File file = new File(path);
+		if (cipher == null || !MediaCipher.isEncrypted(file)) {
+			return BitmapFactory.decodeFile(path, options);
+		}
+		InputStream in = null;
+		try {
+			in = new EncryptedFileInputStream(cipher, file);
+			return BitmapFactory.decodeStream(in, null, options);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Decodes the thumbnail embedded in the EXIF data of a picture, decrypting
+	 * it on the fly if it is encrypted.
+	 * 
+	 * @param path
+	 *            - path to the picture
+	 * @param targetW
+	 *            - target width of the bitmap
+	 * @param targetH
+	 *            - target height of the bitmap
+	 * @return the bitmap, null if there is no thumbnail as large as the target
+	 */
+	private Bitmap decodeEmbeddedThumbnail(String path, int targetW, int targetH) {
+		MediaCipher cipher = mCipher;
+		File file = new File(path);
+		InputStream in = null;
+		byte[] jpeg;
+		try {
+			in = cipher != null && MediaCipher.isEncrypted(file) ? new EncryptedFileInputStream(cipher, file)
+					: new FileInputStream(file);
+			jpeg = JpegExif.readThumbnail(new BufferedInputStream(in));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+		if (jpeg == null) {
+			return null;
+		}
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+		if (Math.max(options.outWidth, options.outHeight) < Math.max(targetW, targetH)) {
+			return null;
+		}
+		options.inSampleSize = calculateInSampleSize(options, targetW, targetH);
+		options.inJustDecodeBounds = false;
+		return BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+	}
+
+	/**
+	 * Reads the EXIF orientation of a JPEG file, decrypting it on the fly if
+	 * it is encrypted.
+	 * 
+	 * @param path
+	 *            - path to the picture
+	 * @return one of the ExifInterface orientation constants
+	 */
+	private int readExifOrientation(String path) {
+		MediaCipher cipher = mCipher;
+		File file = new File(path);
+		try {
+			if (cipher == null || !MediaCipher.isEncrypted(file)) {
+				return new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+						ExifInterface.ORIENTATION_NORMAL);
+			}
+			// ExifInterface only reads from a path before API level 24.
+			InputStream in = new EncryptedFileInputStream(cipher, file);
+			try {
+				return JpegExif.readOrientation(in);
+			} finally {
+				closeQuietly(in);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return ExifInterface.ORIENTATION_NORMAL;
+		}
+	}
+
+	private static void closeQuietly(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public Bitmap getBitmapFromAsset(Context context, String filename) {
+		AssetManager assetManager = context.getAssets();
+		InputStream istr = null;
+		try {
+			istr = assetManager.open(filename);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		Bitmap bitmap = BitmapFactory.decodeStream(istr);
+		return bitmap;
+	}
+
+	/**
+	 * Static function to get an Image storage directory in case of problems
+	 * with default camera application.
+	 * 
+	 * @return - File to store the image or video data.
+	 */
+	public File getImageStorageDirectory() {
+
+		File storageDir = null;
+
+		if (Environment.MEDIA_MOUNTED.equals(Environment
+				.getExternalStorageState())) {
+
+			String albumName = "USB HERMES";
+			storageDir = new File(
+					Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
+					albumName);
+
+			if (storageDir != null) {
+				if (!storageDir.mkdirs()) {
+					if (!storageDir.exists()) {
+						LogUtil.d(TAG, "getImageStorageDirectory - failed to create directory: {}", storageDir);
+						return null;
+					}
+				}
+			}
+		} else {
+			return null;
+		}
+		String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US)
+				.format(new Date());
+		String imageFileName = JPEG_FILE_PREFIX + timeStamp + "_";
+		try {
+			return File.createTempFile(imageFileName, JPEG_FILE_SUFFIX,
+					storageDir);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	public Bitmap getRotatedBitmap(String fullFilePath) {
+		int exifOrientation = readExifOrientation(fullFilePath);
+		Bitmap bitmap = ImageUtil.INSTANCE.createBitmapFromPath(fullFilePath, 1280, 720);
+		return rotate(bitmap, exifOrientation);
+	}
+
+	/**
+	 * Same as {@link #getRotatedBitmap(String)} for a picture taken to memory,
+	 * without going through the filesystem. The buffer is not released.
+	 * 
+	 * @param jpeg
+	 *            - the picture
+	 * @return - the bitmap, upright
+	 */
+	public Bitmap getRotatedBitmap(CaptureBuffer jpeg) {
+		byte[] data = jpeg.getData();
+		int length = jpeg.getLength();
+		int exifOrientation;
+		try {
+			exifOrientation = JpegExif.readOrientation(new ByteArrayInputStream(data, 0, length));
+		} catch (IOException e) {
+			e.printStackTrace();
+			exifOrientation = ExifInterface.ORIENTATION_NORMAL;
+		}
+		final BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, length, options);
+		options.inSampleSize = calculateInSampleSize(options, 1280, 720);
+		options.inJustDecodeBounds = false;
+		return rotate(BitmapFactory.decodeByteArray(data, 0, length, options), exifOrientation);
+	}
+
+	private Bitmap rotate(Bitmap bitmap, int exifOrientation) {
+		int rotate = 0;
+		switch (exifOrientation) {
+		case ExifInterface.ORIENTATION_ROTATE_90:
+			rotate = 90;
+			break;
+
+		case ExifInterface.ORIENTATION_ROTATE_180:
+			rotate = 180;
+			break;
+
+		case ExifInterface.ORIENTATION_ROTATE_270:
+			rotate = 270;
+			break;
+		}
+
+		LogUtil.d(TAG, "getRotatedBitmap rotation in Image: {}", rotate);
+		if (rotate != 0 && bitmap != null) {
+			int w = bitmap.getWidth();
+			int h = bitmap.getHeight();
+
+			// Setting pre rotate
+			Matrix mtx = new Matrix();
+			mtx.preRotate(rotate);
+
+			// Rotating Bitmap & convert to ARGB_8888, required by tess
+			bitmap = Bitmap.createBitmap(bitmap, 0, 0, w, h, mtx, false);
+			bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+		}
+		
+		return bitmap;
+	}
+	
+	/**
+	 * Saves a bitmap as a JPEG. The file only appears at the path once the whole picture is written.
+	 * 
+	 * @param bitmap
+	 *            - the bitmap.
+	 * @param filePath
+	 *            - the path of the file.
+	 * @return - true, if the file was written; nothing is left at the path otherwise.
+	 */
+	public boolean saveBitmapToNewFile(Bitmap bitmap, String filePath) {
+		DurableFileWriter.PendingFile file = null;
+		try {
+			file = mFileWriter.begin(new File(filePath));
+			if (!bitmap.compress(Bitmap.CompressFormat.JPEG, 100, file.getStream())) {
+				LogUtil.w(TAG, "saveBitmapToNewFile - compress failed: {}", filePath);
+				file.abort();
+				return false;
+			}
+			mFileWriter.finish(file);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			if (file != null) {
+				file.abort();
+			}
+			return false;
+		}
+	}
 }
\ No newline at end of file
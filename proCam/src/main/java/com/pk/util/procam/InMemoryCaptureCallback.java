@@ -0,0 +1,17 @@
+package com.pk.util.procam;
+
+/**
+ * Receives pictures taken with {@link CameraHandler#takePictureToMemory(InMemoryCaptureCallback)}.
+ * Called on the main thread.
+ */
+public interface InMemoryCaptureCallback {
+
+	/**
+	 * On JPEG captured. The callback owns the buffer: it must {@link CaptureBuffer#release() release}
+	 * it when done, possibly later and on another thread. To keep the picture, pass it to
+	 * {@link CameraHandler#saveCaptureBuffer(CaptureBuffer)} first.
+	 *
+	 * @param jpeg the JPEG
+	 */
+	public void onJpegCaptured(CaptureBuffer jpeg);
+}
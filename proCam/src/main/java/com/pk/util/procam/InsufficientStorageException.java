@@ -0,0 +1,48 @@
+package com.pk.util.procam;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a recording cannot start because the storage cannot hold its projected size.
+ */
+public class InsufficientStorageException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The bytes the recording needs. */
+	private final long mRequiredBytes;
+
+	/** The bytes available, or -1 if unknown. */
+	private final long mAvailableBytes;
+
+	/**
+	 * Instantiates a new insufficient storage exception.
+	 *
+	 * @param requiredBytes the bytes needed
+	 * @param availableBytes the bytes available, or -1 if unknown
+	 */
+	public InsufficientStorageException(long requiredBytes, long availableBytes) {
+		super("Not enough storage: " + requiredBytes + " bytes needed, "
+				+ (availableBytes >= 0 ? availableBytes + " available" : "allocation failed"));
+		mRequiredBytes = requiredBytes;
+		mAvailableBytes = availableBytes;
+	}
+
+	/**
+	 * Gets the bytes the recording needs.
+	 *
+	 * @return the required bytes
+	 */
+	public long getRequiredBytes() {
+		return mRequiredBytes;
+	}
+
+	/**
+	 * Gets the bytes available.
+	 *
+	 * @return the available bytes, or -1 if unknown
+	 */
+	public long getAvailableBytes() {
+		return mAvailableBytes;
+	}
+}
@@ -0,0 +1,27 @@
+package com.pk.util.procam;
+
+/**
+ * Receives the results of an interval capture session started with
+ * {@link CameraHandler#startIntervalCapture(long, int, boolean, IntervalCaptureCallback)}.
+ * All methods are called on the main thread.
+ */
+public interface IntervalCaptureCallback {
+
+	/**
+	 * On interval image captured.
+	 *
+	 * @param shot the index of the shot in the session
+	 * @param fullFilePath the full file path, or null if the image could not be taken or saved; a shot
+	 *            the camera fails to take ends the session
+	 * @param scheduledTime the time the shot was scheduled at, in {@link Clock#ELAPSED_REALTIME} time
+	 * @param actualTime the time the shot was actually taken at, in the same time
+	 */
+	public void onIntervalImageCaptured(int shot, String fullFilePath, long scheduledTime, long actualTime);
+
+	/**
+	 * On interval capture finished. Called once every image of the session has been saved.
+	 *
+	 * @param stats the timing statistics of the session
+	 */
+	public void onIntervalCaptureFinished(IntervalCaptureScheduler.Stats stats);
+}
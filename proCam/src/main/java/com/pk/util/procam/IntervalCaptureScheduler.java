@@ -0,0 +1,243 @@
+package com.pk.util.procam;
+
+/**
+ * Computes the capture times of a time-lapse / interval capture session.
+ *
+ * Shot n is always scheduled at start + n * interval, so a late capture does not
+ * push the following shots back (no drift). When a capture overruns by more than
+ * a whole interval the missed slots are skipped rather than fired back to back.
+ *
+ * The scheduler holds no threads or handlers. {@link CameraHandler} asks it when
+ * the next shot is due and reports when each shot actually started. It runs on
+ * {@link Clock#UPTIME}, the clock the handler posts the shots at.
+ */
+public class IntervalCaptureScheduler {
+
+	/** The clock. */
+	private final Clock mClock;
+
+	/** The interval between two shots, in milliseconds. */
+	private final long mIntervalMs;
+
+	/** The number of shots to take. Zero or negative means no limit. */
+	private final int mShotCount;
+
+	/** The start time of the session. */
+	private long mStartTime = -1;
+
+	/** The index of the next shot to be taken. */
+	private int mNextShot = 0;
+
+	/** The number of shots taken. */
+	private int mShotsTaken = 0;
+
+	/** The time the last shot was taken at. */
+	private long mLastShotTime = -1;
+
+	/** The number of slots skipped because a capture overran. */
+	private int mShotsSkipped = 0;
+
+	/** The sum of the lateness of every shot taken. */
+	private long mTotalLatenessMs = 0;
+
+	/** The largest lateness of a shot. */
+	private long mMaxLatenessMs = 0;
+
+	/** The number of shots whose picture has arrived. */
+	private int mFramesFinished = 0;
+
+	/** The sum of the times from taking a shot to its picture. */
+	private long mTotalFrameMs = 0;
+
+	/** The largest time from taking a shot to its picture. */
+	private long mMaxFrameMs = 0;
+
+	/**
+	 * Instantiates a new interval capture scheduler.
+	 *
+	 * @param clock the clock
+	 * @param intervalMs the interval between two shots, in milliseconds
+	 * @param shotCount the number of shots to take, zero or negative for no limit
+	 */
+	public IntervalCaptureScheduler(Clock clock, long intervalMs, int shotCount) {
+		if (intervalMs <= 0) {
+			throw new IllegalArgumentException("Interval must be positive: "+intervalMs);
+		}
+		mClock = clock;
+		mIntervalMs = intervalMs;
+		mShotCount = shotCount;
+	}
+
+	/**
+	 * Starts the session. The first shot is due immediately.
+	 */
+	public void start() {
+		mStartTime = mClock.now();
+	}
+
+	/**
+	 * Checks if the session has been started.
+	 *
+	 * @return true, if started
+	 */
+	public boolean isStarted() {
+		return mStartTime >= 0;
+	}
+
+	/**
+	 * Checks if all the shots have been taken.
+	 *
+	 * @return true, if finished
+	 */
+	public boolean isFinished() {
+		return mShotCount > 0 && mNextShot >= mShotCount;
+	}
+
+	/**
+	 * Gets the interval.
+	 *
+	 * @return the interval in milliseconds
+	 */
+	public long getIntervalMs() {
+		return mIntervalMs;
+	}
+
+	/**
+	 * Gets the scheduled time of a shot.
+	 *
+	 * @param shot the shot index
+	 * @return the scheduled time
+	 */
+	public long getScheduledTime(int shot) {
+		return mStartTime + shot * mIntervalMs;
+	}
+
+	/**
+	 * Gets the time the next shot is due at.
+	 *
+	 * @return the time, in the time of the clock
+	 */
+	public long getNextShotTime() {
+		return getScheduledTime(mNextShot);
+	}
+
+	/**
+	 * Gets the time left until the next shot is due.
+	 *
+	 * @return the delay in milliseconds, zero if the shot is already due
+	 */
+	public long getDelayToNextShot() {
+		return Math.max(0, getScheduledTime(mNextShot) - mClock.now());
+	}
+
+	/**
+	 * Gets the time left until the preview has to be resumed so that it has
+	 * warmed up by the time the next shot is due.
+	 *
+	 * @param previewWarmupMs the time the preview takes to settle after starting
+	 * @return the delay in milliseconds, zero if the preview should run now
+	 */
+	public long getDelayToPreviewResume(long previewWarmupMs) {
+		return Math.max(0, getDelayToNextShot() - previewWarmupMs);
+	}
+
+	/**
+	 * Records that a shot is being taken now and advances the schedule. Slots
+	 * which have been entirely missed are skipped.
+	 *
+	 * @return the index of the shot being taken
+	 */
+	public int onShotStarted() {
+		long now = mClock.now();
+		int current = (int) ((now - mStartTime) / mIntervalMs);
+		if (current > mNextShot) {
+			int last = mShotCount > 0 ? Math.min(current, mShotCount - 1) : current;
+			mShotsSkipped += last - mNextShot;
+			mNextShot = last;
+		}
+
+		int shot = mNextShot++;
+		mLastShotTime = now;
+		long lateness = Math.max(0, now - getScheduledTime(shot));
+		mShotsTaken++;
+		mTotalLatenessMs += lateness;
+		mMaxLatenessMs = Math.max(mMaxLatenessMs, lateness);
+		return shot;
+	}
+
+	/**
+	 * Records that the picture of the last shot has arrived, which ends its frame time.
+	 *
+	 * @return the frame time in milliseconds, -1 if no shot has been taken
+	 */
+	public long onShotFinished() {
+		if (mLastShotTime < 0) {
+			return -1;
+		}
+		long frameMs = Math.max(0, mClock.now() - mLastShotTime);
+		mFramesFinished++;
+		mTotalFrameMs += frameMs;
+		mMaxFrameMs = Math.max(mMaxFrameMs, frameMs);
+		return frameMs;
+	}
+
+	/**
+	 * Gets the time the last shot was taken at.
+	 *
+	 * @return the time of the last shot, -1 if no shot has been taken
+	 */
+	public long getLastShotTime() {
+		return mLastShotTime;
+	}
+
+	/**
+	 * Gets the timing statistics of the session so far.
+	 *
+	 * @return the stats
+	 */
+	public Stats getStats() {
+		return new Stats(mShotsTaken, mShotsSkipped,
+				mShotsTaken > 0 ? mTotalLatenessMs / mShotsTaken : 0, mMaxLatenessMs,
+				mFramesFinished > 0 ? mTotalFrameMs / mFramesFinished : 0, mMaxFrameMs);
+	}
+
+	/**
+	 * Actual vs. scheduled capture times of an interval capture session, and how long
+	 * each shot took to deliver its picture.
+	 */
+	public static class Stats {
+
+		/** The shots taken. */
+		public final int shotsTaken;
+
+		/** The shots skipped. */
+		public final int shotsSkipped;
+
+		/** The mean delay between the scheduled and the actual capture time. */
+		public final long meanLatenessMs;
+
+		/** The max delay between the scheduled and the actual capture time. */
+		public final long maxLatenessMs;
+
+		/** The mean time from taking a shot to its picture. */
+		public final long meanFrameMs;
+
+		/** The max time from taking a shot to its picture. */
+		public final long maxFrameMs;
+
+		Stats(int shotsTaken, int shotsSkipped, long meanLatenessMs, long maxLatenessMs, long meanFrameMs, long maxFrameMs) {
+			this.shotsTaken = shotsTaken;
+			this.shotsSkipped = shotsSkipped;
+			this.meanLatenessMs = meanLatenessMs;
+			this.maxLatenessMs = maxLatenessMs;
+			this.meanFrameMs = meanFrameMs;
+			this.maxFrameMs = maxFrameMs;
+		}
+
+		@Override
+		public String toString() {
+			return "taken: "+shotsTaken+" skipped: "+shotsSkipped+" meanLatenessMs: "+meanLatenessMs+" maxLatenessMs: "+maxLatenessMs
+					+" meanFrameMs: "+meanFrameMs+" maxFrameMs: "+maxFrameMs;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package com.pk.util.procam;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of a {@link ProcessingJobQueue}.
+ * <p>
+ * Each state change of a job is appended as one record: the payload length, the payload and its
+ * CRC32. Replaying the records gives the jobs that were enqueued but neither completed nor given up.
+ * A record cut short by a crash fails its length or CRC check; replay stops there and the tail is
+ * truncated. {@link #checkpoint(Collection)} replaces the journal with one enqueue record per
+ * incomplete job, atomically, so it does not grow without bound.
+ * <p>
+ * Not thread-safe, the queue serializes access.
+ */
+class JobJournal {
+
+	private final String TAG = getClass().getSimpleName();
+
+	static final byte OP_ENQUEUE = 1;
+	static final byte OP_COMPLETE = 2;
+	static final byte OP_RETRY = 3;
+	static final byte OP_FAILED = 4;
+
+	/** The largest payload accepted on replay, anything larger is a torn record. */
+	private static final int MAX_PAYLOAD = 64 * 1024;
+
+	/** The journal file. */
+	private final File mFile;
+
+	/** Whether each record is forced to storage before the append returns. */
+	private final boolean mSync;
+
+	/** The open journal, null while closed. */
+	private RandomAccessFile mRandomAccessFile;
+
+	/** The channel of the open journal. */
+	private FileChannel mChannel;
+
+	/** The record being written, reused. */
+	private final ByteArrayOutputStream mRecord = new ByteArrayOutputStream(256);
+
+	/** The checksum, reused. */
+	private final CRC32 mCrc = new CRC32();
+
+	/** The highest job id seen. */
+	private long mLastId;
+
+	/** The records appended since the last checkpoint. */
+	private int mRecordCount;
+
+	/**
+	 * Instantiates a new job journal.
+	 *
+	 * @param file the journal file
+	 * @param sync whether to force each record to storage
+	 */
+	JobJournal(File file, boolean sync) {
+		mFile = file;
+		mSync = sync;
+	}
+
+	/**
+	 * Replays the journal and opens it for appending.
+	 *
+	 * @return the incomplete jobs, in the order they were enqueued
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	List<ProcessingJob> open() throws IOException {
+		Map<Long, ProcessingJob> pending = new LinkedHashMap<Long, ProcessingJob>();
+		mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+		mChannel = mRandomAccessFile.getChannel();
+		long validLength = replay(pending);
+		if (validLength < mRandomAccessFile.length()) {
+			LogUtil.w(TAG, "open - dropping torn tail of {} bytes", mRandomAccessFile.length() - validLength);
+			mRandomAccessFile.setLength(validLength);
+		}
+		mRandomAccessFile.seek(validLength);
+		return new ArrayList<ProcessingJob>(pending.values());
+	}
+
+	private long replay(Map<Long, ProcessingJob> pending) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+		long offset = 0;
+		try {
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (length <= 0 || length > MAX_PAYLOAD) {
+					break;
+				}
+				byte[] payload = new byte[length];
+				int crc;
+				try {
+					in.readFully(payload);
+					crc = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				mCrc.reset();
+				mCrc.update(payload, 0, length);
+				if ((int) mCrc.getValue() != crc) {
+					break;
+				}
+				apply(payload, pending);
+				offset += 4 + length + 4;
+				mRecordCount++;
+			}
+		} finally {
+			in.close();
+		}
+		return offset;
+	}
+
+	private void apply(byte[] payload, Map<Long, ProcessingJob> pending) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte op = in.readByte();
+		long id = in.readLong();
+		int attempts = in.readInt();
+		mLastId = Math.max(mLastId, id);
+		switch (op) {
+		case OP_ENQUEUE:
+			pending.put(id, new ProcessingJob(id, in.readUTF(), in.readUTF(), attempts));
+			break;
+		case OP_RETRY:
+			ProcessingJob job = pending.get(id);
+			if (job != null) {
+				pending.put(id, job.withAttempts(attempts));
+			}
+			break;
+		default:
+			pending.remove(id);
+			break;
+		}
+	}
+
+	/**
+	 * Gets a new job id.
+	 *
+	 * @return the id
+	 */
+	long nextId() {
+		return ++mLastId;
+	}
+
+	/**
+	 * Gets the number of records appended since the journal was last compacted.
+	 *
+	 * @return the record count
+	 */
+	int getRecordCount() {
+		return mRecordCount;
+	}
+
+	void appendEnqueued(ProcessingJob job) throws IOException {
+		append(OP_ENQUEUE, job.id, job.attempts, job);
+	}
+
+	void appendCompleted(long id) throws IOException {
+		append(OP_COMPLETE, id, 0, null);
+	}
+
+	void appendRetry(long id, int attempts) throws IOException {
+		append(OP_RETRY, id, attempts, null);
+	}
+
+	void appendFailed(long id) throws IOException {
+		append(OP_FAILED, id, 0, null);
+	}
+
+	private void append(byte op, long id, int attempts, ProcessingJob job) throws IOException {
+		if (mChannel == null) {
+			throw new IOException("Journal is closed");
+		}
+		encode(op, id, attempts, job);
+		ByteBuffer buffer = ByteBuffer.wrap(mRecord.toByteArray());
+		while (buffer.hasRemaining()) {
+			mChannel.write(buffer);
+		}
+		if (mSync) {
+			mChannel.force(false);
+		}
+		mRecordCount++;
+	}
+
+	/**
+	 * Encodes a record into {@link #mRecord}.
+	 */
+	private void encode(byte op, long id, int attempts, ProcessingJob job) throws IOException {
+		ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(128);
+		DataOutputStream payload = new DataOutputStream(payloadBytes);
+		payload.writeByte(op);
+		payload.writeLong(id);
+		payload.writeInt(attempts);
+		if (job != null) {
+			payload.writeUTF(job.type);
+			payload.writeUTF(job.path);
+		}
+		byte[] bytes = payloadBytes.toByteArray();
+		mCrc.reset();
+		mCrc.update(bytes, 0, bytes.length);
+
+		mRecord.reset();
+		DataOutputStream record = new DataOutputStream(mRecord);
+		record.writeInt(bytes.length);
+		record.write(bytes);
+		record.writeInt((int) mCrc.getValue());
+	}
+
+	/**
+	 * Replaces the journal with the given incomplete jobs.
+	 *
+	 * @param pending the incomplete jobs
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void checkpoint(Collection<ProcessingJob> pending) throws IOException {
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+		for (ProcessingJob job : pending) {
+			encode(OP_ENQUEUE, job.id, job.attempts, job);
+			mRecord.writeTo(snapshot);
+		}
+		close();
+		new DurableFileWriter(mSync ? DurabilityPolicy.PER_FILE : DurabilityPolicy.NONE).write(mFile, snapshot.toByteArray());
+		mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+		mChannel = mRandomAccessFile.getChannel();
+		mRandomAccessFile.seek(mRandomAccessFile.length());
+		mRecordCount = pending.size();
+		LogUtil.d(TAG, "checkpoint - pending: {}", pending.size());
+	}
+
+	/**
+	 * Closes the journal.
+	 */
+	void close() {
+		if (mRandomAccessFile != null) {
+			try {
+				mRandomAccessFile.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mRandomAccessFile = null;
+			mChannel = null;
+		}
+	}
+}
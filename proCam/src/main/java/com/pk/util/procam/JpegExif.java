@@ -0,0 +1,216 @@
+package com.pk.util.procam;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.media.ExifInterface;
+
+/**
+ * Reads the EXIF orientation and embedded thumbnail of a JPEG from a stream, for files {@link ExifInterface}
+ * cannot open by path, such as encrypted ones. Only the APP1 segment is read into memory.
+ */
+final class JpegExif {
+
+	private static final int TAG_ORIENTATION = 0x0112;
+
+	private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+
+	private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+	/** Where the TIFF header starts in the APP1 segment, after "Exif\0\0". */
+	private static final int TIFF = 6;
+
+	private JpegExif() {
+	}
+
+	/**
+	 * Reads the orientation.
+	 *
+	 * @param stream the stream, at the start of the JPEG
+	 * @return one of the ExifInterface orientation constants, {@link ExifInterface#ORIENTATION_NORMAL} if there is none
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static int readOrientation(InputStream stream) throws IOException {
+		byte[] segment = readExifSegment(stream);
+		int orientation = segment != null ? parseExif(segment) : 0;
+		return orientation != 0 ? orientation : ExifInterface.ORIENTATION_NORMAL;
+	}
+
+	/**
+	 * Reads the JPEG thumbnail the camera embedded in the EXIF data, see
+	 * Camera.Parameters#setJpegThumbnailSize.
+	 *
+	 * @param stream the stream, at the start of the JPEG
+	 * @return the thumbnail JPEG, null if there is none
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static byte[] readThumbnail(InputStream stream) throws IOException {
+		byte[] segment = readExifSegment(stream);
+		return segment != null ? parseThumbnail(segment) : null;
+	}
+
+	/**
+	 * Reads the first APP1 segment holding EXIF data.
+	 *
+	 * @return the segment, null if there is none before the image data
+	 */
+	private static byte[] readExifSegment(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readUnsignedShort() != 0xFFD8) {
+			return null;
+		}
+		while (true) {
+			int marker;
+			try {
+				if (in.readUnsignedByte() != 0xFF) {
+					return null;
+				}
+				marker = in.readUnsignedByte();
+				while (marker == 0xFF) {
+					marker = in.readUnsignedByte();
+				}
+			} catch (EOFException e) {
+				return null;
+			}
+			if (marker == 0xD9 || marker == 0xDA) {
+				// End of image or start of scan, the metadata is behind us.
+				return null;
+			}
+			int length = in.readUnsignedShort() - 2;
+			if (length < 0) {
+				return null;
+			}
+			if (marker == 0xE1) {
+				byte[] segment = new byte[length];
+				in.readFully(segment);
+				if (firstIfd(segment) >= 0) {
+					return segment;
+				}
+			} else {
+				skipFully(in, length);
+			}
+		}
+	}
+
+	/**
+	 * Finds the orientation in an APP1 segment.
+	 *
+	 * @return the orientation, 0 if the segment does not have one
+	 */
+	static int parseExif(byte[] segment) {
+		int ifd = firstIfd(segment);
+		if (ifd < 0) {
+			return 0;
+		}
+		boolean little = segment[TIFF] == 'I';
+		int count = readShort(segment, ifd, little);
+		for (int i = 0; i < count; i++) {
+			int entry = ifd + 2 + i * 12;
+			if (entry + 12 > segment.length) {
+				return 0;
+			}
+			if (readShort(segment, entry, little) == TAG_ORIENTATION) {
+				// A single SHORT is stored left aligned in the value field.
+				return readShort(segment, entry + 8, little);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Finds the thumbnail in an APP1 segment. It is described by the second IFD, which follows the first.
+	 *
+	 * @return the thumbnail JPEG, null if the segment does not have one
+	 */
+	static byte[] parseThumbnail(byte[] segment) {
+		int ifd0 = firstIfd(segment);
+		if (ifd0 < 0) {
+			return null;
+		}
+		boolean little = segment[TIFF] == 'I';
+		int next = ifd0 + 2 + readShort(segment, ifd0, little) * 12;
+		if (next + 4 > segment.length) {
+			return null;
+		}
+		long ifd1 = TIFF + (readInt(segment, next, little) & 0xFFFFFFFFL);
+		if (ifd1 == TIFF || ifd1 + 2 > segment.length) {
+			return null;
+		}
+		long offset = -1;
+		long length = -1;
+		int count = readShort(segment, (int) ifd1, little);
+		for (int i = 0; i < count; i++) {
+			int entry = (int) ifd1 + 2 + i * 12;
+			if (entry + 12 > segment.length) {
+				return null;
+			}
+			int tag = readShort(segment, entry, little);
+			if (tag == TAG_THUMBNAIL_OFFSET) {
+				offset = TIFF + (readInt(segment, entry + 8, little) & 0xFFFFFFFFL);
+			} else if (tag == TAG_THUMBNAIL_LENGTH) {
+				length = readInt(segment, entry + 8, little) & 0xFFFFFFFFL;
+			}
+		}
+		if (offset < 0 || length <= 0 || offset + length > segment.length) {
+			return null;
+		}
+		byte[] thumbnail = new byte[(int) length];
+		System.arraycopy(segment, (int) offset, thumbnail, 0, (int) length);
+		return thumbnail;
+	}
+
+	/**
+	 * Checks the EXIF and TIFF headers of an APP1 segment.
+	 *
+	 * @return the index of the first IFD in the segment, -1 if the segment is not EXIF
+	 */
+	private static int firstIfd(byte[] segment) {
+		if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f'
+				|| segment[4] != 0 || segment[5] != 0) {
+			return -1;
+		}
+		boolean little;
+		if (segment[TIFF] == 'I' && segment[TIFF + 1] == 'I') {
+			little = true;
+		} else if (segment[TIFF] == 'M' && segment[TIFF + 1] == 'M') {
+			little = false;
+		} else {
+			return -1;
+		}
+		if (readShort(segment, TIFF + 2, little) != 42) {
+			return -1;
+		}
+		long ifd = TIFF + (readInt(segment, TIFF + 4, little) & 0xFFFFFFFFL);
+		if (ifd + 2 > segment.length) {
+			return -1;
+		}
+		return (int) ifd;
+	}
+
+	private static int readShort(byte[] data, int offset, boolean little) {
+		int b0 = data[offset] & 0xff;
+		int b1 = data[offset + 1] & 0xff;
+		return little ? (b1 << 8) | b0 : (b0 << 8) | b1;
+	}
+
+	private static int readInt(byte[] data, int offset, boolean little) {
+		int high = readShort(data, offset + (little ? 2 : 0), little);
+		int low = readShort(data, offset + (little ? 0 : 2), little);
+		return (high << 16) | low;
+	}
+
+	private static void skipFully(InputStream in, long count) throws IOException {
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.pk.util.procam;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, lock free histogram of latencies in microseconds.
+ *
+ * Buckets are log-linear in the style of HdrHistogram: values below 64 get a
+ * bucket each, and every power of two above that is split into 32 buckets, so a
+ * recorded value is off by at most about 3%. Values above MAX_VALUE_US are
+ * counted in the last bucket. Recording is a few atomic increments and never
+ * allocates, so it is cheap enough to leave on in production.
+ */
+public class LatencyHistogram {
+
+	/** log2 of the number of sub buckets per power of two. */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/** The number of sub buckets per power of two. */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/** The largest value told apart from bigger ones, a little over an hour. */
+	public static final long MAX_VALUE_US = (1L << 32) - 1;
+
+	/** The number of buckets needed to cover MAX_VALUE_US. */
+	private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE_US) + 1;
+
+	/** The counts. */
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+
+	/** The total count. */
+	private final AtomicLong mTotalCount = new AtomicLong();
+
+	/** The sum of the recorded values. */
+	private final AtomicLong mSum = new AtomicLong();
+
+	/** The max recorded value. */
+	private final AtomicLong mMax = new AtomicLong();
+
+	/**
+	 * Gets the bucket of a value.
+	 *
+	 * @param valueUs the value
+	 * @return the bucket index
+	 */
+	static int bucketIndex(long valueUs) {
+		if (valueUs < 2 * SUB_BUCKET_COUNT) {
+			return (int) Math.max(0, valueUs);
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(Math.min(valueUs, MAX_VALUE_US));
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return (shift << SUB_BUCKET_BITS) + (int) (Math.min(valueUs, MAX_VALUE_US) >> shift);
+	}
+
+	/**
+	 * Gets the lowest value counted in a bucket.
+	 *
+	 * @param index the bucket index
+	 * @return the value
+	 */
+	static long bucketLowestValue(int index) {
+		if (index < 2 * SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index >> SUB_BUCKET_BITS) - 1;
+		return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param valueUs the value in microseconds
+	 */
+	public void record(long valueUs) {
+		mCounts.incrementAndGet(bucketIndex(valueUs));
+		mTotalCount.incrementAndGet();
+		mSum.addAndGet(valueUs);
+		long max = mMax.get();
+		while (valueUs > max && !mMax.compareAndSet(max, valueUs)) {
+			max = mMax.get();
+		}
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 *
+	 * @return the count
+	 */
+	public long getCount() {
+		return mTotalCount.get();
+	}
+
+	/**
+	 * Gets the mean of the recorded values.
+	 *
+	 * @return the mean in microseconds
+	 */
+	public long getMeanUs() {
+		long count = mTotalCount.get();
+		return count > 0 ? mSum.get() / count : 0;
+	}
+
+	/**
+	 * Gets the max recorded value.
+	 *
+	 * @return the max in microseconds
+	 */
+	public long getMaxUs() {
+		return mMax.get();
+	}
+
+	/**
+	 * Gets a percentile of the recorded values, as the lowest value of the bucket it falls in.
+	 * Values recorded concurrently may or may not be taken into account.
+	 *
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the value in microseconds, 0 if nothing was recorded
+	 */
+	public long getPercentileUs(double percentile) {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += mCounts.get(i);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mCounts.get(i);
+			if (seen >= rank) {
+				return Math.min(bucketLowestValue(i), mMax.get());
+			}
+		}
+		return mMax.get();
+	}
+
+	/**
+	 * Clears the recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mCounts.set(i, 0);
+		}
+		mTotalCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count: "+getCount()+" meanUs: "+getMeanUs()+" p50Us: "+getPercentileUs(50)
+				+" p90Us: "+getPercentileUs(90)+" p99Us: "+getPercentileUs(99)+" maxUs: "+getMaxUs();
+	}
+}
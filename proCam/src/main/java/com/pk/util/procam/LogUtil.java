@@ -0,0 +1,284 @@
+package com.pk.util.procam;
+
+import android.util.Log;
+
+/**
+ * Logging facade used instead of calling {@link Log} directly.
+ * <p>
+ * Messages are templates where each <code>{}</code> is replaced by the next argument, e.g.
+ * <code>LogUtil.d(TAG, "getCameraDisplayOrientation - rotation: {}", result)</code>. The level is checked
+ * before anything is formatted and primitive arguments have their own overloads, so a disabled call does
+ * not allocate. Verbose and debug calls are removed from minified release builds by the rules in
+ * <code>consumer-proguard-rules.txt</code>.
+ */
+public final class LogUtil {
+
+	/** The lowest level that is written to logcat. */
+	private static volatile int sMinLevel = Log.INFO;
+
+	/** The message builder, reused per thread. */
+	private static final ThreadLocal<StringBuilder> sBuilder = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(128);
+		}
+	};
+
+	private LogUtil() {
+	}
+
+	/**
+	 * Sets the lowest level written to logcat, one of the {@link Log} level constants. Defaults to {@link Log#INFO}.
+	 *
+	 * @param level the level
+	 */
+	public static void setMinLevel(int level) {
+		sMinLevel = level;
+	}
+
+	/**
+	 * Gets the lowest level written to logcat.
+	 *
+	 * @return the level
+	 */
+	public static int getMinLevel() {
+		return sMinLevel;
+	}
+
+	/**
+	 * Checks whether messages of a level are written.
+	 *
+	 * @param level the level
+	 * @return true, if enabled
+	 */
+	public static boolean isEnabled(int level) {
+		return level >= sMinLevel;
+	}
+
+	// Verbose
+
+	public static void v(String tag, String message) {
+		if (Log.VERBOSE >= sMinLevel) Log.v(tag, message);
+	}
+
+	public static void v(String tag, String template, Object arg) {
+		if (Log.VERBOSE >= sMinLevel) Log.v(tag, format(template, arg));
+	}
+
+	public static void v(String tag, String template, long arg) {
+		if (Log.VERBOSE >= sMinLevel) Log.v(tag, format(template, arg));
+	}
+
+	// Debug
+
+	public static void d(String tag, String message) {
+		if (Log.DEBUG >= sMinLevel) Log.d(tag, message);
+	}
+
+	public static void d(String tag, String template, Object arg) {
+		if (Log.DEBUG >= sMinLevel) Log.d(tag, format(template, arg));
+	}
+
+	public static void d(String tag, String template, long arg) {
+		if (Log.DEBUG >= sMinLevel) Log.d(tag, format(template, arg));
+	}
+
+	public static void d(String tag, String template, double arg) {
+		if (Log.DEBUG >= sMinLevel) Log.d(tag, format(template, arg));
+	}
+
+	public static void d(String tag, String template, boolean arg) {
+		if (Log.DEBUG >= sMinLevel) Log.d(tag, format(template, arg));
+	}
+
+	public static void d(String tag, String template, Object arg1, Object arg2) {
+		if (Log.DEBUG >= sMinLevel) Log.d(tag, format(template, arg1, arg2));
+	}
+
+	public static void d(String tag, String template, long arg1, long arg2) {
+		if (Log.DEBUG >= sMinLevel) Log.d(tag, format(template, arg1, arg2));
+	}
+
+	// Info
+
+	public static void i(String tag, String message) {
+		if (Log.INFO >= sMinLevel) Log.i(tag, message);
+	}
+
+	public static void i(String tag, String template, Object arg) {
+		if (Log.INFO >= sMinLevel) Log.i(tag, format(template, arg));
+	}
+
+	public static void i(String tag, String template, long arg) {
+		if (Log.INFO >= sMinLevel) Log.i(tag, format(template, arg));
+	}
+
+	public static void i(String tag, String template, boolean arg) {
+		if (Log.INFO >= sMinLevel) Log.i(tag, format(template, arg));
+	}
+
+	public static void i(String tag, String template, Object arg1, Object arg2) {
+		if (Log.INFO >= sMinLevel) Log.i(tag, format(template, arg1, arg2));
+	}
+
+	public static void i(String tag, String template, long arg1, long arg2) {
+		if (Log.INFO >= sMinLevel) Log.i(tag, format(template, arg1, arg2));
+	}
+
+	public static void i(String tag, String template, long arg1, long arg2, long arg3) {
+		if (Log.INFO >= sMinLevel) Log.i(tag, format(template, arg1, arg2, arg3));
+	}
+
+	public static void i(String tag, String template, Object... args) {
+		if (Log.INFO >= sMinLevel) Log.i(tag, format(template, args));
+	}
+
+	// Warning
+
+	public static void w(String tag, String message) {
+		if (Log.WARN >= sMinLevel) Log.w(tag, message);
+	}
+
+	public static void w(String tag, String template, Object arg) {
+		if (Log.WARN >= sMinLevel) Log.w(tag, format(template, arg));
+	}
+
+	public static void w(String tag, String template, long arg) {
+		if (Log.WARN >= sMinLevel) Log.w(tag, format(template, arg));
+	}
+
+	public static void w(String tag, String template, Object arg1, Object arg2) {
+		if (Log.WARN >= sMinLevel) Log.w(tag, format(template, arg1, arg2));
+	}
+
+	public static void w(String tag, String template, long arg1, long arg2) {
+		if (Log.WARN >= sMinLevel) Log.w(tag, format(template, arg1, arg2));
+	}
+
+	public static void w(String tag, String message, Throwable tr) {
+		if (Log.WARN >= sMinLevel) Log.w(tag, message, tr);
+	}
+
+	public static void w(String tag, String template, Object arg, Throwable tr) {
+		if (Log.WARN >= sMinLevel) Log.w(tag, format(template, arg), tr);
+	}
+
+	public static void w(String tag, String template, long arg, Throwable tr) {
+		if (Log.WARN >= sMinLevel) Log.w(tag, format(template, arg), tr);
+	}
+
+	// Error
+
+	public static void e(String tag, String message) {
+		if (Log.ERROR >= sMinLevel) Log.e(tag, message);
+	}
+
+	public static void e(String tag, String template, Object arg) {
+		if (Log.ERROR >= sMinLevel) Log.e(tag, format(template, arg));
+	}
+
+	public static void e(String tag, String message, Throwable tr) {
+		if (Log.ERROR >= sMinLevel) Log.e(tag, message, tr);
+	}
+
+	public static void e(String tag, String template, Object arg, Throwable tr) {
+		if (Log.ERROR >= sMinLevel) Log.e(tag, format(template, arg), tr);
+	}
+
+	// Formatting, only reached once the level check has passed.
+
+	static String format(String template, Object arg) {
+		StringBuilder sb = start();
+		int from = appendUntilPlaceholder(sb, template, 0);
+		sb.append(arg);
+		return finish(sb, template, from);
+	}
+
+	static String format(String template, long arg) {
+		StringBuilder sb = start();
+		int from = appendUntilPlaceholder(sb, template, 0);
+		sb.append(arg);
+		return finish(sb, template, from);
+	}
+
+	static String format(String template, double arg) {
+		StringBuilder sb = start();
+		int from = appendUntilPlaceholder(sb, template, 0);
+		sb.append(arg);
+		return finish(sb, template, from);
+	}
+
+	static String format(String template, boolean arg) {
+		StringBuilder sb = start();
+		int from = appendUntilPlaceholder(sb, template, 0);
+		sb.append(arg);
+		return finish(sb, template, from);
+	}
+
+	static String format(String template, Object arg1, Object arg2) {
+		StringBuilder sb = start();
+		int from = appendUntilPlaceholder(sb, template, 0);
+		sb.append(arg1);
+		from = appendUntilPlaceholder(sb, template, from);
+		sb.append(arg2);
+		return finish(sb, template, from);
+	}
+
+	static String format(String template, long arg1, long arg2) {
+		StringBuilder sb = start();
+		int from = appendUntilPlaceholder(sb, template, 0);
+		sb.append(arg1);
+		from = appendUntilPlaceholder(sb, template, from);
+		sb.append(arg2);
+		return finish(sb, template, from);
+	}
+
+	static String format(String template, long arg1, long arg2, long arg3) {
+		StringBuilder sb = start();
+		int from = appendUntilPlaceholder(sb, template, 0);
+		sb.append(arg1);
+		from = appendUntilPlaceholder(sb, template, from);
+		sb.append(arg2);
+		from = appendUntilPlaceholder(sb, template, from);
+		sb.append(arg3);
+		return finish(sb, template, from);
+	}
+
+	static String format(String template, Object... args) {
+		StringBuilder sb = start();
+		int from = 0;
+		for (Object arg : args) {
+			from = appendUntilPlaceholder(sb, template, from);
+			sb.append(arg);
+		}
+		return finish(sb, template, from);
+	}
+
+	private static StringBuilder start() {
+		StringBuilder sb = sBuilder.get();
+		sb.setLength(0);
+		return sb;
+	}
+
+	/**
+	 * Appends the template from an index up to the next placeholder.
+	 *
+	 * @return the index after the placeholder, or the template length when there is none left
+	 */
+	private static int appendUntilPlaceholder(StringBuilder sb, String template, int from) {
+		int index = template.indexOf("{}", from);
+		if (index < 0) {
+			// More arguments than placeholders; append the rest as before and the argument after a space.
+			sb.append(template, from, template.length()).append(' ');
+			return template.length();
+		}
+		sb.append(template, from, index);
+		return index + 2;
+	}
+
+	private static String finish(StringBuilder sb, String template, int from) {
+		sb.append(template, from, template.length());
+		return sb.toString();
+	}
+
+}
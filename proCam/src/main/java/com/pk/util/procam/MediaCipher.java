@@ -0,0 +1,174 @@
+package com.pk.util.procam;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Encrypts media at rest with AES in counter mode while it is written.
+ * <p>
+ * An encrypted file is a 4 byte magic, a random 16 byte IV and the ciphertext, which is as long as the
+ * plaintext. Counter mode needs no padding and block n is encrypted with the counter IV + n, so a file
+ * is encrypted as a stream and any position can be decrypted without reading what comes before, see
+ * {@link EncryptedFileInputStream}. Counter mode does not authenticate; it keeps the content secret
+ * but does not detect tampering.
+ * <p>
+ * The key is supplied by the app, e.g. from the Android keystore, and never stored by this class.
+ */
+public class MediaCipher {
+
+	/** The transformation. */
+	static final String TRANSFORMATION = "AES/CTR/NoPadding";
+
+	/** The magic at the start of every encrypted file. */
+	static final byte[] MAGIC = { 'P', 'C', 'E', '1' };
+
+	/** The size of the IV. */
+	static final int IV_SIZE = 16;
+
+	/** The size of the header before the ciphertext. */
+	public static final int HEADER_SIZE = 4 + IV_SIZE;
+
+	/** The AES block size. */
+	static final int BLOCK_SIZE = 16;
+
+	/** The m key. */
+	private final SecretKey mKey;
+
+	/** The m random IVs are drawn from. */
+	private final SecureRandom mRandom = new SecureRandom();
+
+	/**
+	 * Instantiates a new media cipher.
+	 *
+	 * @param key the AES key
+	 */
+	public MediaCipher(SecretKey key) {
+		if (!"AES".equalsIgnoreCase(key.getAlgorithm())) {
+			throw new IllegalArgumentException("Not an AES key: " + key.getAlgorithm());
+		}
+		mKey = key;
+	}
+
+	/**
+	 * Generates a new random AES key.
+	 *
+	 * @param bits the key size, 128 or 256
+	 * @return the key
+	 * @throws GeneralSecurityException if AES is not available
+	 */
+	public static SecretKey generateKey(int bits) throws GeneralSecurityException {
+		KeyGenerator generator = KeyGenerator.getInstance("AES");
+		generator.init(bits);
+		return generator.generateKey();
+	}
+
+	/**
+	 * Starts an encrypted file: writes the header to a stream and returns a stream that encrypts
+	 * into it. The returned stream must be closed to finish the file, which closes the given one.
+	 *
+	 * @param out the stream positioned at the start of the file
+	 * @return the encrypting stream
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public OutputStream encrypt(OutputStream out) throws IOException {
+		return startEncrypting(out);
+	}
+
+	/**
+	 * Same as {@link #encrypt(OutputStream)}, for callers that finish the cipher without closing.
+	 */
+	EncryptingOutputStream startEncrypting(OutputStream out) throws IOException {
+		byte[] iv = new byte[IV_SIZE];
+		mRandom.nextBytes(iv);
+		out.write(MAGIC);
+		out.write(iv);
+		return new EncryptingOutputStream(out, newCipher(iv, 0));
+	}
+
+	/**
+	 * Opens a file for reading, decrypting it if it is encrypted. Plain files are read as they are.
+	 *
+	 * @param file the file
+	 * @return the stream
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public InputStream open(File file) throws IOException {
+		if (isEncrypted(file)) {
+			return new EncryptedFileInputStream(this, file);
+		}
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+
+	/**
+	 * Checks whether a file starts with the header of an encrypted file.
+	 *
+	 * @param file the file
+	 * @return true, if encrypted
+	 */
+	public static boolean isEncrypted(File file) {
+		if (file.length() < HEADER_SIZE) {
+			return false;
+		}
+		try {
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				byte[] magic = new byte[MAGIC.length];
+				in.readFully(magic);
+				return Arrays.equals(MAGIC, magic);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates a cipher positioned at a block of a file.
+	 *
+	 * @param iv the IV of the file
+	 * @param block the index of the block
+	 * @return the cipher
+	 * @throws IOException if the cipher cannot be created
+	 */
+	Cipher newCipher(byte[] iv, long block) throws IOException {
+		try {
+			Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+			cipher.init(Cipher.ENCRYPT_MODE, mKey, new IvParameterSpec(counter(iv, block)));
+			return cipher;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Cipher not available: " + e);
+		}
+	}
+
+	/**
+	 * Adds a block index to a 128 bit big endian counter.
+	 *
+	 * @param iv the initial counter
+	 * @param block the block index
+	 * @return the counter of the block
+	 */
+	static byte[] counter(byte[] iv, long block) {
+		byte[] counter = iv.clone();
+		long carry = block;
+		for (int i = counter.length - 1; i >= 0 && carry != 0; i--) {
+			long sum = (counter[i] & 0xff) + (carry & 0xff);
+			counter[i] = (byte) sum;
+			carry = (carry >>> 8) + (sum >>> 8);
+		}
+		return counter;
+	}
+}
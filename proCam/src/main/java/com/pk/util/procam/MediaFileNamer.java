@@ -0,0 +1,168 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.Calendar;
+
+/**
+ * Hands out unique file names in one media directory, e.g. <code>PIC_20131002_142501_000.jpg</code>.
+ * <p>
+ * Names are the local time to the second followed by a sequence number within that second, so they
+ * sort in capture order and any number of captures per second get distinct names. The time string is
+ * only formatted again when the second changes. If the wall clock goes backwards the last second is kept
+ * and the sequence continues, so names never repeat or go back. The directory is created once and not
+ * checked again unless {@link #invalidateDirectory()} is called, e.g. after a write into it failed.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class MediaFileNamer {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The number of sequence digits. A second with more captures borrows the next second. */
+	static final int SEQUENCE_DIGITS = 3;
+
+	/** The number of names per second. */
+	private static final int SEQUENCE_LIMIT = 1000;
+
+	/** The directory. */
+	private final File mDirectory;
+
+	/** The file name prefix, e.g. "PIC_". */
+	private final String mPrefix;
+
+	/** The file name extension including the dot, e.g. ".jpg". */
+	private final String mExtension;
+
+	/** The clock. */
+	private final Clock mClock;
+
+	/** The calendar used to format the time, reused. */
+	private final Calendar mCalendar = Calendar.getInstance();
+
+	/** The name builder, reused. */
+	private final StringBuilder mBuilder = new StringBuilder(32);
+
+	/** The second of the last name. */
+	private long mSecond = Long.MIN_VALUE;
+
+	/** The formatted time of {@link #mSecond}, "yyyyMMdd_HHmmss". */
+	private String mTimestamp;
+
+	/** The sequence of the last name within {@link #mSecond}. */
+	private int mSequence;
+
+	/** Whether the directory is known to exist. */
+	private boolean mDirectoryReady;
+
+	/** Whether a name was already handed out. */
+	private boolean mStarted;
+
+	/**
+	 * Instantiates a new media file namer using the wall clock.
+	 *
+	 * @param directory the directory
+	 * @param prefix the file name prefix
+	 * @param extension the file name extension including the dot
+	 */
+	public MediaFileNamer(File directory, String prefix, String extension) {
+		this(directory, prefix, extension, Clock.WALL_CLOCK);
+	}
+
+	/**
+	 * Instantiates a new media file namer.
+	 *
+	 * @param directory the directory
+	 * @param prefix the file name prefix
+	 * @param extension the file name extension including the dot
+	 * @param clock the wall clock
+	 */
+	public MediaFileNamer(File directory, String prefix, String extension, Clock clock) {
+		mDirectory = directory;
+		mPrefix = prefix;
+		mExtension = extension;
+		mClock = clock;
+	}
+
+	/**
+	 * Gets the directory.
+	 *
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return mDirectory;
+	}
+
+	/**
+	 * Gets the next file, creating the directory first if needed.
+	 *
+	 * @return the file, or null if the directory cannot be created
+	 */
+	public synchronized File next() {
+		if (!mDirectoryReady) {
+			if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+				LogUtil.w(TAG, "next - unable to create {}", mDirectory);
+				return null;
+			}
+			mDirectoryReady = true;
+		}
+		File file = new File(mDirectory, nextName());
+		if (!mStarted) {
+			// Only the first name can clash with files of an earlier run in the same second.
+			while (file.exists()) {
+				file = new File(mDirectory, nextName());
+			}
+			mStarted = true;
+		}
+		return file;
+	}
+
+	/**
+	 * Makes the next call to {@link #next()} check and create the directory again.
+	 */
+	public synchronized void invalidateDirectory() {
+		mDirectoryReady = false;
+	}
+
+	/**
+	 * Gets the next name.
+	 *
+	 * @return the name
+	 */
+	synchronized String nextName() {
+		long second = mClock.now() / 1000;
+		if (second > mSecond) {
+			setSecond(second);
+		} else if (++mSequence >= SEQUENCE_LIMIT) {
+			setSecond(mSecond + 1);
+		}
+
+		StringBuilder sb = mBuilder;
+		sb.setLength(0);
+		sb.append(mPrefix).append(mTimestamp).append('_');
+		for (int limit = SEQUENCE_LIMIT / 10; limit > 1 && mSequence < limit; limit /= 10) {
+			sb.append('0');
+		}
+		sb.append(mSequence).append(mExtension);
+		return sb.toString();
+	}
+
+	private void setSecond(long second) {
+		mSecond = second;
+		mSequence = 0;
+		mCalendar.setTimeInMillis(second * 1000);
+		StringBuilder sb = mBuilder;
+		sb.setLength(0);
+		sb.append(mCalendar.get(Calendar.YEAR));
+		appendTwoDigits(sb, mCalendar.get(Calendar.MONTH) + 1);
+		appendTwoDigits(sb, mCalendar.get(Calendar.DAY_OF_MONTH));
+		sb.append('_');
+		appendTwoDigits(sb, mCalendar.get(Calendar.HOUR_OF_DAY));
+		appendTwoDigits(sb, mCalendar.get(Calendar.MINUTE));
+		appendTwoDigits(sb, mCalendar.get(Calendar.SECOND));
+		mTimestamp = sb.toString();
+	}
+
+	private static void appendTwoDigits(StringBuilder sb, int value) {
+		sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+	}
+}
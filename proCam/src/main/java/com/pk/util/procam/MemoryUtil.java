@@ -1,49 +1,51 @@
-package com.pk.util.procam;
-
-import java.io.File;
-
-import android.os.Environment;
-import android.os.StatFs;
-import android.util.Log;
-
-public class MemoryUtil {
-
-	public static boolean isExternalStorageAvailable() {
-		return isSufficientMemoryAvailable();
-	}
-	
-	public static boolean isExternalStorageMounted() {
-		String state = android.os.Environment.getExternalStorageState();
-		Log.i("MemoryUtil", "isExternalStorageAvailable - state: "+state);
-		if (!state.equals(android.os.Environment.MEDIA_MOUNTED)
-				|| state.equals(android.os.Environment.MEDIA_MOUNTED_READ_ONLY)) {
-			return false;
-		}
-
-		return true;
-	}
-	
-	private static final int MINIMUM_SD_CARD_MEMORY = 50;	// in megabytes
-	public static boolean isSufficientMemoryAvailable() {
-		if (isExternalStorageMounted()) {
-            File path = Environment.getExternalStorageDirectory();
-            StatFs stat = new StatFs(path.getPath());
-            long blockSize = stat.getBlockSize();
-            long availableBlocks = stat.getAvailableBlocks();
-
-            long availableMemInBytes = availableBlocks * blockSize;
-            int availableMemInMB = (int) (availableMemInBytes / (1024 * 1024)); 	// Available memory is in bytes
-
-            Log.i("MemoryUtil", "isSufficientMemoryAvailable - availableMemInBytes: "+availableMemInBytes+" availableMemInMB: "+availableMemInMB);
-            
-            if (availableMemInMB < MINIMUM_SD_CARD_MEMORY) {
-            	return false;
-            } else {
-            	return true;
-            }
-        }
-		
-		return false;
-	}
-	
-}
+package com.pk.util.procam;
+
+import android.os.Environment;
+
+public class MemoryUtil {
+
+	public static boolean isExternalStorageAvailable() {
+		return isSufficientMemoryAvailable();
+	}
+	
+	public static boolean isExternalStorageMounted() {
+		String state = android.os.Environment.getExternalStorageState();
+		LogUtil.i("MemoryUtil", "isExternalStorageAvailable - state: {}", state);
+		if (!state.equals(android.os.Environment.MEDIA_MOUNTED)
+				|| state.equals(android.os.Environment.MEDIA_MOUNTED_READ_ONLY)) {
+			return false;
+		}
+
+		return true;
+	}
+	
+	private static final int MINIMUM_SD_CARD_MEMORY = 50;	// in megabytes
+	
+	private static StorageBudgetManager sStorageBudgetManager;
+	
+	/**
+	 * Gets the storage budget manager of the external storage, which tracks free space without
+	 * asking the file system on every call and enforces the quotas of capture directories.
+	 *
+	 * @return the storage budget manager
+	 */
+	public static synchronized StorageBudgetManager getStorageBudgetManager() {
+		if (sStorageBudgetManager == null) {
+			sStorageBudgetManager = new StorageBudgetManager(Environment.getExternalStorageDirectory())
+					.setMinFreeBytes(MINIMUM_SD_CARD_MEMORY * 1024L * 1024L);
+		}
+		return sStorageBudgetManager;
+	}
+	
+	public static boolean isSufficientMemoryAvailable() {
+		if (isExternalStorageMounted()) {
+			StorageBudgetManager manager = getStorageBudgetManager();
+			long availableMemInBytes = manager.getAvailableBytes();
+			LogUtil.d("MemoryUtil", "isSufficientMemoryAvailable - availableMemInBytes: {} minFreeBytes: {}", availableMemInBytes, manager.getMinFreeBytes());
+			return availableMemInBytes >= manager.getMinFreeBytes();
+		}
+		
+		return false;
+	}
+	
+}
@@ -0,0 +1,168 @@
+package com.pk.util.procam;
+
+/**
+ * What pictures should come out of the camera: their size, shape, JPEG quality and embedded thumbnail.
+ * The camera is configured so its own pipeline produces them, which is far cheaper than taking the
+ * full sensor and scaling down afterwards. Set on the handler with
+ * {@link CameraHandler#setOutputSpec(OutputSpec)}.
+ * <p>
+ * E.g. for pictures only ever shown at 1280x720:
+ * <code>new OutputSpec().setMegapixels(1.0).setAspectRatio(16.0 / 9).setThumbnailSize(320, 180)</code>
+ */
+public class OutputSpec {
+
+	/** The JPEG quality the handler has always used. */
+	public static final int DEFAULT_JPEG_QUALITY = 100;
+
+	/** The default quality of the embedded thumbnail. */
+	public static final int DEFAULT_THUMBNAIL_QUALITY = 75;
+
+	/** The target megapixels, 0 for the largest the camera takes. */
+	private double megapixels;
+
+	/** The aspect ratio, 0 to derive it. */
+	private double aspectRatio;
+
+	/** The JPEG quality. */
+	private int jpegQuality = DEFAULT_JPEG_QUALITY;
+
+	/** The thumbnail width and height, -1 to leave the camera default. */
+	private int thumbnailWidth = -1, thumbnailHeight = -1;
+
+	/** The thumbnail quality. */
+	private int thumbnailQuality = DEFAULT_THUMBNAIL_QUALITY;
+
+	/**
+	 * Sets the most megapixels a picture may have. The largest supported picture within that is taken.
+	 *
+	 * @param megapixels the megapixels, 0 for the largest the camera takes (the default)
+	 * @return the output spec
+	 */
+	public OutputSpec setMegapixels(double megapixels) {
+		this.megapixels = megapixels;
+		return this;
+	}
+
+	/**
+	 * Sets the aspect ratio of pictures, e.g. 4.0 / 3 for the full sensor.
+	 *
+	 * @param aspectRatio the aspect ratio, long side over short side, 0 to follow the video size or surface (the default)
+	 * @return the output spec
+	 */
+	public OutputSpec setAspectRatio(double aspectRatio) {
+		this.aspectRatio = aspectRatio;
+		return this;
+	}
+
+	/**
+	 * Sets the JPEG quality of pictures.
+	 *
+	 * @param jpegQuality the quality, 1 to 100. Defaults to {@link #DEFAULT_JPEG_QUALITY}.
+	 * @return the output spec
+	 */
+	public OutputSpec setJpegQuality(int jpegQuality) {
+		this.jpegQuality = clampQuality(jpegQuality);
+		return this;
+	}
+
+	/**
+	 * Sets the size of the thumbnail the camera embeds in the EXIF data of each picture. The closest
+	 * supported size of the picture's shape is used.
+	 *
+	 * @param width the width, 0 with a 0 height for no thumbnail
+	 * @param height the height
+	 * @return the output spec
+	 */
+	public OutputSpec setThumbnailSize(int width, int height) {
+		this.thumbnailWidth = Math.max(0, width);
+		this.thumbnailHeight = Math.max(0, height);
+		return this;
+	}
+
+	/**
+	 * Sets the JPEG quality of the embedded thumbnail.
+	 *
+	 * @param thumbnailQuality the quality, 1 to 100. Defaults to {@link #DEFAULT_THUMBNAIL_QUALITY}.
+	 * @return the output spec
+	 */
+	public OutputSpec setThumbnailQuality(int thumbnailQuality) {
+		this.thumbnailQuality = clampQuality(thumbnailQuality);
+		return this;
+	}
+
+	/**
+	 * Gets the most pixels a picture may have.
+	 *
+	 * @return the max pixels, 0 for no limit
+	 */
+	public long getMaxPixels() {
+		return megapixels > 0 ? Math.max(1, Math.round(megapixels * 1000000)) : 0;
+	}
+
+	/**
+	 * Gets the megapixels.
+	 *
+	 * @return the megapixels, 0 for no limit
+	 */
+	public double getMegapixels() {
+		return megapixels;
+	}
+
+	/**
+	 * Gets the aspect ratio.
+	 *
+	 * @return the aspect ratio, 0 if derived
+	 */
+	public double getAspectRatio() {
+		return aspectRatio;
+	}
+
+	/**
+	 * Gets the JPEG quality.
+	 *
+	 * @return the JPEG quality
+	 */
+	public int getJpegQuality() {
+		return jpegQuality;
+	}
+
+	/**
+	 * Checks whether a thumbnail size has been set.
+	 *
+	 * @return true, if set
+	 */
+	public boolean hasThumbnailSize() {
+		return thumbnailWidth >= 0 && thumbnailHeight >= 0;
+	}
+
+	/**
+	 * Gets the thumbnail width.
+	 *
+	 * @return the thumbnail width, -1 if not set
+	 */
+	public int getThumbnailWidth() {
+		return thumbnailWidth;
+	}
+
+	/**
+	 * Gets the thumbnail height.
+	 *
+	 * @return the thumbnail height, -1 if not set
+	 */
+	public int getThumbnailHeight() {
+		return thumbnailHeight;
+	}
+
+	/**
+	 * Gets the thumbnail quality.
+	 *
+	 * @return the thumbnail quality
+	 */
+	public int getThumbnailQuality() {
+		return thumbnailQuality;
+	}
+
+	private static int clampQuality(int quality) {
+		return Math.max(1, Math.min(100, quality));
+	}
+}
@@ -0,0 +1,44 @@
+package com.pk.util.procam;
+
+/**
+ * The events recorded in the {@link PerfEventLog}. The ordinal is written to the
+ * log, so new events must only ever be added at the end.
+ */
+public enum PerfEvent {
+
+	/** The log was opened. value1: wall clock time in milliseconds. */
+	SESSION_START,
+
+	/** The camera was opened. value1: time taken in microseconds, value2: camera id. */
+	CAMERA_OPEN,
+
+	/** The camera was released. */
+	CAMERA_RELEASE,
+
+	/** The preview was started. value1: time taken in microseconds. */
+	PREVIEW_START,
+
+	/** The camera delivered a picture. value1: JPEG size in bytes, value2: capture id. */
+	CAPTURE,
+
+	/** A picture was saved. value1: size in bytes, value2: time taken in microseconds. */
+	SAVE,
+
+	/** Video recording started. value1: start latency in microseconds. */
+	RECORD_START,
+
+	/** Video recording stopped. value1: recording duration in milliseconds. */
+	RECORD_STOP,
+
+	/** An operation failed. value1: ordinal of the event of the failed operation. */
+	ERROR,
+
+	/** A capture was ready to be taken. value1: time waited for focus in microseconds, value2: time saved against a full focus sweep in microseconds. */
+	FOCUS,
+
+	/** An interval shot delivered its picture. value1: time from taking it in microseconds, value2: the locks held, see {@link CameraHandler#getSessionLocks()}. */
+	SESSION_FRAME,
+
+	/** A stacked picture was merged. value1: time from the request in microseconds, value2: frames merged. */
+	STACK
+}
@@ -0,0 +1,196 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Records camera lifecycle and capture events into a memory mapped ring file, for
+ * post-mortem timing analysis on devices where logcat is not available.
+ *
+ * The file starts with a HEADER_SIZE byte header followed by a fixed number of
+ * RECORD_SIZE byte records. Once the ring is full the oldest records are
+ * overwritten. Writing a record is a handful of absolute puts into the mapped
+ * buffer, with no allocation and no lock, and the kernel flushes the pages even
+ * if the process dies. Use {@link PerfEventLogDecoder} to turn a log into CSV or JSON.
+ *
+ * Record layout, little endian:
+ * <pre>
+ * 0  int   sequence, starting at 1; 0 marks an empty or half written slot
+ * 4  short event ordinal
+ * 6  short reserved
+ * 8  long  System#nanoTime()
+ * 16 long  System#currentTimeMillis()
+ * 24 long  value1
+ * 32 long  value2
+ * </pre>
+ */
+public enum PerfEventLog {
+
+	INSTANCE;
+
+	private final String TAG = "PerfEventLog";
+
+	/** Identifies a log file. */
+	static final int MAGIC = 0x50434556;		// "PCEV"
+
+	/** The format version. */
+	static final int VERSION = 1;
+
+	/** The size of the header. */
+	static final int HEADER_SIZE = 16;
+
+	/** The size of a record. */
+	static final int RECORD_SIZE = 40;
+
+	/** The default number of records of a log. */
+	public static final int DEFAULT_CAPACITY = 16 * 1024;
+
+	/** The mapped file, null when the log is closed. */
+	private volatile MappedByteBuffer mBuffer;
+
+	/** The file. */
+	private RandomAccessFile mFile;
+
+	/** The number of records of the ring. */
+	private int mCapacity;
+
+	/** The last sequence number handed out. */
+	private final AtomicLong mSequence = new AtomicLong();
+
+	/**
+	 * Opens a log file, creating it if needed, and continues after its last record.
+	 * An existing file with another capacity or format is started over.
+	 *
+	 * @param file the file
+	 * @param capacity the number of records to keep
+	 * @throws IOException Signals that the file could not be mapped.
+	 */
+	public synchronized void open(File file, int capacity) throws IOException {
+		close();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+		MappedByteBuffer buffer;
+		try {
+			boolean compatible = raf.length() == size && readHeader(raf, capacity);
+			if (!compatible) {
+				raf.setLength(0);
+				raf.setLength(size);
+			}
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (!compatible) {
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, VERSION);
+				buffer.putInt(8, RECORD_SIZE);
+				buffer.putInt(12, capacity);
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+
+		mFile = raf;
+		mCapacity = capacity;
+		mSequence.set(findLastSequence(buffer, capacity));
+		mBuffer = buffer;
+		record(PerfEvent.SESSION_START, System.currentTimeMillis(), 0);
+		LogUtil.i(TAG, "open - file: {} lastSequence: {}", file, mSequence.get());
+	}
+
+	/**
+	 * Closes the log. Events recorded while closed are ignored.
+	 */
+	public synchronized void close() {
+		if (mBuffer == null) {
+			return;
+		}
+		mBuffer.force();
+		mBuffer = null;
+		try {
+			mFile.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		mFile = null;
+	}
+
+	/**
+	 * Checks if the log is open.
+	 *
+	 * @return true, if open
+	 */
+	public boolean isOpen() {
+		return mBuffer != null;
+	}
+
+	/**
+	 * Records an event.
+	 *
+	 * @param event the event
+	 * @param value1 the first value, see {@link PerfEvent}
+	 * @param value2 the second value, see {@link PerfEvent}
+	 */
+	public void record(PerfEvent event, long value1, long value2) {
+		MappedByteBuffer buffer = mBuffer;
+		if (buffer == null) {
+			return;
+		}
+		long sequence = mSequence.incrementAndGet();
+		int offset = HEADER_SIZE + (int) ((sequence - 1) % mCapacity) * RECORD_SIZE;
+		// Clear the sequence first so that a reader never pairs it with half written data.
+		buffer.putInt(offset, 0);
+		buffer.putShort(offset + 4, (short) event.ordinal());
+		buffer.putShort(offset + 6, (short) 0);
+		buffer.putLong(offset + 8, System.nanoTime());
+		buffer.putLong(offset + 16, System.currentTimeMillis());
+		buffer.putLong(offset + 24, value1);
+		buffer.putLong(offset + 32, value2);
+		buffer.putInt(offset, (int) sequence);
+	}
+
+	/**
+	 * Records an event without values.
+	 *
+	 * @param event the event
+	 */
+	public void record(PerfEvent event) {
+		record(event, 0, 0);
+	}
+
+	/**
+	 * Records the failure of an operation.
+	 *
+	 * @param failedEvent the event of the operation which failed
+	 */
+	public void recordError(PerfEvent failedEvent) {
+		record(PerfEvent.ERROR, failedEvent.ordinal(), 0);
+	}
+
+	/**
+	 * Checks that the header of an existing file matches this format and capacity.
+	 */
+	private static boolean readHeader(RandomAccessFile raf, int capacity) throws IOException {
+		raf.seek(0);
+		return Integer.reverseBytes(raf.readInt()) == MAGIC
+				&& Integer.reverseBytes(raf.readInt()) == VERSION
+				&& Integer.reverseBytes(raf.readInt()) == RECORD_SIZE
+				&& Integer.reverseBytes(raf.readInt()) == capacity;
+	}
+
+	/**
+	 * Finds the sequence number of the newest record.
+	 */
+	private static long findLastSequence(MappedByteBuffer buffer, int capacity) {
+		long last = 0;
+		for (int i = 0; i < capacity; i++) {
+			last = Math.max(last, buffer.getInt(HEADER_SIZE + i * RECORD_SIZE) & 0xffffffffL);
+		}
+		return last;
+	}
+}
@@ -0,0 +1,205 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads a {@link PerfEventLog} file back, oldest record first, and converts it to
+ * CSV or JSON, or sums it up per event. Plain Java, so it also runs on a desktop JVM
+ * against a log pulled from a device:
+ * <pre>
+ * java -cp procam-classes com.pk.util.procam.PerfEventLogDecoder perf.log [csv|json|summary]
+ * </pre>
+ * The summary gives the mean value1 of each event, e.g. the bytes written per
+ * picture from the SAVE records.
+ */
+public class PerfEventLogDecoder {
+
+	/**
+	 * A decoded record.
+	 */
+	public static class Record {
+
+		/** The sequence. */
+		public final long sequence;
+
+		/** The event, null if the log was written by a newer version with unknown events. */
+		public final PerfEvent event;
+
+		/** The raw event ordinal. */
+		public final int eventOrdinal;
+
+		/** The System#nanoTime() of the event. */
+		public final long nanoTime;
+
+		/** The wall clock time of the event in milliseconds. */
+		public final long wallTimeMs;
+
+		/** The value1. */
+		public final long value1;
+
+		/** The value2. */
+		public final long value2;
+
+		Record(long sequence, int eventOrdinal, long nanoTime, long wallTimeMs, long value1, long value2) {
+			PerfEvent[] events = PerfEvent.values();
+			this.sequence = sequence;
+			this.eventOrdinal = eventOrdinal;
+			this.event = eventOrdinal >= 0 && eventOrdinal < events.length ? events[eventOrdinal] : null;
+			this.nanoTime = nanoTime;
+			this.wallTimeMs = wallTimeMs;
+			this.value1 = value1;
+			this.value2 = value2;
+		}
+
+		/**
+		 * Gets the event name.
+		 *
+		 * @return the event name
+		 */
+		public String getEventName() {
+			return event != null ? event.name() : "EVENT_" + eventOrdinal;
+		}
+	}
+
+	private PerfEventLogDecoder() {
+	}
+
+	/**
+	 * Decodes a log file.
+	 *
+	 * @param file the file
+	 * @return the records, oldest first
+	 * @throws IOException Signals that the file could not be read or is not a log.
+	 */
+	public static List<Record> decode(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ByteBuffer buffer;
+		try {
+			buffer = ByteBuffer.allocate((int) raf.length());
+			raf.getChannel().read(buffer, 0);
+		} finally {
+			raf.close();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.capacity() < PerfEventLog.HEADER_SIZE || buffer.getInt(0) != PerfEventLog.MAGIC) {
+			throw new IOException("Not a perf event log: "+file);
+		}
+		if (buffer.getInt(4) != PerfEventLog.VERSION) {
+			throw new IOException("Unsupported version "+buffer.getInt(4)+": "+file);
+		}
+		int recordSize = buffer.getInt(8);
+		int capacity = buffer.getInt(12);
+
+		List<Record> records = new ArrayList<Record>();
+		for (int i = 0; i < capacity; i++) {
+			int offset = PerfEventLog.HEADER_SIZE + i * recordSize;
+			if (offset + recordSize > buffer.capacity()) {
+				break;
+			}
+			long sequence = buffer.getInt(offset) & 0xffffffffL;
+			if (sequence == 0) {
+				continue;
+			}
+			records.add(new Record(sequence, buffer.getShort(offset + 4), buffer.getLong(offset + 8),
+					buffer.getLong(offset + 16), buffer.getLong(offset + 24), buffer.getLong(offset + 32)));
+		}
+		Collections.sort(records, new Comparator<Record>() {
+			@Override
+			public int compare(Record lhs, Record rhs) {
+				return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence > rhs.sequence ? 1 : 0);
+			}
+		});
+		return records;
+	}
+
+	/**
+	 * Writes records as CSV with a header line.
+	 *
+	 * @param records the records
+	 * @param out the output
+	 */
+	public static void writeCsv(List<Record> records, PrintStream out) {
+		out.println("sequence,event,nano_time,wall_time_ms,value1,value2");
+		for (Record record : records) {
+			out.println(record.sequence+","+record.getEventName()+","+record.nanoTime+","+record.wallTimeMs
+					+","+record.value1+","+record.value2);
+		}
+	}
+
+	/**
+	 * Writes records as a JSON array.
+	 *
+	 * @param records the records
+	 * @param out the output
+	 */
+	public static void writeJson(List<Record> records, PrintStream out) {
+		out.println("[");
+		for (int i = 0; i < records.size(); i++) {
+			Record record = records.get(i);
+			out.print("  {\"sequence\": "+record.sequence+", \"event\": \""+record.getEventName()
+					+"\", \"nanoTime\": "+record.nanoTime+", \"wallTimeMs\": "+record.wallTimeMs
+					+", \"value1\": "+record.value1+", \"value2\": "+record.value2+"}");
+			out.println(i < records.size() - 1 ? "," : "");
+		}
+		out.println("]");
+	}
+
+	/**
+	 * Writes the count, mean and total of value1 for each event that occurs, as CSV
+	 * with a header line. Errors are counted but have no meaningful value1.
+	 *
+	 * @param records the records
+	 * @param out the output
+	 */
+	public static void writeSummary(List<Record> records, PrintStream out) {
+		Map<String, long[]> totals = new TreeMap<String, long[]>();
+		for (Record record : records) {
+			long[] total = totals.get(record.getEventName());
+			if (total == null) {
+				total = new long[2];
+				totals.put(record.getEventName(), total);
+			}
+			total[0]++;
+			total[1] += record.value1;
+		}
+		out.println("event,count,mean_value1,total_value1");
+		for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+			long[] total = entry.getValue();
+			out.println(entry.getKey()+","+total[0]+","+(total[1] / total[0])+","+total[1]);
+		}
+	}
+
+	/**
+	 * Decodes the log given as first argument to standard output, as CSV unless the
+	 * second argument is "json" or "summary".
+	 *
+	 * @param args the arguments
+	 * @throws IOException Signals that the log could not be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: PerfEventLogDecoder <log file> [csv|json|summary]");
+			System.exit(2);
+		}
+		List<Record> records = decode(new File(args[0]));
+		if (args.length > 1 && args[1].equalsIgnoreCase("json")) {
+			writeJson(records, System.out);
+		} else if (args.length > 1 && args[1].equalsIgnoreCase("summary")) {
+			writeSummary(records, System.out);
+		} else {
+			writeCsv(records, System.out);
+		}
+	}
+}
@@ -0,0 +1,492 @@
+package com.pk.util.procam;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+
+/**
+ * Dashcam style recorder. While running, the camera preview frames are encoded to
+ * H.264 and the last few seconds of encoded video are kept in an
+ * {@link EncodedSampleRingBuffer}. When triggered, the buffered footage and the
+ * footage of the following seconds are written to a single MP4 file.
+ *
+ * Memory use is bounded by the byte budget: the ring buffer and the frame
+ * conversion buffers are allocated once when the recorder starts. Video only,
+ * no audio track is recorded.
+ *
+ * Requires API level 18 (MediaMuxer). All methods and the camera preview callback
+ * must run on the thread the camera was opened on.
+ */
+@TargetApi(18)
+public class PreEventRecorder implements Camera.PreviewCallback {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The minimum API level. */
+	public static final int MIN_API_LEVEL = 18;
+
+	/** The mime type of the encoded video. */
+	private static final String MIME_TYPE = "video/avc";
+
+	/** The interval between key frames. Short, so that the pre-event clip can start close to the limit. */
+	private static final int I_FRAME_INTERVAL_SECONDS = 1;
+
+	/** The number of preview buffers cycled through the camera. */
+	private static final int PREVIEW_BUFFER_COUNT = 3;
+
+	/**
+	 * Receives the result of a trigger.
+	 */
+	public interface Callback {
+
+		/**
+		 * On clip saved.
+		 *
+		 * @param fullFilePath the full file path
+		 */
+		public void onPreEventClipSaved(String fullFilePath);
+
+		/**
+		 * On clip failed.
+		 *
+		 * @param fullFilePath the full file path of the clip that could not be written
+		 */
+		public void onPreEventClipFailed(String fullFilePath);
+	}
+
+	/** The camera. */
+	private final Camera mCamera;
+
+	/** The video width. */
+	private int mWidth = 1280;
+
+	/** The video height. */
+	private int mHeight = 720;
+
+	/** The frame rate. */
+	private int mFrameRate = 30;
+
+	/** The bit rate. */
+	private int mBitRate = 4 * 1024 * 1024;
+
+	/** The pre event duration ms. */
+	private int mPreEventDurationMs = 10 * 1000;
+
+	/** The byte budget of the buffered video. */
+	private int mByteBudget = 8 * 1024 * 1024;
+
+	/** The orientation hint. */
+	private int mOrientationHint = 0;
+
+	/** The encoder. */
+	private MediaCodec mEncoder;
+
+	/** The encoder input color format. */
+	private int mColorFormat;
+
+	/** The encoded samples of the last seconds. */
+	private EncodedSampleRingBuffer mRingBuffer;
+
+	/** The output format of the encoder, known once the encoder has produced its first output. */
+	private MediaFormat mOutputFormat;
+
+	/** The frame converted to the encoder color format. */
+	private byte[] mConvertedFrame;
+
+	/** The time the first frame was queued at, presentation times are relative to it. */
+	private long mFirstFrameTimeNs = -1;
+
+	/** The buffer info reused for every output buffer. */
+	private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+	/** The muxer of the clip being written, null when not triggered. */
+	private MediaMuxer mMuxer;
+
+	/** The muxer track. */
+	private int mTrack;
+
+	/** The path of the clip being written. */
+	private String mClipPath;
+
+	/** The presentation time at which the clip being written ends. */
+	private long mClipEndTimeUs;
+
+	/** The callback of the clip being written. */
+	private Callback mClipCallback;
+
+	/** Writes ring buffer samples to the muxer without allocating. */
+	private final MuxerSink mMuxerSink = new MuxerSink();
+
+	/**
+	 * Checks if the device supports pre-event recording.
+	 *
+	 * @return true, if supported
+	 */
+	public static boolean isSupported() {
+		return Build.VERSION.SDK_INT >= MIN_API_LEVEL;
+	}
+
+	/**
+	 * Instantiates a new pre event recorder.
+	 *
+	 * @param camera the camera, with the preview running or about to be started
+	 */
+	public PreEventRecorder(Camera camera) {
+		mCamera = camera;
+	}
+
+	/**
+	 * Sets the video size. Must be a supported preview size.
+	 *
+	 * @param width the width
+	 * @param height the height
+	 * @return the pre event recorder
+	 */
+	public PreEventRecorder setVideoSize(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		return this;
+	}
+
+	/**
+	 * Sets the frame rate.
+	 *
+	 * @param frameRate the frame rate
+	 * @return the pre event recorder
+	 */
+	public PreEventRecorder setFrameRate(int frameRate) {
+		mFrameRate = frameRate;
+		return this;
+	}
+
+	/**
+	 * Sets the bit rate.
+	 *
+	 * @param bitRate the bit rate
+	 * @return the pre event recorder
+	 */
+	public PreEventRecorder setBitRate(int bitRate) {
+		mBitRate = bitRate;
+		return this;
+	}
+
+	/**
+	 * Sets how much video before the trigger is kept.
+	 *
+	 * @param preEventDurationMs the pre event duration ms
+	 * @return the pre event recorder
+	 */
+	public PreEventRecorder setPreEventDurationMs(int preEventDurationMs) {
+		mPreEventDurationMs = preEventDurationMs;
+		return this;
+	}
+
+	/**
+	 * Sets the max number of bytes of encoded video kept in memory. When the budget
+	 * is too small for the pre event duration at the chosen bit rate, the clip
+	 * covers less time.
+	 *
+	 * @param byteBudget the byte budget
+	 * @return the pre event recorder
+	 */
+	public PreEventRecorder setByteBudget(int byteBudget) {
+		mByteBudget = byteBudget;
+		return this;
+	}
+
+	/**
+	 * Sets the orientation hint written to the clips.
+	 *
+	 * @param degrees the degrees
+	 * @return the pre event recorder
+	 */
+	public PreEventRecorder setOrientationHint(int degrees) {
+		mOrientationHint = degrees;
+		return this;
+	}
+
+	/**
+	 * Starts encoding the preview frames into the buffer.
+	 *
+	 * @throws IOException Signals that the encoder could not be created.
+	 */
+	public void start() throws IOException {
+		MediaCodecInfo codecInfo = selectEncoder();
+		if (codecInfo == null) {
+			throw new IOException("No "+MIME_TYPE+" encoder available");
+		}
+		mColorFormat = selectColorFormat(codecInfo);
+		if (mColorFormat == 0) {
+			throw new IOException("No supported color format for "+codecInfo.getName());
+		}
+
+		MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, mWidth, mHeight);
+		format.setInteger(MediaFormat.KEY_COLOR_FORMAT, mColorFormat);
+		format.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+		format.setInteger(MediaFormat.KEY_FRAME_RATE, mFrameRate);
+		format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+		mEncoder = MediaCodec.createByCodecName(codecInfo.getName());
+		mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+		mEncoder.start();
+
+		// Enough sample slots for the pre event duration, with headroom for frame rate jitter.
+		int maxSamples = Math.max(1, mPreEventDurationMs * mFrameRate / 1000 * 2);
+		mRingBuffer = new EncodedSampleRingBuffer(mByteBudget, maxSamples);
+		int frameSize = mWidth * mHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+		mConvertedFrame = new byte[frameSize];
+		mFirstFrameTimeNs = -1;
+
+		Camera.Parameters params = mCamera.getParameters();
+		params.setPreviewSize(mWidth, mHeight);
+		params.setPreviewFormat(ImageFormat.NV21);
+		mCamera.setParameters(params);
+		for (int i = 0; i < PREVIEW_BUFFER_COUNT; i++) {
+			mCamera.addCallbackBuffer(new byte[frameSize]);
+		}
+		mCamera.setPreviewCallbackWithBuffer(this);
+		LogUtil.i(TAG, "start - encoder: {} colorFormat: {} byteBudget: {}", codecInfo.getName(), mColorFormat, mByteBudget);
+	}
+
+	/**
+	 * Stops recording. A clip being written is finished with the footage encoded so far.
+	 */
+	public void stop() {
+		mCamera.setPreviewCallbackWithBuffer(null);
+		if (mMuxer != null) {
+			finishClip();
+		}
+		if (mEncoder != null) {
+			try {
+				mEncoder.stop();
+			} catch (IllegalStateException e) {
+				e.printStackTrace();
+			}
+			mEncoder.release();
+			mEncoder = null;
+		}
+		mRingBuffer = null;
+		mConvertedFrame = null;
+	}
+
+	/**
+	 * Writes the buffered footage and the footage of the next postEventMs to a file.
+	 * Ignored if a clip is already being written.
+	 *
+	 * @param fullFilePath the full file path of the clip
+	 * @param postEventMs how long to keep recording after the trigger
+	 * @param callback the callback
+	 * @return true, if the clip was started
+	 */
+	public boolean trigger(String fullFilePath, int postEventMs, Callback callback) {
+		if (mMuxer != null || mOutputFormat == null) {
+			LogUtil.i(TAG, "trigger - ignored, writing: {} encoderReady: {}", (mMuxer != null), (mOutputFormat != null));
+			return false;
+		}
+		try {
+			mMuxer = new MediaMuxer(fullFilePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+		} catch (IOException e) {
+			e.printStackTrace();
+			callback.onPreEventClipFailed(fullFilePath);
+			return false;
+		}
+		mMuxer.setOrientationHint(mOrientationHint);
+		mTrack = mMuxer.addTrack(mOutputFormat);
+		mMuxer.start();
+		mClipPath = fullFilePath;
+		mClipCallback = callback;
+		mClipEndTimeUs = getPresentationTimeUs(System.nanoTime()) + postEventMs * 1000L;
+
+		int samples = mRingBuffer.drainTo(mMuxerSink);
+		LogUtil.i(TAG, "trigger - pre event samples written: {}", samples);
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see android.hardware.Camera.PreviewCallback#onPreviewFrame(byte[], android.hardware.Camera)
+	 */
+	@Override
+	public void onPreviewFrame(byte[] data, Camera camera) {
+		if (mEncoder == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		if (mFirstFrameTimeNs < 0) {
+			mFirstFrameTimeNs = now;
+		}
+
+		int inputIndex = mEncoder.dequeueInputBuffer(0);
+		if (inputIndex >= 0) {
+			convertNv21(data, mConvertedFrame);
+			ByteBuffer input = mEncoder.getInputBuffers()[inputIndex];
+			input.clear();
+			input.put(mConvertedFrame);
+			mEncoder.queueInputBuffer(inputIndex, 0, mConvertedFrame.length, getPresentationTimeUs(now), 0);
+		}
+		camera.addCallbackBuffer(data);
+		drainEncoder();
+	}
+
+	/**
+	 * Moves the encoded output into the ring buffer, or into the clip being written.
+	 */
+	private void drainEncoder() {
+		while (true) {
+			int outputIndex = mEncoder.dequeueOutputBuffer(mBufferInfo, 0);
+			if (outputIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+				return;
+			} else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+				mOutputFormat = mEncoder.getOutputFormat();
+			} else if (outputIndex >= 0) {
+				ByteBuffer output = mEncoder.getOutputBuffers()[outputIndex];
+				if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && mBufferInfo.size > 0) {
+					output.position(mBufferInfo.offset);
+					output.limit(mBufferInfo.offset + mBufferInfo.size);
+					if (mMuxer != null) {
+						mMuxer.writeSampleData(mTrack, output, mBufferInfo);
+					} else {
+						mRingBuffer.add(output, mBufferInfo.size, mBufferInfo.presentationTimeUs, mBufferInfo.flags);
+						mRingBuffer.evictOlderThan(mBufferInfo.presentationTimeUs - mPreEventDurationMs * 1000L);
+					}
+				}
+				long presentationTimeUs = mBufferInfo.presentationTimeUs;
+				mEncoder.releaseOutputBuffer(outputIndex, false);
+				if (mMuxer != null && presentationTimeUs >= mClipEndTimeUs) {
+					finishClip();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finishes the clip being written.
+	 */
+	private void finishClip() {
+		String path = mClipPath;
+		Callback callback = mClipCallback;
+		boolean success = true;
+		try {
+			mMuxer.stop();
+		} catch (IllegalStateException e) {
+			e.printStackTrace();
+			success = false;
+		}
+		mMuxer.release();
+		mMuxer = null;
+		mClipPath = null;
+		mClipCallback = null;
+		LogUtil.i(TAG, "finishClip - path: {} success: {}", path, success);
+
+		if (callback != null) {
+			if (success) {
+				callback.onPreEventClipSaved(path);
+			} else {
+				callback.onPreEventClipFailed(path);
+			}
+		}
+	}
+
+	/**
+	 * Gets the presentation time of a frame.
+	 *
+	 * @param timeNs the time of the frame from System#nanoTime()
+	 * @return the presentation time in microseconds
+	 */
+	private long getPresentationTimeUs(long timeNs) {
+		return (timeNs - mFirstFrameTimeNs) / 1000;
+	}
+
+	/**
+	 * Converts an NV21 preview frame to the encoder color format.
+	 *
+	 * @param nv21 the frame
+	 * @param out the converted frame
+	 */
+	private void convertNv21(byte[] nv21, byte[] out) {
+		int lumaSize = mWidth * mHeight;
+		System.arraycopy(nv21, 0, out, 0, lumaSize);
+		int chromaSize = lumaSize / 4;
+		if (mColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+			// NV12: interleaved U then V, where NV21 has V then U.
+			for (int i = 0; i < chromaSize; i++) {
+				out[lumaSize + 2 * i] = nv21[lumaSize + 2 * i + 1];
+				out[lumaSize + 2 * i + 1] = nv21[lumaSize + 2 * i];
+			}
+		} else {
+			// I420: U plane then V plane.
+			for (int i = 0; i < chromaSize; i++) {
+				out[lumaSize + i] = nv21[lumaSize + 2 * i + 1];
+				out[lumaSize + chromaSize + i] = nv21[lumaSize + 2 * i];
+			}
+		}
+	}
+
+	/**
+	 * Select the first H.264 encoder of the device.
+	 *
+	 * @return the codec info, or null if there is none
+	 */
+	private static MediaCodecInfo selectEncoder() {
+		for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
+			MediaCodecInfo info = MediaCodecList.getCodecInfoAt(i);
+			if (!info.isEncoder()) {
+				continue;
+			}
+			for (String type : info.getSupportedTypes()) {
+				if (type.equalsIgnoreCase(MIME_TYPE)) {
+					return info;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Select a YUV 4:2:0 input color format the preview frames can be converted to.
+	 *
+	 * @param codecInfo the codec info
+	 * @return the color format, or 0 if none is supported
+	 */
+	private static int selectColorFormat(MediaCodecInfo codecInfo) {
+		int[] colorFormats = codecInfo.getCapabilitiesForType(MIME_TYPE).colorFormats;
+		for (int colorFormat : colorFormats) {
+			if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar
+					|| colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+				return colorFormat;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes ring buffer samples to the muxer through a reused ByteBuffer view.
+	 */
+	private class MuxerSink implements EncodedSampleRingBuffer.SampleSink {
+
+		/** The view on the ring buffer storage, created on first use. */
+		private ByteBuffer mView;
+
+		/** The info. */
+		private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+		@Override
+		public void writeSample(byte[] data, int offset, int size, long presentationTimeUs, int flags) {
+			if (mView == null || mView.array() != data) {
+				mView = ByteBuffer.wrap(data);
+			}
+			mView.clear();
+			mView.position(offset);
+			mView.limit(offset + size);
+			mInfo.set(offset, size, presentationTimeUs, flags);
+			mMuxer.writeSampleData(mTrack, mView, mInfo);
+		}
+	}
+}
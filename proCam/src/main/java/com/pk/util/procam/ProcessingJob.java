@@ -0,0 +1,41 @@
+package com.pk.util.procam;
+
+/**
+ * A unit of post-processing work on a captured file, kept in a {@link ProcessingJobQueue}.
+ */
+public class ProcessingJob {
+
+	/** The id, unique within a queue. */
+	public final long id;
+
+	/** The type, which selects the handler. */
+	public final String type;
+
+	/** The path of the file to process. */
+	public final String path;
+
+	/** The number of failed attempts so far. */
+	public final int attempts;
+
+	public ProcessingJob(long id, String type, String path, int attempts) {
+		this.id = id;
+		this.type = type;
+		this.path = path;
+		this.attempts = attempts;
+	}
+
+	/**
+	 * Gets a copy with another attempt count.
+	 *
+	 * @param attempts the attempts
+	 * @return the job
+	 */
+	public ProcessingJob withAttempts(int attempts) {
+		return new ProcessingJob(id, type, path, attempts);
+	}
+
+	@Override
+	public String toString() {
+		return "ProcessingJob [id=" + id + ", type=" + type + ", path=" + path + ", attempts=" + attempts + "]";
+	}
+}
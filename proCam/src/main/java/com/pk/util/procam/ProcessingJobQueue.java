@@ -0,0 +1,269 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs post-processing jobs (thumbnails, uploads, ...) on captured files in the background and
+ * keeps them across process death.
+ * <p>
+ * Every job is written to a {@link JobJournal} before it is run and marked done once its handler
+ * returns, so after a crash {@link #start()} runs again exactly the jobs that had not finished.
+ * A job that was running when the process died is run a second time, handlers have to be idempotent.
+ * A failing job is retried with exponential back-off until {@link #setMaxAttempts(int)} is reached.
+ */
+public class ProcessingJobQueue {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The number of journal records after which it is compacted. */
+	static final int CHECKPOINT_RECORDS = 256;
+
+	/**
+	 * Processes one type of job.
+	 */
+	public interface JobHandler {
+
+		/**
+		 * Processes a job. May be called more than once for the same job.
+		 *
+		 * @param job the job
+		 * @throws Exception if the job failed and should be retried
+		 */
+		void process(ProcessingJob job) throws Exception;
+	}
+
+	/** The journal, guarded by this. */
+	private final JobJournal mJournal;
+
+	/** The number of worker threads. */
+	private final int mThreadCount;
+
+	/** The handlers by job type. */
+	private final Map<String, JobHandler> mHandlers = new HashMap<String, JobHandler>();
+
+	/** The jobs not yet completed or given up, by id, guarded by this. */
+	private final Map<Long, ProcessingJob> mPending = new LinkedHashMap<Long, ProcessingJob>();
+
+	/** The workers, null until started. */
+	private ScheduledThreadPoolExecutor mExecutor;
+
+	/** The m max attempts. */
+	private int mMaxAttempts = 5;
+
+	/** The m delay before the first retry, in milliseconds. */
+	private long mRetryDelayMs = 1000;
+
+	/**
+	 * Instantiates a new processing job queue. Each record is forced to storage.
+	 *
+	 * @param journal the journal file
+	 * @param threadCount the number of worker threads
+	 */
+	public ProcessingJobQueue(File journal, int threadCount) {
+		this(journal, threadCount, true);
+	}
+
+	ProcessingJobQueue(File journal, int threadCount, boolean sync) {
+		mJournal = new JobJournal(journal, sync);
+		mThreadCount = threadCount;
+	}
+
+	/**
+	 * Registers the handler of a job type. Handlers must be registered before {@link #start()}.
+	 *
+	 * @param type the type
+	 * @param handler the handler
+	 * @return the processing job queue
+	 */
+	public ProcessingJobQueue registerHandler(String type, JobHandler handler) {
+		mHandlers.put(type, handler);
+		return this;
+	}
+
+	/**
+	 * Sets the number of attempts after which a job is given up. Defaults to 5.
+	 *
+	 * @param maxAttempts the max attempts
+	 * @return the processing job queue
+	 */
+	public ProcessingJobQueue setMaxAttempts(int maxAttempts) {
+		mMaxAttempts = maxAttempts;
+		return this;
+	}
+
+	/**
+	 * Sets the delay before the first retry, doubled for each further one. Defaults to one second.
+	 *
+	 * @param retryDelayMs the retry delay in milliseconds
+	 * @return the processing job queue
+	 */
+	public ProcessingJobQueue setRetryDelayMs(long retryDelayMs) {
+		mRetryDelayMs = retryDelayMs;
+		return this;
+	}
+
+	/**
+	 * Replays the journal and starts running the jobs left from the last run.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void start() throws IOException {
+		if (mExecutor != null) {
+			return;
+		}
+		List<ProcessingJob> incomplete = mJournal.open();
+		for (ProcessingJob job : incomplete) {
+			mPending.put(job.id, job);
+		}
+		// Start from a compact journal so the replayed history is not replayed again.
+		mJournal.checkpoint(incomplete);
+		mExecutor = new ScheduledThreadPoolExecutor(mThreadCount);
+		LogUtil.i(TAG, "start - resuming {} jobs", incomplete.size());
+		for (ProcessingJob job : incomplete) {
+			submit(job, 0);
+		}
+	}
+
+	/**
+	 * Adds a job. It is in the journal when this returns.
+	 *
+	 * @param type the job type
+	 * @param path the path of the file to process
+	 * @return the job
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized ProcessingJob enqueue(String type, String path) throws IOException {
+		if (mExecutor == null) {
+			throw new IllegalStateException("Queue is not started");
+		}
+		ProcessingJob job = new ProcessingJob(mJournal.nextId(), type, path, 0);
+		mJournal.appendEnqueued(job);
+		mPending.put(job.id, job);
+		submit(job, 0);
+		return job;
+	}
+
+	/**
+	 * Gets the number of jobs not yet completed or given up.
+	 *
+	 * @return the pending count
+	 */
+	public synchronized int getPendingCount() {
+		return mPending.size();
+	}
+
+	/**
+	 * Waits until no job is pending.
+	 *
+	 * @param timeoutMs the timeout in milliseconds
+	 * @return true, if idle; false if the timeout elapsed first
+	 * @throws InterruptedException the interrupted exception
+	 */
+	public synchronized boolean awaitIdle(long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (!mPending.isEmpty()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the workers, letting running jobs finish, and closes the journal. Jobs still
+	 * pending are run on the next {@link #start()}.
+	 */
+	public void shutdown() {
+		ScheduledThreadPoolExecutor executor;
+		synchronized (this) {
+			executor = mExecutor;
+		}
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			mJournal.close();
+		}
+	}
+
+	/**
+	 * Stops abruptly, as if the process died: running jobs are interrupted and nothing more is journaled.
+	 */
+	synchronized void kill() {
+		if (mExecutor != null) {
+			mExecutor.shutdownNow();
+		}
+		mJournal.close();
+	}
+
+	private void submit(final ProcessingJob job, long delayMs) {
+		try {
+			mExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					runJob(job);
+				}
+			}, delayMs, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shutting down; the job stays in the journal for the next start.
+		}
+	}
+
+	private void runJob(ProcessingJob job) {
+		JobHandler handler = mHandlers.get(job.type);
+		Exception failure = null;
+		if (handler == null) {
+			failure = new IllegalStateException("No handler for " + job.type);
+		} else {
+			try {
+				handler.process(job);
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			return;
+		}
+		synchronized (this) {
+			try {
+				if (failure == null) {
+					mJournal.appendCompleted(job.id);
+					mPending.remove(job.id);
+				} else if (job.attempts + 1 >= mMaxAttempts || handler == null) {
+					LogUtil.e(TAG, "runJob - giving up {}", job, failure);
+					mJournal.appendFailed(job.id);
+					mPending.remove(job.id);
+				} else {
+					ProcessingJob retry = job.withAttempts(job.attempts + 1);
+					LogUtil.w(TAG, "runJob - retrying {}", retry);
+					mJournal.appendRetry(retry.id, retry.attempts);
+					mPending.put(retry.id, retry);
+					submit(retry, mRetryDelayMs << Math.min(job.attempts, 16));
+				}
+				if (mJournal.getRecordCount() >= CHECKPOINT_RECORDS + mPending.size()) {
+					mJournal.checkpoint(new ArrayList<ProcessingJob>(mPending.values()));
+				}
+			} catch (IOException e) {
+				// The journal is closed or failing; the job is run again on the next start.
+				LogUtil.w(TAG, "runJob - journal write failed", e);
+			}
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.pk.util.procam;
+
+/**
+ * A width and height in pixels, e.g. of a preview, picture or video size supported by the camera.
+ */
+public class Resolution {
+
+	/** The width. */
+	public final int width;
+
+	/** The height. */
+	public final int height;
+
+	/**
+	 * Instantiates a new resolution.
+	 *
+	 * @param width the width
+	 * @param height the height
+	 */
+	public Resolution(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Gets the number of pixels.
+	 *
+	 * @return the area
+	 */
+	public long getArea() {
+		return (long) width * height;
+	}
+
+	/**
+	 * Gets the aspect ratio of the longer side to the shorter one, so portrait and landscape
+	 * versions of a size compare equal.
+	 *
+	 * @return the aspect ratio, at least 1
+	 */
+	public double getAspectRatio() {
+		return width >= height ? (double) width / height : (double) height / width;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Resolution)) {
+			return false;
+		}
+		Resolution other = (Resolution) o;
+		return width == other.width && height == other.height;
+	}
+
+	@Override
+	public int hashCode() {
+		return width * 32713 + height;
+	}
+
+	@Override
+	public String toString() {
+		return width + "x" + height;
+	}
+}
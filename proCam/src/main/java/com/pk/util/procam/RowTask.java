@@ -0,0 +1,73 @@
+package com.pk.util.procam;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a body over a range of rows on a {@link ForkJoinPool}, halving the range until each part is
+ * small enough to run on its own. The rows must be independent: no two parts write the same data.
+ */
+class RowTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The work done on a range of rows.
+	 */
+	interface Body {
+
+		/**
+		 * Processes rows from (inclusive) to (exclusive).
+		 *
+		 * @param from the first row
+		 * @param to the row after the last
+		 */
+		void run(int from, int to);
+	}
+
+	/** The body. */
+	private final Body mBody;
+
+	/** The first row. */
+	private final int mFrom;
+
+	/** The row after the last. */
+	private final int mTo;
+
+	/** The most rows run without splitting. */
+	private final int mGrain;
+
+	private RowTask(Body body, int from, int to, int grain) {
+		mBody = body;
+		mFrom = from;
+		mTo = to;
+		mGrain = grain;
+	}
+
+	/**
+	 * Runs the body over rows 0 to rows on the pool, or on the calling thread without a pool.
+	 *
+	 * @param pool the pool, may be null
+	 * @param rows the number of rows
+	 * @param body the body
+	 */
+	static void run(ForkJoinPool pool, int rows, Body body) {
+		if (pool == null || pool.getParallelism() <= 1 || rows <= 1) {
+			body.run(0, rows);
+			return;
+		}
+		// A few parts per thread, so a slow part does not hold the others up.
+		int grain = Math.max(1, rows / (pool.getParallelism() * 4));
+		pool.invoke(new RowTask(body, 0, rows, grain));
+	}
+
+	@Override
+	protected void compute() {
+		if (mTo - mFrom <= mGrain) {
+			mBody.run(mFrom, mTo);
+			return;
+		}
+		int middle = (mFrom + mTo) >>> 1;
+		invokeAll(new RowTask(mBody, mFrom, middle, mGrain), new RowTask(mBody, middle, mTo, mGrain));
+	}
+}
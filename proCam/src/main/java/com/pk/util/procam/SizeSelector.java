@@ -0,0 +1,381 @@
+package com.pk.util.procam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the preview, picture and video sizes a camera should use, from the sizes it supports.
+ * <p>
+ * Every candidate gets a cost and the cheapest wins; ties go to the larger size. Costs are sums of
+ * log ratios, so being twice too big costs the same at any resolution:
+ * <ul>
+ * <li>Aspect: {@link #ASPECT_WEIGHT} times how far the aspect ratio is from the target. A picture of
+ * another shape than the target is cropped or letterboxed, which outweighs any size difference short
+ * of extreme. Previews and videos only consider sizes within {@link #ASPECT_TOLERANCE} of the shape
+ * aimed at when there are any, and fall back to the cost otherwise.</li>
+ * <li>Picture: how much smaller than the largest allowed picture it is. Sizes over the pixel budget are
+ * not considered unless none fits.</li>
+ * <li>Preview: how far it is from the surface size, counting {@link #UPSCALE_WEIGHT} times when it is
+ * smaller, since upscaling blurs while downscaling only wastes bandwidth.</li>
+ * <li>Video: how far it is from the requested video size, smaller again counting more.</li>
+ * <li>Thumbnail: how far it is from the requested thumbnail size, of the picture's shape.</li>
+ * </ul>
+ * The target aspect ratio is the explicit one if set, otherwise that of the requested video size, the
+ * surface or, failing all, the largest picture. Without a surface the preview aims at the video size
+ * when recording and the largest preview otherwise. The preview aims at the aspect of the chosen video, or of the
+ * chosen picture when not recording, so the preview shows what will be captured. Cameras that list no separate video sizes record at
+ * the preview size, so the preview is then chosen for the video.
+ */
+public class SizeSelector {
+
+	/** The weight of an aspect ratio mismatch. */
+	public static final double ASPECT_WEIGHT = 10;
+
+	/** How far apart, as a log ratio, two aspect ratios may be and still count as the same shape. */
+	public static final double ASPECT_TOLERANCE = 0.01;
+
+	/** The weight of being smaller than wanted, against 1 for being bigger. */
+	public static final double UPSCALE_WEIGHT = 2;
+
+	/** The chosen sizes. */
+	public static class Selection {
+
+		/** The preview size. */
+		public final Resolution preview;
+
+		/** The picture size. */
+		public final Resolution picture;
+
+		/** The video size, null if no video size was requested. */
+		public final Resolution video;
+
+		/** The JPEG thumbnail size, 0x0 for none, null if no thumbnail size was requested. */
+		public final Resolution thumbnail;
+
+		public Selection(Resolution preview, Resolution picture, Resolution video) {
+			this(preview, picture, video, null);
+		}
+
+		public Selection(Resolution preview, Resolution picture, Resolution video, Resolution thumbnail) {
+			this.preview = preview;
+			this.picture = picture;
+			this.video = video;
+			this.thumbnail = thumbnail;
+		}
+
+		@Override
+		public String toString() {
+			return "Selection [preview=" + preview + ", picture=" + picture + ", video=" + video + ", thumbnail=" + thumbnail + "]";
+		}
+	}
+
+	/** The supported preview sizes. */
+	private final List<Resolution> mPreviewSizes;
+
+	/** The supported picture sizes. */
+	private final List<Resolution> mPictureSizes;
+
+	/** The supported video sizes, empty when the camera records at the preview size. */
+	private final List<Resolution> mVideoSizes;
+
+	/** The m surface size, null if unknown. */
+	private Resolution mSurfaceSize;
+
+	/** The m target aspect ratio, 0 to derive it. */
+	private double mTargetAspectRatio;
+
+	/** The m max picture pixels, 0 for no limit. */
+	private long mMaxPicturePixels;
+
+	/** The m requested video size, null if none. */
+	private Resolution mVideoSize;
+
+	/** The largest preview size the camera suggests while recording, null if none. */
+	private Resolution mMaxPreviewSizeForVideo;
+
+	/** The supported JPEG thumbnail sizes. */
+	private List<Resolution> mThumbnailSizes = new ArrayList<Resolution>();
+
+	/** The m requested thumbnail size, 0x0 for none, null to leave the camera default. */
+	private Resolution mThumbnailSize;
+
+	/**
+	 * Instantiates a new size selector.
+	 *
+	 * @param previewSizes the supported preview sizes
+	 * @param pictureSizes the supported picture sizes
+	 * @param videoSizes the supported video sizes, null or empty if the camera records at the preview size
+	 */
+	public SizeSelector(List<Resolution> previewSizes, List<Resolution> pictureSizes, List<Resolution> videoSizes) {
+		if (previewSizes.isEmpty() || pictureSizes.isEmpty()) {
+			throw new IllegalArgumentException("No supported sizes");
+		}
+		mPreviewSizes = new ArrayList<Resolution>(previewSizes);
+		mPictureSizes = new ArrayList<Resolution>(pictureSizes);
+		mVideoSizes = videoSizes != null ? new ArrayList<Resolution>(videoSizes) : new ArrayList<Resolution>();
+	}
+
+	/**
+	 * Sets the size of the surface the preview is shown on, in either orientation.
+	 *
+	 * @param width the width, 0 if unknown
+	 * @param height the height, 0 if unknown
+	 * @return the size selector
+	 */
+	public SizeSelector setSurfaceSize(int width, int height) {
+		mSurfaceSize = width > 0 && height > 0 ? landscape(new Resolution(width, height)) : null;
+		return this;
+	}
+
+	/**
+	 * Sets the aspect ratio to aim at, e.g. 16.0 / 9. Defaults to 0, derived as described above.
+	 *
+	 * @param aspectRatio the aspect ratio, long side over short side
+	 * @return the size selector
+	 */
+	public SizeSelector setTargetAspectRatio(double aspectRatio) {
+		mTargetAspectRatio = aspectRatio > 0 && aspectRatio < 1 ? 1 / aspectRatio : aspectRatio;
+		return this;
+	}
+
+	/**
+	 * Sets the most pixels a picture may have. Defaults to 0, no limit.
+	 *
+	 * @param maxPixels the max pixels
+	 * @return the size selector
+	 */
+	public SizeSelector setMaxPicturePixels(long maxPixels) {
+		mMaxPicturePixels = maxPixels;
+		return this;
+	}
+
+	/**
+	 * Sets the video size wanted, e.g. from the chosen {@link VideoProfile}.
+	 *
+	 * @param width the width, 0 if no video will be recorded
+	 * @param height the height
+	 * @return the size selector
+	 */
+	public SizeSelector setVideoSize(int width, int height) {
+		mVideoSize = width > 0 && height > 0 ? landscape(new Resolution(width, height)) : null;
+		return this;
+	}
+
+	/**
+	 * Sets the largest preview size the camera suggests while recording
+	 * (Camera.Parameters#getPreferredPreviewSizeForVideo).
+	 *
+	 * @param size the size, null if none
+	 * @return the size selector
+	 */
+	public SizeSelector setMaxPreviewSizeForVideo(Resolution size) {
+		mMaxPreviewSizeForVideo = size;
+		return this;
+	}
+
+	/**
+	 * Sets the JPEG thumbnail sizes the camera supports (Camera.Parameters#getSupportedJpegThumbnailSizes).
+	 *
+	 * @param sizes the sizes, 0x0 meaning no thumbnail may be among them
+	 * @return the size selector
+	 */
+	public SizeSelector setThumbnailSizes(List<Resolution> sizes) {
+		mThumbnailSizes = new ArrayList<Resolution>();
+		for (Resolution size : sizes) {
+			if (size.getArea() > 0) {
+				mThumbnailSizes.add(size);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the JPEG thumbnail size wanted.
+	 *
+	 * @param width the width, 0 with a 0 height for no thumbnail
+	 * @param height the height
+	 * @return the size selector
+	 */
+	public SizeSelector setThumbnailSize(int width, int height) {
+		mThumbnailSize = landscape(new Resolution(Math.max(0, width), Math.max(0, height)));
+		return this;
+	}
+
+	/**
+	 * Selects the sizes.
+	 *
+	 * @return the selection
+	 */
+	public Selection select() {
+		double target = getTargetAspectRatio();
+		Resolution picture = selectPicture(target);
+		Resolution video = null;
+		Resolution preview;
+		if (mVideoSize != null && mVideoSizes.isEmpty()) {
+			// The camera records at the preview size.
+			preview = closest(mPreviewSizes, mVideoSize, mVideoSize.getAspectRatio(), Long.MAX_VALUE);
+			video = preview;
+		} else {
+			if (mVideoSize != null) {
+				video = closest(mVideoSizes, mVideoSize, mVideoSize.getAspectRatio(), Long.MAX_VALUE);
+			}
+			long maxArea = Long.MAX_VALUE;
+			if (video != null && mMaxPreviewSizeForVideo != null) {
+				maxArea = mMaxPreviewSizeForVideo.getArea();
+			}
+			Resolution wanted = mSurfaceSize;
+			if (wanted == null) {
+				wanted = video != null ? video : largest(mPreviewSizes);
+			}
+			// While recording the preview shows what the video will contain.
+			double previewAspect = video != null ? video.getAspectRatio() : picture.getAspectRatio();
+			preview = closest(mPreviewSizes, wanted, previewAspect, maxArea);
+		}
+		return new Selection(preview, picture, video, selectThumbnail(picture));
+	}
+
+	/**
+	 * Gets the aspect ratio aimed at.
+	 *
+	 * @return the target aspect ratio
+	 */
+	double getTargetAspectRatio() {
+		if (mTargetAspectRatio > 0) {
+			return mTargetAspectRatio;
+		}
+		if (mVideoSize != null) {
+			return mVideoSize.getAspectRatio();
+		}
+		if (mSurfaceSize != null) {
+			return mSurfaceSize.getAspectRatio();
+		}
+		return largest(mPictureSizes).getAspectRatio();
+	}
+
+	private Resolution selectPicture(double target) {
+		List<Resolution> allowed = new ArrayList<Resolution>();
+		for (Resolution size : mPictureSizes) {
+			if (mMaxPicturePixels <= 0 || size.getArea() <= mMaxPicturePixels) {
+				allowed.add(size);
+			}
+		}
+		if (allowed.isEmpty()) {
+			// Nothing fits the budget, the smallest comes closest.
+			Resolution smallest = mPictureSizes.get(0);
+			for (Resolution size : mPictureSizes) {
+				if (size.getArea() < smallest.getArea()) {
+					smallest = size;
+				}
+			}
+			return smallest;
+		}
+		double maxArea = largest(allowed).getArea();
+		Resolution best = null;
+		double bestCost = Double.MAX_VALUE;
+		for (Resolution size : allowed) {
+			double cost = aspectCost(size, target) + Math.log(maxArea / size.getArea());
+			if (isBetter(cost, size, bestCost, best)) {
+				best = size;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	private Resolution selectThumbnail(Resolution picture) {
+		if (mThumbnailSize == null) {
+			return null;
+		}
+		if (mThumbnailSize.getArea() == 0) {
+			// Cameras always accept 0x0, meaning no thumbnail.
+			return mThumbnailSize;
+		}
+		if (mThumbnailSizes.isEmpty()) {
+			return null;
+		}
+		return closest(mThumbnailSizes, mThumbnailSize, picture.getAspectRatio(), Long.MAX_VALUE);
+	}
+
+	/**
+	 * Finds the size closest to a wanted one.
+	 *
+	 * @param sizes the candidates
+	 * @param wanted the wanted size
+	 * @param aspectRatio the aspect ratio aimed at
+	 * @param maxArea the largest area allowed, if any candidate is that small
+	 * @return the closest size
+	 */
+	private static Resolution closest(List<Resolution> sizes, Resolution wanted, double aspectRatio, long maxArea) {
+		List<Resolution> allowed = new ArrayList<Resolution>();
+		for (Resolution size : sizes) {
+			if (size.getArea() <= maxArea) {
+				allowed.add(size);
+			}
+		}
+		if (allowed.isEmpty()) {
+			allowed = sizes;
+		}
+		List<Resolution> sameShape = new ArrayList<Resolution>();
+		for (Resolution size : allowed) {
+			if (Math.abs(Math.log(size.getAspectRatio() / aspectRatio)) < ASPECT_TOLERANCE) {
+				sameShape.add(size);
+			}
+		}
+		if (!sameShape.isEmpty()) {
+			allowed = sameShape;
+		}
+		Resolution best = null;
+		double bestCost = Double.MAX_VALUE;
+		for (Resolution size : allowed) {
+			double cost = aspectCost(size, aspectRatio) + sizeCost(size, wanted);
+			if (isBetter(cost, size, bestCost, best)) {
+				best = size;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	static double aspectCost(Resolution size, double aspectRatio) {
+		return ASPECT_WEIGHT * Math.abs(Math.log(size.getAspectRatio() / aspectRatio));
+	}
+
+	static double sizeCost(Resolution size, Resolution wanted) {
+		double ratio = Math.log((double) size.getArea() / wanted.getArea());
+		return ratio >= 0 ? ratio : -ratio * UPSCALE_WEIGHT;
+	}
+
+	private static boolean isBetter(double cost, Resolution size, double bestCost, Resolution best) {
+		// Costs within rounding of each other are a tie, the larger size wins so the order of the input does not matter.
+		if (best == null || cost < bestCost - 1e-9) {
+			return true;
+		}
+		if (cost > bestCost + 1e-9) {
+			return false;
+		}
+		if (size.getArea() != best.getArea()) {
+			return size.getArea() > best.getArea();
+		}
+		return size.width > best.width;
+	}
+
+	private static Resolution largest(List<Resolution> sizes) {
+		return Collections.max(sizes, new Comparator<Resolution>() {
+			@Override
+			public int compare(Resolution lhs, Resolution rhs) {
+				long lhsArea = lhs.getArea();
+				long rhsArea = rhs.getArea();
+				if (lhsArea != rhsArea) {
+					return lhsArea < rhsArea ? -1 : 1;
+				}
+				return lhs.width - rhs.width;
+			}
+		});
+	}
+
+	private static Resolution landscape(Resolution size) {
+		return size.width >= size.height ? size : new Resolution(size.height, size.width);
+	}
+}
@@ -0,0 +1,320 @@
+package com.pk.util.procam;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.hardware.Camera;
+import android.os.Build;
+import android.os.Handler;
+
+/**
+ * Night mode picture. A burst of preview frames is merged by a {@link BurstStacker} into one frame with
+ * less noise, which is rotated and compressed to JPEG.
+ * <p>
+ * Frames are merged on a worker thread as they arrive, and each buffer goes back to the camera once
+ * merged, so no more than {@link #setMaxFramesInMemory(int)} frames are held whatever the length of
+ * the burst; the camera drops frames while all of them are out. The picture is the size of the
+ * preview.
+ * <p>
+ * Requires API level 21 (ForkJoinPool). All methods and the camera preview callback must run on the
+ * thread the camera was opened on, where the callback is called too.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class StackedCapture implements Camera.PreviewCallback {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The minimum API level. */
+	public static final int MIN_API_LEVEL = Build.VERSION_CODES.LOLLIPOP;
+
+	/** The default number of frames merged. */
+	public static final int DEFAULT_FRAME_COUNT = 8;
+
+	/** The default number of preview buffers cycled through the camera. */
+	public static final int DEFAULT_MAX_FRAMES_IN_MEMORY = 3;
+
+	/**
+	 * Receives the merged picture.
+	 */
+	public interface Callback {
+
+		/**
+		 * On stacked.
+		 *
+		 * @param jpeg the picture
+		 * @param frames the number of frames merged
+		 */
+		public void onStacked(byte[] jpeg, int frames);
+
+		/**
+		 * On stack failed.
+		 */
+		public void onStackFailed();
+	}
+
+	/** The camera. */
+	private final Camera mCamera;
+
+	/** The handler of the camera thread. */
+	private final Handler mHandler;
+
+	/** The number of frames merged. */
+	private int mFrameCount = DEFAULT_FRAME_COUNT;
+
+	/** The number of preview buffers. */
+	private int mMaxFramesInMemory = DEFAULT_MAX_FRAMES_IN_MEMORY;
+
+	/** The clockwise rotation of the picture in degrees. */
+	private int mRotation = 0;
+
+	/** The JPEG quality. */
+	private int mJpegQuality = OutputSpec.DEFAULT_JPEG_QUALITY;
+
+	/** The preview width. */
+	private int mWidth;
+
+	/** The preview height. */
+	private int mHeight;
+
+	/** The stacker, only used on the worker. */
+	private BurstStacker mStacker;
+
+	/** The pool the stacker runs on. */
+	private ForkJoinPool mPool;
+
+	/** The worker frames are merged on. */
+	private ExecutorService mWorker;
+
+	/** The callback. */
+	private Callback mCallback;
+
+	/** The frames received from the camera. */
+	private int mReceived;
+
+	/** Whether the capture was cancelled or is over. */
+	private volatile boolean mCancelled;
+
+	/**
+	 * Checks if the device supports stacked pictures.
+	 *
+	 * @return true, if supported
+	 */
+	public static boolean isSupported() {
+		return Build.VERSION.SDK_INT >= MIN_API_LEVEL;
+	}
+
+	/**
+	 * Instantiates a new stacked capture.
+	 *
+	 * @param camera the camera, with the preview running
+	 * @param handler the handler of the camera thread
+	 */
+	public StackedCapture(Camera camera, Handler handler) {
+		mCamera = camera;
+		mHandler = handler;
+	}
+
+	/**
+	 * Sets the number of frames merged. More frames take longer and remove more noise.
+	 *
+	 * @param frameCount the frame count, at most {@link BurstStacker#MAX_FRAMES}
+	 * @return the stacked capture
+	 */
+	public StackedCapture setFrameCount(int frameCount) {
+		mFrameCount = Math.max(1, Math.min(BurstStacker.MAX_FRAMES, frameCount));
+		return this;
+	}
+
+	/**
+	 * Sets the number of preview buffers cycled through the camera, the most frames held at once
+	 * besides the merge state. More buffers drop fewer frames on slow devices.
+	 *
+	 * @param maxFramesInMemory the max frames in memory
+	 * @return the stacked capture
+	 */
+	public StackedCapture setMaxFramesInMemory(int maxFramesInMemory) {
+		mMaxFramesInMemory = Math.max(1, maxFramesInMemory);
+		return this;
+	}
+
+	/**
+	 * Sets the rotation applied to the picture.
+	 *
+	 * @param degrees the clockwise rotation, 0, 90, 180 or 270
+	 * @return the stacked capture
+	 */
+	public StackedCapture setRotation(int degrees) {
+		mRotation = degrees;
+		return this;
+	}
+
+	/**
+	 * Sets the JPEG quality.
+	 *
+	 * @param jpegQuality the JPEG quality, 1 to 100
+	 * @return the stacked capture
+	 */
+	public StackedCapture setJpegQuality(int jpegQuality) {
+		mJpegQuality = jpegQuality;
+		return this;
+	}
+
+	/**
+	 * Starts collecting preview frames.
+	 *
+	 * @param callback the callback
+	 * @return true, if started; false if the preview is not NV21 or of an odd size
+	 */
+	public boolean start(Callback callback) {
+		Camera.Parameters params = mCamera.getParameters();
+		Camera.Size size = params.getPreviewSize();
+		if (params.getPreviewFormat() != ImageFormat.NV21 || size == null || size.width % 2 != 0 || size.height % 2 != 0) {
+			if (size == null) {
+				LogUtil.w(TAG, "start - no preview size");
+			} else {
+				LogUtil.w(TAG, "start - unsupported preview: {}x{}", size.width, size.height);
+			}
+			return false;
+		}
+		mWidth = size.width;
+		mHeight = size.height;
+		mCallback = callback;
+		mPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		mStacker = new BurstStacker(mWidth, mHeight, mPool);
+		mWorker = Executors.newSingleThreadExecutor();
+		mReceived = 0;
+		mCancelled = false;
+
+		int frameSize = mWidth * mHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+		for (int i = 0; i < Math.min(mMaxFramesInMemory, mFrameCount); i++) {
+			mCamera.addCallbackBuffer(new byte[frameSize]);
+		}
+		mCamera.setPreviewCallbackWithBuffer(this);
+		LogUtil.i(TAG, "start - size: {}x{} frames: {}", mWidth, mHeight, mFrameCount);
+		return true;
+	}
+
+	/**
+	 * Cancels the capture. The callback is not called any more.
+	 */
+	public void cancel() {
+		if (mWorker == null || mCancelled) {
+			return;
+		}
+		mCancelled = true;
+		mCamera.setPreviewCallbackWithBuffer(null);
+		release();
+	}
+
+	/* (non-Javadoc)
+	 * @see android.hardware.Camera.PreviewCallback#onPreviewFrame(byte[], android.hardware.Camera)
+	 */
+	@Override
+	public void onPreviewFrame(final byte[] data, Camera camera) {
+		if (mCancelled || mReceived >= mFrameCount) {
+			return;
+		}
+		mReceived++;
+		final boolean last = mReceived == mFrameCount;
+		if (last) {
+			camera.setPreviewCallbackWithBuffer(null);
+		}
+		mWorker.execute(new Runnable() {
+			@Override
+			public void run() {
+				merge(data, last);
+			}
+		});
+	}
+
+	/**
+	 * Merges a frame, on the worker.
+	 */
+	private void merge(final byte[] frame, boolean last) {
+		if (mCancelled) {
+			return;
+		}
+		try {
+			mStacker.addFrame(frame);
+		} catch (RuntimeException e) {
+			LogUtil.e(TAG, "merge - failed", e);
+			finish(null);
+			return;
+		}
+		if (!last) {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					// Only while frames are still needed, the camera keeps the buffers it has.
+					if (!mCancelled && mReceived < mFrameCount) {
+						mCamera.addCallbackBuffer(frame);
+					}
+				}
+			});
+			return;
+		}
+		byte[] jpeg = null;
+		try {
+			jpeg = compress(mStacker.getResult(frame));
+		} catch (RuntimeException e) {
+			LogUtil.e(TAG, "merge - compression failed", e);
+		}
+		LogUtil.i(TAG, "merge - frames: {} rejected: {}", mStacker.getFrameCount(), mStacker.getRejectedFraction());
+		finish(jpeg);
+	}
+
+	/**
+	 * Rotates and compresses the merged frame.
+	 *
+	 * @return the JPEG, null on failure
+	 */
+	private byte[] compress(byte[] nv21) {
+		byte[] rotated = BurstStacker.rotate(nv21, mWidth, mHeight, mRotation);
+		boolean swap = mRotation % 180 != 0;
+		int width = swap ? mHeight : mWidth;
+		int height = swap ? mWidth : mHeight;
+		YuvImage image = new YuvImage(rotated, ImageFormat.NV21, width, height, null);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(width * height / 4);
+		if (!image.compressToJpeg(new Rect(0, 0, width, height), mJpegQuality, out)) {
+			return null;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Releases the worker and reports the picture on the camera thread, unless cancelled meanwhile.
+	 */
+	private void finish(final byte[] jpeg) {
+		final int frames = mStacker.getFrameCount();
+		release();
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (mCancelled) {
+					return;
+				}
+				mCancelled = true;
+				if (jpeg != null) {
+					mCallback.onStacked(jpeg, frames);
+				} else {
+					mCamera.setPreviewCallbackWithBuffer(null);
+					mCallback.onStackFailed();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the worker and the pool once the merge running, if any, is done.
+	 */
+	private void release() {
+		mWorker.shutdown();
+		mPool.shutdown();
+	}
+}
@@ -0,0 +1,407 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps captures within a storage budget.
+ * <p>
+ * Free space is read with one {@link android.os.StatFs} call and then adjusted by the bytes the camera writes
+ * and deletes, so checks before each capture are cheap; it is read again once the resync interval has
+ * passed. Space reserved for recordings that are still being written counts as used. Capture directories
+ * can get a quota, and when a directory goes over its quota or the volume runs below the minimum free
+ * space, captures that are already uploaded are deleted least recently used first (see
+ * {@link EvictionPlanner}), together with their thumbnails. Captures that are not uploaded are never deleted.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class StorageBudgetManager {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/** The default time after which free space is read from the file system again. */
+	public static final long DEFAULT_RESYNC_INTERVAL_MS = 60 * 1000;
+
+	/** The default minimum free space. */
+	public static final long DEFAULT_MIN_FREE_BYTES = 50L * 1024 * 1024;
+
+	/**
+	 * Hears about captures deleted to free space, e.g. to forget them.
+	 */
+	public interface EvictionListener {
+
+		/**
+		 * On evicted. Called after the file is deleted, without the manager locked.
+		 *
+		 * @param file the file
+		 */
+		public void onEvicted(File file);
+	}
+
+	/** The volume, any directory on it. */
+	private final File mVolume;
+
+	/** The file system. */
+	private final StorageFileSystem mFileSystem;
+
+	/** The clock used for resyncing. */
+	private final Clock mClock;
+
+	/** The resync interval. */
+	private long mResyncIntervalMs = DEFAULT_RESYNC_INTERVAL_MS;
+
+	/** The minimum free space. */
+	private long mMinFreeBytes = DEFAULT_MIN_FREE_BYTES;
+
+	/** The upload state, null while nothing may be evicted. */
+	private EvictionPlanner.UploadState mUploadState;
+
+	/** The eviction listener, may be null. */
+	private EvictionListener mEvictionListener;
+
+	/** The estimated available bytes. */
+	private long mAvailableBytes;
+
+	/** The time of the last read of the free space, or -1 if never read. */
+	private long mLastSyncTime = -1;
+
+	/** The quotas by directory. */
+	private final Map<File, Quota> mQuotas = new HashMap<File, Quota>();
+
+	/** The capture directories, with or without a quota. */
+	private final Set<File> mDirectories = new LinkedHashSet<File>();
+
+	/** The bytes reserved by file. */
+	private final Map<File, Long> mReservations = new HashMap<File, Long>();
+
+	/** The sum of the reserved bytes. */
+	private long mReservedBytes;
+
+	/**
+	 * Instantiates a new storage budget manager for the device file system.
+	 *
+	 * @param volume a directory on the volume
+	 */
+	public StorageBudgetManager(File volume) {
+		this(volume, StorageFileSystem.DEFAULT, Clock.ELAPSED_REALTIME);
+	}
+
+	/**
+	 * Instantiates a new storage budget manager.
+	 *
+	 * @param volume a directory on the volume
+	 * @param fileSystem the file system
+	 * @param clock the clock
+	 */
+	public StorageBudgetManager(File volume, StorageFileSystem fileSystem, Clock clock) {
+		mVolume = volume;
+		mFileSystem = fileSystem;
+		mClock = clock;
+	}
+
+	/**
+	 * Sets how long the tracked free space is trusted before it is read again.
+	 *
+	 * @param resyncIntervalMs the resync interval
+	 * @return the storage budget manager
+	 */
+	public synchronized StorageBudgetManager setResyncIntervalMs(long resyncIntervalMs) {
+		mResyncIntervalMs = resyncIntervalMs;
+		return this;
+	}
+
+	/**
+	 * Sets the free space to keep on the volume.
+	 *
+	 * @param minFreeBytes the min free bytes
+	 * @return the storage budget manager
+	 */
+	public synchronized StorageBudgetManager setMinFreeBytes(long minFreeBytes) {
+		mMinFreeBytes = minFreeBytes;
+		return this;
+	}
+
+	/**
+	 * Gets the free space kept on the volume.
+	 *
+	 * @return the min free bytes
+	 */
+	public synchronized long getMinFreeBytes() {
+		return mMinFreeBytes;
+	}
+
+	/**
+	 * Sets what tells uploaded captures apart. Without it nothing is evicted.
+	 *
+	 * @param uploadState the upload state
+	 * @return the storage budget manager
+	 */
+	public synchronized StorageBudgetManager setUploadState(EvictionPlanner.UploadState uploadState) {
+		mUploadState = uploadState;
+		return this;
+	}
+
+	/**
+	 * Sets who hears about evicted captures.
+	 *
+	 * @param listener the listener, null for none
+	 * @return the storage budget manager
+	 */
+	public synchronized StorageBudgetManager setEvictionListener(EvictionListener listener) {
+		mEvictionListener = listener;
+		return this;
+	}
+
+	/**
+	 * Adds a directory captures are written to, which uploaded captures may be evicted from to keep the
+	 * minimum free space. Directories of files written and directories with a quota are added anyway.
+	 *
+	 * @param dir the directory
+	 * @return the storage budget manager
+	 */
+	public synchronized StorageBudgetManager addCaptureDirectory(File dir) {
+		mDirectories.add(dir);
+		return this;
+	}
+
+	/**
+	 * Limits the bytes used by the files in a capture directory.
+	 *
+	 * @param dir the directory
+	 * @param quotaBytes the quota, zero or less to remove it
+	 * @return the storage budget manager
+	 */
+	public synchronized StorageBudgetManager setQuota(File dir, long quotaBytes) {
+		if (quotaBytes > 0) {
+			Quota quota = mQuotas.get(dir);
+			if (quota == null) {
+				quota = new Quota();
+				mQuotas.put(dir, quota);
+			}
+			quota.quotaBytes = quotaBytes;
+			mDirectories.add(dir);
+		} else {
+			mQuotas.remove(dir);
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the estimated bytes available on the volume.
+	 *
+	 * @return the available bytes
+	 */
+	public synchronized long getAvailableBytes() {
+		if (mLastSyncTime < 0 || mClock.now() - mLastSyncTime >= mResyncIntervalMs) {
+			sync();
+		}
+		return mAvailableBytes;
+	}
+
+	/**
+	 * Checks if a file of the given size fits next to the reservations while keeping the minimum free space.
+	 *
+	 * @param bytes the bytes
+	 * @return true, if there is space
+	 */
+	public synchronized boolean hasSpaceFor(long bytes) {
+		return getAvailableBytes() - mReservedBytes - bytes >= mMinFreeBytes;
+	}
+
+	/**
+	 * Holds space for a file that is still being written, e.g. a recording, if it fits. The space counts
+	 * as used until the file is accounted for with {@link #onFileWritten(File, long)}, deleted with
+	 * {@link #onFileDeleted(File, long)} or {@link #release(File) released}. Reserving for the same file
+	 * again replaces its reservation.
+	 *
+	 * @param file the file
+	 * @param bytes the bytes
+	 * @return true, if reserved; false if it does not fit
+	 */
+	public synchronized boolean reserve(File file, long bytes) {
+		release(file);
+		if (!hasSpaceFor(bytes)) {
+			return false;
+		}
+		mReservations.put(file, bytes);
+		mReservedBytes += bytes;
+		return true;
+	}
+
+	/**
+	 * Gives up the space reserved for a file, if any.
+	 *
+	 * @param file the file
+	 */
+	public synchronized void release(File file) {
+		Long bytes = mReservations.remove(file);
+		if (bytes != null) {
+			mReservedBytes -= bytes;
+		}
+	}
+
+	/**
+	 * Gets the bytes reserved for files still being written.
+	 *
+	 * @return the reserved bytes
+	 */
+	public synchronized long getReservedBytes() {
+		return mReservedBytes;
+	}
+
+	/**
+	 * Reads the free space from the file system now.
+	 */
+	public synchronized void sync() {
+		mAvailableBytes = mFileSystem.getAvailableBytes(mVolume);
+		mLastSyncTime = mClock.now();
+		LogUtil.d(TAG, "sync - availableBytes: {}", mAvailableBytes);
+	}
+
+	/**
+	 * Gets the bytes used by the files in a directory with a quota. The directory is listed the
+	 * first time, later writes and deletes are tracked.
+	 *
+	 * @param dir the directory
+	 * @return the used bytes, or -1 if the directory has no quota
+	 */
+	public synchronized long getUsedBytes(File dir) {
+		Quota quota = mQuotas.get(dir);
+		if (quota == null) {
+			return -1;
+		}
+		if (quota.usedBytes < 0) {
+			quota.usedBytes = 0;
+			for (StorageFileSystem.StoredFile file : mFileSystem.listFiles(dir)) {
+				quota.usedBytes += file.length;
+			}
+		}
+		return quota.usedBytes;
+	}
+
+	/**
+	 * Accounts for a file written by the camera, in place of its reservation if any, and evicts if that
+	 * took the directory over its quota or the volume below the minimum free space.
+	 *
+	 * @param file the file
+	 * @param bytes the bytes written
+	 * @return the number of files evicted
+	 */
+	public int onFileWritten(File file, long bytes) {
+		synchronized (this) {
+			release(file);
+			getAvailableBytes();
+			mAvailableBytes -= bytes;
+			mDirectories.add(file.getParentFile());
+			Quota quota = mQuotas.get(file.getParentFile());
+			if (quota != null && quota.usedBytes >= 0) {
+				quota.usedBytes += bytes;
+			}
+			if (mAvailableBytes - mReservedBytes >= mMinFreeBytes
+					&& (quota == null || getUsedBytes(file.getParentFile()) <= quota.quotaBytes)) {
+				return 0;
+			}
+		}
+		return enforce();
+	}
+
+	/**
+	 * Accounts for a file deleted outside of this manager, and drops its reservation if any.
+	 *
+	 * @param file the file
+	 * @param bytes the bytes freed
+	 */
+	public synchronized void onFileDeleted(File file, long bytes) {
+		release(file);
+		mAvailableBytes += bytes;
+		Quota quota = mQuotas.get(file.getParentFile());
+		if (quota != null && quota.usedBytes >= 0) {
+			quota.usedBytes = Math.max(0, quota.usedBytes - bytes);
+		}
+	}
+
+	/**
+	 * Evicts uploaded captures until every directory is within its quota and the volume has the
+	 * minimum free space next to the reservations, as far as uploaded captures allow.
+	 *
+	 * @return the number of files evicted
+	 */
+	public int enforce() {
+		List<File> evicted = new ArrayList<File>();
+		EvictionListener listener;
+		synchronized (this) {
+			for (Map.Entry<File, Quota> entry : mQuotas.entrySet()) {
+				File dir = entry.getKey();
+				Quota quota = entry.getValue();
+				List<StorageFileSystem.StoredFile> files = mFileSystem.listFiles(dir);
+				// The listing is fresh anyway, so the tracked usage is corrected on the way.
+				quota.usedBytes = 0;
+				for (StorageFileSystem.StoredFile file : files) {
+					quota.usedBytes += file.length;
+				}
+				evict(dir, files, quota.usedBytes - quota.quotaBytes, evicted);
+			}
+
+			// The volume is short for every capture directory alike, so their files go oldest first together.
+			long bytesToFree = mMinFreeBytes + mReservedBytes - getAvailableBytes();
+			if (bytesToFree > 0) {
+				List<StorageFileSystem.StoredFile> files = new ArrayList<StorageFileSystem.StoredFile>();
+				for (File dir : mDirectories) {
+					files.addAll(mFileSystem.listFiles(dir));
+				}
+				evict(mVolume, files, bytesToFree, evicted);
+			}
+			listener = mEvictionListener;
+		}
+		if (listener != null) {
+			for (File file : evicted) {
+				listener.onEvicted(file);
+			}
+		}
+		return evicted.size();
+	}
+
+	/**
+	 * Evicts uploaded files until the given bytes are freed, with their thumbnails.
+	 *
+	 * @param where the directory or volume that is short of space, for the log
+	 * @param files the candidates
+	 * @param bytesToFree the bytes to free
+	 * @param evicted the list the evicted files are added to
+	 */
+	private void evict(File where, List<StorageFileSystem.StoredFile> files, long bytesToFree, List<File> evicted) {
+		if (bytesToFree <= 0) {
+			return;
+		}
+		EvictionPlanner.Plan plan = EvictionPlanner.plan(files, bytesToFree, mUploadState);
+		for (StorageFileSystem.StoredFile file : plan.files) {
+			if (mFileSystem.delete(file.file)) {
+				onFileDeleted(file.file, file.length);
+				// Its few bytes are picked up by the next resync.
+				mFileSystem.delete(ThumbnailJobHandler.getThumbnailFile(file.file.getPath()));
+				evicted.add(file.file);
+			}
+		}
+		LogUtil.i(TAG, "enforce - {} evicted: {}", where, plan.files.size());
+		if (!plan.isSatisfied()) {
+			LogUtil.w(TAG, "enforce - not enough uploaded captures in {}", where);
+		}
+	}
+
+	/**
+	 * The quota of a directory.
+	 */
+	private static class Quota {
+
+		/** The quota. */
+		long quotaBytes;
+
+		/** The used bytes, or -1 until the directory is listed. */
+		long usedBytes = -1;
+	}
+}
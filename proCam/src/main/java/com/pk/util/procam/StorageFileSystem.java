@@ -0,0 +1,93 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.StatFs;
+
+/**
+ * The file system calls made by {@link StorageBudgetManager}, behind an interface so that
+ * budgeting and eviction can be tested on the JVM against a fake file system.
+ */
+public interface StorageFileSystem {
+
+	/** The device file system, using {@link StatFs} for free space. */
+	public static final StorageFileSystem DEFAULT = new StorageFileSystem() {
+		@Override
+		@SuppressWarnings("deprecation")
+		public long getAvailableBytes(File dir) {
+			try {
+				StatFs stat = new StatFs(dir.getPath());
+				return (long) stat.getAvailableBlocks() * stat.getBlockSize();
+			} catch (IllegalArgumentException e) {
+				// Not mounted.
+				return 0;
+			}
+		}
+
+		@Override
+		public List<StoredFile> listFiles(File dir) {
+			File[] files = dir.listFiles();
+			List<StoredFile> result = new ArrayList<StoredFile>(files != null ? files.length : 0);
+			if (files != null) {
+				for (File file : files) {
+					if (file.isFile()) {
+						result.add(new StoredFile(file, file.length(), file.lastModified()));
+					}
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public boolean delete(File file) {
+			return file.delete();
+		}
+	};
+
+	/**
+	 * Gets the bytes available to the app on the volume of a directory.
+	 *
+	 * @param dir the directory
+	 * @return the available bytes
+	 */
+	public long getAvailableBytes(File dir);
+
+	/**
+	 * Lists the files directly in a directory.
+	 *
+	 * @param dir the directory
+	 * @return the files, empty if the directory does not exist
+	 */
+	public List<StoredFile> listFiles(File dir);
+
+	/**
+	 * Deletes a file.
+	 *
+	 * @param file the file
+	 * @return true, if deleted
+	 */
+	public boolean delete(File file);
+
+	/**
+	 * A file with the attributes used for budgeting.
+	 */
+	public static class StoredFile {
+
+		/** The file. */
+		public final File file;
+
+		/** The length in bytes. */
+		public final long length;
+
+		/** The last modified time in milliseconds. */
+		public final long lastModified;
+
+		public StoredFile(File file, long length, long lastModified) {
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+	}
+}
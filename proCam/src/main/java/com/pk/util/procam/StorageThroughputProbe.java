@@ -0,0 +1,102 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Measures how fast a directory can sustain writes. The measurement writes a few
+ * megabytes and syncs them to the device, so it takes a moment and should not run
+ * on the main thread. Results are cached per directory for the life of the process.
+ */
+public class StorageThroughputProbe {
+
+	private static final String TAG = "StorageThroughputProbe";
+
+	/** The number of bytes written by a measurement. */
+	private static final int PROBE_SIZE_BYTES = 8 * 1024 * 1024;
+
+	/** The size of each write. */
+	private static final int CHUNK_SIZE_BYTES = 256 * 1024;
+
+	/** The name of the file written by a measurement. */
+	private static final String PROBE_FILE_NAME = ".throughput_probe";
+
+	/** The measured throughputs in bytes per second, by directory path. */
+	private static final Map<String, Long> sThroughputs = new HashMap<String, Long>();
+
+	private StorageThroughputProbe() {
+	}
+
+	/**
+	 * Gets the cached throughput of a directory.
+	 *
+	 * @param dir the directory
+	 * @return the throughput in bytes per second, or -1 if it has not been measured
+	 */
+	public static synchronized long getCachedThroughput(File dir) {
+		Long throughput = sThroughputs.get(dir.getAbsolutePath());
+		return throughput != null ? throughput : -1;
+	}
+
+	/**
+	 * Gets the throughput of a directory, measuring it if it is not cached yet.
+	 *
+	 * @param dir the directory
+	 * @return the throughput in bytes per second, or -1 if it could not be measured
+	 */
+	public static synchronized long getThroughput(File dir) {
+		long throughput = getCachedThroughput(dir);
+		if (throughput < 0) {
+			try {
+				throughput = measure(dir);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return throughput;
+	}
+
+	/**
+	 * Measures the sustained write throughput of a directory and caches it.
+	 *
+	 * @param dir the directory
+	 * @return the throughput in bytes per second
+	 * @throws IOException Signals that the probe file could not be written.
+	 */
+	public static synchronized long measure(File dir) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Unable to create "+dir);
+		}
+		File probe = new File(dir, PROBE_FILE_NAME);
+		ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE_BYTES);
+		RandomAccessFile file = new RandomAccessFile(probe, "rw");
+		long elapsedNs;
+		try {
+			FileChannel channel = file.getChannel();
+			long start = System.nanoTime();
+			for (int written = 0; written < PROBE_SIZE_BYTES; written += CHUNK_SIZE_BYTES) {
+				chunk.clear();
+				while (chunk.hasRemaining()) {
+					channel.write(chunk);
+				}
+			}
+			// Without the sync only the page cache would be measured.
+			channel.force(false);
+			elapsedNs = Math.max(1, System.nanoTime() - start);
+		} finally {
+			file.close();
+			probe.delete();
+		}
+
+		long throughput = PROBE_SIZE_BYTES * 1000000000L / elapsedNs;
+		sThroughputs.put(dir.getAbsolutePath(), throughput);
+		LogUtil.i(TAG, "measure - dir: {} bytesPerSecond: {}", dir, throughput);
+		return throughput;
+	}
+}
@@ -0,0 +1,62 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+
+/**
+ * Writes the thumbnail of a captured picture or video into a <code>.thumbnails</code> folder next to it.
+ * Running it again for the same file does nothing once an up to date thumbnail exists.
+ */
+public class ThumbnailJobHandler implements ProcessingJobQueue.JobHandler {
+
+	/** The job type. */
+	public static final String TYPE = "thumbnail";
+
+	/** The folder thumbnails are written to, inside the folder of the file. */
+	public static final String THUMBNAIL_DIR = ".thumbnails";
+
+	/**
+	 * Gets the thumbnail file of a captured file.
+	 *
+	 * @param path the path of the captured file
+	 * @return the thumbnail file
+	 */
+	public static File getThumbnailFile(String path) {
+		File file = new File(path);
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(new File(file.getParentFile(), THUMBNAIL_DIR), (dot > 0 ? name.substring(0, dot) : name) + ".jpg");
+	}
+
+	@Override
+	public void process(ProcessingJob job) throws Exception {
+		File source = new File(job.path);
+		if (!source.exists()) {
+			// Jobs are only added once the file is committed, so it was deleted since.
+			return;
+		}
+		File thumbnail = getThumbnailFile(job.path);
+		if (thumbnail.exists() && thumbnail.lastModified() >= source.lastModified()) {
+			return;
+		}
+		File dir = thumbnail.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		Bitmap bitmap = ImageUtil.INSTANCE.createThumbnails(CaptureRecord.typeOf(job.path) == CaptureRecord.TYPE_VIDEO, job.path);
+		if (bitmap == null) {
+			throw new IOException("Cannot decode " + job.path);
+		}
+		boolean saved;
+		try {
+			saved = ImageUtil.INSTANCE.saveBitmapToNewFile(bitmap, thumbnail.getAbsolutePath());
+		} finally {
+			bitmap.recycle();
+		}
+		if (!saved) {
+			throw new IOException("Cannot write " + thumbnail);
+		}
+	}
+}
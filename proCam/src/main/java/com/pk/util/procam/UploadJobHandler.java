@@ -0,0 +1,43 @@
+package com.pk.util.procam;
+
+import java.io.File;
+
+/**
+ * Uploads a captured file with a {@link ChunkedUploader} as a {@link ProcessingJobQueue} job, so an
+ * upload is retried and survives process death like any other post-processing. Uploaded files are
+ * marked in the catalog, which lets the {@link StorageBudgetManager} evict them.
+ */
+public class UploadJobHandler implements ProcessingJobQueue.JobHandler {
+
+	/** The job type. */
+	public static final String TYPE = "upload";
+
+	/** The m uploader. */
+	private final ChunkedUploader mUploader;
+
+	/** The m catalog, may be null. */
+	private final CaptureCatalog mCatalog;
+
+	/**
+	 * Instantiates a new upload job handler.
+	 *
+	 * @param uploader the uploader
+	 * @param catalog the catalog uploads are marked in, may be null
+	 */
+	public UploadJobHandler(ChunkedUploader uploader, CaptureCatalog catalog) {
+		mUploader = uploader;
+		mCatalog = catalog;
+	}
+
+	@Override
+	public void process(ProcessingJob job) throws Exception {
+		File file = new File(job.path);
+		if (mCatalog != null && mCatalog.isUploaded(file)) {
+			return;
+		}
+		mUploader.upload(file);
+		if (mCatalog != null) {
+			mCatalog.setUploaded(job.path, true);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.pk.util.procam;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Keeps the upload session and confirmed offset of each file being uploaded by a {@link ChunkedUploader},
+ * so an upload resumes where it stopped after the process is restarted.
+ * <p>
+ * The state is a small properties file rewritten atomically with {@link DurableFileWriter} on every change.
+ */
+public class UploadProgressStore {
+
+	private final String TAG = getClass().getSimpleName();
+
+	/**
+	 * The progress of one file.
+	 */
+	public static class Progress {
+
+		/** The URI of the upload session on the server. */
+		public final String sessionUri;
+
+		/** The length of the file when the session was created. */
+		public final long length;
+
+		/** The modification time of the file when the session was created. */
+		public final long lastModified;
+
+		/** The number of bytes the server confirmed. */
+		public final long offset;
+
+		public Progress(String sessionUri, long length, long lastModified, long offset) {
+			this.sessionUri = sessionUri;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.offset = offset;
+		}
+
+		/**
+		 * Checks whether the progress is still for the current content of a file.
+		 *
+		 * @param file the file
+		 * @return true, if the file is unchanged
+		 */
+		public boolean matches(File file) {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+
+		/**
+		 * Gets a copy with another offset.
+		 *
+		 * @param offset the offset
+		 * @return the progress
+		 */
+		public Progress withOffset(long offset) {
+			return new Progress(sessionUri, length, lastModified, offset);
+		}
+	}
+
+	/** The state file. */
+	private final File mFile;
+
+	/** The m writer. */
+	private final DurableFileWriter mFileWriter = new DurableFileWriter(DurabilityPolicy.PER_FILE);
+
+	/** The progress by absolute path, loaded lazily. */
+	private Properties mProperties;
+
+	/**
+	 * Instantiates a new upload progress store.
+	 *
+	 * @param file the state file
+	 */
+	public UploadProgressStore(File file) {
+		mFile = file;
+	}
+
+	/**
+	 * Gets the progress of a file.
+	 *
+	 * @param file the file
+	 * @return the progress, or null if there is none
+	 */
+	public synchronized Progress get(File file) {
+		String value = load().getProperty(file.getAbsolutePath());
+		if (value == null) {
+			return null;
+		}
+		String[] fields = value.split(" ", 4);
+		try {
+			return new Progress(fields[3], Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+		} catch (RuntimeException e) {
+			LogUtil.w(TAG, "get - dropping unreadable progress: {}", value);
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the progress of a file.
+	 *
+	 * @param file the file
+	 * @param progress the progress
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void put(File file, Progress progress) throws IOException {
+		load().setProperty(file.getAbsolutePath(),
+				progress.length + " " + progress.lastModified + " " + progress.offset + " " + progress.sessionUri);
+		save();
+	}
+
+	/**
+	 * Removes the progress of a file.
+	 *
+	 * @param file the file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void remove(File file) throws IOException {
+		if (load().remove(file.getAbsolutePath()) != null) {
+			save();
+		}
+	}
+
+	/**
+	 * Gets the number of files with progress.
+	 *
+	 * @return the count
+	 */
+	public synchronized int size() {
+		return load().size();
+	}
+
+	private Properties load() {
+		if (mProperties == null) {
+			mProperties = new Properties();
+			if (mFile.exists()) {
+				InputStream in = null;
+				try {
+					in = new FileInputStream(mFile);
+					mProperties.load(in);
+				} catch (IOException e) {
+					LogUtil.w(TAG, "load - starting over", e);
+					mProperties.clear();
+				} finally {
+					if (in != null) {
+						try {
+							in.close();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		}
+		return mProperties;
+	}
+
+	private void save() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		mProperties.store(out, null);
+		mFileWriter.write(mFile, out.toByteArray());
+	}
+}
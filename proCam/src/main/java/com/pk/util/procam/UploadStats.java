@@ -0,0 +1,129 @@
+package com.pk.util.procam;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput counters of a {@link ChunkedUploader}. Safe to read while uploads are running.
+ */
+public class UploadStats {
+
+	/** The bytes the server confirmed. */
+	private final AtomicLong mBytesSent = new AtomicLong();
+
+	/** The chunks the server confirmed. */
+	private final AtomicLong mChunksSent = new AtomicLong();
+
+	/** The chunks that failed and were resent from the offset the server reported. */
+	private final AtomicLong mChunkFailures = new AtomicLong();
+
+	/** The m files uploaded. */
+	private final AtomicLong mFilesUploaded = new AtomicLong();
+
+	/** The files continued from an earlier session. */
+	private final AtomicLong mFilesResumed = new AtomicLong();
+
+	/** The time spent sending chunks, summed over connections, in nanoseconds. */
+	private final AtomicLong mChunkNanos = new AtomicLong();
+
+	/** The latency of a whole chunk round trip. */
+	private final LatencyHistogram mChunkLatency = new LatencyHistogram();
+
+	/** The number of transfers running, guarded by this. */
+	private int mActiveTransfers;
+
+	/** The time at least one transfer was running, not counting the current stretch, guarded by this. */
+	private long mActiveNanos;
+
+	/** When the current stretch of running transfers started, guarded by this. */
+	private long mActiveSince;
+
+	synchronized void onTransferStarted() {
+		if (mActiveTransfers++ == 0) {
+			mActiveSince = System.nanoTime();
+		}
+	}
+
+	synchronized void onTransferFinished() {
+		if (--mActiveTransfers == 0) {
+			mActiveNanos += System.nanoTime() - mActiveSince;
+		}
+	}
+
+	void onChunkSent(long bytes, long nanos) {
+		mBytesSent.addAndGet(bytes);
+		mChunksSent.incrementAndGet();
+		mChunkNanos.addAndGet(nanos);
+		mChunkLatency.record(nanos / 1000);
+	}
+
+	void onChunkFailed() {
+		mChunkFailures.incrementAndGet();
+	}
+
+	void onFileUploaded() {
+		mFilesUploaded.incrementAndGet();
+	}
+
+	void onFileResumed() {
+		mFilesResumed.incrementAndGet();
+	}
+
+	public long getBytesSent() {
+		return mBytesSent.get();
+	}
+
+	public long getChunksSent() {
+		return mChunksSent.get();
+	}
+
+	public long getChunkFailures() {
+		return mChunkFailures.get();
+	}
+
+	public long getFilesUploaded() {
+		return mFilesUploaded.get();
+	}
+
+	public long getFilesResumed() {
+		return mFilesResumed.get();
+	}
+
+	public synchronized int getActiveTransfers() {
+		return mActiveTransfers;
+	}
+
+	public LatencyHistogram getChunkLatency() {
+		return mChunkLatency;
+	}
+
+	/**
+	 * Gets the average throughput of a single connection while it is sending.
+	 *
+	 * @return the throughput in bytes per second, 0 before the first chunk
+	 */
+	public long getConnectionThroughput() {
+		long nanos = mChunkNanos.get();
+		return nanos > 0 ? (long) (mBytesSent.get() * 1e9 / nanos) : 0;
+	}
+
+	/**
+	 * Gets the throughput of all transfers together, over the time any of them was running.
+	 *
+	 * @return the throughput in bytes per second, 0 before the first transfer
+	 */
+	public long getAggregateThroughput() {
+		long nanos;
+		synchronized (this) {
+			nanos = mActiveNanos + (mActiveTransfers > 0 ? System.nanoTime() - mActiveSince : 0);
+		}
+		return nanos > 0 ? (long) (mBytesSent.get() * 1e9 / nanos) : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "UploadStats [bytes=" + getBytesSent() + ", chunks=" + getChunksSent() + ", failures=" + getChunkFailures()
+				+ ", files=" + getFilesUploaded() + ", resumed=" + getFilesResumed()
+				+ ", connection=" + getConnectionThroughput() / 1024 + " KB/s, aggregate=" + getAggregateThroughput() / 1024
+				+ " KB/s, chunk p50=" + mChunkLatency.getPercentileUs(50) + "us]";
+	}
+}
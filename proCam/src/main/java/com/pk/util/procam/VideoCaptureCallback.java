@@ -0,0 +1,17 @@
+package com.pk.util.procam;
+
+/**
+ * A {@link CameraCallback} that also hears about recordings that failed. Implement it instead
+ * of CameraCallback to be told, e.g. to tell the user the storage is full.
+ */
+public interface VideoCaptureCallback extends CameraCallback {
+
+	/**
+	 * On video capture failed. Called instead of {@link #onVideoCaptureStarted()} for a recording that
+	 * could not start, or instead of {@link #onVideoCaptured(String)} for one stopped with nothing valid
+	 * recorded. Nothing is left of the recording.
+	 *
+	 * @param cause the cause, an {@link InsufficientStorageException} if the recording would not fit on the storage
+	 */
+	public void onVideoCaptureFailed(Exception cause);
+}
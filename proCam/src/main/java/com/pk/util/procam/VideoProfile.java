@@ -0,0 +1,63 @@
+package com.pk.util.procam;
+
+/**
+ * Encoding settings of a video recording.
+ */
+public class VideoProfile {
+
+	/** The width. */
+	public final int width;
+
+	/** The height. */
+	public final int height;
+
+	/** The frame rate. */
+	public final int frameRate;
+
+	/** The video bit rate in bits per second. */
+	public final int videoBitRate;
+
+	/** The audio bit rate in bits per second. */
+	public final int audioBitRate;
+
+	/**
+	 * Instantiates a new video profile.
+	 *
+	 * @param width the width
+	 * @param height the height
+	 * @param frameRate the frame rate
+	 * @param videoBitRate the video bit rate
+	 * @param audioBitRate the audio bit rate
+	 */
+	public VideoProfile(int width, int height, int frameRate, int videoBitRate, int audioBitRate) {
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+		this.videoBitRate = videoBitRate;
+		this.audioBitRate = audioBitRate;
+	}
+
+	/**
+	 * Gets the number of bytes written per second of recording.
+	 *
+	 * @return the bytes per second
+	 */
+	public long getBytesPerSecond() {
+		return ((long) videoBitRate + audioBitRate) / 8;
+	}
+
+	/**
+	 * Copy of this profile with another video bit rate.
+	 *
+	 * @param bitRate the video bit rate
+	 * @return the video profile
+	 */
+	public VideoProfile withVideoBitRate(int bitRate) {
+		return new VideoProfile(width, height, frameRate, bitRate, audioBitRate);
+	}
+
+	@Override
+	public String toString() {
+		return width+"x"+height+"@"+frameRate+" video: "+videoBitRate+" audio: "+audioBitRate;
+	}
+}
@@ -0,0 +1,93 @@
+package com.pk.util.procam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the video profile a recording should use, from the profiles the camera
+ * supports, so that the recording can be written as fast as it is produced and
+ * fits the max file size.
+ *
+ * Profiles are tried from the largest to the smallest. A profile whose bit rate is
+ * somewhat too high is kept with a lower bit rate rather than dropping to the next
+ * resolution; past MIN_BIT_RATE_FRACTION the next resolution is tried instead.
+ */
+public class VideoProfileSelector {
+
+	/** The share of the measured write throughput a recording may use. */
+	public static final double WRITE_HEADROOM = 0.5;
+
+	/** The lowest share of its nominal bit rate a profile can be reduced to. */
+	public static final double MIN_BIT_RATE_FRACTION = 0.6;
+
+	/** The lowest video bit rate ever chosen. */
+	public static final int MIN_VIDEO_BIT_RATE = 256 * 1024;
+
+	/** The candidate profiles. */
+	private final List<VideoProfile> mCandidates;
+
+	/**
+	 * Instantiates a new video profile selector.
+	 *
+	 * @param candidates the profiles supported by the camera
+	 */
+	public VideoProfileSelector(List<VideoProfile> candidates) {
+		if (candidates.isEmpty()) {
+			throw new IllegalArgumentException("No candidate profiles");
+		}
+		mCandidates = new ArrayList<VideoProfile>(candidates);
+		Collections.sort(mCandidates, new Comparator<VideoProfile>() {
+			@Override
+			public int compare(VideoProfile lhs, VideoProfile rhs) {
+				long lhsRate = (long) lhs.width * lhs.height * lhs.frameRate;
+				long rhsRate = (long) rhs.width * rhs.height * rhs.frameRate;
+				return lhsRate > rhsRate ? -1 : (lhsRate < rhsRate ? 1 : 0);
+			}
+		});
+	}
+
+	/**
+	 * Gets the highest video bit rate allowed by the write throughput and the file size budget.
+	 *
+	 * @param writeBytesPerSecond the measured write throughput, negative if unknown
+	 * @param maxFileSizeBytes the max file size, zero or negative for no limit
+	 * @param maxDurationMs the max duration, zero or negative for no limit
+	 * @param audioBitRate the audio bit rate recorded along with the video
+	 * @return the max video bit rate, Integer.MAX_VALUE for no limit
+	 */
+	public static int getMaxVideoBitRate(long writeBytesPerSecond, long maxFileSizeBytes, int maxDurationMs, int audioBitRate) {
+		long max = Integer.MAX_VALUE;
+		if (writeBytesPerSecond > 0) {
+			max = Math.min(max, (long) (writeBytesPerSecond * 8 * WRITE_HEADROOM) - audioBitRate);
+		}
+		if (maxFileSizeBytes > 0 && maxDurationMs > 0) {
+			max = Math.min(max, maxFileSizeBytes * 8 * 1000 / maxDurationMs - audioBitRate);
+		}
+		return (int) Math.max(MIN_VIDEO_BIT_RATE, max);
+	}
+
+	/**
+	 * Select the profile.
+	 *
+	 * @param writeBytesPerSecond the measured write throughput, negative if unknown
+	 * @param maxFileSizeBytes the max file size, zero or negative for no limit
+	 * @param maxDurationMs the max duration, zero or negative for no limit
+	 * @return the video profile
+	 */
+	public VideoProfile select(long writeBytesPerSecond, long maxFileSizeBytes, int maxDurationMs) {
+		for (VideoProfile candidate : mCandidates) {
+			int maxBitRate = getMaxVideoBitRate(writeBytesPerSecond, maxFileSizeBytes, maxDurationMs, candidate.audioBitRate);
+			if (candidate.videoBitRate <= maxBitRate) {
+				return candidate;
+			}
+			if (candidate.videoBitRate * MIN_BIT_RATE_FRACTION <= maxBitRate) {
+				return candidate.withVideoBitRate(maxBitRate);
+			}
+		}
+		VideoProfile smallest = mCandidates.get(mCandidates.size() - 1);
+		int maxBitRate = getMaxVideoBitRate(writeBytesPerSecond, maxFileSizeBytes, maxDurationMs, smallest.audioBitRate);
+		return smallest.withVideoBitRate(Math.min(smallest.videoBitRate, maxBitRate));
+	}
+}
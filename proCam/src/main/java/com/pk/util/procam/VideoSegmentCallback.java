@@ -0,0 +1,17 @@
+package com.pk.util.procam;
+
+/**
+ * Receives the files of a segmented video recording. Set on
+ * {@link CameraHandler.VideoProperties#setSegmentCallback(VideoSegmentCallback)}.
+ */
+public interface VideoSegmentCallback {
+
+	/**
+	 * On video segment recorded. Called on the main thread each time a segment
+	 * file is complete, including the last one when recording is stopped.
+	 *
+	 * @param segment the index of the segment, starting at 1
+	 * @param fullFilePath the full file path
+	 */
+	public void onVideoSegmentRecorded(int segment, String fullFilePath);
+}
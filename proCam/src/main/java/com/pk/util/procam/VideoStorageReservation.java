@@ -0,0 +1,286 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+/**
+ * Makes sure a recording fits before it starts.
+ * <p>
+ * The projected size of a recording is its bit rate times its max duration, capped by its max
+ * file size. {@link #reserve(File, long, StorageBudgetManager, Preallocator)} fails fast with an
+ * {@link InsufficientStorageException} if that does not fit the free space, and otherwise holds it in
+ * the {@link StorageBudgetManager} until the file is accounted for or deleted, and allocates
+ * the output file up front where the file system supports it, so the recorder writes into space that
+ * is already held, in as few extents as possible, without block allocations along the way. The
+ * recorder then writes through {@link #getFileDescriptor()}, since opening the path again would
+ * truncate the allocation. Once the recording is complete, {@link #trimToContent(File)} cuts the
+ * unused allocated tail off the MP4 file.
+ */
+public class VideoStorageReservation {
+
+	private static final String TAG = "VideoStorageReservation";
+
+	/** MP4 box headers and index, as a fraction of the media data. */
+	static final double CONTAINER_OVERHEAD = 0.02;
+
+	/** How much recording is reserved for when neither duration nor size is limited. */
+	public static final int UNBOUNDED_RESERVATION_MS = 60 * 1000;
+
+	/**
+	 * Allocates space for a file.
+	 */
+	public interface Preallocator {
+
+		/**
+		 * Allocates space for the first bytes of a file.
+		 *
+		 * @param file the file
+		 * @param bytes the bytes
+		 * @return true, if allocated; false if the file system cannot preallocate
+		 * @throws InsufficientStorageException if there is no space for the allocation
+		 */
+		public boolean preallocate(RandomAccessFile file, long bytes) throws InsufficientStorageException;
+	}
+
+	/** Allocates with posix_fallocate from API level 21 and does nothing before. */
+	public static final Preallocator FALLOCATE = new Preallocator() {
+		@Override
+		public boolean preallocate(RandomAccessFile file, long bytes) throws InsufficientStorageException {
+			if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+				return false;
+			}
+			try {
+				return fallocate(file.getFD(), bytes);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+	};
+
+	/** The file. */
+	private final File mFile;
+
+	/** The open file. */
+	private final RandomAccessFile mRandomAccessFile;
+
+	/** The reserved bytes. */
+	private final long mBytes;
+
+	/** Whether the space was allocated up front. */
+	private final boolean mPreallocated;
+
+	private VideoStorageReservation(File file, RandomAccessFile randomAccessFile, long bytes, boolean preallocated) {
+		mFile = file;
+		mRandomAccessFile = randomAccessFile;
+		mBytes = bytes;
+		mPreallocated = preallocated;
+	}
+
+	/**
+	 * Projects the size of a recording.
+	 *
+	 * @param videoBitRate the video bit rate, bits per second
+	 * @param audioBitRate the audio bit rate, bits per second
+	 * @param maxDurationMs the max duration, zero or less for no limit
+	 * @param maxFileSizeBytes the max file size, zero or less for no limit
+	 * @return the projected size in bytes
+	 */
+	public static long projectSize(int videoBitRate, int audioBitRate, int maxDurationMs, long maxFileSizeBytes) {
+		long durationMs = maxDurationMs > 0 ? maxDurationMs : UNBOUNDED_RESERVATION_MS;
+		long media = ((long) videoBitRate + audioBitRate) * durationMs / 8000;
+		long projected = (long) (media * (1 + CONTAINER_OVERHEAD));
+		if (maxFileSizeBytes > 0 && (maxDurationMs <= 0 || maxFileSizeBytes < projected)) {
+			return maxFileSizeBytes;
+		}
+		return projected;
+	}
+
+	/**
+	 * Reserves space for a recording, creating the file.
+	 *
+	 * @param file the output file
+	 * @param bytes the projected size
+	 * @param budget the storage budget
+	 * @param preallocator the preallocator
+	 * @return the reservation, to be closed once the recorder is prepared
+	 * @throws InsufficientStorageException if the recording does not fit
+	 * @throws IOException Signals that the file could not be created.
+	 */
+	public static VideoStorageReservation reserve(File file, long bytes, StorageBudgetManager budget, Preallocator preallocator)
+			throws IOException {
+		return reserve(file, bytes, budget, preallocator, true);
+	}
+
+	/**
+	 * Reserves space for a recording in a file its recorder has already opened, e.g. one prepared
+	 * ahead of time with the path. What the file holds is kept, and the recorder keeps writing
+	 * through its own descriptor, so the reservation can be closed right away.
+	 *
+	 * @param file the output file
+	 * @param bytes the projected size
+	 * @param budget the storage budget
+	 * @param preallocator the preallocator
+	 * @return the reservation
+	 * @throws InsufficientStorageException if the recording does not fit
+	 * @throws IOException Signals that the file could not be opened.
+	 */
+	public static VideoStorageReservation reserveInPlace(File file, long bytes, StorageBudgetManager budget, Preallocator preallocator)
+			throws IOException {
+		return reserve(file, bytes, budget, preallocator, false);
+	}
+
+	private static VideoStorageReservation reserve(File file, long bytes, StorageBudgetManager budget, Preallocator preallocator,
+			boolean truncate) throws IOException {
+		if (!budget.reserve(file, bytes)) {
+			throw new InsufficientStorageException(bytes,
+					Math.max(0, budget.getAvailableBytes() - budget.getReservedBytes() - budget.getMinFreeBytes()));
+		}
+		RandomAccessFile randomAccessFile;
+		boolean preallocated;
+		try {
+			randomAccessFile = new RandomAccessFile(file, "rw");
+		} catch (IOException e) {
+			budget.release(file);
+			throw e;
+		}
+		try {
+			if (truncate) {
+				randomAccessFile.setLength(0);
+			}
+			preallocated = preallocator.preallocate(randomAccessFile, bytes);
+		} catch (IOException e) {
+			randomAccessFile.close();
+			file.delete();
+			budget.release(file);
+			throw e;
+		}
+		LogUtil.d(TAG, "reserve - bytes: {} preallocated: {}", bytes, preallocated);
+		return new VideoStorageReservation(file, randomAccessFile, bytes, preallocated);
+	}
+
+	/**
+	 * Gets the file.
+	 *
+	 * @return the file
+	 */
+	public File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * Gets the reserved bytes.
+	 *
+	 * @return the bytes
+	 */
+	public long getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * Checks if the space was allocated up front.
+	 *
+	 * @return true, if preallocated
+	 */
+	public boolean isPreallocated() {
+		return mPreallocated;
+	}
+
+	/**
+	 * Gets the file descriptor to record to.
+	 *
+	 * @return the file descriptor
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public FileDescriptor getFileDescriptor() throws IOException {
+		return mRandomAccessFile.getFD();
+	}
+
+	/**
+	 * Closes the file. A recorder only takes the descriptor over in MediaRecorder#prepare(), so
+	 * this is called after prepare() returns or once the recorder is released.
+	 */
+	public void close() {
+		try {
+			mRandomAccessFile.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Cuts a complete MP4 file down to the end of its last box, dropping space that was allocated
+	 * but never written. Files that do not end in such space are left alone.
+	 *
+	 * @param file the file
+	 * @return the length of the file afterwards
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static long trimToContent(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "rw");
+		try {
+			long length = in.length();
+			long end = findContentEnd(in, length);
+			if (end < length) {
+				in.setLength(end);
+				LogUtil.d(TAG, "trimToContent - trimmed: {}", length - end);
+				return end;
+			}
+			return length;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Walks the top level MP4 boxes up to the first all zero header.
+	 *
+	 * @return the end of the content, or the length if the boxes run to the end
+	 */
+	static long findContentEnd(RandomAccessFile in, long length) throws IOException {
+		long offset = 0;
+		while (offset + 8 <= length) {
+			in.seek(offset);
+			long size = in.readInt() & 0xFFFFFFFFL;
+			int type = in.readInt();
+			if (size == 0 && type == 0) {
+				// Allocated space nothing was written to.
+				return offset;
+			}
+			if (size == 1) {
+				if (offset + 16 > length) {
+					return length;
+				}
+				size = in.readLong();
+			}
+			if (size == 0 || size < 8) {
+				// The box runs to the end of the file, or the file is not a sequence of boxes.
+				return length;
+			}
+			offset += size;
+		}
+		return length;
+	}
+
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static boolean fallocate(FileDescriptor fd, long bytes) throws InsufficientStorageException {
+		try {
+			Os.posix_fallocate(fd, 0, bytes);
+			return true;
+		} catch (ErrnoException e) {
+			if (e.errno == OsConstants.ENOSPC) {
+				throw new InsufficientStorageException(bytes, -1);
+			}
+			LogUtil.w(TAG, "fallocate - not supported: {}", e.getMessage());
+			return false;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.pk.util.procam;
+
+import org.junit.Assume;
+
+/**
+ * Gate for the timing benchmarks kept next to the unit tests. They print timings rather than assert
+ * on them, so they only run when asked for with {@code ./gradlew test -Pbenchmarks}.
+ */
+final class Benchmarks {
+
+	/** The system property the build sets when benchmarks are asked for. */
+	static final String PROPERTY = "procam.benchmarks";
+
+	private Benchmarks() {
+	}
+
+	/**
+	 * Skips the calling test unless benchmarks were asked for.
+	 */
+	static void assumeEnabled() {
+		Assume.assumeTrue("Benchmark, run with -Pbenchmarks", Boolean.getBoolean(PROPERTY));
+	}
+}
@@ -0,0 +1,267 @@
+package com.pk.util.procam;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BurstStackerTest {
+
+	@Test
+	public void aligner_findsTheShiftOfEachTile() throws Exception {
+		int width = 320, height = 240;
+		FrameAligner aligner = new FrameAligner(width, height, null);
+		aligner.setReference(frame(width, height, 0, 0, 4, new Random(1)));
+		int[][] shifts = { { 7, -5 }, { -13, 9 }, { 0, 0 }, { 22, 17 } };
+		for (int[] shift : shifts) {
+			int[] displacements = aligner.align(frame(width, height, shift[0], shift[1], 4, new Random(2)), null);
+			// Tiles at the border see content that is not in the other frame.
+			for (int ty = 1; ty < aligner.getTilesY() - 1; ty++) {
+				for (int tx = 1; tx < aligner.getTilesX() - 1; tx++) {
+					int index = (ty * aligner.getTilesX() + tx) * 2;
+					String tile = tx + "," + ty + " for " + shift[0] + "," + shift[1];
+					assertEquals(tile, shift[0], displacements[index]);
+					assertEquals(tile, shift[1], displacements[index + 1]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void stacking_cutsTheNoiseOfShakyFrames() throws Exception {
+		int width = 320, height = 240;
+		Random random = new Random(3);
+		BurstStacker stacker = new BurstStacker(width, height, null);
+		// The result lines up with the first frame, the others shake around it.
+		byte[] first = frame(width, height, 0, 0, 10, random);
+		assertTrue(stacker.addFrame(first));
+		for (int i = 1; i < 8; i++) {
+			assertTrue(stacker.addFrame(frame(width, height, random.nextInt(13) - 6, random.nextInt(13) - 6, 10, random)));
+		}
+		byte[] clean = frame(width, height, 0, 0, 0, null);
+		double single = rmse(first, clean, width, height);
+		double stacked = rmse(stacker.getResult(null), clean, width, height);
+		assertEquals(8, stacker.getFrameCount());
+		assertTrue("single " + single + " stacked " + stacked, stacked < single * 0.5);
+		assertTrue(stacker.getRejectedFraction() < 0.2);
+	}
+
+	@Test
+	public void movingSubject_leavesNoGhost() throws Exception {
+		int width = 256, height = 128;
+		int size = 24;
+		Random random = new Random(4);
+		BurstStacker stacker = new BurstStacker(width, height, null);
+		for (int i = 0; i < 6; i++) {
+			byte[] frame = frame(width, height, 0, 0, 3, random);
+			fillSquare(frame, width, 20 + i * 40, 52, size);
+			stacker.addFrame(frame);
+		}
+		byte[] result = stacker.getResult(null);
+		byte[] clean = frame(width, height, 0, 0, 0, null);
+		for (int y = 52; y < 52 + size; y++) {
+			for (int x = 0; x < width; x++) {
+				int value = result[y * width + x] & 0xFF;
+				if (x >= 20 && x < 20 + size) {
+					// The subject stays where it is in the reference.
+					assertEquals(x + "," + y, 255, value, 12);
+				} else {
+					assertEquals(x + "," + y, clean[y * width + x] & 0xFF, value, 20);
+				}
+			}
+		}
+		assertTrue(stacker.getRejectedFraction() > 0);
+	}
+
+	@Test
+	public void addFrame_stopsAtMaxFrames() throws Exception {
+		BurstStacker stacker = new BurstStacker(64, 64, null);
+		byte[] frame = frame(64, 64, 0, 0, 2, new Random(5));
+		for (int i = 0; i < BurstStacker.MAX_FRAMES; i++) {
+			assertTrue(stacker.addFrame(frame));
+		}
+		assertFalse(stacker.addFrame(frame));
+		assertEquals(BurstStacker.MAX_FRAMES, stacker.getFrameCount());
+		assertArrayEquals(frame, stacker.getResult(null));
+	}
+
+	@Test
+	public void parallelStacking_matchesSerial() throws Exception {
+		int width = 320, height = 240;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			BurstStacker serial = new BurstStacker(width, height, null);
+			BurstStacker parallel = new BurstStacker(width, height, pool);
+			Random random = new Random(6);
+			for (int i = 0; i < 5; i++) {
+				byte[] frame = frame(width, height, random.nextInt(9) - 4, random.nextInt(9) - 4, 8, random);
+				serial.addFrame(frame);
+				parallel.addFrame(frame);
+				assertArrayEquals(serial.getDisplacements(), parallel.getDisplacements());
+			}
+			assertArrayEquals(serial.getResult(null), parallel.getResult(null));
+			assertEquals(serial.getRejectedFraction(), parallel.getRejectedFraction(), 0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void rejectThreshold_followsTheNoise() throws Exception {
+		byte[] flat = new byte[64 * 64 * 3 / 2];
+		assertEquals(BurstStacker.MIN_REJECT_THRESHOLD, BurstStacker.estimateRejectThreshold(flat, 64, 64));
+
+		// 3 standard deviations of the difference of two samples, 42 for a deviation of 10.
+		Random random = new Random(7);
+		byte[] noisy = new byte[256 * 256 * 3 / 2];
+		for (int i = 0; i < noisy.length; i++) {
+			noisy[i] = (byte) clampByte(128 + (int) Math.round(random.nextGaussian() * 10));
+		}
+		assertEquals(42, BurstStacker.estimateRejectThreshold(noisy, 256, 256), 6);
+
+		BurstStacker stacker = new BurstStacker(64, 64, null).setRejectThreshold(20);
+		stacker.addFrame(flat);
+		assertEquals(20, stacker.getRejectThreshold());
+	}
+
+	@Test
+	public void rotate_movesPixelsAndKeepsChromaPairs() throws Exception {
+		int width = 8, height = 4;
+		byte[] frame = new byte[width * height * 3 / 2];
+		for (int i = 0; i < frame.length; i++) {
+			frame[i] = (byte) i;
+		}
+		byte[] rotated = BurstStacker.rotate(frame, width, height, 90);
+		// The top left corner goes to the top right, the frame is now 4 wide.
+		assertEquals(frame[0], rotated[height - 1]);
+		assertEquals(frame[width - 1], rotated[(width - 1) * height + height - 1]);
+		// The first V and U pair goes to the top right of the chroma plane.
+		int chroma = width * height;
+		assertEquals(frame[chroma], rotated[chroma + height - 2]);
+		assertEquals(frame[chroma + 1], rotated[chroma + height - 1]);
+
+		assertArrayEquals(frame, BurstStacker.rotate(BurstStacker.rotate(frame, width, height, 90), height, width, 270));
+		assertArrayEquals(frame, BurstStacker.rotate(BurstStacker.rotate(frame, width, height, 180), width, height, 180));
+		assertSame(frame, BurstStacker.rotate(frame, width, height, 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oddFrameSize_isRejected() throws Exception {
+		new BurstStacker(321, 240, null);
+	}
+
+	/**
+	 * Not an assertion on timings, which depend on the machine, but prints the cost of stacking full
+	 * HD frames serially and in parallel. Only runs with benchmarks enabled, see {@link Benchmarks}.
+	 */
+	@Test
+	public void benchmark_stacking() throws Exception {
+		Benchmarks.assumeEnabled();
+		int width = 1920, height = 1080;
+		int frames = 8;
+		Random random = new Random(8);
+		byte[][] burst = new byte[frames][];
+		for (int i = 0; i < frames; i++) {
+			burst[i] = frame(width, height, random.nextInt(17) - 8, random.nextInt(17) - 8, 10, random);
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (ForkJoinPool p : new ForkJoinPool[] { null, pool }) {
+				// Once to warm up, once measured.
+				stack(burst, width, height, p);
+				long start = System.nanoTime();
+				byte[] result = stack(burst, width, height, p);
+				long elapsedMs = (System.nanoTime() - start) / 1000000;
+				System.out.println("BurstStacker " + width + "x" + height + " " + (p == null ? "serial" : threads + " threads") + ": "
+						+ elapsedMs / frames + " ms/frame, " + elapsedMs + " ms for " + frames + " frames");
+				assertEquals(width * height * 3 / 2, result.length);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static byte[] stack(byte[][] burst, int width, int height, ForkJoinPool pool) {
+		BurstStacker stacker = new BurstStacker(width, height, pool);
+		for (byte[] frame : burst) {
+			stacker.addFrame(frame);
+		}
+		return stacker.getResult(null);
+	}
+
+	/**
+	 * A frame of a textured scene whose content moved by dx, dy, with gaussian noise. The chroma is flat.
+	 */
+	private static byte[] frame(int width, int height, int dx, int dy, double noise, Random random) {
+		byte[] frame = new byte[width * height * 3 / 2];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				double value = scene(x - dx, y - dy);
+				if (noise > 0) {
+					value += random.nextGaussian() * noise;
+				}
+				frame[y * width + x] = (byte) clampByte((int) Math.round(value));
+			}
+		}
+		for (int i = width * height; i < frame.length; i++) {
+			frame[i] = (byte) 128;
+		}
+		return frame;
+	}
+
+	/**
+	 * The scene, value noise of two scales between 40 and 200, defined everywhere.
+	 */
+	private static double scene(int x, int y) {
+		return 40 + 100 * valueNoise(x, y, 16) + 60 * valueNoise(x, y, 5);
+	}
+
+	private static double valueNoise(int x, int y, int cell) {
+		int cx = floorDiv(x, cell), cy = floorDiv(y, cell);
+		double fx = (double) (x - cx * cell) / cell, fy = (double) (y - cy * cell) / cell;
+		double top = lattice(cx, cy) * (1 - fx) + lattice(cx + 1, cy) * fx;
+		double bottom = lattice(cx, cy + 1) * (1 - fx) + lattice(cx + 1, cy + 1) * fx;
+		return top * (1 - fy) + bottom * fy;
+	}
+
+	private static int floorDiv(int value, int divisor) {
+		return value >= 0 ? value / divisor : -((-value + divisor - 1) / divisor);
+	}
+
+	private static double lattice(int x, int y) {
+		int h = x * 374761393 + y * 668265263;
+		h = (h ^ (h >>> 13)) * 1274126177;
+		return ((h ^ (h >>> 16)) & 0xFFFF) / 65535.0;
+	}
+
+	private static void fillSquare(byte[] frame, int width, int left, int top, int size) {
+		for (int y = top; y < top + size; y++) {
+			for (int x = left; x < left + size; x++) {
+				frame[y * width + x] = (byte) 255;
+			}
+		}
+	}
+
+	/**
+	 * The root mean square error of the luma, away from the borders.
+	 */
+	private static double rmse(byte[] frame, byte[] clean, int width, int height) {
+		double sum = 0;
+		int count = 0;
+		for (int y = 16; y < height - 16; y++) {
+			for (int x = 16; x < width - 16; x++) {
+				int d = (frame[y * width + x] & 0xFF) - (clean[y * width + x] & 0xFF);
+				sum += d * d;
+				count++;
+			}
+		}
+		return Math.sqrt(sum / count);
+	}
+
+	private static int clampByte(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+}
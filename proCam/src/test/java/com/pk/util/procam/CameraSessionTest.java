@@ -0,0 +1,272 @@
+package com.pk.util.procam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.pk.util.procam.CameraSession.State;
+
+import static org.junit.Assert.*;
+
+public class CameraSessionTest {
+
+	/** A camera thread driven by the test: posted tasks run when it says so. */
+	private static class ManualThread implements CameraSession.CameraThread {
+
+		boolean current = true;
+		final List<Runnable> posted = new ArrayList<Runnable>();
+
+		@Override
+		public boolean isCurrentThread() {
+			return current;
+		}
+
+		@Override
+		public void post(Runnable task) {
+			posted.add(task);
+		}
+
+		void runPosted() {
+			boolean wasCurrent = current;
+			current = true;
+			while (!posted.isEmpty()) {
+				posted.remove(0).run();
+			}
+			current = wasCurrent;
+		}
+	}
+
+	/** A real camera thread. */
+	private static class ExecutorThread implements CameraSession.CameraThread {
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		volatile Thread thread;
+
+		ExecutorThread() throws Exception {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					thread = Thread.currentThread();
+				}
+			}).get();
+		}
+
+		@Override
+		public boolean isCurrentThread() {
+			return Thread.currentThread() == thread;
+		}
+
+		@Override
+		public void post(Runnable task) {
+			executor.execute(task);
+		}
+	}
+
+	@Test
+	public void lifecycle_followsAllowedTransitions() throws Exception {
+		CameraSession session = new CameraSession(new ManualThread());
+		assertEquals(State.CLOSED, session.getState());
+		State[] path = { State.OPENING, State.OPENED, State.PREVIEWING, State.CAPTURING, State.OPENED, State.PREVIEWING,
+				State.RECORDING, State.PREVIEWING, State.OPENING, State.OPENED, State.PREVIEWING, State.RELEASING, State.CLOSED };
+		for (State state : path) {
+			assertTrue(state.name(), session.moveTo(state));
+			assertEquals(state, session.getState());
+		}
+		assertEquals(0, session.getRejectedTransitionCount());
+	}
+
+	@Test
+	public void disallowedTransitions_leaveTheStateAlone() throws Exception {
+		CameraSession session = new CameraSession(new ManualThread());
+		session.moveTo(State.OPENING);
+		session.moveTo(State.OPENED);
+		session.moveTo(State.PREVIEWING);
+		session.moveTo(State.RECORDING);
+
+		// A picture or a camera switch while recording.
+		assertFalse(session.moveTo(State.CAPTURING));
+		assertFalse(session.moveTo(State.OPENING));
+		assertEquals(State.RECORDING, session.getState());
+		assertEquals(2, session.getRejectedTransitionCount());
+		assertTrue(session.moveTo(State.RECORDING));
+		assertEquals(2, session.getRejectedTransitionCount());
+	}
+
+	@Test
+	public void transitionTable_releasesEveryOpenState() throws Exception {
+		for (State from : State.values()) {
+			assertFalse(from.name(), CameraSession.canMove(from, from));
+			// Every open state can be released.
+			boolean open = from != State.CLOSED && from != State.OPENING && from != State.RELEASING;
+			assertEquals(from.name(), open, CameraSession.canMove(from, State.RELEASING));
+		}
+		for (State to : State.values()) {
+			assertEquals(to.name(), to == State.OPENING, CameraSession.canMove(State.CLOSED, to));
+			assertEquals(to.name(), to == State.CLOSED, CameraSession.canMove(State.RELEASING, to));
+		}
+	}
+
+	@Test
+	public void onCameraThread_runsRightAway() throws Exception {
+		ManualThread thread = new ManualThread();
+		CameraSession session = new CameraSession(thread);
+		final List<String> ran = new ArrayList<String>();
+
+		assertTrue(session.execute(record(ran, "a")));
+		assertEquals(1, ran.size());
+		assertTrue(thread.posted.isEmpty());
+	}
+
+	@Test
+	public void fromOtherThreads_runsInOrderOnTheCameraThread() throws Exception {
+		ManualThread thread = new ManualThread();
+		CameraSession session = new CameraSession(thread);
+		List<String> ran = new ArrayList<String>();
+
+		thread.current = false;
+		assertFalse(session.execute(record(ran, "a")));
+		assertFalse(session.execute(record(ran, "b")));
+		assertEquals(0, ran.size());
+		assertEquals(2, session.getQueuedCount());
+		assertEquals(1, thread.posted.size());
+
+		// Called on the camera thread while others wait: goes behind them.
+		thread.current = true;
+		assertFalse(session.execute(record(ran, "c")));
+		thread.runPosted();
+		assertEquals("[a, b, c]", ran.toString());
+		assertEquals(0, session.getQueuedCount());
+	}
+
+	@Test
+	public void failingCommand_doesNotStopTheQueue() throws Exception {
+		ManualThread thread = new ManualThread();
+		CameraSession session = new CameraSession(thread);
+		List<String> ran = new ArrayList<String>();
+
+		thread.current = false;
+		session.execute(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("takePicture failed");
+			}
+		});
+		session.execute(record(ran, "b"));
+		thread.runPosted();
+		assertEquals("[b]", ran.toString());
+	}
+
+	@Test
+	public void nestedCommands_goBehindTheQueuedOnes() throws Exception {
+		ManualThread thread = new ManualThread();
+		final CameraSession session = new CameraSession(thread);
+		final List<String> ran = new ArrayList<String>();
+
+		thread.current = false;
+		session.execute(new Runnable() {
+			@Override
+			public void run() {
+				ran.add("outer");
+				session.execute(record(ran, "inner"));
+				ran.add("outer done");
+			}
+		});
+		session.execute(record(ran, "next"));
+		thread.runPosted();
+		assertEquals("[outer, outer done, next, inner]", ran.toString());
+		assertEquals(0, session.getQueuedCount());
+	}
+
+	@Test
+	public void nestedCommands_runInsideTheirCallerWithNothingQueued() throws Exception {
+		ManualThread thread = new ManualThread();
+		final CameraSession session = new CameraSession(thread);
+		final List<String> ran = new ArrayList<String>();
+
+		thread.current = false;
+		session.execute(new Runnable() {
+			@Override
+			public void run() {
+				ran.add("outer");
+				session.execute(record(ran, "inner"));
+				ran.add("outer done");
+			}
+		});
+		thread.runPosted();
+		assertEquals("[outer, inner, outer done]", ran.toString());
+	}
+
+	@Test
+	public void concurrentCallers_eachRunOnceInTheirOrder() throws Exception {
+		final int producers = 8;
+		final int commands = 2000;
+		final ExecutorThread cameraThread = new ExecutorThread();
+		final CameraSession session = new CameraSession(cameraThread);
+		final int[] lastSeen = new int[producers];
+		final AtomicInteger ran = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(producers * commands);
+		for (int i = 0; i < producers; i++) {
+			lastSeen[i] = -1;
+		}
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int c = 0; c < commands; c++) {
+						final int sequence = c;
+						session.execute(new Runnable() {
+							@Override
+							public void run() {
+								// Only the camera thread touches lastSeen, so no locking.
+								if (!cameraThread.isCurrentThread() || lastSeen[producer] != sequence - 1) {
+									errors.incrementAndGet();
+								}
+								lastSeen[producer] = sequence;
+								ran.incrementAndGet();
+								done.countDown();
+							}
+						});
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+		start.countDown();
+		assertTrue(done.await(20, TimeUnit.SECONDS));
+		for (Thread t : threads) {
+			t.join();
+		}
+		cameraThread.executor.shutdown();
+		assertTrue(cameraThread.executor.awaitTermination(5, TimeUnit.SECONDS));
+
+		assertEquals(0, errors.get());
+		assertEquals(producers * commands, ran.get());
+		assertEquals(0, session.getQueuedCount());
+	}
+
+	private static Runnable record(final List<String> ran, final String name) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				ran.add(name);
+			}
+		};
+	}
+}
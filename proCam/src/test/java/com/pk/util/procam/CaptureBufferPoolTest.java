@@ -0,0 +1,110 @@
+package com.pk.util.procam;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureBufferPoolTest {
+
+	@Test
+	public void pool_isBounded() throws Exception {
+		CaptureBufferPool pool = new CaptureBufferPool(2, new FakeClock(0));
+		CaptureBuffer first = pool.acquire(jpeg(100));
+		CaptureBuffer second = pool.acquire(jpeg(100));
+
+		assertNull(pool.acquire());
+		assertEquals(1, pool.getExhaustedCount());
+		assertEquals(2, pool.getOutstandingCount());
+
+		first.release();
+		assertNotNull(pool.acquire());
+		second.release();
+	}
+
+	@Test
+	public void releasedArray_isReused() throws Exception {
+		CaptureBufferPool pool = new CaptureBufferPool(2, new FakeClock(0));
+		CaptureBuffer buffer = pool.acquire(jpeg(1000));
+		byte[] array = buffer.getData();
+		buffer.release();
+
+		CaptureBuffer smaller = pool.acquire(jpeg(800));
+		assertSame(array, smaller.getData());
+		assertEquals(800, smaller.getLength());
+		assertArrayEquals(jpeg(800), Arrays.copyOf(smaller.getData(), smaller.getLength()));
+		assertEquals(1, pool.getReusedCount());
+		smaller.release();
+
+		CaptureBuffer bigger = pool.acquire(jpeg(5000));
+		assertNotSame(array, bigger.getData());
+		assertEquals(5000, bigger.getLength());
+	}
+
+	@Test
+	public void releasedBuffer_cannotBeUsed() throws Exception {
+		CaptureBufferPool pool = new CaptureBufferPool(1, new FakeClock(0));
+		CaptureBuffer buffer = pool.acquire(jpeg(10));
+		buffer.release();
+
+		assertTrue(buffer.isReleased());
+		try {
+			buffer.getData();
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			buffer.release();
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals(0, pool.getOutstandingCount());
+	}
+
+	@Test
+	public void droppedBuffer_isCountedAsLeakAndReclaimed() throws Exception {
+		CaptureBufferPool pool = new CaptureBufferPool(1, new FakeClock(0)).setLeakTracking(true);
+		leak(pool);
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (pool.getLeakedCount() == 0 && System.currentTimeMillis() < deadline) {
+			System.gc();
+			Thread.sleep(10);
+		}
+
+		assertEquals(1, pool.getLeakedCount());
+		assertEquals(0, pool.getOutstandingCount());
+		CaptureBuffer buffer = pool.acquire();
+		assertNotNull(buffer);
+		assertEquals(1, pool.getReusedCount());
+		buffer.release();
+	}
+
+	@Test
+	public void heldBuffer_isReportedAfterThreshold() throws Exception {
+		FakeClock clock = new FakeClock(0);
+		CaptureBufferPool pool = new CaptureBufferPool(3, clock);
+		CaptureBuffer old = pool.acquire(jpeg(10));
+		clock.advance(5000);
+		CaptureBuffer recent = pool.acquire(jpeg(10));
+
+		assertEquals(1, pool.checkForLeaks(3000));
+		assertEquals(2, pool.checkForLeaks(0));
+		old.release();
+		recent.release();
+		assertEquals(0, pool.checkForLeaks(0));
+	}
+
+	private static void leak(CaptureBufferPool pool) {
+		assertNotNull(pool.acquire(jpeg(64 * 1024)));
+	}
+
+	private static byte[] jpeg(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		return data;
+	}
+}
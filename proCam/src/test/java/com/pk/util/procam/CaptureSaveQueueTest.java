@@ -0,0 +1,195 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureSaveQueueTest {
+
+	private File mDir;
+
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("savequeue", "");
+		mDir.delete();
+		assertTrue(mDir.mkdir());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		File[] files = mDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mDir.delete();
+	}
+
+	@Test
+	public void captures_areAcknowledgedAfterTheirBatchIsCommitted() throws Exception {
+		final DurableFileWriter writer = new DurableFileWriter(DurabilityPolicy.BATCHED);
+		CaptureSaveQueue queue = createQueue(writer, 4, 500);
+		final CountDownLatch saved = new CountDownLatch(4);
+		final List<String> missing = Collections.synchronizedList(new ArrayList<String>());
+		for (int i = 0; i < 4; i++) {
+			queue.enqueue(new byte[100], new CaptureSaveQueue.SaveCallback() {
+				@Override
+				public void onSaved(String fullFilePath) {
+					if (fullFilePath == null || !new File(fullFilePath).exists()) {
+						missing.add(String.valueOf(fullFilePath));
+					}
+					saved.countDown();
+				}
+			});
+		}
+		assertTrue(saved.await(5, TimeUnit.SECONDS));
+		assertTrue(missing.toString(), missing.isEmpty());
+		assertEquals(1, queue.getBatchCount());
+		assertEquals(4, queue.getSavedCount());
+		shutdown(queue);
+	}
+
+	@Test
+	public void batch_isWrittenWhenMaxLatencyPasses() throws Exception {
+		CaptureSaveQueue queue = createQueue(new DurableFileWriter(DurabilityPolicy.BATCHED), 8, 50);
+		final CountDownLatch saved = new CountDownLatch(1);
+		long start = System.nanoTime();
+		queue.enqueue(new byte[10], new CaptureSaveQueue.SaveCallback() {
+			@Override
+			public void onSaved(String fullFilePath) {
+				saved.countDown();
+			}
+		});
+		assertTrue(saved.await(5, TimeUnit.SECONDS));
+		long elapsedMs = (System.nanoTime() - start) / 1000000;
+		assertTrue("elapsed " + elapsedMs, elapsedMs >= 45);
+		shutdown(queue);
+	}
+
+	@Test
+	public void shutdown_doesNotWaitForMaxLatency() throws Exception {
+		CaptureSaveQueue queue = createQueue(new DurableFileWriter(DurabilityPolicy.BATCHED), 8, 10000);
+		queue.enqueue(new byte[10], null);
+		long start = System.nanoTime();
+		shutdown(queue);
+		assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+		assertEquals(1, queue.getSavedCount());
+	}
+
+	@Test
+	public void failedCommit_reportsNullPaths() throws Exception {
+		CaptureSaveQueue queue = new CaptureSaveQueue(new CaptureSaveQueue.Writer() {
+			@Override
+			public String write(byte[] data) {
+				return "/never/committed";
+			}
+		}, new CaptureSaveQueue.Committer() {
+			@Override
+			public Collection<String> commit() {
+				return Collections.emptyList();
+			}
+		}, 4, 0);
+		final String[] result = { "unset" };
+		final CountDownLatch saved = new CountDownLatch(1);
+		queue.enqueue(new byte[10], new CaptureSaveQueue.SaveCallback() {
+			@Override
+			public void onSaved(String fullFilePath) {
+				result[0] = fullFilePath;
+				saved.countDown();
+			}
+		});
+		assertTrue(saved.await(5, TimeUnit.SECONDS));
+		assertNull(result[0]);
+		shutdown(queue);
+	}
+
+	@Test
+	public void enqueueAfterShutdown_failsTheCapture() throws Exception {
+		CaptureSaveQueue queue = createQueue(new DurableFileWriter(DurabilityPolicy.BATCHED), 4, 0);
+		shutdown(queue);
+		final String[] result = { "unset" };
+		queue.enqueue(new byte[10], new CaptureSaveQueue.SaveCallback() {
+			@Override
+			public void onSaved(String fullFilePath) {
+				result[0] = fullFilePath;
+			}
+		});
+		assertNull(result[0]);
+		assertEquals(0, queue.getSavedCount());
+		assertEquals(0, mDir.listFiles().length);
+		// A second shutdown completes at once.
+		shutdown(queue);
+	}
+
+	/**
+	 * Not an assertion on timings, which depend on the machine, but prints the throughput
+	 * of the local filesystem for a few batch sizes. Only runs with benchmarks enabled, see {@link Benchmarks}.
+	 */
+	@Test
+	public void benchmark_groupCommitThroughput() throws Exception {
+		Benchmarks.assumeEnabled();
+		byte[] data = new byte[256 * 1024];
+		int captures = 48;
+		for (int batchSize : new int[] { 1, 4, 16 }) {
+			CaptureSaveQueue queue = createQueue(new DurableFileWriter(DurabilityPolicy.BATCHED), batchSize, 5);
+			long start = System.nanoTime();
+			for (int i = 0; i < captures; i++) {
+				queue.enqueue(data, null);
+			}
+			shutdown(queue);
+			long elapsedUs = Math.max(1, (System.nanoTime() - start) / 1000);
+			System.out.println("CaptureSaveQueue batch " + batchSize + ": " + (captures * 1000000L / elapsedUs)
+					+ " captures/s in " + queue.getBatchCount() + " batches");
+			assertEquals(captures, queue.getSavedCount());
+		}
+	}
+
+	private CaptureSaveQueue createQueue(final DurableFileWriter writer, int maxBatchSize, long maxLatencyMs) {
+		final AtomicInteger sequence = new AtomicInteger();
+		return new CaptureSaveQueue(new CaptureSaveQueue.Writer() {
+			@Override
+			public String write(byte[] data) {
+				File file = new File(mDir, "PIC_" + sequence.incrementAndGet() + ".jpg");
+				try {
+					writer.write(file, data);
+				} catch (IOException e) {
+					return null;
+				}
+				return file.getAbsolutePath();
+			}
+		}, new CaptureSaveQueue.Committer() {
+			@Override
+			public Collection<String> commit() {
+				List<String> paths = new ArrayList<String>();
+				for (File file : writer.commit()) {
+					paths.add(file.getAbsolutePath());
+				}
+				return paths;
+			}
+		}, maxBatchSize, maxLatencyMs);
+	}
+
+	private static void shutdown(CaptureSaveQueue queue) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		queue.shutdown(new CaptureSaveQueue.SaveCallback() {
+			@Override
+			public void onSaved(String fullFilePath) {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+}
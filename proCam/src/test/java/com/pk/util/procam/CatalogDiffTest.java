@@ -0,0 +1,71 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CatalogDiffTest {
+
+	private static final File DIR = new File("/sdcard/DCIM/procam");
+
+	private static StorageFileSystem.StoredFile file(String name, long length, long lastModified) {
+		return new StorageFileSystem.StoredFile(new File(DIR, name), length, lastModified);
+	}
+
+	private static String path(String name) {
+		return new File(DIR, name).getAbsolutePath();
+	}
+
+	@Test
+	public void compute_findsAddedChangedAndRemoved() throws Exception {
+		Map<String, long[]> known = new HashMap<String, long[]>();
+		known.put(path("PIC_1.jpg"), new long[] { 100, 1000 });
+		known.put(path("PIC_2.jpg"), new long[] { 100, 1000 });
+		known.put(path("VID_3.mp4"), new long[] { 500, 2000 });
+
+		CatalogDiff diff = CatalogDiff.compute(known, Arrays.asList(
+				file("PIC_1.jpg", 100, 1000), file("PIC_2.jpg", 150, 1500), file("PIC_4.jpg", 80, 3000)));
+
+		assertEquals(1, diff.added.size());
+		assertEquals("PIC_4.jpg", diff.added.get(0).file.getName());
+		assertEquals(1, diff.changed.size());
+		assertEquals("PIC_2.jpg", diff.changed.get(0).file.getName());
+		assertEquals(Arrays.asList(path("VID_3.mp4")), diff.removed);
+	}
+
+	@Test
+	public void compute_ignoresTempAndOtherFiles() throws Exception {
+		CatalogDiff diff = CatalogDiff.compute(new HashMap<String, long[]>(), Arrays.asList(
+				file(".PIC_1.jpg.tmp", 100, 1000), file("notes.txt", 10, 1000), file("VID_1.MP4", 10, 1000)));
+		assertEquals(1, diff.added.size());
+		assertEquals("VID_1.MP4", diff.added.get(0).file.getName());
+	}
+
+	@Test
+	public void compute_isEmptyWhenInSync() throws Exception {
+		Map<String, long[]> known = new HashMap<String, long[]>();
+		known.put(path("PIC_1.jpg"), new long[] { 100, 1000 });
+		assertTrue(CatalogDiff.compute(known, Arrays.asList(file("PIC_1.jpg", 100, 1000))).isEmpty());
+	}
+
+	@Test
+	public void isDirectoryStale_onlyWhenTimeChangedOrTooCloseToScan() throws Exception {
+		assertTrue(CatalogDiff.isDirectoryStale(5000, -1, 0));
+		assertTrue(CatalogDiff.isDirectoryStale(6000, 5000, 60000));
+		assertFalse(CatalogDiff.isDirectoryStale(5000, 5000, 60000));
+		// Changed in the same tick as the scan: a later change may not have moved the time.
+		assertTrue(CatalogDiff.isDirectoryStale(5000, 5000, 6000));
+	}
+
+	@Test
+	public void typeOf_byExtension() throws Exception {
+		assertEquals(CaptureRecord.TYPE_IMAGE, CaptureRecord.typeOf("/a/PIC_1.JPEG"));
+		assertEquals(CaptureRecord.TYPE_VIDEO, CaptureRecord.typeOf("/a/VID_1.3gp"));
+		assertEquals(CaptureRecord.UNKNOWN, CaptureRecord.typeOf("/a/b.log"));
+	}
+}
@@ -0,0 +1,221 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChunkedUploaderTest {
+
+	private static final int CHUNK = 64 * 1024;
+
+	private FakeUploadServer mServer;
+	private File mDir;
+	private File mStateFile;
+
+	@Before
+	public void setUp() throws Exception {
+		mServer = new FakeUploadServer();
+		mDir = File.createTempFile("upload", "");
+		mDir.delete();
+		mDir.mkdirs();
+		mStateFile = new File(mDir, "uploads.properties");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		mServer.stop();
+		for (File file : mDir.listFiles()) {
+			file.delete();
+		}
+		mDir.delete();
+	}
+
+	@Test
+	public void upload_sendsFileInChunks() throws Exception {
+		byte[] data = randomBytes(CHUNK * 5 / 2, 1);
+		File file = write("a.mp4", data);
+		ChunkedUploader uploader = newUploader();
+
+		String session = uploader.upload(file);
+
+		assertArrayEquals(data, mServer.getContent(session));
+		assertEquals(3, uploader.getStats().getChunksSent());
+		assertEquals(data.length, uploader.getStats().getBytesSent());
+		assertEquals(data.length, mServer.bytesReceived);
+		assertEquals(0, new UploadProgressStore(mStateFile).size());
+		assertTrue(uploader.getStats().getConnectionThroughput() > 0);
+		assertTrue(uploader.getStats().getAggregateThroughput() > 0);
+	}
+
+	@Test
+	public void droppedChunk_resumesFromServerOffset() throws Exception {
+		byte[] data = randomBytes(CHUNK * 4, 2);
+		File file = write("b.mp4", data);
+		mServer.chunksToDrop = 2;
+		ChunkedUploader uploader = newUploader();
+
+		String session = uploader.upload(file);
+
+		assertArrayEquals(data, mServer.getContent(session));
+		assertEquals(2, uploader.getStats().getChunkFailures());
+		// Only the unconfirmed halves of the dropped chunks were sent twice.
+		assertEquals(data.length + CHUNK, mServer.bytesReceived);
+	}
+
+	@Test
+	public void restart_resumesPersistedSession() throws Exception {
+		byte[] data = randomBytes(CHUNK * 4, 3);
+		File file = write("c.mp4", data);
+		mServer.chunksToRefuse = 100;
+		ChunkedUploader first = newUploader().setMaxChunkRetries(0);
+		try {
+			first.upload(file);
+			fail();
+		} catch (IOException expected) {
+		}
+		mServer.chunksToRefuse = 0;
+		mServer.chunksToDrop = 1;
+		try {
+			newUploader().setMaxChunkRetries(0).upload(file);
+			fail();
+		} catch (IOException expected) {
+		}
+		assertNotNull(new UploadProgressStore(mStateFile).get(file));
+
+		// A new process: new store and uploader over the same state file.
+		ChunkedUploader restarted = newUploader();
+		String session = restarted.upload(file);
+
+		assertArrayEquals(data, mServer.getContent(session));
+		assertEquals(1, mServer.sessionsCreated);
+		assertEquals(1, restarted.getStats().getFilesResumed());
+		assertEquals(data.length - CHUNK / 2, restarted.getStats().getBytesSent());
+	}
+
+	@Test
+	public void expiredSession_startsOver() throws Exception {
+		byte[] data = randomBytes(CHUNK * 2, 4);
+		File file = write("d.mp4", data);
+		mServer.chunksToRefuse = 100;
+		try {
+			newUploader().setMaxChunkRetries(0).upload(file);
+			fail();
+		} catch (IOException expected) {
+		}
+		mServer.chunksToRefuse = 0;
+		mServer.forgetSessions();
+
+		String session = newUploader().upload(file);
+
+		assertArrayEquals(data, mServer.getContent(session));
+		assertEquals(2, mServer.sessionsCreated);
+	}
+
+	@Test
+	public void changedFile_startsOver() throws Exception {
+		File file = write("e.jpg", randomBytes(CHUNK * 2, 5));
+		mServer.chunksToRefuse = 100;
+		try {
+			newUploader().setMaxChunkRetries(0).upload(file);
+			fail();
+		} catch (IOException expected) {
+		}
+		mServer.chunksToRefuse = 0;
+		byte[] data = randomBytes(CHUNK * 3, 6);
+		write("e.jpg", data);
+		file.setLastModified(file.lastModified() + 2000);
+
+		String session = newUploader().upload(file);
+
+		assertArrayEquals(data, mServer.getContent(session));
+		assertEquals(2, mServer.sessionsCreated);
+	}
+
+	@Test
+	public void emptyFile_isUploaded() throws Exception {
+		File file = write("f.jpg", new byte[0]);
+
+		String session = newUploader().upload(file);
+
+		assertEquals(0, mServer.getContent(session).length);
+	}
+
+	@Test
+	public void concurrentUploads_areBounded() throws Exception {
+		final ChunkedUploader uploader = newUploader().setMaxConcurrentUploads(2);
+		mServer.chunkDelayMs = 20;
+		final List<File> files = new ArrayList<File>();
+		for (int i = 0; i < 6; i++) {
+			files.add(write("g" + i + ".jpg", randomBytes(CHUNK * 2, 10 + i)));
+		}
+		final AtomicInteger failures = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (final File file : files) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						uploader.upload(file);
+					} catch (Exception e) {
+						failures.incrementAndGet();
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(0, failures.get());
+		assertEquals(6, uploader.getStats().getFilesUploaded());
+		assertEquals(2, mServer.maxConcurrentChunks);
+		assertEquals(0, uploader.getStats().getActiveTransfers());
+	}
+
+	@Test
+	public void parseRange_readsLastByte() throws Exception {
+		assertEquals(0, ChunkedUploader.parseRange(null));
+		assertEquals(1024, ChunkedUploader.parseRange("bytes=0-1023"));
+		try {
+			ChunkedUploader.parseRange("bytes=5-9");
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	private ChunkedUploader newUploader() throws IOException {
+		return new ChunkedUploader(mServer.getEndpoint(), new UploadProgressStore(mStateFile))
+				.setChunkSize(CHUNK)
+				.setRetryDelayMs(1)
+				.setTimeoutMs(5000);
+	}
+
+	private File write(String name, byte[] data) throws IOException {
+		File file = new File(mDir, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,143 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DurableFileWriterTest {
+
+	private File mDir;
+
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("durable", "");
+		mDir.delete();
+		assertTrue(mDir.mkdir());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		File[] files = mDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mDir.delete();
+	}
+
+	@Test
+	public void write_replacesTargetWithoutLeavingTempFile() throws Exception {
+		File target = new File(mDir, "PIC_1.jpg");
+		for (DurabilityPolicy policy : new DurabilityPolicy[] { DurabilityPolicy.NONE, DurabilityPolicy.PER_FILE }) {
+			new DurableFileWriter(policy).write(target, bytes(1000, 1));
+			new DurableFileWriter(policy).write(target, bytes(10, 2));
+			assertArrayEquals(bytes(10, 2), read(target));
+			assertEquals(1, mDir.listFiles().length);
+		}
+	}
+
+	@Test
+	public void abort_leavesExistingTargetUntouched() throws Exception {
+		File target = new File(mDir, "PIC_1.jpg");
+		DurableFileWriter writer = new DurableFileWriter(DurabilityPolicy.PER_FILE);
+		writer.write(target, bytes(100, 1));
+
+		DurableFileWriter.PendingFile file = writer.begin(target);
+		file.write(bytes(50, 2));
+		assertTrue(DurableFileWriter.getTempFile(target).exists());
+		file.abort();
+
+		assertArrayEquals(bytes(100, 1), read(target));
+		assertFalse(DurableFileWriter.getTempFile(target).exists());
+	}
+
+	@Test
+	public void stream_isFlushedOnFinish() throws Exception {
+		File target = new File(mDir, "PIC_1.jpg");
+		DurableFileWriter writer = new DurableFileWriter(DurabilityPolicy.NONE);
+		DurableFileWriter.PendingFile file = writer.begin(target);
+		OutputStream stream = file.getStream();
+		stream.write(bytes(3, 4));
+		stream.write(7);
+		writer.finish(file);
+
+		assertArrayEquals(new byte[] { 4, 4, 4, 7 }, read(target));
+	}
+
+	@Test
+	public void batched_filesAppearOnlyOnCommit() throws Exception {
+		DurableFileWriter writer = new DurableFileWriter(DurabilityPolicy.BATCHED);
+		File first = new File(mDir, "PIC_1.jpg");
+		File second = new File(mDir, "PIC_2.jpg");
+		writer.write(first, bytes(10, 1));
+		writer.write(second, bytes(20, 2));
+		assertFalse(first.exists());
+		assertEquals(2, writer.getUncommittedCount());
+
+		List<File> committed = writer.commit();
+		assertEquals(Arrays.asList(first, second), committed);
+		assertArrayEquals(bytes(20, 2), read(second));
+		assertEquals(0, writer.getUncommittedCount());
+		assertTrue(writer.commit().isEmpty());
+	}
+
+	@Test
+	public void deleteStaleTempFiles_removesOnlyTempFiles() throws Exception {
+		DurableFileWriter writer = new DurableFileWriter(DurabilityPolicy.NONE);
+		writer.write(new File(mDir, "PIC_1.jpg"), bytes(10, 1));
+		writer.begin(new File(mDir, "PIC_2.jpg")).write(bytes(10, 1));
+
+		assertEquals(1, DurableFileWriter.deleteStaleTempFiles(mDir));
+		assertEquals(1, mDir.listFiles().length);
+	}
+
+	/**
+	 * Not an assertion on timings, which depend on the machine, but prints the cost of each policy.
+	 * Only runs with benchmarks enabled, see {@link Benchmarks}.
+	 */
+	@Test
+	public void benchmark_durabilityPolicies() throws Exception {
+		Benchmarks.assumeEnabled();
+		byte[] data = bytes(512 * 1024, 9);
+		int files = 16;
+		for (DurabilityPolicy policy : DurabilityPolicy.values()) {
+			DurableFileWriter writer = new DurableFileWriter(policy);
+			long start = System.nanoTime();
+			for (int i = 0; i < files; i++) {
+				writer.write(new File(mDir, policy + "_" + i + ".jpg"), data);
+			}
+			writer.commit();
+			long elapsedUs = (System.nanoTime() - start) / 1000;
+			System.out.println("DurableFileWriter " + policy + ": " + (elapsedUs / files) + " us/file, "
+					+ (data.length * (long) files * 1000000L / Math.max(1, elapsedUs) / 1024) + " KB/s");
+			assertEquals(files * (policy.ordinal() + 1), mDir.listFiles().length);
+		}
+	}
+
+	private static byte[] bytes(int length, int value) {
+		byte[] data = new byte[length];
+		Arrays.fill(data, (byte) value);
+		return data;
+	}
+
+	private static byte[] read(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] data = new byte[(int) in.length()];
+			in.readFully(data);
+			return data;
+		} finally {
+			in.close();
+		}
+	}
+}
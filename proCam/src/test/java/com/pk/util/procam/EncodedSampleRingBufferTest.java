@@ -0,0 +1,91 @@
+package com.pk.util.procam;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EncodedSampleRingBufferTest {
+
+	private static final int KEY = EncodedSampleRingBuffer.FLAG_KEY_FRAME;
+
+	private final List<Long> mDrained = new ArrayList<Long>();
+
+	private final EncodedSampleRingBuffer.SampleSink mSink = new EncodedSampleRingBuffer.SampleSink() {
+		@Override
+		public void writeSample(byte[] data, int offset, int size, long presentationTimeUs, int flags) {
+			// Every test sample is filled with its presentation time.
+			for (int i = 0; i < size; i++) {
+				assertEquals((byte) presentationTimeUs, data[offset + i]);
+			}
+			mDrained.add(presentationTimeUs);
+		}
+	};
+
+	private static boolean add(EncodedSampleRingBuffer buffer, int size, long time, int flags) {
+		byte[] sample = new byte[size];
+		java.util.Arrays.fill(sample, (byte) time);
+		return buffer.add(sample, 0, size, time, flags);
+	}
+
+	@Test
+	public void samples_stayWithinByteBudget() throws Exception {
+		EncodedSampleRingBuffer buffer = new EncodedSampleRingBuffer(100, 50);
+		for (int t = 0; t < 40; t++) {
+			assertTrue(add(buffer, 30, t, t % 4 == 0 ? KEY : 0));
+			assertTrue(buffer.getSizeBytes() <= 100);
+		}
+		assertEquals(3, buffer.getSampleCount());
+		assertEquals(37, buffer.getOldestPresentationTimeUs());
+	}
+
+	@Test
+	public void drain_startsAtOldestKeyFrame() throws Exception {
+		EncodedSampleRingBuffer buffer = new EncodedSampleRingBuffer(1000, 50);
+		for (int t = 0; t < 10; t++) {
+			add(buffer, 10, t, t % 4 == 0 ? KEY : 0);
+		}
+		buffer.evictOlderThan(2);
+
+		assertEquals(6, buffer.drainTo(mSink));
+		assertEquals(Long.valueOf(4), mDrained.get(0));
+		assertEquals(Long.valueOf(9), mDrained.get(5));
+		assertEquals(0, buffer.getSampleCount());
+	}
+
+	@Test
+	public void wrappedSamples_areReadBackIntact() throws Exception {
+		EncodedSampleRingBuffer buffer = new EncodedSampleRingBuffer(64, 50);
+		for (int t = 0; t < 25; t++) {
+			add(buffer, 7 + (t % 5) * 3, t, KEY);
+		}
+		int held = buffer.getSampleCount();
+		assertEquals(held, buffer.drainTo(mSink));
+		for (int i = 1; i < mDrained.size(); i++) {
+			assertEquals(mDrained.get(i - 1) + 1, (long) mDrained.get(i));
+		}
+		assertEquals(Long.valueOf(24), mDrained.get(mDrained.size() - 1));
+	}
+
+	@Test
+	public void sampleSlots_limitSampleCount() throws Exception {
+		EncodedSampleRingBuffer buffer = new EncodedSampleRingBuffer(1000, 4);
+		for (int t = 0; t < 10; t++) {
+			add(buffer, 1, t, KEY);
+		}
+		assertEquals(4, buffer.getSampleCount());
+		assertEquals(6, buffer.getOldestPresentationTimeUs());
+	}
+
+	@Test
+	public void oversizedSample_dropsDependentFrames() throws Exception {
+		EncodedSampleRingBuffer buffer = new EncodedSampleRingBuffer(50, 10);
+		assertTrue(add(buffer, 10, 0, KEY));
+		assertFalse(add(buffer, 60, 1, KEY));
+		assertFalse(add(buffer, 10, 2, 0));
+		assertTrue(add(buffer, 10, 3, KEY));
+		assertEquals(2, buffer.getSampleCount());
+	}
+}
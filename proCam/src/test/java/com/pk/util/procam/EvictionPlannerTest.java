@@ -0,0 +1,78 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EvictionPlannerTest {
+
+	private static final File DIR = new File("/sdcard/captures");
+
+	private static StorageFileSystem.StoredFile file(String name, long length, long lastModified) {
+		return new StorageFileSystem.StoredFile(new File(DIR, name), length, lastModified);
+	}
+
+	private static EvictionPlanner.UploadState uploaded(String... names) {
+		final Set<String> set = new HashSet<String>(Arrays.asList(names));
+		return new EvictionPlanner.UploadState() {
+			@Override
+			public boolean isUploaded(File file) {
+				return set.contains(file.getName());
+			}
+		};
+	}
+
+	private static List<String> names(EvictionPlanner.Plan plan) {
+		List<String> names = new ArrayList<String>();
+		for (StorageFileSystem.StoredFile file : plan.files) {
+			names.add(file.file.getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void plan_evictsLeastRecentlyUsedFirst() throws Exception {
+		List<StorageFileSystem.StoredFile> files = Arrays.asList(
+				file("c", 100, 3000), file("a", 100, 1000), file("b", 100, 2000));
+		EvictionPlanner.Plan plan = EvictionPlanner.plan(files, 150, uploaded("a", "b", "c"));
+		assertEquals(Arrays.asList("a", "b"), names(plan));
+		assertEquals(200, plan.bytesFreed);
+		assertTrue(plan.isSatisfied());
+	}
+
+	@Test
+	public void plan_skipsCapturesNotUploaded() throws Exception {
+		List<StorageFileSystem.StoredFile> files = Arrays.asList(
+				file("a", 100, 1000), file("b", 100, 2000), file("c", 100, 3000));
+		EvictionPlanner.Plan plan = EvictionPlanner.plan(files, 100, uploaded("c"));
+		assertEquals(Arrays.asList("c"), names(plan));
+	}
+
+	@Test
+	public void plan_isUnsatisfiedWhenTooFewUploaded() throws Exception {
+		List<StorageFileSystem.StoredFile> files = Arrays.asList(file("a", 100, 1000), file("b", 100, 2000));
+		EvictionPlanner.Plan plan = EvictionPlanner.plan(files, 150, uploaded("b"));
+		assertEquals(Arrays.asList("b"), names(plan));
+		assertFalse(plan.isSatisfied());
+	}
+
+	@Test
+	public void plan_evictsNothingWithoutUploadStateOrNeed() throws Exception {
+		List<StorageFileSystem.StoredFile> files = Arrays.asList(file("a", 100, 1000));
+		assertTrue(EvictionPlanner.plan(files, 100, null).files.isEmpty());
+		assertTrue(EvictionPlanner.plan(files, 0, uploaded("a")).files.isEmpty());
+	}
+
+	@Test
+	public void plan_breaksTiesByName() throws Exception {
+		List<StorageFileSystem.StoredFile> files = Arrays.asList(file("PIC_2", 10, 1000), file("PIC_1", 10, 1000));
+		assertEquals(Arrays.asList("PIC_1"), names(EvictionPlanner.plan(files, 10, uploaded("PIC_1", "PIC_2"))));
+	}
+}
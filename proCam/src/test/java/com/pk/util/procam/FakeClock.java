@@ -0,0 +1,22 @@
+package com.pk.util.procam;
+
+/**
+ * Clock whose time only moves when a test advances it.
+ */
+public class FakeClock implements Clock {
+
+	private long mNow;
+
+	public FakeClock(long start) {
+		mNow = start;
+	}
+
+	@Override
+	public long now() {
+		return mNow;
+	}
+
+	public void advance(long ms) {
+		mNow += ms;
+	}
+}
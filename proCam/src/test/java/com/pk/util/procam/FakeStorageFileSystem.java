@@ -0,0 +1,66 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory file system with a fixed capacity.
+ */
+public class FakeStorageFileSystem implements StorageFileSystem {
+
+	private final long mCapacity;
+
+	private final Map<File, StoredFile> mFiles = new LinkedHashMap<File, StoredFile>();
+
+	public int statCalls;
+
+	public int listCalls;
+
+	public FakeStorageFileSystem(long capacity) {
+		mCapacity = capacity;
+	}
+
+	public File add(File dir, String name, long length, long lastModified) {
+		File file = new File(dir, name);
+		mFiles.put(file, new StoredFile(file, length, lastModified));
+		return file;
+	}
+
+	public boolean exists(File file) {
+		return mFiles.containsKey(file);
+	}
+
+	public long usedBytes() {
+		long used = 0;
+		for (StoredFile file : mFiles.values()) {
+			used += file.length;
+		}
+		return used;
+	}
+
+	@Override
+	public long getAvailableBytes(File dir) {
+		statCalls++;
+		return mCapacity - usedBytes();
+	}
+
+	@Override
+	public List<StoredFile> listFiles(File dir) {
+		listCalls++;
+		List<StoredFile> result = new ArrayList<StoredFile>();
+		for (StoredFile file : mFiles.values()) {
+			if (dir.equals(file.file.getParentFile())) {
+				result.add(file);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean delete(File file) {
+		return mFiles.remove(file) != null;
+	}
+}
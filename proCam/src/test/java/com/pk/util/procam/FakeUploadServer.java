@@ -0,0 +1,166 @@
+package com.pk.util.procam;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process server speaking the resumable upload protocol of {@link ChunkedUploader}, with hooks to
+ * drop chunks part way and to forget sessions.
+ */
+class FakeUploadServer implements HttpHandler {
+
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+	private final Map<String, ByteArrayOutputStream> mSessions = new HashMap<String, ByteArrayOutputStream>();
+	private final Map<String, Long> mLengths = new HashMap<String, Long>();
+	private final AtomicInteger mActive = new AtomicInteger();
+
+	/** The number of sessions created. */
+	volatile int sessionsCreated;
+
+	/** The body bytes received, including discarded ones. */
+	volatile long bytesReceived;
+
+	/** The most chunk requests handled at once. */
+	volatile int maxConcurrentChunks;
+
+	/** How long each chunk request takes. */
+	volatile long chunkDelayMs;
+
+	/** The number of upcoming chunks to cut off after half their body, answering 503. */
+	volatile int chunksToDrop;
+
+	/** The number of upcoming chunks to refuse outright, answering 503. */
+	volatile int chunksToRefuse;
+
+	FakeUploadServer() throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		mServer.createContext("/upload", this);
+		mServer.setExecutor(mExecutor);
+		mServer.start();
+	}
+
+	URL getEndpoint() throws IOException {
+		return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/upload");
+	}
+
+	synchronized byte[] getContent(String sessionUri) {
+		String id = sessionUri.substring(sessionUri.lastIndexOf('/') + 1);
+		return mSessions.get(id).toByteArray();
+	}
+
+	synchronized void forgetSessions() {
+		mSessions.clear();
+		mLengths.clear();
+	}
+
+	void stop() {
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			if ("POST".equals(exchange.getRequestMethod())) {
+				createSession(exchange);
+			} else {
+				int active = mActive.incrementAndGet();
+				synchronized (this) {
+					maxConcurrentChunks = Math.max(maxConcurrentChunks, active);
+				}
+				int status;
+				try {
+					if (chunkDelayMs > 0) {
+						Thread.sleep(chunkDelayMs);
+					}
+					status = putChunk(exchange);
+				} finally {
+					// Done before responding, the client may start its next chunk as soon as it has the response.
+					mActive.decrementAndGet();
+				}
+				exchange.sendResponseHeaders(status, -1);
+			}
+		} catch (InterruptedException e) {
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void createSession(HttpExchange exchange) throws IOException {
+		drain(exchange.getRequestBody());
+		String id;
+		synchronized (this) {
+			id = String.valueOf(++sessionsCreated);
+			mSessions.put(id, new ByteArrayOutputStream());
+			mLengths.put(id, Long.parseLong(exchange.getRequestHeaders().getFirst("X-Upload-Content-Length")));
+		}
+		exchange.getResponseHeaders().set("Location", "/upload/" + id);
+		exchange.sendResponseHeaders(201, -1);
+	}
+
+	private int putChunk(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String id = path.substring(path.lastIndexOf('/') + 1);
+		String range = exchange.getRequestHeaders().getFirst("Content-Range");
+		byte[] body = drain(exchange.getRequestBody());
+		synchronized (this) {
+			bytesReceived += body.length;
+			ByteArrayOutputStream content = mSessions.get(id);
+			if (content == null) {
+				return 404;
+			}
+			long length = mLengths.get(id);
+			if (!range.startsWith("bytes */")) {
+				long first = Long.parseLong(range.substring(6, range.indexOf('-')));
+				if (chunksToRefuse > 0) {
+					chunksToRefuse--;
+					return 503;
+				}
+				if (first == content.size()) {
+					int keep = body.length;
+					boolean drop = chunksToDrop > 0;
+					if (drop) {
+						chunksToDrop--;
+						keep = body.length / 2;
+					}
+					content.write(body, 0, keep);
+					if (drop) {
+						return 503;
+					}
+				}
+			}
+			if (content.size() == length) {
+				return 200;
+			} else {
+				if (content.size() > 0) {
+					exchange.getResponseHeaders().set("Range", "bytes=0-" + (content.size() - 1));
+				}
+				return ChunkedUploader.HTTP_RESUME_INCOMPLETE;
+			}
+		}
+	}
+
+	private static byte[] drain(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,168 @@
+package com.pk.util.procam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FocusAreaMapperTest {
+
+	private static final int[][] VIEWS = { { 1080, 1920 }, { 1920, 1080 }, { 720, 720 }, { 333, 777 }, { 1, 1 } };
+	private static final int[] ORIENTATIONS = { 0, 90, 180, 270 };
+	private static final int GRID = 24;
+
+	@Test
+	public void center_mapsToCenter() throws Exception {
+		for (int[] view : VIEWS) {
+			for (int orientation : ORIENTATIONS) {
+				for (boolean mirror : new boolean[] { false, true }) {
+					int[] center = new FocusAreaMapper(view[0], view[1], orientation, mirror).toDriver(view[0] / 2f, view[1] / 2f);
+					assertEquals(0, center[0]);
+					assertEquals(0, center[1]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void portraitBackCamera_topRightIsSensorTopLeft() throws Exception {
+		// A back camera mounted at 90 degrees: the top of the sensor image is on the right of a portrait screen.
+		FocusAreaMapper mapper = new FocusAreaMapper(1080, 1920, 90, false);
+		assertArrayEquals(new int[] { -1000, -1000 }, mapper.toDriver(1080, 0));
+		assertArrayEquals(new int[] { 1000, 1000 }, mapper.toDriver(0, 1920));
+		assertArrayEquals(new int[] { -1000, 1000 }, mapper.toDriver(0, 0));
+		assertArrayEquals(new int[] { 0, -1000 }, mapper.toDriver(1080, 960));
+	}
+
+	@Test
+	public void frontCamera_isMirrored() throws Exception {
+		for (int orientation : ORIENTATIONS) {
+			FocusAreaMapper plain = new FocusAreaMapper(1080, 1920, orientation, false);
+			FocusAreaMapper mirrored = new FocusAreaMapper(1080, 1920, orientation, true);
+			for (int i = 0; i <= GRID; i++) {
+				float x = 1080f * i / GRID;
+				float y = 1920f * (GRID - i) / GRID;
+				int[] a = plain.toDriver(x, y);
+				int[] b = mirrored.toDriver(x, y);
+				assertEquals(-a[0], b[0]);
+				assertEquals(a[1], b[1]);
+			}
+		}
+	}
+
+	@Test
+	public void everyOrientation_matchesReferenceTransform() throws Exception {
+		for (int[] view : VIEWS) {
+			for (int orientation : ORIENTATIONS) {
+				for (boolean mirror : new boolean[] { false, true }) {
+					FocusAreaMapper mapper = new FocusAreaMapper(view[0], view[1], orientation, mirror);
+					for (int i = 0; i <= GRID; i++) {
+						for (int j = 0; j <= GRID; j++) {
+							float x = (float) view[0] * i / GRID;
+							float y = (float) view[1] * j / GRID;
+							int[] expected = reference(view[0], view[1], orientation, mirror, x, y);
+							int[] actual = mapper.toDriver(x, y);
+							String label = view[0] + "x" + view[1] + " " + orientation + (mirror ? " mirrored " : " ") + x + "," + y;
+							assertEquals(label, expected[0], actual[0], 1);
+							assertEquals(label, expected[1], actual[1], 1);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void toView_invertsToDriver() throws Exception {
+		for (int[] view : VIEWS) {
+			for (int orientation : ORIENTATIONS) {
+				for (boolean mirror : new boolean[] { false, true }) {
+					FocusAreaMapper mapper = new FocusAreaMapper(view[0], view[1], orientation, mirror);
+					// One driver unit is this many pixels, plus rounding.
+					float tolerance = Math.max(view[0], view[1]) / 2000f + 0.01f;
+					for (int i = 0; i <= GRID; i++) {
+						for (int j = 0; j <= GRID; j++) {
+							float x = (float) view[0] * i / GRID;
+							float y = (float) view[1] * j / GRID;
+							int[] driver = mapper.toDriver(x, y);
+							float[] back = mapper.toView(driver[0], driver[1]);
+							assertEquals(x, back[0], tolerance);
+							assertEquals(y, back[1], tolerance);
+
+							int dx = -1000 + 2000 * i / GRID;
+							int dy = -1000 + 2000 * j / GRID;
+							float[] point = mapper.toView(dx, dy);
+							int[] again = mapper.toDriver(point[0], point[1]);
+							assertEquals(dx, again[0], 1);
+							assertEquals(dy, again[1], 1);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void regionAround_staysInBoundsAndKeepsItsSize() throws Exception {
+		for (int[] view : VIEWS) {
+			for (int orientation : ORIENTATIONS) {
+				for (boolean mirror : new boolean[] { false, true }) {
+					FocusAreaMapper mapper = new FocusAreaMapper(view[0], view[1], orientation, mirror);
+					for (int i = -1; i <= GRID + 1; i++) {
+						for (int j = -1; j <= GRID + 1; j++) {
+							// Includes taps just outside the view.
+							float x = (float) view[0] * i / GRID;
+							float y = (float) view[1] * j / GRID;
+							FocusRegion region = mapper.regionAround(x, y, 200);
+							int[] center = mapper.toDriver(x, y);
+							assertEquals(200, region.getWidth());
+							assertEquals(200, region.getHeight());
+							assertTrue(region.left >= FocusRegion.MIN && region.right <= FocusRegion.MAX);
+							assertTrue(region.top >= FocusRegion.MIN && region.bottom <= FocusRegion.MAX);
+							assertTrue(region + " " + center[0] + "," + center[1], region.contains(center[0], center[1]));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void regionAround_centersWhenAwayFromEdges() throws Exception {
+		FocusAreaMapper mapper = new FocusAreaMapper(1000, 1000, 0, false);
+		assertEquals(new FocusRegion(-100, -100, 100, 100), mapper.regionAround(500, 500, 200));
+		assertEquals(new FocusRegion(-1000, -1000, 1000, 1000), mapper.regionAround(500, 500, 5000));
+		assertEquals(new FocusRegion(800, -1000, 1000, -800), mapper.regionAround(1000, 0, 200));
+	}
+
+	@Test
+	public void invalidArguments_areRejected() throws Exception {
+		for (int[] args : new int[][] { { 0, 100, 0 }, { 100, -1, 90 }, { 100, 100, 45 } }) {
+			try {
+				new FocusAreaMapper(args[0], args[1], args[2], false);
+				fail();
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+		// Whole turns are fine.
+		assertArrayEquals(new FocusAreaMapper(100, 200, 90, false).toDriver(10, 20),
+				new FocusAreaMapper(100, 200, 450, false).toDriver(10, 20));
+		assertArrayEquals(new FocusAreaMapper(100, 200, 270, true).toDriver(10, 20),
+				new FocusAreaMapper(100, 200, -90, true).toDriver(10, 20));
+	}
+
+	/**
+	 * The transform of the Camera.Parameters#getFocusAreas documentation, driver to view: mirror, rotate
+	 * by the display orientation, scale, translate. Inverted here with a general rotation.
+	 */
+	private static int[] reference(int width, int height, int orientation, boolean mirror, float x, float y) {
+		double u = (x - width / 2.0) * 2000 / width;
+		double v = (y - height / 2.0) * 2000 / height;
+		double angle = Math.toRadians(-orientation);
+		double sx = u * Math.cos(angle) - v * Math.sin(angle);
+		double sy = u * Math.sin(angle) + v * Math.cos(angle);
+		if (mirror) {
+			sx = -sx;
+		}
+		return new int[] { (int) Math.round(sx), (int) Math.round(sy) };
+	}
+}
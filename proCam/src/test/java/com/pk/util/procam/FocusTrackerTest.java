@@ -0,0 +1,86 @@
+package com.pk.util.procam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FocusTrackerTest {
+
+	@Test
+	public void settledLens_capturesNow() throws Exception {
+		FakeClock clock = new FakeClock(1000);
+		FocusTracker tracker = new FocusTracker(clock);
+		assertFalse(tracker.canCaptureNow());
+
+		tracker.onMoving(true);
+		assertEquals(FocusTracker.State.SCANNING, tracker.getState());
+		assertFalse(tracker.canCaptureNow());
+		clock.advance(400);
+		tracker.onMoving(false);
+		assertTrue(tracker.canCaptureNow());
+		assertEquals(1, tracker.getSweepHistogram().getCount());
+		assertEquals(400000, tracker.getSweepHistogram().getMeanUs(), 400000 / 16);
+	}
+
+	@Test
+	public void reset_forgetsStateButKeepsFigures() throws Exception {
+		FakeClock clock = new FakeClock(0);
+		FocusTracker tracker = new FocusTracker(clock);
+		tracker.onMoving(true);
+		clock.advance(300);
+		tracker.onMoving(false);
+		tracker.onCaptureFocused(0, false);
+
+		tracker.reset();
+		assertEquals(FocusTracker.State.UNKNOWN, tracker.getState());
+		assertEquals(1, tracker.getCaptureCount());
+		assertEquals(1, tracker.getSweepHistogram().getCount());
+
+		// A scan cut short by a reset is not a sweep.
+		tracker.onMoving(true);
+		tracker.reset();
+		clock.advance(50);
+		tracker.onMoving(false);
+		assertEquals(1, tracker.getSweepHistogram().getCount());
+	}
+
+	@Test
+	public void failedAutoFocus_isUnfocused() throws Exception {
+		FocusTracker tracker = new FocusTracker(new FakeClock(0));
+		tracker.onAutoFocus(false);
+		assertEquals(FocusTracker.State.UNFOCUSED, tracker.getState());
+		assertFalse(tracker.canCaptureNow());
+		tracker.onAutoFocus(true);
+		assertTrue(tracker.canCaptureNow());
+	}
+
+	@Test
+	public void savedTime_isSweepMinusWait() throws Exception {
+		FakeClock clock = new FakeClock(0);
+		FocusTracker tracker = new FocusTracker(clock);
+
+		// Nothing is known to be saved before a sweep has been measured.
+		assertEquals(0, tracker.onCaptureFocused(0, false));
+
+		tracker.onMoving(true);
+		clock.advance(500);
+		tracker.onMoving(false);
+		long sweepUs = tracker.getSweepHistogram().getMeanUs();
+
+		assertEquals(sweepUs, tracker.onCaptureFocused(0, false));
+		assertEquals(sweepUs - 200000, tracker.onCaptureFocused(200000, false));
+		assertEquals(0, tracker.onCaptureFocused(2 * sweepUs, false));
+		assertEquals(4, tracker.getCaptureCount());
+		assertEquals(2, tracker.getImmediateCaptureCount());
+		assertEquals((2 * sweepUs - 200000) / 4 / 1000, tracker.getSavedMsPerCapture());
+	}
+
+	@Test
+	public void fullAutoFocus_countsAsSweep() throws Exception {
+		FocusTracker tracker = new FocusTracker(new FakeClock(0));
+		assertEquals(0, tracker.onCaptureFocused(600000, true));
+		assertEquals(1, tracker.getSweepHistogram().getCount());
+		assertEquals(0, tracker.getImmediateCaptureCount());
+		assertEquals(0, tracker.getSavedMsPerCapture());
+	}
+}
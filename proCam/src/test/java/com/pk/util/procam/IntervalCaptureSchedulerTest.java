@@ -0,0 +1,108 @@
+package com.pk.util.procam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IntervalCaptureSchedulerTest {
+
+	@Test
+	public void firstShot_isDueImmediately() throws Exception {
+		FakeClock clock = new FakeClock(5000);
+		IntervalCaptureScheduler scheduler = new IntervalCaptureScheduler(clock, 1000, 3);
+		scheduler.start();
+
+		assertEquals(0, scheduler.getDelayToNextShot());
+		assertEquals(0, scheduler.onShotStarted());
+		assertEquals(5000, scheduler.getLastShotTime());
+		assertEquals(1000, scheduler.getDelayToNextShot());
+	}
+
+	@Test
+	public void lateShots_doNotDriftTheSchedule() throws Exception {
+		FakeClock clock = new FakeClock(0);
+		IntervalCaptureScheduler scheduler = new IntervalCaptureScheduler(clock, 1000, 0);
+		scheduler.start();
+
+		scheduler.onShotStarted();
+		clock.advance(1300);		// shot 1 fires 300 ms late
+		assertEquals(1, scheduler.onShotStarted());
+		assertEquals(700, scheduler.getDelayToNextShot());
+		assertEquals(2000, scheduler.getNextShotTime());
+
+		clock.advance(700);
+		assertEquals(2, scheduler.onShotStarted());
+		assertEquals(2000, scheduler.getScheduledTime(2));
+
+		IntervalCaptureScheduler.Stats stats = scheduler.getStats();
+		assertEquals(3, stats.shotsTaken);
+		assertEquals(0, stats.shotsSkipped);
+		assertEquals(100, stats.meanLatenessMs);
+		assertEquals(300, stats.maxLatenessMs);
+	}
+
+	@Test
+	public void overrunningShot_skipsMissedSlots() throws Exception {
+		FakeClock clock = new FakeClock(0);
+		IntervalCaptureScheduler scheduler = new IntervalCaptureScheduler(clock, 1000, 10);
+		scheduler.start();
+
+		scheduler.onShotStarted();
+		clock.advance(3500);
+		assertEquals(3, scheduler.onShotStarted());
+		assertEquals(2, scheduler.getStats().shotsSkipped);
+		assertEquals(500, scheduler.getStats().maxLatenessMs);
+		assertEquals(500, scheduler.getDelayToNextShot());
+	}
+
+	@Test
+	public void shotCount_finishesSession() throws Exception {
+		FakeClock clock = new FakeClock(0);
+		IntervalCaptureScheduler scheduler = new IntervalCaptureScheduler(clock, 1000, 2);
+		scheduler.start();
+
+		scheduler.onShotStarted();
+		assertFalse(scheduler.isFinished());
+		clock.advance(10000);
+		assertEquals(1, scheduler.onShotStarted());
+		assertTrue(scheduler.isFinished());
+	}
+
+	@Test
+	public void previewResume_leavesWarmupBeforeShot() throws Exception {
+		FakeClock clock = new FakeClock(0);
+		IntervalCaptureScheduler scheduler = new IntervalCaptureScheduler(clock, 10000, 0);
+		scheduler.start();
+
+		scheduler.onShotStarted();
+		clock.advance(2000);
+		assertEquals(6500, scheduler.getDelayToPreviewResume(1500));
+		clock.advance(7000);
+		assertEquals(0, scheduler.getDelayToPreviewResume(1500));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nonPositiveInterval_isRejected() throws Exception {
+		new IntervalCaptureScheduler(new FakeClock(0), 0, 1);
+	}
+
+	@Test
+	public void frameTimes_areMeasuredFromShotToPicture() throws Exception {
+		FakeClock clock = new FakeClock(0);
+		IntervalCaptureScheduler scheduler = new IntervalCaptureScheduler(clock, 1000, 0);
+		scheduler.start();
+
+		assertEquals(-1, scheduler.onShotFinished());
+		scheduler.onShotStarted();
+		clock.advance(400);
+		assertEquals(400, scheduler.onShotFinished());
+		clock.advance(600);
+		scheduler.onShotStarted();
+		clock.advance(200);
+		assertEquals(200, scheduler.onShotFinished());
+
+		IntervalCaptureScheduler.Stats stats = scheduler.getStats();
+		assertEquals(300, stats.meanFrameMs);
+		assertEquals(400, stats.maxFrameMs);
+	}
+}
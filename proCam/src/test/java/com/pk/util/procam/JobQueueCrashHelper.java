@@ -0,0 +1,25 @@
+package com.pk.util.procam;
+
+import java.io.File;
+
+/**
+ * Run in a child JVM by {@link ProcessingJobQueueTest}: resumes a queue whose jobs mark their id in a
+ * folder, enqueues more and runs until the parent kills the process.
+ */
+public class JobQueueCrashHelper {
+
+	public static void main(String[] args) throws Exception {
+		File journal = new File(args[0]);
+		File markers = new File(args[1]);
+		int jobs = Integer.parseInt(args[2]);
+		ProcessingJobQueue queue = new ProcessingJobQueue(journal, 2)
+				.registerHandler("mark", new ProcessingJobQueueTest.MarkingHandler(markers, 20));
+		queue.start();
+		for (int i = 0; i < jobs; i++) {
+			queue.enqueue("mark", "job" + i);
+		}
+		System.out.println("enqueued");
+		System.out.flush();
+		Thread.sleep(Long.MAX_VALUE);
+	}
+}
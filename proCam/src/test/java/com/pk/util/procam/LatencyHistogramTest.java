@@ -0,0 +1,51 @@
+package com.pk.util.procam;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void buckets_areContiguousAndPrecise() throws Exception {
+		int lastIndex = -1;
+		for (long value = 0; value < 1000000; value += 1 + value / 50) {
+			int index = LatencyHistogram.bucketIndex(value);
+			assertTrue(index >= lastIndex);
+			long lowest = LatencyHistogram.bucketLowestValue(index);
+			assertTrue(lowest <= value);
+			assertTrue("value: "+value+" lowest: "+lowest, value - lowest <= value / 32);
+			lastIndex = index;
+		}
+	}
+
+	@Test
+	public void percentiles_ofUniformValues() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500500, histogram.getMeanUs());
+		assertEquals(1000000, histogram.getMaxUs());
+		assertEquals(500000, histogram.getPercentileUs(50), 500000 / 32);
+		assertEquals(990000, histogram.getPercentileUs(99), 990000 / 32);
+	}
+
+	@Test
+	public void hugeValues_areClamped() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE / 2);
+		assertEquals(1, histogram.getCount());
+		assertTrue(histogram.getPercentileUs(100) > 0);
+	}
+
+	@Test
+	public void reset_clearsValues() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(10);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentileUs(50));
+	}
+}
@@ -0,0 +1,48 @@
+package com.pk.util.procam;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LogUtilTest {
+
+	@Test
+	public void format_replacesPlaceholdersInOrder() throws Exception {
+		assertEquals("measure - dir: /sdcard bytesPerSecond: 1024",
+				LogUtil.format("measure - dir: {} bytesPerSecond: {}", "/sdcard", 1024L));
+		assertEquals("a: 1 b: 2", LogUtil.format("a: {} b: {}", 1L, 2L));
+		assertEquals("size: 640x480 frames: 8", LogUtil.format("size: {}x{} frames: {}", 640L, 480L, 8L));
+		assertEquals("x: true y: null z: 3", LogUtil.format("x: {} y: {} z: {}", true, null, 3));
+	}
+
+	@Test
+	public void format_primitiveOverloads() throws Exception {
+		assertEquals("rotation: 90", LogUtil.format("rotation: {}", 90));
+		assertEquals("ratio: 0.5", LogUtil.format("ratio: {}", 0.5));
+		assertEquals("ok: false", LogUtil.format("ok: {}", false));
+	}
+
+	@Test
+	public void format_extraArgumentsAreAppended() throws Exception {
+		assertEquals("no placeholder 7", LogUtil.format("no placeholder", 7));
+		assertEquals("one: 1 2", LogUtil.format("one: {}", 1L, 2L));
+	}
+
+	@Test
+	public void format_unusedPlaceholdersAreKept() throws Exception {
+		assertEquals("a: 1 b: {}", LogUtil.format("a: {} b: {}", 1));
+	}
+
+	@Test
+	public void isEnabled_followsMinLevel() throws Exception {
+		int previous = LogUtil.getMinLevel();
+		try {
+			LogUtil.setMinLevel(android.util.Log.WARN);
+			assertFalse(LogUtil.isEnabled(android.util.Log.DEBUG));
+			assertTrue(LogUtil.isEnabled(android.util.Log.ERROR));
+		} finally {
+			LogUtil.setMinLevel(previous);
+		}
+	}
+
+}
@@ -0,0 +1,340 @@
+package com.pk.util.procam;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MediaCipherTest {
+
+	private File mDir;
+	private MediaCipher mCipher;
+
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("cipher", "");
+		mDir.delete();
+		mDir.mkdirs();
+		mCipher = new MediaCipher(MediaCipher.generateKey(128));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File file : mDir.listFiles()) {
+			file.delete();
+		}
+		mDir.delete();
+	}
+
+	@Test
+	public void writer_encryptsAndStreamDecrypts() throws Exception {
+		byte[] data = randomBytes(100000, 1);
+		File file = new File(mDir, "a.jpg");
+		new DurableFileWriter(DurabilityPolicy.PER_FILE).setCipher(mCipher).write(file, data);
+
+		assertEquals(data.length + MediaCipher.HEADER_SIZE, file.length());
+		assertTrue(MediaCipher.isEncrypted(file));
+		assertFalse(Arrays.equals(data, Arrays.copyOfRange(readRaw(file), MediaCipher.HEADER_SIZE, (int) file.length())));
+		assertArrayEquals(data, readAll(mCipher.open(file)));
+	}
+
+	@Test
+	public void rewrite_encryptsAPlainFileInPlace() throws Exception {
+		byte[] data = randomBytes(150001, 4);
+		File file = new File(mDir, "VID_1.mp4");
+		new DurableFileWriter(DurabilityPolicy.NONE).write(file, data);
+
+		new DurableFileWriter(DurabilityPolicy.PER_FILE).setCipher(mCipher).rewrite(file);
+		assertTrue(MediaCipher.isEncrypted(file));
+		assertEquals(data.length + MediaCipher.HEADER_SIZE, file.length());
+		assertArrayEquals(data, readAll(mCipher.open(file)));
+		assertEquals(1, mDir.listFiles().length);
+	}
+
+	@Test
+	public void pendingFileStream_isEncrypted() throws Exception {
+		byte[] data = randomBytes(70001, 2);
+		File file = new File(mDir, "b.jpg");
+		DurableFileWriter writer = new DurableFileWriter(DurabilityPolicy.NONE).setCipher(mCipher);
+		DurableFileWriter.PendingFile pending = writer.begin(file);
+		OutputStream out = pending.getStream();
+		out.write(data, 0, 10);
+		out.write(data[10]);
+		out.write(data, 11, data.length - 11);
+		writer.finish(pending);
+
+		assertArrayEquals(data, readAll(mCipher.open(file)));
+	}
+
+	@Test
+	public void seek_decryptsFromAnyPosition() throws Exception {
+		byte[] data = randomBytes(5000, 3);
+		File file = new File(mDir, "c.jpg");
+		new DurableFileWriter(DurabilityPolicy.NONE).setCipher(mCipher).write(file, data);
+
+		EncryptedFileInputStream in = new EncryptedFileInputStream(mCipher, file);
+		try {
+			assertEquals(data.length, in.length());
+			for (long position : new long[] { 4095, 17, 16, 0, 4999, 1234 }) {
+				in.seek(position);
+				assertEquals("at " + position, data[(int) position] & 0xff, in.read());
+			}
+			in.seek(100);
+			in.mark(0);
+			assertEquals(10, in.skip(10));
+			assertEquals(data[110] & 0xff, in.read());
+			in.reset();
+			byte[] chunk = new byte[33];
+			assertEquals(33, in.read(chunk, 0, 33));
+			assertArrayEquals(Arrays.copyOfRange(data, 100, 133), chunk);
+			in.seek(data.length);
+			assertEquals(-1, in.read());
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void ciphertext_isStandardCtr() throws Exception {
+		byte[] keyBytes = new byte[16];
+		SecretKeySpec key = new SecretKeySpec(keyBytes, "AES");
+		byte[] data = randomBytes(64, 4);
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		OutputStream out = new MediaCipher(key).encrypt(file);
+		out.write(data);
+		byte[] written = file.toByteArray();
+
+		byte[] iv = Arrays.copyOfRange(written, 4, MediaCipher.HEADER_SIZE);
+		Cipher reference = Cipher.getInstance("AES/CTR/NoPadding");
+		reference.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+		assertArrayEquals(data, reference.doFinal(written, MediaCipher.HEADER_SIZE, data.length));
+	}
+
+	@Test
+	public void stream_handlesCiphersThatHoldOutputBack() throws Exception {
+		SecretKeySpec key = new SecretKeySpec(new byte[16], "AES");
+		byte[] iv = new byte[16];
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+		// Odd write sizes leave part of a block in the cipher, the padding only comes out on finish.
+		byte[] data = randomBytes(EncryptingOutputStream.BUFFER_SIZE * 2 + 5, 7);
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		OutputStream out = new EncryptingOutputStream(file, cipher);
+		out.write(data, 0, 3);
+		out.write(data, 3, data.length - 3);
+		out.close();
+
+		Cipher reference = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		reference.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+		assertEquals((data.length / 16 + 1) * 16, file.size());
+		assertArrayEquals(data, reference.doFinal(file.toByteArray()));
+	}
+
+	@Test(expected = IOException.class)
+	public void stream_rejectsWritesAfterFinish() throws Exception {
+		EncryptingOutputStream out = new MediaCipher(new SecretKeySpec(new byte[16], "AES"))
+				.startEncrypting(new ByteArrayOutputStream());
+		out.write(1);
+		out.finish();
+		out.write(2);
+	}
+
+	@Test
+	public void counter_carriesAcrossBytes() throws Exception {
+		byte[] iv = new byte[16];
+		Arrays.fill(iv, 8, 16, (byte) 0xff);
+		byte[] counter = MediaCipher.counter(iv, 1);
+		assertEquals(1, counter[7]);
+		for (int i = 8; i < 16; i++) {
+			assertEquals(0, counter[i]);
+		}
+		assertEquals(0x12, MediaCipher.counter(new byte[16], 0x1234)[14]);
+	}
+
+	@Test
+	public void plainFile_isReadAsIs() throws Exception {
+		byte[] data = randomBytes(300, 5);
+		File file = new File(mDir, "d.jpg");
+		new DurableFileWriter(DurabilityPolicy.NONE).write(file, data);
+
+		assertFalse(MediaCipher.isEncrypted(file));
+		assertArrayEquals(data, readAll(mCipher.open(file)));
+	}
+
+	@Test
+	public void exifOrientation_isReadFromEncryptedJpeg() throws Exception {
+		File file = new File(mDir, "e.jpg");
+		new DurableFileWriter(DurabilityPolicy.NONE).setCipher(mCipher).write(file, jpegWithOrientation(6, false));
+		InputStream in = new EncryptedFileInputStream(mCipher, file);
+		try {
+			assertEquals(6, JpegExif.readOrientation(in));
+		} finally {
+			in.close();
+		}
+		assertEquals(8, JpegExif.readOrientation(new ByteArrayInputStream(jpegWithOrientation(8, true))));
+		assertEquals(1, JpegExif.readOrientation(new ByteArrayInputStream(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9 })));
+	}
+
+	@Test
+	public void exifThumbnail_isReadFromEncryptedJpeg() throws Exception {
+		byte[] thumbnail = randomBytes(3000, 9);
+		File file = new File(mDir, "t.jpg");
+		new DurableFileWriter(DurabilityPolicy.NONE).setCipher(mCipher).write(file, jpegWithThumbnail(thumbnail, false));
+		InputStream in = new EncryptedFileInputStream(mCipher, file);
+		try {
+			assertArrayEquals(thumbnail, JpegExif.readThumbnail(in));
+		} finally {
+			in.close();
+		}
+		assertArrayEquals(thumbnail, JpegExif.readThumbnail(new ByteArrayInputStream(jpegWithThumbnail(thumbnail, true))));
+		assertNull(JpegExif.readThumbnail(new ByteArrayInputStream(jpegWithOrientation(6, true))));
+		assertEquals(6, JpegExif.readOrientation(new ByteArrayInputStream(jpegWithThumbnail(thumbnail, true))));
+	}
+
+	/**
+	 * Not an assertion on timings, which depend on the machine, but prints the cost of encrypting
+	 * writes. Only runs with benchmarks enabled, see {@link Benchmarks}.
+	 */
+	@Test
+	public void benchmark_encryptedVersusPlainWrites() throws Exception {
+		Benchmarks.assumeEnabled();
+		byte[] data = randomBytes(4 * 1024 * 1024, 6);
+		int files = 8;
+		for (MediaCipher cipher : new MediaCipher[] { null, mCipher }) {
+			DurableFileWriter writer = new DurableFileWriter(DurabilityPolicy.NONE).setCipher(cipher);
+			// Warm up the cipher and the file system.
+			writer.write(new File(mDir, "warmup.jpg"), data);
+			long start = System.nanoTime();
+			for (int i = 0; i < files; i++) {
+				writer.write(new File(mDir, (cipher != null ? "enc_" : "plain_") + i + ".jpg"), data);
+			}
+			long elapsedUs = (System.nanoTime() - start) / 1000;
+			System.out.println("MediaCipher " + (cipher != null ? "AES-CTR" : "plain") + ": "
+					+ (data.length * (long) files * 1000000L / Math.max(1, elapsedUs) / 1024) + " KB/s");
+		}
+		assertArrayEquals(data, readAll(mCipher.open(new File(mDir, "enc_0.jpg"))));
+	}
+
+	/**
+	 * Builds the start of a JPEG with an EXIF orientation and an unrelated segment before it.
+	 */
+	private static byte[] jpegWithOrientation(int orientation, boolean little) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] { (byte) 0xFF, (byte) 0xD8 });
+		out.write(new byte[] { (byte) 0xFF, (byte) 0xE0, 0, 6, 'J', 'F', 'I', 'F' });
+		ByteArrayOutputStream exif = new ByteArrayOutputStream();
+		exif.write(new byte[] { 'E', 'x', 'i', 'f', 0, 0 });
+		exif.write(little ? new byte[] { 'I', 'I', 42, 0, 8, 0, 0, 0 } : new byte[] { 'M', 'M', 0, 42, 0, 0, 0, 8 });
+		exif.write(little ? new byte[] { 2, 0 } : new byte[] { 0, 2 });
+		// An unrelated entry (ImageWidth), then the orientation.
+		exif.write(little ? new byte[] { 0, 1, 3, 0, 1, 0, 0, 0, 64, 0, 0, 0 } : new byte[] { 1, 0, 0, 3, 0, 0, 0, 1, 0, 64, 0, 0 });
+		exif.write(little ? new byte[] { 0x12, 1, 3, 0, 1, 0, 0, 0, (byte) orientation, 0, 0, 0 }
+				: new byte[] { 1, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0 });
+		exif.write(new byte[4]);
+		byte[] segment = exif.toByteArray();
+		out.write(new byte[] { (byte) 0xFF, (byte) 0xE1, (byte) ((segment.length + 2) >> 8), (byte) (segment.length + 2) });
+		out.write(segment);
+		out.write(new byte[] { (byte) 0xFF, (byte) 0xDA, 0, 2 });
+		return out.toByteArray();
+	}
+
+	/**
+	 * Builds the start of a JPEG whose EXIF data has an orientation in the first IFD and a
+	 * thumbnail described by the second.
+	 */
+	private static byte[] jpegWithThumbnail(byte[] thumbnail, boolean little) throws IOException {
+		ByteArrayOutputStream exif = new ByteArrayOutputStream();
+		exif.write(new byte[] { 'E', 'x', 'i', 'f', 0, 0 });
+		exif.write(little ? new byte[] { 'I', 'I', 42, 0 } : new byte[] { 'M', 'M', 0, 42 });
+		exif.write(bytes(8, 4, little));
+		// IFD0 at 8: the orientation, then the offset of IFD1.
+		exif.write(bytes(1, 2, little));
+		exif.write(entry(0x0112, 3, 6, little));
+		exif.write(bytes(26, 4, little));
+		// IFD1 at 26: where the thumbnail is and how long it is, then no further IFD.
+		exif.write(bytes(2, 2, little));
+		exif.write(entry(0x0201, 4, 56, little));
+		exif.write(entry(0x0202, 4, thumbnail.length, little));
+		exif.write(bytes(0, 4, little));
+		exif.write(thumbnail);
+		byte[] segment = exif.toByteArray();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] { (byte) 0xFF, (byte) 0xD8 });
+		out.write(new byte[] { (byte) 0xFF, (byte) 0xE1, (byte) ((segment.length + 2) >> 8), (byte) (segment.length + 2) });
+		out.write(segment);
+		out.write(new byte[] { (byte) 0xFF, (byte) 0xDA, 0, 2 });
+		return out.toByteArray();
+	}
+
+	private static byte[] entry(int tag, int type, int value, boolean little) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(bytes(tag, 2, little));
+		out.write(bytes(type, 2, little));
+		out.write(bytes(1, 4, little));
+		// A SHORT is stored left aligned in the value field.
+		out.write(type == 3 ? concat(bytes(value, 2, little), new byte[2]) : bytes(value, 4, little));
+		return out.toByteArray();
+	}
+
+	private static byte[] bytes(int value, int count, boolean little) {
+		byte[] result = new byte[count];
+		for (int i = 0; i < count; i++) {
+			int shift = 8 * (little ? i : count - 1 - i);
+			result[i] = (byte) (value >> shift);
+		}
+		return result;
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] result = new byte[a.length + b.length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[7777];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readRaw(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] data = new byte[(int) in.length()];
+			in.readFully(data);
+			return data;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] randomBytes(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,114 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MediaFileNamerTest {
+
+	private File mDir;
+
+	private long mStart;
+
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("namer", "");
+		mDir.delete();
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2013, Calendar.OCTOBER, 2, 14, 25, 1);
+		mStart = calendar.getTimeInMillis();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		File[] files = mDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		mDir.delete();
+	}
+
+	@Test
+	public void names_use24HourTimeAndSequence() throws Exception {
+		MediaFileNamer namer = new MediaFileNamer(mDir, "PIC_", ".jpg", new FakeClock(mStart));
+		assertEquals("PIC_20131002_142501_000.jpg", namer.nextName());
+		assertEquals("PIC_20131002_142501_001.jpg", namer.nextName());
+	}
+
+	@Test
+	public void sequence_restartsEachSecond() throws Exception {
+		FakeClock clock = new FakeClock(mStart);
+		MediaFileNamer namer = new MediaFileNamer(mDir, "VID_", ".mp4", clock);
+		namer.nextName();
+		clock.advance(1000);
+		assertEquals("VID_20131002_142502_000.mp4", namer.nextName());
+	}
+
+	@Test
+	public void names_areUniqueAndSortedWithinOneSecond() throws Exception {
+		MediaFileNamer namer = new MediaFileNamer(mDir, "PIC_", ".jpg", new FakeClock(mStart));
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 2500; i++) {
+			names.add(namer.nextName());
+		}
+		List<String> sorted = new ArrayList<String>(names);
+		Collections.sort(sorted);
+		assertEquals(names, sorted);
+		assertEquals(names.size(), new HashSet<String>(names).size());
+	}
+
+	@Test
+	public void names_neverGoBackWhenClockDoes() throws Exception {
+		FakeClock clock = new FakeClock(mStart);
+		MediaFileNamer namer = new MediaFileNamer(mDir, "PIC_", ".jpg", clock);
+		String first = namer.nextName();
+		clock.advance(-60000);
+		String second = namer.nextName();
+		assertTrue(second.compareTo(first) > 0);
+	}
+
+	@Test
+	public void next_createsDirectoryAndSkipsExistingFiles() throws Exception {
+		MediaFileNamer earlier = new MediaFileNamer(mDir, "PIC_", ".jpg", new FakeClock(mStart));
+		assertTrue(earlier.next().createNewFile());
+		assertTrue(mDir.isDirectory());
+
+		MediaFileNamer namer = new MediaFileNamer(mDir, "PIC_", ".jpg", new FakeClock(mStart));
+		assertEquals("PIC_20131002_142501_001.jpg", namer.next().getName());
+	}
+
+	@Test
+	public void concurrentCallers_getDistinctNames() throws Exception {
+		final MediaFileNamer namer = new MediaFileNamer(mDir, "PIC_", ".jpg", new FakeClock(mStart));
+		final Set<String> names = Collections.synchronizedSet(new HashSet<String>());
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 500; i++) {
+						names.add(namer.nextName());
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(2000, names.size());
+	}
+}
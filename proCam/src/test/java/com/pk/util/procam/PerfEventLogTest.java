@@ -0,0 +1,111 @@
+package com.pk.util.procam;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PerfEventLogTest {
+
+	private File mFile;
+
+	@Before
+	public void setUp() throws Exception {
+		mFile = File.createTempFile("perf", ".log");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		PerfEventLog.INSTANCE.close();
+		mFile.delete();
+	}
+
+	@Test
+	public void records_areDecodedInOrder() throws Exception {
+		PerfEventLog.INSTANCE.open(mFile, 64);
+		PerfEventLog.INSTANCE.record(PerfEvent.CAMERA_OPEN, 1200, 0);
+		PerfEventLog.INSTANCE.record(PerfEvent.CAPTURE, 3000000, 7);
+		PerfEventLog.INSTANCE.recordError(PerfEvent.SAVE);
+		PerfEventLog.INSTANCE.close();
+
+		List<PerfEventLogDecoder.Record> records = PerfEventLogDecoder.decode(mFile);
+		assertEquals(4, records.size());
+		assertEquals(PerfEvent.SESSION_START, records.get(0).event);
+		assertEquals(PerfEvent.CAMERA_OPEN, records.get(1).event);
+		assertEquals(1200, records.get(1).value1);
+		assertEquals(7, records.get(2).value2);
+		assertEquals(PerfEvent.ERROR, records.get(3).event);
+		assertEquals(PerfEvent.SAVE.ordinal(), records.get(3).value1);
+		assertTrue(records.get(2).nanoTime >= records.get(1).nanoTime);
+	}
+
+	@Test
+	public void fullRing_keepsNewestRecords() throws Exception {
+		PerfEventLog.INSTANCE.open(mFile, 8);
+		for (int i = 0; i < 20; i++) {
+			PerfEventLog.INSTANCE.record(PerfEvent.SAVE, i, 0);
+		}
+		PerfEventLog.INSTANCE.close();
+
+		List<PerfEventLogDecoder.Record> records = PerfEventLogDecoder.decode(mFile);
+		assertEquals(8, records.size());
+		assertEquals(12, records.get(0).value1);
+		assertEquals(19, records.get(7).value1);
+	}
+
+	@Test
+	public void reopening_continuesAfterLastRecord() throws Exception {
+		PerfEventLog.INSTANCE.open(mFile, 8);
+		PerfEventLog.INSTANCE.record(PerfEvent.RECORD_START, 1, 0);
+		PerfEventLog.INSTANCE.open(mFile, 8);
+		PerfEventLog.INSTANCE.record(PerfEvent.RECORD_STOP, 2, 0);
+		PerfEventLog.INSTANCE.close();
+
+		List<PerfEventLogDecoder.Record> records = PerfEventLogDecoder.decode(mFile);
+		assertEquals(4, records.size());
+		assertEquals(PerfEvent.RECORD_START, records.get(1).event);
+		assertEquals(PerfEvent.SESSION_START, records.get(2).event);
+		assertEquals(4, records.get(3).sequence);
+	}
+
+	@Test
+	public void csvAndJson_containEveryRecord() throws Exception {
+		PerfEventLog.INSTANCE.open(mFile, 8);
+		PerfEventLog.INSTANCE.record(PerfEvent.PREVIEW_START, 42, 0);
+		PerfEventLog.INSTANCE.close();
+		List<PerfEventLogDecoder.Record> records = PerfEventLogDecoder.decode(mFile);
+
+		ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		PerfEventLogDecoder.writeCsv(records, new PrintStream(csv));
+		String[] lines = csv.toString().trim().split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[2].startsWith("2,PREVIEW_START,"));
+
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		PerfEventLogDecoder.writeJson(records, new PrintStream(json));
+		assertTrue(json.toString().contains("\"event\": \"PREVIEW_START\""));
+		assertTrue(json.toString().contains("\"value1\": 42"));
+	}
+
+	@Test
+	public void summary_averagesValuesPerEvent() throws Exception {
+		PerfEventLog.INSTANCE.open(mFile, 16);
+		PerfEventLog.INSTANCE.record(PerfEvent.SAVE, 3000000, 10);
+		PerfEventLog.INSTANCE.record(PerfEvent.SAVE, 1000000, 12);
+		PerfEventLog.INSTANCE.record(PerfEvent.CAPTURE, 500000, 1);
+		PerfEventLog.INSTANCE.close();
+
+		ByteArrayOutputStream summary = new ByteArrayOutputStream();
+		PerfEventLogDecoder.writeSummary(PerfEventLogDecoder.decode(mFile), new PrintStream(summary));
+		String text = summary.toString();
+		assertTrue(text, text.contains("SAVE,2,2000000,4000000"));
+		assertTrue(text, text.contains("CAPTURE,1,500000,500000"));
+		assertTrue(text, text.contains("SESSION_START,1,"));
+	}
+}
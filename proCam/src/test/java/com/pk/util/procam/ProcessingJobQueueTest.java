@@ -0,0 +1,270 @@
+package com.pk.util.procam;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProcessingJobQueueTest {
+
+	/**
+	 * Writes one marker file per run of a job, named after its path and the run.
+	 */
+	static class MarkingHandler implements ProcessingJobQueue.JobHandler {
+
+		private final File mDir;
+		private final long mDelayMs;
+
+		MarkingHandler(File dir, long delayMs) {
+			mDir = dir;
+			mDelayMs = delayMs;
+		}
+
+		@Override
+		public void process(ProcessingJob job) throws Exception {
+			Thread.sleep(mDelayMs);
+			for (int run = 0; ; run++) {
+				if (new File(mDir, job.path + "." + run).createNewFile()) {
+					return;
+				}
+			}
+		}
+	}
+
+	private File mDir;
+	private File mJournal;
+	private File mMarkers;
+
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("jobs", "");
+		mDir.delete();
+		mMarkers = new File(mDir, "markers");
+		mMarkers.mkdirs();
+		mJournal = new File(mDir, "jobs.journal");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File file : mMarkers.listFiles()) {
+			file.delete();
+		}
+		mMarkers.delete();
+		for (File file : mDir.listFiles()) {
+			file.delete();
+		}
+		mDir.delete();
+	}
+
+	@Test
+	public void jobs_runOnceAndLeaveNothingPending() throws Exception {
+		ProcessingJobQueue queue = newQueue(0);
+		for (int i = 0; i < 20; i++) {
+			queue.enqueue("mark", "job" + i);
+		}
+		assertTrue(queue.awaitIdle(5000));
+		queue.shutdown();
+		assertEquals(20, mMarkers.list().length);
+
+		ProcessingJobQueue restarted = newQueue(0);
+		assertEquals(0, restarted.getPendingCount());
+		restarted.shutdown();
+	}
+
+	@Test
+	public void killMidBatch_resumesOnlyIncompleteJobs() throws Exception {
+		ProcessingJobQueue queue = newQueue(30);
+		for (int i = 0; i < 40; i++) {
+			queue.enqueue("mark", "job" + i);
+		}
+		waitForMarkers(10);
+		queue.kill();
+		int completedBeforeKill = mMarkers.list().length;
+		assertTrue(completedBeforeKill < 40);
+
+		ProcessingJobQueue restarted = newQueue(0);
+		assertTrue(restarted.getPendingCount() <= 40 - completedBeforeKill + 2);
+		assertTrue(restarted.awaitIdle(5000));
+		restarted.shutdown();
+		assertEveryJobRan(40, 2);
+	}
+
+	@Test
+	public void failingJob_isRetriedThenGivenUp() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		ProcessingJobQueue queue = new ProcessingJobQueue(mJournal, 1, false)
+				.setMaxAttempts(3)
+				.setRetryDelayMs(1)
+				.registerHandler("fail", new ProcessingJobQueue.JobHandler() {
+					@Override
+					public void process(ProcessingJob job) throws Exception {
+						calls.incrementAndGet();
+						throw new IOException("boom");
+					}
+				});
+		queue.start();
+		queue.enqueue("fail", "x");
+		assertTrue(queue.awaitIdle(5000));
+		queue.shutdown();
+		assertEquals(3, calls.get());
+
+		JobJournal journal = new JobJournal(mJournal, false);
+		assertTrue(journal.open().isEmpty());
+		journal.close();
+	}
+
+	@Test
+	public void retryCount_survivesRestart() throws Exception {
+		JobJournal journal = new JobJournal(mJournal, false);
+		journal.open();
+		ProcessingJob job = new ProcessingJob(journal.nextId(), "mark", "a", 0);
+		journal.appendEnqueued(job);
+		journal.appendRetry(job.id, 2);
+		journal.close();
+
+		journal = new JobJournal(mJournal, false);
+		List<ProcessingJob> pending = journal.open();
+		assertEquals(1, pending.size());
+		assertEquals(2, pending.get(0).attempts);
+		assertEquals(job.id + 1, journal.nextId());
+		journal.close();
+	}
+
+	@Test
+	public void tornTail_isDroppedAndAppendsContinue() throws Exception {
+		JobJournal journal = new JobJournal(mJournal, false);
+		journal.open();
+		journal.appendEnqueued(new ProcessingJob(journal.nextId(), "mark", "a", 0));
+		journal.appendEnqueued(new ProcessingJob(journal.nextId(), "mark", "b", 0));
+		journal.close();
+		long length = mJournal.length();
+		RandomAccessFile file = new RandomAccessFile(mJournal, "rw");
+		file.setLength(length - 3);
+		file.close();
+
+		journal = new JobJournal(mJournal, false);
+		List<ProcessingJob> pending = journal.open();
+		assertEquals(1, pending.size());
+		assertEquals("a", pending.get(0).path);
+		journal.appendCompleted(pending.get(0).id);
+		journal.close();
+
+		journal = new JobJournal(mJournal, false);
+		assertTrue(journal.open().isEmpty());
+		journal.close();
+	}
+
+	@Test
+	public void corruptRecord_endsReplay() throws Exception {
+		JobJournal journal = new JobJournal(mJournal, false);
+		journal.open();
+		journal.appendEnqueued(new ProcessingJob(journal.nextId(), "mark", "a", 0));
+		long firstLength = mJournal.length();
+		journal.appendEnqueued(new ProcessingJob(journal.nextId(), "mark", "b", 0));
+		journal.close();
+		RandomAccessFile file = new RandomAccessFile(mJournal, "rw");
+		file.seek(firstLength + 10);
+		file.write(0x7f);
+		file.close();
+
+		journal = new JobJournal(mJournal, false);
+		assertEquals(1, journal.open().size());
+		journal.close();
+		assertEquals(firstLength, mJournal.length());
+	}
+
+	@Test
+	public void checkpoint_keepsJournalSmall() throws Exception {
+		ProcessingJobQueue queue = newQueue(0);
+		for (int i = 0; i < ProcessingJobQueue.CHECKPOINT_RECORDS * 3; i++) {
+			queue.enqueue("mark", "job" + i);
+		}
+		assertTrue(queue.awaitIdle(10000));
+		queue.shutdown();
+		// Each job takes two records of at least 21 bytes; far fewer are left after compaction.
+		assertTrue(mJournal.length() < ProcessingJobQueue.CHECKPOINT_RECORDS * 2 * 40);
+		JobJournal journal = new JobJournal(mJournal, false);
+		assertEquals(0, journal.open().size());
+		journal.close();
+	}
+
+	@Test
+	public void killedProcess_resumesOnlyIncompleteJobs() throws Exception {
+		int jobs = 60;
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				JobQueueCrashHelper.class.getName(), mJournal.getPath(), mMarkers.getPath(), String.valueOf(jobs))
+				.redirectErrorStream(true)
+				.start();
+		try {
+			BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream()));
+			String line;
+			while ((line = out.readLine()) != null && !line.equals("enqueued")) {
+				// Skip output until all jobs are journaled.
+			}
+			assertEquals("enqueued", line);
+			waitForMarkers(10);
+		} finally {
+			child.destroy();
+			child.waitFor();
+		}
+		int completedBeforeKill = mMarkers.list().length;
+		assertTrue(completedBeforeKill < jobs);
+
+		ProcessingJobQueue restarted = newQueue(0);
+		assertTrue(restarted.getPendingCount() < jobs);
+		assertTrue(restarted.awaitIdle(10000));
+		restarted.shutdown();
+		assertEveryJobRan(jobs, 2);
+	}
+
+	@Test(expected = IOException.class)
+	public void appendAfterClose_throws() throws Exception {
+		JobJournal journal = new JobJournal(mJournal, false);
+		journal.open();
+		journal.close();
+		journal.appendCompleted(1);
+	}
+
+	private ProcessingJobQueue newQueue(long delayMs) throws IOException {
+		ProcessingJobQueue queue = new ProcessingJobQueue(mJournal, 2, false)
+				.registerHandler("mark", new MarkingHandler(mMarkers, delayMs));
+		queue.start();
+		return queue;
+	}
+
+	private void waitForMarkers(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (mMarkers.list().length < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * Checks every job ran, and that at most the jobs running at the crash ran twice.
+	 */
+	private void assertEveryJobRan(int jobs, int maxRepeated) {
+		List<String> names = new ArrayList<String>();
+		Collections.addAll(names, mMarkers.list());
+		int repeated = 0;
+		for (int i = 0; i < jobs; i++) {
+			assertTrue("job" + i, names.contains("job" + i + ".0"));
+			if (names.contains("job" + i + ".1")) {
+				repeated++;
+			}
+			assertFalse(names.contains("job" + i + ".2"));
+		}
+		assertTrue("repeated " + repeated, repeated <= maxRepeated);
+	}
+}
@@ -0,0 +1,214 @@
+package com.pk.util.procam;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SizeSelectorTest {
+
+	/**
+	 * Sizes reported by Camera.Parameters on real devices: preview, picture and video sizes,
+	 * and the preferred preview size for video.
+	 */
+	private static final String[][] DEVICES = {
+		{ "Nexus 5 back",
+			"1920x1080,1280x960,1280x720,1024x768,800x600,800x480,720x480,640x480,352x288,320x240,176x144",
+			"3264x2448,3264x1836,2592x1944,2048x1536,1920x1080,1600x1200,1280x960,1280x768,1280x720,1024x768,800x600,800x480,720x480,640x480,352x288,320x240",
+			"1920x1080,1280x720,800x480,720x480,640x480,480x320,352x288,320x240,176x144",
+			"1920x1080" },
+		{ "Galaxy S3 back",
+			"1920x1080,1280x720,960x720,800x480,720x480,640x480,320x240,176x144",
+			"3264x2448,3264x1968,2048x1536,2048x1232,800x480,640x480",
+			"1920x1080,1280x720,720x480,640x480,320x240,176x144",
+			"1280x720" },
+		{ "Nexus S back",
+			"720x480,640x480,352x288,320x240,176x144",
+			"2560x1920,2048x1536,1600x1200,1280x960,640x480",
+			"",
+			"" },
+		{ "Moto G front",
+			"1280x720,960x720,800x480,768x432,720x480,640x480,576x432,480x320,384x288,352x288,320x240,240x160,176x144",
+			"1280x960,1280x720,640x480,320x240",
+			"1280x720,720x480,640x480,352x288,320x240,176x144",
+			"1280x720" },
+		{ "HTC One X back",
+			"1280x720,1024x768,960x720,864x480,800x600,800x480,768x432,720x480,640x480,576x432,480x320,384x288,352x288,320x240,240x160,176x144",
+			"3264x2448,3264x1840,2592x1952,2592x1456,2048x1536,2048x1152,1600x1200,1600x896,1280x960,1280x720,640x480,320x240",
+			"1920x1088,1280x720,864x480,720x480,640x480,320x240,176x144",
+			"1280x720" },
+	};
+
+	private static final int[][] SURFACES = { { 0, 0 }, { 1920, 1080 }, { 1080, 1920 }, { 1280, 800 }, { 800, 480 }, { 2560, 1600 }, { 480, 800 } };
+	private static final double[] ASPECTS = { 0, 4.0 / 3, 16.0 / 9, 3.0 / 2, 9.0 / 16 };
+	private static final long[] BUDGETS = { 0, 8000000, 5000000, 2000000, 1000000, 100000, 1 };
+	private static final int[][] VIDEOS = { { 0, 0 }, { 1920, 1080 }, { 1280, 720 }, { 640, 480 }, { 720, 480 }, { 4096, 2160 } };
+
+	@Test
+	public void nexus5_fullHdSurface_picksMatchingSizes() throws Exception {
+		SizeSelector.Selection selection = selector(DEVICES[0]).setSurfaceSize(1080, 1920).select();
+		assertEquals(new Resolution(1920, 1080), selection.preview);
+		assertEquals(new Resolution(3264, 1836), selection.picture);
+		assertNull(selection.video);
+	}
+
+	@Test
+	public void nexus5_fourThirdsTarget_picksFullSensor() throws Exception {
+		SizeSelector.Selection selection = selector(DEVICES[0]).setSurfaceSize(1920, 1080).setTargetAspectRatio(4.0 / 3).select();
+		assertEquals(new Resolution(3264, 2448), selection.picture);
+		assertEquals(new Resolution(1280, 960), selection.preview);
+	}
+
+	@Test
+	public void pixelBudget_picksLargestThatFits() throws Exception {
+		SizeSelector.Selection selection = selector(DEVICES[0]).setTargetAspectRatio(4.0 / 3).setMaxPicturePixels(2000000).select();
+		assertEquals(new Resolution(1600, 1200), selection.picture);
+	}
+
+	@Test
+	public void nexusS_recordsAtPreviewSize() throws Exception {
+		SizeSelector.Selection selection = selector(DEVICES[2]).setSurfaceSize(800, 480).setVideoSize(720, 480).select();
+		assertEquals(new Resolution(720, 480), selection.video);
+		assertSame(selection.video, selection.preview);
+		assertEquals(1.5, selection.picture.getAspectRatio(), 0.2);
+	}
+
+	@Test
+	public void htcOneX_fullHdVideo_snapsToSupportedSize() throws Exception {
+		SizeSelector.Selection selection = selector(DEVICES[4]).setSurfaceSize(1280, 720).setVideoSize(1920, 1080).select();
+		assertEquals(new Resolution(1920, 1088), selection.video);
+		assertEquals(new Resolution(1280, 720), selection.preview);
+		assertEquals(new Resolution(3264, 1840), selection.picture);
+	}
+
+	@Test
+	public void galaxyS3_previewForVideo_isCapped() throws Exception {
+		SizeSelector.Selection selection = selector(DEVICES[1]).setSurfaceSize(1920, 1080).setVideoSize(1920, 1080).select();
+		assertEquals(new Resolution(1920, 1080), selection.video);
+		assertEquals(new Resolution(1280, 720), selection.preview);
+	}
+
+	@Test
+	public void thumbnail_matchesPictureShape() throws Exception {
+		List<Resolution> thumbnails = parse("512x384,512x288,480x320,320x240,320x180,256x144,176x144,0x0");
+		SizeSelector.Selection selection = selector(DEVICES[0]).setTargetAspectRatio(16.0 / 9).setThumbnailSizes(thumbnails)
+				.setThumbnailSize(320, 240).select();
+		assertEquals(new Resolution(3264, 1836), selection.picture);
+		assertEquals(new Resolution(320, 180), selection.thumbnail);
+
+		selection = selector(DEVICES[0]).setThumbnailSizes(thumbnails).setThumbnailSize(0, 0).select();
+		assertEquals(new Resolution(0, 0), selection.thumbnail);
+		assertNull(selector(DEVICES[0]).setThumbnailSizes(thumbnails).select().thumbnail);
+	}
+
+	@Test
+	public void everyCombination_holdsInvariants() throws Exception {
+		int combinations = 0;
+		Random random = new Random(44);
+		for (String[] device : DEVICES) {
+			List<Resolution> previews = parse(device[1]);
+			List<Resolution> pictures = parse(device[2]);
+			List<Resolution> videos = parse(device[3]);
+			for (int[] surface : SURFACES) {
+				for (double aspect : ASPECTS) {
+					for (long budget : BUDGETS) {
+						for (int[] video : VIDEOS) {
+							String label = device[0] + " surface " + surface[0] + "x" + surface[1] + " aspect " + aspect
+									+ " budget " + budget + " video " + video[0] + "x" + video[1];
+							SizeSelector.Selection selection = selector(device).setSurfaceSize(surface[0], surface[1])
+									.setTargetAspectRatio(aspect).setMaxPicturePixels(budget).setVideoSize(video[0], video[1]).select();
+							checkInvariants(label, selection, previews, pictures, videos, budget, video[0] > 0);
+
+							// The order sizes are listed in does not matter.
+							SizeSelector.Selection shuffled = shuffled(device, random).setSurfaceSize(surface[0], surface[1])
+									.setTargetAspectRatio(aspect).setMaxPicturePixels(budget).setVideoSize(video[0], video[1]).select();
+							assertEquals(label, selection.preview, shuffled.preview);
+							assertEquals(label, selection.picture, shuffled.picture);
+							assertEquals(label, selection.video, shuffled.video);
+							combinations++;
+						}
+					}
+				}
+			}
+		}
+		assertEquals(DEVICES.length * SURFACES.length * ASPECTS.length * BUDGETS.length * VIDEOS.length, combinations);
+	}
+
+	private static void checkInvariants(String label, SizeSelector.Selection selection, List<Resolution> previews,
+			List<Resolution> pictures, List<Resolution> videos, long budget, boolean withVideo) {
+		assertTrue(label, previews.contains(selection.preview));
+		assertTrue(label, pictures.contains(selection.picture));
+
+		// The budget holds whenever any size fits it.
+		boolean anyFits = false;
+		for (Resolution size : pictures) {
+			anyFits |= budget <= 0 || size.getArea() <= budget;
+		}
+		if (anyFits) {
+			assertTrue(label, budget <= 0 || selection.picture.getArea() <= budget);
+		}
+
+		// No allowed picture of the same shape is larger.
+		for (Resolution size : pictures) {
+			if ((budget <= 0 || size.getArea() <= budget) && sameAspect(size, selection.picture)) {
+				assertTrue(label + " " + size, size.getArea() <= selection.picture.getArea());
+			}
+		}
+
+		if (!withVideo) {
+			assertNull(label, selection.video);
+		} else if (videos.isEmpty()) {
+			assertEquals(label, selection.preview, selection.video);
+		} else {
+			assertTrue(label, videos.contains(selection.video));
+		}
+
+		// The preview has the shape of what is captured whenever a preview of that shape exists.
+		if (!withVideo || !videos.isEmpty()) {
+			Resolution captured = withVideo ? selection.video : selection.picture;
+			boolean shapeAvailable = false;
+			for (Resolution size : previews) {
+				shapeAvailable |= sameAspect(size, captured);
+			}
+			if (shapeAvailable) {
+				assertTrue(label + " " + selection, sameAspect(selection.preview, captured));
+			}
+		}
+	}
+
+	private static boolean sameAspect(Resolution a, Resolution b) {
+		return Math.abs(Math.log(a.getAspectRatio() / b.getAspectRatio())) < SizeSelector.ASPECT_TOLERANCE;
+	}
+
+	private static SizeSelector selector(String[] device) {
+		SizeSelector selector = new SizeSelector(parse(device[1]), parse(device[2]), parse(device[3]));
+		List<Resolution> preferred = parse(device[4]);
+		return selector.setMaxPreviewSizeForVideo(preferred.isEmpty() ? null : preferred.get(0));
+	}
+
+	private static SizeSelector shuffled(String[] device, Random random) {
+		List<Resolution> previews = parse(device[1]);
+		List<Resolution> pictures = parse(device[2]);
+		List<Resolution> videos = parse(device[3]);
+		Collections.shuffle(previews, random);
+		Collections.shuffle(pictures, random);
+		Collections.shuffle(videos, random);
+		List<Resolution> preferred = parse(device[4]);
+		return new SizeSelector(previews, pictures, videos).setMaxPreviewSizeForVideo(preferred.isEmpty() ? null : preferred.get(0));
+	}
+
+	private static List<Resolution> parse(String sizes) {
+		List<Resolution> result = new ArrayList<Resolution>();
+		for (String size : sizes.split(",")) {
+			if (size.length() > 0) {
+				String[] parts = size.split("x");
+				result.add(new Resolution(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,168 @@
+package com.pk.util.procam;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StorageBudgetManagerTest {
+
+	private static final File VOLUME = new File("/sdcard");
+
+	private static final File DIR = new File(VOLUME, "captures");
+
+	private FakeStorageFileSystem mFileSystem;
+
+	private FakeClock mClock;
+
+	private StorageBudgetManager mManager;
+
+	private static final EvictionPlanner.UploadState ALL_UPLOADED = new EvictionPlanner.UploadState() {
+		@Override
+		public boolean isUploaded(File file) {
+			return true;
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		mFileSystem = new FakeStorageFileSystem(10000);
+		mClock = new FakeClock(0);
+		mManager = new StorageBudgetManager(VOLUME, mFileSystem, mClock)
+				.setMinFreeBytes(1000)
+				.setResyncIntervalMs(60000);
+	}
+
+	@Test
+	public void availableBytes_areTrackedWithoutStatCalls() throws Exception {
+		assertEquals(10000, mManager.getAvailableBytes());
+		mManager.onFileWritten(mFileSystem.add(DIR, "a.jpg", 3000, 1), 3000);
+		assertEquals(7000, mManager.getAvailableBytes());
+		assertTrue(mManager.hasSpaceFor(6000));
+		assertFalse(mManager.hasSpaceFor(6001));
+		assertEquals(1, mFileSystem.statCalls);
+	}
+
+	@Test
+	public void availableBytes_areResyncedAfterInterval() throws Exception {
+		mManager.getAvailableBytes();
+		// Written by someone else, the manager does not know yet.
+		mFileSystem.add(VOLUME, "other.bin", 4000, 1);
+		assertEquals(10000, mManager.getAvailableBytes());
+		mClock.advance(60000);
+		assertEquals(6000, mManager.getAvailableBytes());
+		assertEquals(2, mFileSystem.statCalls);
+	}
+
+	@Test
+	public void usedBytes_areListedOnceThenTracked() throws Exception {
+		mFileSystem.add(DIR, "a.jpg", 500, 1);
+		mManager.setQuota(DIR, 5000);
+		assertEquals(500, mManager.getUsedBytes(DIR));
+		mManager.onFileWritten(mFileSystem.add(DIR, "b.jpg", 700, 2), 700);
+		assertEquals(1200, mManager.getUsedBytes(DIR));
+		assertEquals(1, mFileSystem.listCalls);
+		assertEquals(-1, mManager.getUsedBytes(VOLUME));
+	}
+
+	@Test
+	public void quota_evictsOldestUploadedCaptures() throws Exception {
+		mManager.setQuota(DIR, 2500).setUploadState(ALL_UPLOADED);
+		File first = mFileSystem.add(DIR, "a.jpg", 1000, 1);
+		File second = mFileSystem.add(DIR, "b.jpg", 1000, 2);
+		assertEquals(0, mManager.onFileWritten(second, 1000));
+		File third = mFileSystem.add(DIR, "c.jpg", 1000, 3);
+
+		assertEquals(1, mManager.onFileWritten(third, 1000));
+		assertFalse(mFileSystem.exists(first));
+		assertTrue(mFileSystem.exists(second));
+		assertEquals(2000, mManager.getUsedBytes(DIR));
+	}
+
+	@Test
+	public void lowFreeSpace_evictsEvenWithinQuota() throws Exception {
+		mManager.setQuota(DIR, 100000).setUploadState(ALL_UPLOADED);
+		mFileSystem.add(DIR, "a.jpg", 4000, 1);
+		mFileSystem.add(DIR, "b.jpg", 4000, 2);
+		File third = mFileSystem.add(DIR, "c.jpg", 1500, 3);
+		mManager.sync();
+
+		assertEquals(1, mManager.onFileWritten(third, 0));
+		assertEquals(4500, mManager.getAvailableBytes());
+		assertEquals(5500, mFileSystem.usedBytes());
+	}
+
+	@Test
+	public void lowFreeSpace_evictsFromDirectoriesWithoutQuota() throws Exception {
+		File other = new File(VOLUME, "videos");
+		mManager.setUploadState(ALL_UPLOADED).addCaptureDirectory(other);
+		File oldest = mFileSystem.add(other, "a.mp4", 4000, 1);
+		mFileSystem.add(DIR, "b.jpg", 4000, 2);
+		File third = mFileSystem.add(DIR, "c.jpg", 1500, 3);
+		mManager.sync();
+
+		assertEquals(1, mManager.onFileWritten(third, 0));
+		assertFalse(mFileSystem.exists(oldest));
+		assertEquals(4500, mManager.getAvailableBytes());
+	}
+
+	@Test
+	public void eviction_deletesThumbnailsAndNotifiesTheListener() throws Exception {
+		final List<File> evicted = new ArrayList<File>();
+		mManager.setQuota(DIR, 1500).setUploadState(ALL_UPLOADED).setEvictionListener(new StorageBudgetManager.EvictionListener() {
+			@Override
+			public void onEvicted(File file) {
+				evicted.add(file);
+			}
+		});
+		File first = mFileSystem.add(DIR, "a.jpg", 1000, 1);
+		File thumbnail = mFileSystem.add(new File(DIR, ThumbnailJobHandler.THUMBNAIL_DIR), "a.jpg", 50, 1);
+		File second = mFileSystem.add(DIR, "b.jpg", 1000, 2);
+
+		assertEquals(1, mManager.onFileWritten(second, 1000));
+		assertFalse(mFileSystem.exists(first));
+		assertFalse(mFileSystem.exists(thumbnail));
+		assertEquals(Collections.singletonList(first), evicted);
+	}
+
+	@Test
+	public void reservations_countAsUsed() throws Exception {
+		File recording = new File(DIR, "VID_1.mp4");
+		assertTrue(mManager.reserve(recording, 6000));
+		assertFalse(mManager.hasSpaceFor(3001));
+		assertFalse(mManager.reserve(new File(DIR, "VID_2.mp4"), 3001));
+		// Reserving again replaces the reservation.
+		assertTrue(mManager.reserve(recording, 5000));
+		assertEquals(5000, mManager.getReservedBytes());
+
+		mManager.onFileWritten(mFileSystem.add(DIR, "VID_1.mp4", 2000, 1), 2000);
+		assertEquals(0, mManager.getReservedBytes());
+		assertTrue(mManager.hasSpaceFor(7000));
+	}
+
+	@Test
+	public void reservations_evictToKeepTheMinimumFree() throws Exception {
+		mManager.setUploadState(ALL_UPLOADED);
+		File old = mFileSystem.add(DIR, "a.jpg", 3000, 1);
+		mManager.sync();
+		assertTrue(mManager.reserve(new File(DIR, "VID_1.mp4"), 5500));
+
+		// Fits the free space, but not next to the recording.
+		assertEquals(1, mManager.onFileWritten(mFileSystem.add(DIR, "b.jpg", 1000, 2), 1000));
+		assertFalse(mFileSystem.exists(old));
+		assertEquals(0, mManager.enforce());
+	}
+
+	@Test
+	public void capturesNotUploaded_areKept() throws Exception {
+		mManager.setQuota(DIR, 1000);
+		File file = mFileSystem.add(DIR, "a.jpg", 3000, 1);
+		assertEquals(0, mManager.onFileWritten(file, 3000));
+		assertTrue(mFileSystem.exists(file));
+	}
+}
@@ -0,0 +1,56 @@
+package com.pk.util.procam;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VideoProfileSelectorTest {
+
+	private static final int MBIT = 1000 * 1000;
+
+	private static final VideoProfile P1080 = new VideoProfile(1920, 1080, 30, 17 * MBIT, 128000);
+	private static final VideoProfile P720 = new VideoProfile(1280, 720, 30, 12 * MBIT, 128000);
+	private static final VideoProfile P480 = new VideoProfile(720, 480, 30, 3 * MBIT, 128000);
+
+	private final VideoProfileSelector mSelector = new VideoProfileSelector(Arrays.asList(P480, P1080, P720));
+
+	@Test
+	public void noLimits_selectsLargestProfile() throws Exception {
+		assertSame(P1080, mSelector.select(-1, 0, 0));
+	}
+
+	@Test
+	public void slowStorage_dropsResolution() throws Exception {
+		// 2 MB/s card: half of it is 8 Mbit/s for the recording.
+		VideoProfile profile = mSelector.select(2 * 1000 * 1000, 0, 0);
+		assertEquals(1280, profile.width);
+		assertEquals(8 * MBIT - 128000, profile.videoBitRate);
+	}
+
+	@Test
+	public void verySlowStorage_keepsSmallestProfileAtReducedBitRate() throws Exception {
+		VideoProfile profile = mSelector.select(50 * 1000, 0, 0);
+		assertEquals(720, profile.width);
+		assertEquals(VideoProfileSelector.MIN_VIDEO_BIT_RATE, profile.videoBitRate);
+	}
+
+	@Test
+	public void fileSizeBudget_limitsBitRate() throws Exception {
+		// 200 MB over 90 s is about 17.8 Mbit/s.
+		assertSame(P1080, mSelector.select(-1, 200L * 1000 * 1000, 90 * 1000));
+		// 50 MB over 90 s is about 4.4 Mbit/s.
+		VideoProfile profile = mSelector.select(-1, 50L * 1000 * 1000, 90 * 1000);
+		assertSame(P480, profile);
+	}
+
+	@Test
+	public void recording_fitsWriteBudget() throws Exception {
+		for (long throughput = 200 * 1000; throughput < 20 * 1000 * 1000; throughput += 150 * 1000) {
+			VideoProfile profile = mSelector.select(throughput, 0, 0);
+			assertTrue(profile.getBytesPerSecond() <= Math.max(throughput * VideoProfileSelector.WRITE_HEADROOM,
+					(VideoProfileSelector.MIN_VIDEO_BIT_RATE + profile.audioBitRate) / 8));
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package com.pk.util.procam;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VideoStorageReservationTest {
+
+	/** Capacity of the stand-in volume. */
+	private static final long CAPACITY = 4 * 1024 * 1024;
+
+	private File mDir;
+
+	private File mFile;
+
+	private FakeStorageFileSystem mFileSystem;
+
+	private StorageBudgetManager mBudget;
+
+	/**
+	 * Stands in for a small volume: allocations past its capacity fail with ENOSPC, others
+	 * extend the file the way posix_fallocate does.
+	 */
+	private final VideoStorageReservation.Preallocator mLimitedVolume = new VideoStorageReservation.Preallocator() {
+		@Override
+		public boolean preallocate(RandomAccessFile file, long bytes) throws InsufficientStorageException {
+			if (bytes > CAPACITY - mFileSystem.usedBytes()) {
+				throw new InsufficientStorageException(bytes, -1);
+			}
+			try {
+				file.setLength(bytes);
+			} catch (IOException e) {
+				return false;
+			}
+			return true;
+		}
+	};
+
+	private static final VideoStorageReservation.Preallocator NO_PREALLOCATION = new VideoStorageReservation.Preallocator() {
+		@Override
+		public boolean preallocate(RandomAccessFile file, long bytes) {
+			return false;
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("reservation", "");
+		mDir.delete();
+		assertTrue(mDir.mkdir());
+		mFile = new File(mDir, "VID_1.mp4");
+		mFileSystem = new FakeStorageFileSystem(CAPACITY);
+		mBudget = new StorageBudgetManager(mDir, mFileSystem, new FakeClock(0)).setMinFreeBytes(512 * 1024);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		mFile.delete();
+		mDir.delete();
+	}
+
+	@Test
+	public void projectSize_isBitRateTimesDurationCappedBySize() throws Exception {
+		// 1 Mbit/s for 8 s is 1 MB of media plus container overhead.
+		assertEquals(1020000, VideoStorageReservation.projectSize(900000, 100000, 8000, 0));
+		assertEquals(500000, VideoStorageReservation.projectSize(900000, 100000, 8000, 500000));
+		assertEquals(500000, VideoStorageReservation.projectSize(900000, 100000, 0, 500000));
+		// Unlimited recordings reserve a minute.
+		assertEquals(7650000, VideoStorageReservation.projectSize(900000, 100000, 0, 0));
+	}
+
+	@Test
+	public void reserve_failsFastWhenBudgetIsShort() throws Exception {
+		mFileSystem.add(mDir, "other.mp4", 3 * 1024 * 1024, 1);
+		try {
+			VideoStorageReservation.reserve(mFile, 1024 * 1024, mBudget, mLimitedVolume);
+			fail();
+		} catch (InsufficientStorageException e) {
+			assertEquals(1024 * 1024, e.getRequiredBytes());
+			assertEquals(512 * 1024, e.getAvailableBytes());
+		}
+		assertFalse(mFile.exists());
+	}
+
+	@Test
+	public void reserve_failsWhenAllocationRunsOutOfSpace() throws Exception {
+		// The budget is only an estimate, the allocation itself can still fail.
+		try {
+			VideoStorageReservation.reserve(mFile, 1024, mBudget, new VideoStorageReservation.Preallocator() {
+				@Override
+				public boolean preallocate(RandomAccessFile file, long bytes) throws InsufficientStorageException {
+					throw new InsufficientStorageException(bytes, -1);
+				}
+			});
+			fail();
+		} catch (InsufficientStorageException e) {
+			assertEquals(-1, e.getAvailableBytes());
+		}
+		assertFalse(mFile.exists());
+		assertEquals(0, mBudget.getReservedBytes());
+	}
+
+	@Test
+	public void reserve_holdsSpaceUntilTheRecordingIsWritten() throws Exception {
+		File other = new File(mDir, "VID_2.mp4");
+		try {
+			VideoStorageReservation.reserve(mFile, 2 * 1024 * 1024, mBudget, NO_PREALLOCATION).close();
+			assertEquals(2 * 1024 * 1024, mBudget.getReservedBytes());
+			try {
+				VideoStorageReservation.reserve(other, 2 * 1024 * 1024, mBudget, NO_PREALLOCATION);
+				fail();
+			} catch (InsufficientStorageException e) {
+				assertEquals(1536 * 1024, e.getAvailableBytes());
+			}
+
+			// The recording ended up smaller than reserved.
+			mBudget.onFileWritten(mFile, 1024 * 1024);
+			assertEquals(0, mBudget.getReservedBytes());
+			VideoStorageReservation.reserve(other, 2 * 1024 * 1024, mBudget, NO_PREALLOCATION).close();
+		} finally {
+			other.delete();
+		}
+	}
+
+	@Test
+	public void reserve_preallocatesAndRecordingIsTrimmed() throws Exception {
+		VideoStorageReservation reservation = VideoStorageReservation.reserve(mFile, 1024 * 1024, mBudget, mLimitedVolume);
+		assertTrue(reservation.isPreallocated());
+		assertEquals(1024 * 1024, mFile.length());
+
+		// What the recorder writes through the descriptor: ftyp, mdat, moov.
+		FileOutputStream out = new FileOutputStream(reservation.getFileDescriptor());
+		DataOutputStream data = new DataOutputStream(out);
+		writeBox(data, "ftyp", 24);
+		writeBox(data, "mdat", 5000);
+		writeBox(data, "moov", 300);
+		data.flush();
+		reservation.close();
+
+		assertEquals(5324, VideoStorageReservation.trimToContent(mFile));
+		assertEquals(5324, mFile.length());
+		// Trimming again changes nothing.
+		assertEquals(5324, VideoStorageReservation.trimToContent(mFile));
+	}
+
+	@Test
+	public void reserveInPlace_keepsWhatTheRecorderWrote() throws Exception {
+		// A recorder prepared ahead of time has opened the file and written its header.
+		RandomAccessFile recorder = new RandomAccessFile(mFile, "rw");
+		DataOutputStream data = new DataOutputStream(new FileOutputStream(recorder.getFD()));
+		writeBox(data, "ftyp", 24);
+		data.flush();
+
+		VideoStorageReservation.reserveInPlace(mFile, 1024 * 1024, mBudget, mLimitedVolume).close();
+		assertEquals(1024 * 1024, mFile.length());
+
+		// The recorder's descriptor still works after the reservation is closed.
+		writeBox(data, "mdat", 5000);
+		writeBox(data, "moov", 300);
+		data.flush();
+		recorder.close();
+		assertEquals(5324, VideoStorageReservation.trimToContent(mFile));
+	}
+
+	@Test
+	public void trimToContent_handlesLargeBoxes() throws Exception {
+		DataOutputStream data = new DataOutputStream(new FileOutputStream(mFile));
+		writeBox(data, "ftyp", 24);
+		data.writeInt(1);
+		data.writeBytes("mdat");
+		data.writeLong(16 + 100);
+		data.write(new byte[100]);
+		data.write(new byte[4000]);
+		data.close();
+
+		assertEquals(24 + 116, VideoStorageReservation.trimToContent(mFile));
+	}
+
+	@Test
+	public void trimToContent_keepsFilesWithoutAllocatedTail() throws Exception {
+		DataOutputStream data = new DataOutputStream(new FileOutputStream(mFile));
+		writeBox(data, "ftyp", 24);
+		// A recording cut short leaves mdat with size 0, meaning it runs to the end.
+		data.writeInt(0);
+		data.writeBytes("mdat");
+		data.write(new byte[3000]);
+		data.close();
+
+		assertEquals(24 + 3008, VideoStorageReservation.trimToContent(mFile));
+	}
+
+	private static void writeBox(DataOutputStream out, String type, int size) throws IOException {
+		out.writeInt(size);
+		out.writeBytes(type);
+		byte[] payload = new byte[size - 8];
+		Arrays.fill(payload, (byte) 1);
+		out.write(payload);
+	}
+}